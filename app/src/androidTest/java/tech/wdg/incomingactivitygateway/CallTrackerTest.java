@@ -0,0 +1,156 @@
+package tech.wdg.incomingactivitygateway;
+
+import android.telephony.TelephonyManager;
+
+import androidx.test.ext.junit.runners.AndroidJUnit4;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+
+@RunWith(AndroidJUnit4.class)
+public class CallTrackerTest {
+
+    private static final int RINGING = TelephonyManager.CALL_STATE_RINGING;
+    private static final int OFFHOOK = TelephonyManager.CALL_STATE_OFFHOOK;
+    private static final int IDLE = TelephonyManager.CALL_STATE_IDLE;
+
+    private static final int LISTENER = CallTracker.SOURCE_LISTENER;
+    private static final int BROADCAST = CallTracker.SOURCE_BROADCAST;
+
+    private static final String NUMBER = "+16505551111";
+
+    private final CallTracker.Calls calls = new CallTracker.Calls();
+
+    @Test
+    public void testAnsweredCallEnded() {
+        assertNull(calls.onState(RINGING, NUMBER, 0, LISTENER, 1_000));
+        assertNull(calls.onState(OFFHOOK, null, -1, LISTENER, 3_000));
+        CallTracker.Call call = calls.onState(IDLE, null, -1, LISTENER, 13_000);
+
+        assertNotNull(call);
+        assertEquals(ForwardingConfig.CallStatus.ENDED, call.status);
+        assertEquals(10, call.durationSeconds);
+        assertEquals(1_000, call.ringingAt);
+        assertEquals(NUMBER, call.number);
+        assertEquals(0, call.slotId);
+    }
+
+    @Test
+    public void testUnansweredCallMissed() {
+        calls.onState(RINGING, NUMBER, -1, LISTENER, 1_000);
+        CallTracker.Call call = calls.onState(IDLE, null, -1, LISTENER, 5_000);
+
+        assertEquals(ForwardingConfig.CallStatus.MISSED, call.status);
+        assertEquals(0, call.durationSeconds);
+    }
+
+    @Test
+    public void testRingingTakenOnceNumberKnown() {
+        calls.onState(RINGING, null, -1, LISTENER, 1_000);
+        // Nothing to forward without the caller's number
+        assertNull(calls.takeRinging());
+
+        calls.onState(RINGING, NUMBER, 0, BROADCAST, 1_050);
+        CallTracker.Call call = calls.takeRinging();
+        assertNotNull(call);
+        assertEquals(ForwardingConfig.CallStatus.RINGING, call.status);
+        assertEquals(NUMBER, call.number);
+        assertEquals(1_000, call.ringingAt);
+        assertNull(calls.takeRinging());
+
+        // The same call still ends with its own event
+        assertSame(call, calls.onState(IDLE, null, -1, LISTENER, 5_000));
+        assertEquals(ForwardingConfig.CallStatus.MISSED, call.status);
+    }
+
+    @Test
+    public void testAnsweredBeforeNumberKnownNotRinging() {
+        calls.onState(RINGING, null, -1, LISTENER, 1_000);
+        calls.onState(OFFHOOK, NUMBER, -1, LISTENER, 2_000);
+        assertNull(calls.takeRinging());
+    }
+
+    @Test
+    public void testOutgoingCallNotTracked() {
+        assertNull(calls.onState(OFFHOOK, NUMBER, -1, LISTENER, 1_000));
+        assertNull(calls.onState(IDLE, null, -1, LISTENER, 5_000));
+    }
+
+    @Test
+    public void testSourcesMergedIntoOneCall() {
+        calls.onState(RINGING, null, -1, LISTENER, 1_000);
+        // The broadcast brings the number and slot
+        calls.onState(RINGING, NUMBER, 1, BROADCAST, 1_050);
+        calls.onState(OFFHOOK, null, -1, LISTENER, 2_000);
+        calls.onState(OFFHOOK, null, 1, BROADCAST, 2_050);
+        CallTracker.Call call = calls.onState(IDLE, null, -1, LISTENER, 4_000);
+
+        assertEquals(NUMBER, call.number);
+        assertEquals(1, call.slotId);
+        assertEquals(ForwardingConfig.CallStatus.ENDED, call.status);
+        assertNull(calls.onState(IDLE, null, 1, BROADCAST, 4_050));
+    }
+
+    @Test
+    public void testLateBroadcastDoesNotStartSecondCall() {
+        calls.onState(RINGING, NUMBER, -1, LISTENER, 1_000);
+        CallTracker.Call call = calls.onState(IDLE, null, -1, LISTENER, 5_000);
+        assertNotNull(call);
+
+        // The broadcast for the same call only arrives once the listener ended it
+        assertNull(calls.onState(RINGING, NUMBER, 0, BROADCAST, 5_100));
+        assertNull(calls.onState(IDLE, NUMBER, 0, BROADCAST, 5_200));
+        assertEquals(0, call.slotId);
+    }
+
+    @Test
+    public void testNextCallAfterLateBroadcastTracked() {
+        calls.onState(RINGING, NUMBER, -1, LISTENER, 1_000);
+        calls.onState(IDLE, null, -1, LISTENER, 5_000);
+        calls.onState(RINGING, NUMBER, 0, BROADCAST, 5_100);
+        calls.onState(IDLE, NUMBER, 0, BROADCAST, 5_200);
+
+        // A callback from the same number is a new call for both sources
+        calls.onState(RINGING, NUMBER, -1, LISTENER, 8_000);
+        calls.onState(RINGING, NUMBER, 0, BROADCAST, 8_050);
+        CallTracker.Call call = calls.onState(IDLE, null, -1, BROADCAST, 9_000);
+
+        assertNotNull(call);
+        assertEquals(8_000, call.ringingAt);
+        assertNull(calls.onState(IDLE, null, -1, LISTENER, 9_050));
+    }
+
+    @Test
+    public void testSourceThatMissedIdleStartsNextCall() {
+        calls.onState(RINGING, NUMBER, -1, LISTENER, 1_000);
+        calls.onState(RINGING, NUMBER, 0, BROADCAST, 1_050);
+        CallTracker.Call first = calls.onState(IDLE, null, -1, LISTENER, 5_000);
+        // No IDLE broadcast for the first call
+
+        calls.onState(RINGING, NUMBER, 0, BROADCAST, 8_000);
+        CallTracker.Call second = calls.onState(IDLE, null, 0, BROADCAST, 9_000);
+
+        assertNotNull(second);
+        assertEquals(8_000, second.ringingAt);
+        assertEquals(ForwardingConfig.CallStatus.MISSED, first.status);
+    }
+
+    @Test
+    public void testLateSourceOnlyMatchedWithinWindow() {
+        calls.onState(RINGING, NUMBER, -1, LISTENER, 1_000);
+        CallTracker.Call first = calls.onState(IDLE, null, -1, LISTENER, 5_000);
+
+        long later = 5_000 + CallTracker.MATCH_WINDOW_MS;
+        calls.onState(RINGING, NUMBER, 0, BROADCAST, later);
+        CallTracker.Call second = calls.onState(IDLE, null, 0, BROADCAST, later + 1_000);
+
+        assertNotNull(second);
+        assertEquals(later, second.ringingAt);
+        assertSame(ForwardingConfig.CallStatus.MISSED, first.status);
+    }
+}
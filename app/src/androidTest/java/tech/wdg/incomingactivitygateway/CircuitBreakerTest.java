@@ -0,0 +1,31 @@
+package tech.wdg.incomingactivitygateway;
+
+import androidx.test.ext.junit.runners.AndroidJUnit4;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import static org.hamcrest.Matchers.is;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertThat;
+import static org.junit.Assert.assertTrue;
+
+@RunWith(AndroidJUnit4.class)
+public class CircuitBreakerTest {
+
+    @Test
+    public void testOpensAfterFailures() {
+        CircuitBreaker breaker = CircuitBreaker.forUrl("http://breaker-test.invalid/hook");
+
+        for (int i = 0; i < CircuitBreaker.FAILURE_THRESHOLD; i++) {
+            assertTrue(breaker.allowRequest());
+            breaker.onResult(Request.RESULT_RETRY);
+        }
+
+        // Open: deliveries are held back until the probe time
+        assertThat(breaker.getStatus().state, is(CircuitBreaker.State.OPEN));
+        assertFalse(breaker.allowRequest());
+        assertTrue(breaker.getRetryAt() > System.currentTimeMillis());
+        assertFalse(CircuitBreaker.tripped().isEmpty());
+    }
+}
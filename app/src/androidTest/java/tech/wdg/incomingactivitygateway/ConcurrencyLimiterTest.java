@@ -0,0 +1,42 @@
+package tech.wdg.incomingactivitygateway;
+
+import androidx.test.ext.junit.runners.AndroidJUnit4;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.util.concurrent.TimeUnit;
+
+import static org.hamcrest.Matchers.is;
+import static org.junit.Assert.assertThat;
+import static org.junit.Assert.assertTrue;
+
+@RunWith(AndroidJUnit4.class)
+public class ConcurrencyLimiterTest {
+
+    @Test
+    public void testLimitAdapts() {
+        ConcurrencyLimiter limiter = ConcurrencyLimiter.forUrl("http://limiter-test.invalid/hook");
+        int initial = limiter.getLimit();
+
+        // Fast answers with the window full grow the limit
+        for (int round = 0; round < 50; round++) {
+            int taken = 0;
+            while (limiter.tryAcquire()) {
+                taken++;
+            }
+            assertThat(taken, is(limiter.getLimit()));
+            for (int i = 0; i < taken; i++) {
+                limiter.release(Request.RESULT_SUCCESS, TimeUnit.MILLISECONDS.toNanos(5));
+            }
+        }
+        int grown = limiter.getLimit();
+        assertTrue(grown > initial);
+
+        // A retryable failure shrinks it and frees the slot
+        assertTrue(limiter.tryAcquire());
+        limiter.release(Request.RESULT_RETRY, TimeUnit.MILLISECONDS.toNanos(5));
+        assertTrue(limiter.getLimit() < grown);
+        assertThat(limiter.getInFlight(), is(0));
+    }
+}
@@ -0,0 +1,69 @@
+package tech.wdg.incomingactivitygateway;
+
+import android.Manifest;
+import android.content.Context;
+
+import androidx.test.ext.junit.runners.AndroidJUnit4;
+import androidx.test.platform.app.InstrumentationRegistry;
+import androidx.test.rule.GrantPermissionRule;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+@RunWith(AndroidJUnit4.class)
+public class ContactCacheTest {
+
+    // Not expected to be in the test device's address book
+    private static final String UNKNOWN_NUMBER = "+15550100999";
+
+    @Rule
+    public GrantPermissionRule permissionRule = GrantPermissionRule.grant(Manifest.permission.READ_CONTACTS);
+
+    Context appContext = InstrumentationRegistry.getInstrumentation().getTargetContext();
+
+    @Test
+    public void testNumberFormatsShareEntry() {
+        assertEquals(ContactCache.normalize("+15550100999"), ContactCache.normalize("+1 (555) 010-0999"));
+        assertEquals(ContactCache.normalize("5550100999"), ContactCache.normalize("555-010-0999"));
+    }
+
+    @Test
+    public void testMissingContactCached() {
+        ContactCache cache = ContactCache.getInstance(appContext);
+        cache.invalidate();
+
+        assertFalse(cache.isCached(UNKNOWN_NUMBER));
+        assertNull(cache.getName(UNKNOWN_NUMBER));
+        // The next call from the same number, however it is formatted, needs no query
+        assertTrue(cache.isCached("+1 555 010 0999"));
+        assertNull(cache.getName("+1 555 010 0999"));
+    }
+
+    @Test
+    public void testInvalidateDropsLookups() {
+        ContactCache cache = ContactCache.getInstance(appContext);
+        cache.getName(UNKNOWN_NUMBER);
+        assertTrue(cache.isCached(UNKNOWN_NUMBER));
+
+        cache.invalidate();
+
+        assertFalse(cache.isCached(UNKNOWN_NUMBER));
+        assertNull(cache.getName(UNKNOWN_NUMBER));
+        assertTrue(cache.isCached(UNKNOWN_NUMBER));
+    }
+
+    @Test
+    public void testEmptyNumberNotLookedUp() {
+        ContactCache cache = ContactCache.getInstance(appContext);
+
+        assertNull(cache.getName(null));
+        assertNull(cache.getName(""));
+        assertFalse(cache.isCached(""));
+    }
+}
@@ -0,0 +1,116 @@
+package tech.wdg.incomingactivitygateway;
+
+import android.content.Context;
+
+import androidx.test.ext.junit.runners.AndroidJUnit4;
+import androidx.test.platform.app.InstrumentationRegistry;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.UUID;
+
+import okhttp3.mockwebserver.MockResponse;
+import okhttp3.mockwebserver.MockWebServer;
+
+import static org.hamcrest.Matchers.is;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertThat;
+
+@RunWith(AndroidJUnit4.class)
+public class EventHistoryTest {
+
+    // Both the dispatcher and the history writer run in the background
+    private static final long SETTLE_TIMEOUT_MS = 10_000;
+
+    Context appContext = InstrumentationRegistry.getInstrumentation().getTargetContext();
+
+    @Test
+    public void testDeliveryRecordedInHistory() throws Exception {
+        MockWebServer server = new MockWebServer();
+        server.enqueue(new MockResponse().setBody("ok"));
+        server.start();
+
+        try {
+            OutboxEntry entry = this.entry("history-test", UUID.randomUUID().toString(), server.url("/hook").toString());
+            Outbox.getInstance(appContext).enqueue(entry);
+
+            List<EventHistory.Record> records = this.awaitSettled("history-test", entry.eventId, 1);
+
+            assertThat(records.size(), is(1));
+            EventHistory.Record record = records.get(0);
+            assertThat(record.status, is(EventHistory.Status.DELIVERED));
+            assertThat(record.activityType, is(ForwardingConfig.ActivityType.SMS));
+            assertThat(record.attempts, is(1));
+            assertThat(record.outboxId, is(entry.id));
+        } finally {
+            server.shutdown();
+        }
+    }
+
+    @Test
+    public void testOutcomesKeptApartForSameEvent() throws Exception {
+        MockWebServer server = new MockWebServer();
+        server.enqueue(new MockResponse().setBody("ok"));
+        // Permanent failure, not retried
+        server.enqueue(new MockResponse().setResponseCode(400));
+        server.start();
+
+        try {
+            // The same event queued twice for one rule, e.g. after a duplicate broadcast
+            String eventId = UUID.randomUUID().toString();
+            String url = server.url("/hook").toString();
+            Outbox.getInstance(appContext).enqueue(this.entry("history-same-event", eventId, url));
+            Outbox.getInstance(appContext).enqueue(this.entry("history-same-event", eventId, url));
+
+            Set<EventHistory.Status> statuses = new HashSet<>();
+            for (EventHistory.Record record : this.awaitSettled("history-same-event", eventId, 2)) {
+                statuses.add(record.status);
+            }
+
+            assertEquals(new HashSet<>(Arrays.asList(EventHistory.Status.DELIVERED, EventHistory.Status.FAILED)), statuses);
+        } finally {
+            server.shutdown();
+        }
+    }
+
+    private OutboxEntry entry(String ruleKey, String eventId, String url) {
+        OutboxEntry entry = new OutboxEntry();
+        entry.ruleKey = ruleKey;
+        entry.activityType = ForwardingConfig.ActivityType.SMS;
+        entry.sender = "+16505551111";
+        entry.eventId = eventId;
+        entry.url = url;
+        entry.payload = "{}".getBytes(StandardCharsets.UTF_8);
+        entry.maxRetries = 1;
+        entry.createdAt = System.currentTimeMillis();
+        entry.nextAttemptAt = entry.createdAt;
+        return entry;
+    }
+
+    /**
+     * Records of the event, once count of them are no longer queued
+     */
+    private List<EventHistory.Record> awaitSettled(String ruleKey, String eventId, int count)
+            throws InterruptedException {
+        EventHistory.Filter filter = new EventHistory.Filter().rule(ruleKey);
+        List<EventHistory.Record> settled = new ArrayList<>();
+        long deadline = System.currentTimeMillis() + SETTLE_TIMEOUT_MS;
+        while (settled.size() < count && System.currentTimeMillis() < deadline) {
+            Thread.sleep(100);
+            settled.clear();
+            for (EventHistory.Record record : EventHistory.getInstance(appContext).page(filter, Long.MAX_VALUE, 10)) {
+                if (eventId.equals(record.eventId) && record.status != EventHistory.Status.QUEUED) {
+                    settled.add(record);
+                }
+            }
+        }
+        return settled;
+    }
+}
@@ -0,0 +1,51 @@
+package tech.wdg.incomingactivitygateway;
+
+import androidx.test.ext.junit.runners.AndroidJUnit4;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import okhttp3.mockwebserver.MockResponse;
+import okhttp3.mockwebserver.MockWebServer;
+
+import static org.hamcrest.Matchers.is;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotEquals;
+import static org.junit.Assert.assertThat;
+
+@RunWith(AndroidJUnit4.class)
+public class EventIdTest {
+
+    @Test
+    public void testIdempotencyKeyIsStableAcrossRetries() throws Exception {
+        String eventId = EventId.of("rule_1", ForwardingConfig.ActivityType.SMS, "+15550001", "hello", 1000L);
+        assertEquals(eventId, EventId.of("rule_1", ForwardingConfig.ActivityType.SMS, "+15550001", "hello", 1000L));
+        assertNotEquals(eventId, EventId.of("rule_2", ForwardingConfig.ActivityType.SMS, "+15550001", "hello", 1000L));
+
+        String payload = MessageTemplate.compile("{\"id\":\"%eventId%\"}")
+                .render(new MessageTemplate.Values().set(MessageTemplate.Field.EVENT_ID, eventId));
+        assertThat(payload, is("{\"id\":\"" + eventId + "\"}"));
+
+        MockWebServer server = new MockWebServer();
+        server.enqueue(new MockResponse().setResponseCode(503));
+        server.enqueue(new MockResponse().setBody("ok"));
+        server.start();
+
+        try {
+            String url = server.url("/hook").toString();
+            String[] results = new String[2];
+            for (int i = 0; i < results.length; i++) {
+                Request request = new Request(url, payload);
+                request.setIdempotencyKey(eventId);
+                results[i] = request.execute();
+            }
+            assertThat(results[0], is(Request.RESULT_RETRY));
+            assertThat(results[1], is(Request.RESULT_SUCCESS));
+
+            assertThat(server.takeRequest().getHeader(EventId.HEADER), is(eventId));
+            assertThat(server.takeRequest().getHeader(EventId.HEADER), is(eventId));
+        } finally {
+            server.shutdown();
+        }
+    }
+}
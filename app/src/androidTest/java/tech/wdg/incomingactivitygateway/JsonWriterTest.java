@@ -0,0 +1,109 @@
+package tech.wdg.incomingactivitygateway;
+
+import androidx.test.ext.junit.runners.AndroidJUnit4;
+
+import org.json.JSONArray;
+import org.json.JSONObject;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import static org.junit.Assert.assertEquals;
+
+@RunWith(AndroidJUnit4.class)
+public class JsonWriterTest {
+
+    @Test
+    public void testObjectsAndArrays() {
+        String json = JsonWriter.obtain()
+                .beginObject()
+                .field("from", "+16505551111")
+                .field("count", 3)
+                .field("on", true)
+                .name("parts").beginArray().value("a").value(2).beginObject().endObject().endArray()
+                .name("empty").beginArray().endArray()
+                .endObject()
+                .finish();
+
+        assertEquals("{\"from\":\"+16505551111\",\"count\":3,\"on\":true,\"parts\":[\"a\",2,{}],\"empty\":[]}", json);
+    }
+
+    @Test
+    public void testStringsEscaped() throws Exception {
+        String text = "quote \" backslash \\ newline \n tab \t control \u0001 ü 😀";
+        String json = JsonWriter.obtain().beginObject().field("text", text).endObject().finish();
+
+        assertEquals("{\"text\":\"quote \\\" backslash \\\\ newline \\n tab \\t control \\u0001 ü 😀\"}", json);
+        assertEquals(text, new JSONObject(json).getString("text"));
+    }
+
+    @Test
+    public void testNumbersLikeOrgJson() {
+        String json = JsonWriter.obtain()
+                .beginArray()
+                .value(1.0)
+                .value(1.5)
+                .value(-0.25)
+                .value(Double.NaN)
+                .value(Long.MAX_VALUE)
+                .endArray()
+                .finish();
+
+        assertEquals("[1,1.5,-0.25,null," + Long.MAX_VALUE + "]", json);
+    }
+
+    @Test
+    public void testNullFieldsSkipped() {
+        String json = JsonWriter.obtain()
+                .beginObject()
+                .field("a", (Object) null)
+                .field("b", "x")
+                .name("c").value((String) null)
+                .endObject()
+                .finish();
+
+        // A null field is left out as JSONObject.put does; a null value is written
+        assertEquals("{\"b\":\"x\",\"c\":null}", json);
+    }
+
+    @Test
+    public void testOrgJsonValuesWrittenInPlace() throws Exception {
+        JSONObject device = new JSONObject();
+        device.put("model", "Pixel");
+        device.put("battery", 87);
+        device.put("tags", new JSONArray(Arrays.asList("a", "b")));
+        device.put("none", JSONObject.NULL);
+        Map<String, Object> extra = new LinkedHashMap<>();
+        extra.put("level", 0.5);
+        extra.put("skipped", null);
+
+        String json = JsonWriter.obtain()
+                .beginObject()
+                .field("device", device)
+                .field("extra", extra)
+                .field("list", Arrays.asList(1, "two", false))
+                .endObject()
+                .finish();
+
+        JSONObject parsed = new JSONObject(json);
+        assertEquals(device.toString(), parsed.getJSONObject("device").toString());
+        assertEquals("{\"level\":0.5}", parsed.getJSONObject("extra").toString());
+        assertEquals("[1,\"two\",false]", parsed.getJSONArray("list").toString());
+    }
+
+    @Test
+    public void testNestedDocuments() {
+        JsonWriter outer = JsonWriter.obtain().beginObject().name("inner");
+        // A document built while another is open on the same thread
+        String inner = JsonWriter.obtain().beginObject().field("a", 1).endObject().finish();
+        String json = outer.value(inner).endObject().finish();
+
+        assertEquals("{\"a\":1}", inner);
+        assertEquals("{\"inner\":\"{\\\"a\\\":1}\"}", json);
+        // The writer is reused once both are finished
+        assertEquals("[]", JsonWriter.obtain().beginArray().endArray().finish());
+    }
+}
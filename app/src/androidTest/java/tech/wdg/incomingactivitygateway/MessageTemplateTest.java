@@ -0,0 +1,64 @@
+package tech.wdg.incomingactivitygateway;
+
+import androidx.test.ext.junit.runners.AndroidJUnit4;
+
+import org.json.JSONObject;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import static org.junit.Assert.assertEquals;
+
+@RunWith(AndroidJUnit4.class)
+public class MessageTemplateTest {
+
+    @Test
+    public void testPlaceholdersReplaced() {
+        MessageTemplate template = MessageTemplate.compile("{\"from\":\"%from%\",\"text\":\"%text%\",\"sim\":\"%sim%\"}");
+        String rendered = template.render(new MessageTemplate.Values()
+                .set(MessageTemplate.Field.FROM, "+16505551111")
+                .set(MessageTemplate.Field.TEXT, "hello")
+                .set(MessageTemplate.Field.SIM, "sim1"));
+
+        assertEquals("{\"from\":\"+16505551111\",\"text\":\"hello\",\"sim\":\"sim1\"}", rendered);
+    }
+
+    @Test
+    public void testValuesEscaped() throws Exception {
+        String text = "say \"hi\"\\ back\nline\r\ttab\b\f\u0001 \u2028\u2029 ü 😀";
+        MessageTemplate template = MessageTemplate.compile("{\"text\":\"%text%\"}");
+        String rendered = template.render(new MessageTemplate.Values().set(MessageTemplate.Field.TEXT, text));
+
+        assertEquals("{\"text\":\"say \\\"hi\\\"\\\\ back\\nline\\r\\ttab\\b\\f\\u0001 \\u2028\\u2029 ü 😀\"}",
+                rendered);
+        // And a JSON parser reads back the original value
+        assertEquals(text, new JSONObject(rendered).getString("text"));
+    }
+
+    @Test
+    public void testTemplateTextNotEscaped() {
+        MessageTemplate template = MessageTemplate.compile("{\n  \"text\": \"%text%\"\n}");
+        String rendered = template.render(new MessageTemplate.Values().set(MessageTemplate.Field.TEXT, "a\"b"));
+
+        assertEquals("{\n  \"text\": \"a\\\"b\"\n}", rendered);
+    }
+
+    @Test
+    public void testMissingAndUnknownPlaceholdersKept() {
+        // %title% has no value for an SMS; %100% and %foo% are not placeholders
+        MessageTemplate template = MessageTemplate.compile("%100% %title% %foo%text%");
+        String rendered = template.render(new MessageTemplate.Values().set(MessageTemplate.Field.TEXT, "x"));
+
+        assertEquals("%100% %title% %foox", rendered);
+    }
+
+    @Test
+    public void testRenderReusableAcrossEvents() {
+        MessageTemplate template = MessageTemplate.compile("%from%:%duration%");
+
+        assertEquals("a:1", template.render(new MessageTemplate.Values()
+                .set(MessageTemplate.Field.FROM, "a")
+                .set(MessageTemplate.Field.DURATION, 1)));
+        assertEquals("b:%duration%", template.render(new MessageTemplate.Values()
+                .set(MessageTemplate.Field.FROM, "b")));
+    }
+}
@@ -0,0 +1,147 @@
+package tech.wdg.incomingactivitygateway;
+
+import android.content.Context;
+import android.database.Cursor;
+import android.database.sqlite.SQLiteDatabase;
+
+import androidx.test.ext.junit.runners.AndroidJUnit4;
+import androidx.test.platform.app.InstrumentationRegistry;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Collections;
+import java.util.UUID;
+import java.util.concurrent.TimeUnit;
+
+import okhttp3.mockwebserver.MockResponse;
+import okhttp3.mockwebserver.MockWebServer;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+@RunWith(AndroidJUnit4.class)
+public class OutboxTest {
+
+    private static final long SETTLE_TIMEOUT_MS = 10_000;
+    private static final long RETRY_BASE_DELAY_MS = 60_000;
+
+    Context appContext = InstrumentationRegistry.getInstrumentation().getTargetContext();
+
+    @Test
+    public void testEntrySurvivesRestart() {
+        Outbox outbox = Outbox.getInstance(appContext);
+        OutboxEntry entry = this.entry("http://outbox-test.invalid/hook");
+        // Not due, so the dispatcher leaves it alone
+        entry.nextAttemptAt = System.currentTimeMillis() + TimeUnit.HOURS.toMillis(1);
+        long id = outbox.enqueue(entry);
+        assertTrue(id > 0);
+
+        try {
+            // A fresh connection sees what a restarted process would
+            SQLiteDatabase db = SQLiteDatabase.openDatabase(appContext.getDatabasePath("outbox.db").getPath(),
+                    null, SQLiteDatabase.OPEN_READONLY);
+            try (Cursor cursor = db.query(Outbox.TABLE, null, Outbox.COLUMN_ID + " = ?",
+                    new String[]{String.valueOf(id)}, null, null, null)) {
+                assertTrue(cursor.moveToFirst());
+                assertEquals(entry.url, cursor.getString(cursor.getColumnIndexOrThrow(Outbox.COLUMN_URL)));
+                assertEquals(entry.eventId, cursor.getString(cursor.getColumnIndexOrThrow(Outbox.COLUMN_EVENT_ID)));
+                assertArrayEquals(entry.payload, cursor.getBlob(cursor.getColumnIndexOrThrow(Outbox.COLUMN_PAYLOAD)));
+                assertEquals(0, cursor.getInt(cursor.getColumnIndexOrThrow(Outbox.COLUMN_ATTEMPTS)));
+            } finally {
+                db.close();
+            }
+        } finally {
+            outbox.remove(id);
+        }
+    }
+
+    @Test
+    public void testTransientFailureRescheduled() throws Exception {
+        MockWebServer server = new MockWebServer();
+        server.enqueue(new MockResponse().setResponseCode(503));
+        server.start();
+
+        Outbox outbox = Outbox.getInstance(appContext);
+        long start = System.currentTimeMillis();
+        long id = outbox.enqueue(this.entry(server.url("/hook").toString()));
+
+        try {
+            assertNotNull(server.takeRequest(5, TimeUnit.SECONDS));
+            OutboxEntry retry = this.awaitAttempts(outbox, id, 1);
+
+            assertNotNull(retry);
+            // First retry waits between half and all of the base delay
+            assertTrue(retry.nextAttemptAt >= start + RETRY_BASE_DELAY_MS / 2);
+            assertTrue(retry.nextAttemptAt <= System.currentTimeMillis() + RETRY_BASE_DELAY_MS);
+        } finally {
+            outbox.remove(id);
+            server.shutdown();
+        }
+    }
+
+    @Test
+    public void testPermanentFailureDropped() throws Exception {
+        MockWebServer server = new MockWebServer();
+        server.enqueue(new MockResponse().setResponseCode(400));
+        server.start();
+
+        Outbox outbox = Outbox.getInstance(appContext);
+        long id = outbox.enqueue(this.entry(server.url("/hook").toString()));
+
+        try {
+            assertNotNull(server.takeRequest(5, TimeUnit.SECONDS));
+            long deadline = System.currentTimeMillis() + SETTLE_TIMEOUT_MS;
+            while (this.find(outbox, id) != null && System.currentTimeMillis() < deadline) {
+                Thread.sleep(100);
+            }
+
+            assertNull(this.find(outbox, id));
+            assertEquals(1, server.getRequestCount());
+        } finally {
+            server.shutdown();
+        }
+    }
+
+    private OutboxEntry entry(String url) {
+        OutboxEntry entry = new OutboxEntry();
+        entry.ruleKey = "outbox-test";
+        entry.activityType = ForwardingConfig.ActivityType.SMS;
+        entry.sender = "+16505551111";
+        entry.eventId = UUID.randomUUID().toString();
+        entry.url = url;
+        entry.payload = "{\"text\":\"hello\"}".getBytes(StandardCharsets.UTF_8);
+        entry.maxRetries = 3;
+        entry.retryBaseDelayMs = RETRY_BASE_DELAY_MS;
+        entry.retryMaxDelayMs = RETRY_BASE_DELAY_MS * 4;
+        entry.createdAt = System.currentTimeMillis();
+        entry.nextAttemptAt = entry.createdAt;
+        return entry;
+    }
+
+    private OutboxEntry awaitAttempts(Outbox outbox, long id, int attempts) throws InterruptedException {
+        long deadline = System.currentTimeMillis() + SETTLE_TIMEOUT_MS;
+        while (System.currentTimeMillis() < deadline) {
+            OutboxEntry entry = this.find(outbox, id);
+            if (entry != null && entry.attempts >= attempts) {
+                return entry;
+            }
+            Thread.sleep(100);
+        }
+        return null;
+    }
+
+    private OutboxEntry find(Outbox outbox, long id) {
+        for (OutboxEntry entry : outbox.due(Long.MAX_VALUE, Integer.MAX_VALUE,
+                Collections.emptyList(), Collections.emptyList())) {
+            if (entry.id == id) {
+                return entry;
+            }
+        }
+        return null;
+    }
+}
@@ -0,0 +1,95 @@
+package tech.wdg.incomingactivitygateway;
+
+import android.content.Context;
+import android.util.Log;
+
+import androidx.test.ext.junit.runners.AndroidJUnit4;
+import androidx.test.platform.app.InstrumentationRegistry;
+import androidx.work.Configuration;
+import androidx.work.Data;
+import androidx.work.OneTimeWorkRequest;
+import androidx.work.WorkInfo;
+import androidx.work.WorkManager;
+import androidx.work.testing.SynchronousExecutor;
+import androidx.work.testing.WorkManagerTestInitHelper;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Collections;
+
+import static androidx.test.core.app.ApplicationProvider.getApplicationContext;
+import static org.hamcrest.Matchers.is;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertThat;
+import static org.junit.Assert.assertTrue;
+
+@RunWith(AndroidJUnit4.class)
+public class RequestWorkerTest {
+
+    @Before
+    public void setup() {
+        Context context = InstrumentationRegistry.getInstrumentation().getTargetContext();
+        Configuration config = new Configuration.Builder()
+                .setMinimumLoggingLevel(Log.DEBUG)
+                .setExecutor(new SynchronousExecutor())
+                .build();
+
+        WorkManagerTestInitHelper.initializeTestWorkManager(
+                context, config);
+    }
+
+    @Test
+    public void testLegacyJobMovedToOutbox() throws Exception {
+        // Never resolves, so the entry stays queued for a retry
+        String url = "http://legacy-job.invalid/hook";
+        WorkInfo workInfo = this.getWorkInfo(url, "{\"text\":\"hello\"}", "{\"X-Test\":\"1\"}", true);
+        assertThat(workInfo.getState(), is(WorkInfo.State.SUCCEEDED));
+
+        Outbox outbox = Outbox.getInstance(getApplicationContext());
+        OutboxEntry moved = null;
+        for (OutboxEntry entry : outbox.due(Long.MAX_VALUE, Integer.MAX_VALUE,
+                Collections.emptyList(), Collections.emptyList())) {
+            if (url.equals(entry.url)) {
+                moved = entry;
+            }
+        }
+
+        try {
+            assertNotNull(moved);
+            assertThat(new String(moved.payload, StandardCharsets.UTF_8), is("{\"text\":\"hello\"}"));
+            assertThat(moved.headers, is("{\"X-Test\":\"1\"}"));
+            assertTrue(moved.ignoreSsl);
+            assertThat(moved.eventId, is(workInfo.getId().toString()));
+        } finally {
+            if (moved != null) {
+                outbox.remove(moved.id);
+            }
+        }
+    }
+
+    @Test
+    public void testLegacyJobWithBadUrlFails() throws Exception {
+        WorkInfo workInfo = this.getWorkInfo("not a url", "test", "{}", false);
+        assertThat(workInfo.getState(), is(WorkInfo.State.FAILED));
+    }
+
+    private WorkInfo getWorkInfo(String url, String text, String headers, boolean ignoreSsl) throws Exception {
+        Data input = new Data.Builder()
+                .put(RequestWorker.DATA_URL, url)
+                .put(RequestWorker.DATA_TEXT, text)
+                .put(RequestWorker.DATA_HEADERS, headers)
+                .put(RequestWorker.DATA_IGNORE_SSL, ignoreSsl)
+                .build();
+
+        OneTimeWorkRequest request = new OneTimeWorkRequest.Builder(RequestWorker.class)
+                .setInputData(input)
+                .build();
+
+        WorkManager workManager = WorkManager.getInstance(getApplicationContext());
+        workManager.enqueue(request).getResult().get();
+        return workManager.getWorkInfoById(request.getId()).get();
+    }
+}
@@ -0,0 +1,42 @@
+package tech.wdg.incomingactivitygateway;
+
+import androidx.test.ext.junit.runners.AndroidJUnit4;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import okhttp3.mockwebserver.MockResponse;
+import okhttp3.mockwebserver.MockWebServer;
+
+import static org.hamcrest.Matchers.is;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertThat;
+import static org.junit.Assert.assertTrue;
+
+@RunWith(AndroidJUnit4.class)
+public class RetryPolicyTest {
+
+    @Test
+    public void testRetryAfterIsHonored() throws Exception {
+        MockWebServer server = new MockWebServer();
+        server.enqueue(new MockResponse().setResponseCode(400).setBody("bad payload"));
+        server.enqueue(new MockResponse().setResponseCode(429).setHeader("Retry-After", "3"));
+        server.start();
+
+        try {
+            Request rejected = new Request(server.url("/hook").toString(), "{}");
+            assertThat(rejected.execute(), is(Request.RESULT_ERROR));
+
+            Request throttled = new Request(server.url("/hook").toString(), "{}");
+            assertThat(throttled.execute(), is(Request.RESULT_RETRY));
+            assertEquals(3000, throttled.getRetryAfterMs());
+        } finally {
+            server.shutdown();
+        }
+
+        long delay = RetryPolicy.nextDelay(1, 10_000, 60_000, 3000);
+        assertTrue(delay >= 5000 && delay <= 10_000);
+        assertEquals(RetryPolicy.MAX_RETRY_AFTER_MS, RetryPolicy.nextDelay(1, 10_000, 60_000,
+                RetryPolicy.parseRetryAfter("999999", 0)));
+    }
+}
@@ -0,0 +1,158 @@
+package tech.wdg.incomingactivitygateway;
+
+import android.content.Context;
+
+import androidx.test.ext.junit.runners.AndroidJUnit4;
+import androidx.test.platform.app.InstrumentationRegistry;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+@RunWith(AndroidJUnit4.class)
+public class RuleIndexTest {
+
+    private static final String ASTERISK = "*";
+
+    Context appContext = InstrumentationRegistry.getInstrumentation().getTargetContext();
+
+    @Test
+    public void testPhoneNumberMatchesBySuffix() {
+        ForwardingConfig local = this.rule(ForwardingConfig.ActivityType.SMS, "5551111");
+        ForwardingConfig international = this.rule(ForwardingConfig.ActivityType.SMS, "+1 (650) 555-1111");
+        ForwardingConfig other = this.rule(ForwardingConfig.ActivityType.SMS, "5552222");
+        RuleIndex index = RuleIndex.build(Arrays.asList(local, international, other), ASTERISK);
+
+        // A configured number that ends the incoming one, and one the incoming number ends
+        assertEquals(Arrays.asList(local, international),
+                this.match(index, ForwardingConfig.ActivityType.SMS, "+16505551111"));
+        assertEquals(Arrays.asList(local, international),
+                this.match(index, ForwardingConfig.ActivityType.SMS, "1111"));
+        assertEquals(Collections.emptyList(),
+                this.match(index, ForwardingConfig.ActivityType.SMS, "+16505553333"));
+    }
+
+    @Test
+    public void testCommaSeparatedNumbers() {
+        ForwardingConfig config = this.rule(ForwardingConfig.ActivityType.CALL, "5551111, 5552222");
+        RuleIndex index = RuleIndex.build(Collections.singletonList(config), ASTERISK);
+
+        assertEquals(Collections.singletonList(config),
+                this.match(index, ForwardingConfig.ActivityType.CALL, "+15552222"));
+        assertEquals(Collections.singletonList(config),
+                this.match(index, ForwardingConfig.ActivityType.CALL, "5551111"));
+    }
+
+    @Test
+    public void testRulesOnlyMatchTheirActivityType() {
+        ForwardingConfig sms = this.rule(ForwardingConfig.ActivityType.SMS, "5551111");
+        ForwardingConfig call = this.rule(ForwardingConfig.ActivityType.CALL, ASTERISK);
+        RuleIndex index = RuleIndex.build(Arrays.asList(sms, call), ASTERISK);
+
+        assertEquals(Collections.singletonList(sms),
+                this.match(index, ForwardingConfig.ActivityType.SMS, "5551111"));
+        assertEquals(Collections.singletonList(call),
+                this.match(index, ForwardingConfig.ActivityType.CALL, "5551111"));
+        assertEquals(Collections.emptyList(),
+                this.match(index, ForwardingConfig.ActivityType.PUSH, "5551111"));
+    }
+
+    @Test
+    public void testWildcardMatchesEveryEvent() {
+        ForwardingConfig wildcard = this.rule(ForwardingConfig.ActivityType.SMS, ASTERISK);
+        RuleIndex index = RuleIndex.build(Collections.singletonList(wildcard), ASTERISK);
+
+        assertEquals(Collections.singletonList(wildcard),
+                this.match(index, ForwardingConfig.ActivityType.SMS, "+16505551111"));
+        assertEquals(Collections.singletonList(wildcard),
+                this.match(index, ForwardingConfig.ActivityType.SMS, "BANK"));
+    }
+
+    @Test
+    public void testDisabledRulesNotIndexed() {
+        ForwardingConfig config = this.rule(ForwardingConfig.ActivityType.SMS, ASTERISK);
+        config.isOn = false;
+        RuleIndex index = RuleIndex.build(Collections.singletonList(config), ASTERISK);
+
+        assertEquals(Collections.emptyList(),
+                this.match(index, ForwardingConfig.ActivityType.SMS, "+16505551111"));
+    }
+
+    @Test
+    public void testAlphanumericSenderMatchesByName() {
+        ForwardingConfig bank = this.rule(ForwardingConfig.ActivityType.SMS, "BANK");
+        ForwardingConfig number = this.rule(ForwardingConfig.ActivityType.SMS, "5551111");
+        RuleIndex index = RuleIndex.build(Arrays.asList(bank, number), ASTERISK);
+
+        assertEquals(Collections.singletonList(bank),
+                this.match(index, ForwardingConfig.ActivityType.SMS, "bank"));
+        // A sender name is neither every number nor a suffix of one
+        assertEquals(Collections.singletonList(number),
+                this.match(index, ForwardingConfig.ActivityType.SMS, "+16505551111"));
+        assertEquals(Collections.emptyList(),
+                this.match(index, ForwardingConfig.ActivityType.SMS, "BANKING"));
+    }
+
+    @Test
+    public void testPackageMatchesBySubstring() {
+        ForwardingConfig whatsapp = this.rule(ForwardingConfig.ActivityType.PUSH, "whatsapp");
+        ForwardingConfig exact = this.rule(ForwardingConfig.ActivityType.PUSH, "com.whatsapp");
+        ForwardingConfig telegram = this.rule(ForwardingConfig.ActivityType.PUSH, "telegram");
+        RuleIndex index = RuleIndex.build(Arrays.asList(whatsapp, exact, telegram), ASTERISK);
+
+        List<ForwardingConfig> matched = this.match(index, ForwardingConfig.ActivityType.PUSH, "com.whatsapp");
+        assertEquals(2, matched.size());
+        assertTrue(matched.contains(whatsapp));
+        assertTrue(matched.contains(exact));
+        assertEquals(Collections.singletonList(telegram),
+                this.match(index, ForwardingConfig.ActivityType.PUSH, "org.telegram.messenger"));
+        assertEquals(Collections.emptyList(),
+                this.match(index, ForwardingConfig.ActivityType.PUSH, "com.android.mms"));
+    }
+
+    @Test
+    public void testOverlappingPackageNeedles() {
+        // "she" and "he" end at the same character; "hers" needs the failure link from "she"
+        ForwardingConfig he = this.rule(ForwardingConfig.ActivityType.PUSH, "he");
+        ForwardingConfig she = this.rule(ForwardingConfig.ActivityType.PUSH, "she");
+        ForwardingConfig hers = this.rule(ForwardingConfig.ActivityType.PUSH, "hers");
+        ForwardingConfig his = this.rule(ForwardingConfig.ActivityType.PUSH, "his");
+        RuleIndex index = RuleIndex.build(Arrays.asList(he, she, hers, his), ASTERISK);
+
+        List<ForwardingConfig> matched = this.match(index, ForwardingConfig.ActivityType.PUSH, "ushers");
+        assertEquals(3, matched.size());
+        assertTrue(matched.contains(he));
+        assertTrue(matched.contains(she));
+        assertTrue(matched.contains(hers));
+    }
+
+    @Test
+    public void testRuleMatchedOnce() {
+        // Both entries match the incoming number
+        ForwardingConfig config = this.rule(ForwardingConfig.ActivityType.SMS, "5551111,16505551111");
+        RuleIndex index = RuleIndex.build(Collections.singletonList(config), ASTERISK);
+
+        assertEquals(Collections.singletonList(config),
+                this.match(index, ForwardingConfig.ActivityType.SMS, "+16505551111"));
+    }
+
+    private ForwardingConfig rule(ForwardingConfig.ActivityType type, String sender) {
+        ForwardingConfig config = new ForwardingConfig(appContext);
+        config.setActivityType(type);
+        config.setSender(sender);
+        return config;
+    }
+
+    private List<ForwardingConfig> match(RuleIndex index, ForwardingConfig.ActivityType type, String source) {
+        List<ForwardingConfig> out = new ArrayList<>();
+        index.match(type, source, out);
+        return out;
+    }
+}
@@ -0,0 +1,86 @@
+package tech.wdg.incomingactivitygateway;
+
+import android.content.Context;
+import android.content.SharedPreferences;
+
+import androidx.test.ext.junit.runners.AndroidJUnit4;
+import androidx.test.platform.app.InstrumentationRegistry;
+
+import org.junit.After;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotEquals;
+
+@RunWith(AndroidJUnit4.class)
+public class SimSlotsTest {
+
+    // The table is rebuilt on a background thread
+    private static final long REFRESH_TIMEOUT_MS = 5_000;
+
+    Context appContext = InstrumentationRegistry.getInstrumentation().getTargetContext();
+
+    @After
+    public void clearSettings() {
+        this.prefs().edit()
+                .remove(OperatorSettingsActivity.KEY_ENABLE_SIM_INFO)
+                .remove(OperatorSettingsActivity.simNameKey(0))
+                .remove(OperatorSettingsActivity.simNumberKey(0))
+                .commit();
+    }
+
+    @Test
+    public void testSettingsChangeRefreshesTable() throws Exception {
+        SimSlots slots = SimSlots.getInstance(appContext);
+
+        this.prefs().edit()
+                .putBoolean(OperatorSettingsActivity.KEY_ENABLE_SIM_INFO, true)
+                .putString(OperatorSettingsActivity.simNameKey(0), "Work")
+                .putString(OperatorSettingsActivity.simNumberKey(0), "+16505551111")
+                .commit();
+
+        assertEquals("Work", this.awaitName(slots, 0, "Work"));
+        assertEquals("+16505551111", slots.getNumber(0));
+
+        // With SIM info turned off the custom names no longer apply
+        this.prefs().edit().putBoolean(OperatorSettingsActivity.KEY_ENABLE_SIM_INFO, false).commit();
+
+        assertEquals("sim1", this.awaitName(slots, 0, "sim1"));
+        assertEquals("sim1", slots.getNumber(0));
+    }
+
+    @Test
+    public void testRefreshPicksUpCurrentSettings() throws Exception {
+        SimSlots slots = SimSlots.getInstance(appContext);
+
+        this.prefs().edit()
+                .putBoolean(OperatorSettingsActivity.KEY_ENABLE_SIM_INFO, true)
+                .putString(OperatorSettingsActivity.simNameKey(0), "Personal")
+                .commit();
+        slots.refresh();
+
+        assertEquals("Personal", this.awaitName(slots, 0, "Personal"));
+        assertNotEquals("Personal", slots.getName(1));
+    }
+
+    @Test
+    public void testSlotsOutsideTableFallBack() {
+        SimSlots slots = SimSlots.getInstance(appContext);
+
+        assertEquals("sim8", slots.getName(7));
+        assertEquals("sim8", slots.getNumber(7));
+    }
+
+    private SharedPreferences prefs() {
+        return appContext.getSharedPreferences(OperatorSettingsActivity.PREFS_NAME, Context.MODE_PRIVATE);
+    }
+
+    private String awaitName(SimSlots slots, int slot, String expected) throws InterruptedException {
+        long deadline = System.currentTimeMillis() + REFRESH_TIMEOUT_MS;
+        while (!expected.equals(slots.getName(slot)) && System.currentTimeMillis() < deadline) {
+            Thread.sleep(50);
+        }
+        return slots.getName(slot);
+    }
+}
@@ -0,0 +1,125 @@
+package tech.wdg.incomingactivitygateway;
+
+import android.content.Context;
+
+import androidx.test.ext.junit.runners.AndroidJUnit4;
+import androidx.test.platform.app.InstrumentationRegistry;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+@RunWith(AndroidJUnit4.class)
+public class SmsReassemblyTest {
+
+    private static final String SENDER = "+16505551111";
+    private static final int SLOT = 2;
+
+    Context appContext = InstrumentationRegistry.getInstrumentation().getTargetContext();
+
+    private final Collector collector = new Collector();
+
+    @Before
+    public void clearParts() {
+        SmsReassembly.clear(appContext);
+    }
+
+    @After
+    public void tearDown() {
+        SmsReassembly.clear(appContext);
+    }
+
+    @Test
+    public void testCompleteMessageForwardedOnce() throws Exception {
+        SmsReassembly.offer(appContext, SENDER, SLOT, this.part(2, 2), "world", 2000, collector);
+        SmsReassembly.offer(appContext, SENDER, SLOT, this.part(1, 2), "Hello ", 1000, collector);
+        SmsReassembly.offer(appContext, SENDER, SLOT, this.part(1, 2), "Hello ", 1000, collector);
+
+        assertEquals(Collections.singletonList("Hello world"), collector.await(1, 1000));
+        assertEquals(1000, collector.timestamp);
+        assertEquals(SLOT, collector.slotId);
+        // Forwarded messages are not kept
+        assertTrue(Outbox.getInstance(appContext).smsParts().isEmpty());
+    }
+
+    @Test
+    public void testTimeoutForwardsPartsReceived() throws Exception {
+        SmsReassembly.offer(appContext, SENDER, SLOT, this.part(3, 3), "three", 1000, collector);
+        SmsReassembly.offer(appContext, SENDER, SLOT, this.part(1, 3), "one ", 1000, collector);
+
+        assertTrue(collector.await(1, 1000).isEmpty());
+        assertEquals(Collections.singletonList("one three"),
+                collector.await(1, SmsReassembly.TIMEOUT_MS + 2000));
+        assertTrue(Outbox.getInstance(appContext).smsParts().isEmpty());
+    }
+
+    @Test
+    public void testStoredPartsCompletedAfterRestart() throws Exception {
+        Collector lost = new Collector();
+        SmsReassembly.offer(appContext, SENDER, SLOT, this.part(1, 2), "Hello ", 1000, lost);
+        assertEquals(1, Outbox.getInstance(appContext).smsParts().size());
+
+        // The process dies with the first part pending
+        SmsReassembly.forget();
+        SmsReassembly.restore(appContext, collector);
+        SmsReassembly.offer(appContext, SENDER, SLOT, this.part(2, 2), "world", 2000, collector);
+
+        assertEquals(Collections.singletonList("Hello world"), collector.await(1, 1000));
+        assertEquals(SLOT, collector.slotId);
+        assertTrue(lost.await(1, 0).isEmpty());
+    }
+
+    @Test
+    public void testRestoreFlushesTimedOutMessage() throws Exception {
+        // Stored by a process that died before the timeout fired
+        long receivedAt = System.currentTimeMillis() - SmsReassembly.TIMEOUT_MS;
+        SmsReassembly.Part part = this.part(1, 2);
+        Outbox.getInstance(appContext).saveSmsPart(new SmsReassembly.StoredPart(
+                SmsReassembly.key(SENDER, part), SENDER, part, "Hello ", 1000, SLOT, receivedAt));
+
+        SmsReassembly.restore(appContext, collector);
+
+        assertEquals(Collections.singletonList("Hello "), collector.await(1, 2000));
+        assertEquals(SLOT, collector.slotId);
+        assertTrue(Outbox.getInstance(appContext).smsParts().isEmpty());
+    }
+
+    private SmsReassembly.Part part(int sequence, int count) {
+        return new SmsReassembly.Part(7, count, sequence);
+    }
+
+    private static final class Collector implements SmsReassembly.Listener {
+        private final List<String> bodies = new ArrayList<>();
+        long timestamp;
+        int slotId;
+
+        @Override
+        public synchronized void onMessage(String sender, String body, long timestamp, int slotId) {
+            bodies.add(body);
+            this.timestamp = timestamp;
+            this.slotId = slotId;
+            notifyAll();
+        }
+
+        /**
+         * Bodies received so far, waiting up to timeoutMs for count of them
+         */
+        synchronized List<String> await(int count, long timeoutMs) throws InterruptedException {
+            long end = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(timeoutMs);
+            long remaining;
+            while (bodies.size() < count && (remaining = end - System.nanoTime()) > 0) {
+                TimeUnit.NANOSECONDS.timedWait(this, remaining);
+            }
+            return new ArrayList<>(bodies);
+        }
+    }
+}
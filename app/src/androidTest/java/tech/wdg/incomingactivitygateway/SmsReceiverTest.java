@@ -16,6 +16,9 @@ import org.mockito.Mockito;
 @RunWith(AndroidJUnit4.class)
 public class SmsReceiverTest {
 
+    // Messages are processed on a background thread after onReceive returns
+    private static final long PROCESSING_TIMEOUT_MS = 2000;
+
     Context appContext = InstrumentationRegistry.getInstrumentation().getTargetContext();
 
     @Before
@@ -23,6 +26,10 @@ public class SmsReceiverTest {
         SharedPreferences.Editor editor = this.getEditor();
         editor.clear();
         editor.commit();
+        ForwardingConfig.invalidateCache();
+        // Every test delivers the same PDU
+        EventDedup.clear();
+        SmsReassembly.clear(appContext);
     }
 
     @Test
@@ -30,7 +37,7 @@ public class SmsReceiverTest {
         SmsBroadcastReceiver receiver = this.getSmsReceiver();
         receiver.onReceive(appContext, this.getIntent());
 
-        Mockito.verify(receiver, Mockito.times(0))
+        Mockito.verify(receiver, Mockito.after(PROCESSING_TIMEOUT_MS).times(0))
                 .callWebHook(
                         Mockito.any(ForwardingConfig.class),
                         Mockito.anyString(),
@@ -46,7 +53,7 @@ public class SmsReceiverTest {
         SmsBroadcastReceiver receiver = this.getSmsReceiver();
         receiver.onReceive(appContext, this.getIntent());
 
-        Mockito.verify(receiver, Mockito.times(1))
+        Mockito.verify(receiver, Mockito.timeout(PROCESSING_TIMEOUT_MS).times(1))
                 .callWebHook(
                         Mockito.any(ForwardingConfig.class),
                         Mockito.anyString(),
@@ -62,7 +69,7 @@ public class SmsReceiverTest {
         SmsBroadcastReceiver receiver = this.getSmsReceiver();
         receiver.onReceive(appContext, this.getIntent());
 
-        Mockito.verify(receiver, Mockito.times(1))
+        Mockito.verify(receiver, Mockito.timeout(PROCESSING_TIMEOUT_MS).times(1))
                 .callWebHook(
                         Mockito.any(ForwardingConfig.class),
                         Mockito.anyString(),
@@ -78,7 +85,7 @@ public class SmsReceiverTest {
         SmsBroadcastReceiver receiver = this.getSmsReceiver();
         receiver.onReceive(appContext, this.getIntent());
 
-        Mockito.verify(receiver, Mockito.times(0))
+        Mockito.verify(receiver, Mockito.after(PROCESSING_TIMEOUT_MS).times(0))
                 .callWebHook(
                         Mockito.any(ForwardingConfig.class),
                         Mockito.anyString(),
@@ -94,7 +101,7 @@ public class SmsReceiverTest {
         SmsBroadcastReceiver receiver = this.getSmsReceiver();
         receiver.onReceive(appContext, this.getIntentMultiPdus());
 
-        Mockito.verify(receiver, Mockito.times(1))
+        Mockito.verify(receiver, Mockito.timeout(PROCESSING_TIMEOUT_MS).times(1))
                 .callWebHook(
                         Mockito.any(ForwardingConfig.class),
                         Mockito.anyString(),
@@ -104,10 +111,46 @@ public class SmsReceiverTest {
                 );
     }
 
+    @Test
+    public void testDuplicateSmsDropped() {
+        this.setPhoneConfig(appContext, appContext.getString(R.string.asterisk));
+        SmsBroadcastReceiver receiver = this.getSmsReceiver();
+        receiver.onReceive(appContext, this.getIntent());
+        receiver.onReceive(appContext, this.getIntent());
+
+        Mockito.verify(receiver, Mockito.after(PROCESSING_TIMEOUT_MS).times(1))
+                .callWebHook(
+                        Mockito.any(ForwardingConfig.class),
+                        Mockito.anyString(),
+                        Mockito.anyString(),
+                        Mockito.anyString(),
+                        Mockito.anyLong()
+                );
+    }
+
+    @Test
+    public void testPartsInSeparateBroadcastsJoined() {
+        this.setPhoneConfig(appContext, appContext.getString(R.string.asterisk));
+        SmsBroadcastReceiver receiver = this.getSmsReceiver();
+        // One part of a two-part message per broadcast, as some modems deliver them
+        receiver.onReceive(appContext, this.getIntent(this.getTestConcatenatedPdu(2)));
+        receiver.onReceive(appContext, this.getIntent(this.getTestConcatenatedPdu(1)));
+
+        Mockito.verify(receiver, Mockito.after(PROCESSING_TIMEOUT_MS).times(1))
+                .callWebHook(
+                        Mockito.any(ForwardingConfig.class),
+                        Mockito.eq(this.getSender()),
+                        Mockito.anyString(),
+                        Mockito.eq("Hello world"),
+                        Mockito.anyLong()
+                );
+    }
+
     private void setPhoneConfig(Context context, String phone) {
         SharedPreferences.Editor editor = this.getEditor();
         editor.putString(phone, "test");
         editor.commit();
+        ForwardingConfig.invalidateCache();
     }
 
     private SharedPreferences.Editor getEditor() {
@@ -124,6 +167,12 @@ public class SmsReceiverTest {
         return intent;
     }
 
+    private Intent getIntent(byte[][] pdus) {
+        Intent intent = new Intent(Telephony.Sms.Intents.SMS_RECEIVED_ACTION);
+        intent.putExtra("pdus", pdus);
+        return intent;
+    }
+
     private Intent getIntentMultiPdus() {
         Intent intent = new Intent(Telephony.Sms.Intents.SMS_RECEIVED_ACTION);
         intent.putExtra("pdus", this.getTestMultiplePdu());
@@ -168,6 +217,18 @@ public class SmsReceiverTest {
         return pdus;
     }
 
+    private byte[][] getTestConcatenatedPdu(int sequence) {
+        // UCS-2 with a concatenation header: reference 0xAA, 2 parts
+        String pdu = sequence == 1
+                ? "00440B916105551511F100086060605130308012050003AA020100480065006C006C006F0020"
+                : "00440B916105551511F100086060605130308010050003AA02020077006F0072006C0064";
+
+        byte[][] pdus = new byte[1][];
+        pdus[0] = hexToByteArray(pdu);
+
+        return pdus;
+    }
+
     private byte[] hexToByteArray(String hex) {
         hex = hex.length() % 2 != 0 ? "0" + hex : hex;
 
@@ -0,0 +1,137 @@
+package tech.wdg.incomingactivitygateway;
+
+import android.content.Context;
+
+import androidx.test.ext.junit.runners.AndroidJUnit4;
+import androidx.test.platform.app.InstrumentationRegistry;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.UUID;
+import java.util.concurrent.TimeUnit;
+
+import okhttp3.mockwebserver.MockResponse;
+import okhttp3.mockwebserver.MockWebServer;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+
+@RunWith(AndroidJUnit4.class)
+public class WebhookBatchTest {
+
+    private static final long SETTLE_TIMEOUT_MS = 10_000;
+
+    Context appContext = InstrumentationRegistry.getInstrumentation().getTargetContext();
+
+    @Test
+    public void testItemOutcomesFromResultShapes() {
+        assertArrayEquals(new boolean[]{true, false, true},
+                WebhookBatch.itemOutcomes("[true, false, true]", 3));
+        assertArrayEquals(new boolean[]{true, false, false},
+                WebhookBatch.itemOutcomes("[200, 500, 404]", 3));
+        assertArrayEquals(new boolean[]{true, false, true, false},
+                WebhookBatch.itemOutcomes("{\"results\": [{\"status\": \"ok\"}, {\"status\": 503},"
+                        + " {\"success\": true}, {\"ok\": false}]}", 4));
+    }
+
+    @Test
+    public void testWholeBatchAcknowledged() {
+        // No per-item results, or results that do not line up with the batch
+        assertNull(WebhookBatch.itemOutcomes(null, 2));
+        assertNull(WebhookBatch.itemOutcomes("", 2));
+        assertNull(WebhookBatch.itemOutcomes("ok", 2));
+        assertNull(WebhookBatch.itemOutcomes("{\"received\": 2}", 2));
+        assertNull(WebhookBatch.itemOutcomes("[true]", 2));
+        assertNull(WebhookBatch.itemOutcomes("[true, false", 2));
+    }
+
+    @Test
+    public void testTakeKeepsLimits() {
+        List<OutboxEntry> candidates = new ArrayList<>();
+        for (int i = 0; i < 5; i++) {
+            candidates.add(this.entry("http://batch-test.invalid/hook", "{\"n\":" + i + "}"));
+        }
+
+        assertEquals(3, WebhookBatch.take(candidates, 3, 0).size());
+        // Each item counts its separator byte
+        assertEquals(2, WebhookBatch.take(candidates, 0, 16).size());
+        // The first entry goes out even when it alone is over the limit
+        assertEquals(1, WebhookBatch.take(candidates, 0, 1).size());
+    }
+
+    @Test
+    public void testFailedItemsRetriedAlone() throws Exception {
+        MockWebServer server = new MockWebServer();
+        server.enqueue(new MockResponse().setBody("{\"results\": [{\"status\": 200}, {\"status\": 500},"
+                + " {\"status\": 200}]}"));
+        server.start();
+
+        Outbox outbox = Outbox.getInstance(appContext);
+        String url = server.url("/batch").toString();
+        long now = System.currentTimeMillis();
+        List<Long> ids = new ArrayList<>();
+        for (int i = 0; i < 3; i++) {
+            OutboxEntry entry = this.entry(url, "{\"n\":" + i + "}");
+            entry.batchMaxSize = 3;
+            // Held back until the batch is full
+            entry.nextAttemptAt = now + TimeUnit.MINUTES.toMillis(1);
+            ids.add(outbox.enqueue(entry));
+        }
+
+        try {
+            assertNotNull(server.takeRequest(5, TimeUnit.SECONDS));
+
+            long deadline = System.currentTimeMillis() + SETTLE_TIMEOUT_MS;
+            List<OutboxEntry> left = this.find(outbox, ids);
+            while ((left.size() != 1 || left.get(0).attempts == 0) && System.currentTimeMillis() < deadline) {
+                Thread.sleep(100);
+                left = this.find(outbox, ids);
+            }
+
+            // Only the rejected item stays queued, with its attempt counted
+            assertEquals(1, left.size());
+            assertEquals(ids.get(1).longValue(), left.get(0).id);
+            assertEquals(1, left.get(0).attempts);
+            assertEquals(1, server.getRequestCount());
+        } finally {
+            for (long id : ids) {
+                outbox.remove(id);
+            }
+            server.shutdown();
+        }
+    }
+
+    private OutboxEntry entry(String url, String payload) {
+        OutboxEntry entry = new OutboxEntry();
+        entry.ruleKey = "batch-test";
+        entry.activityType = ForwardingConfig.ActivityType.SMS;
+        entry.sender = "+16505551111";
+        entry.eventId = UUID.randomUUID().toString();
+        entry.url = url;
+        entry.payload = payload.getBytes(StandardCharsets.UTF_8);
+        entry.batchFormat = ForwardingConfig.BatchFormat.JSON_ARRAY.getValue();
+        entry.maxRetries = 3;
+        entry.retryBaseDelayMs = 60_000;
+        entry.createdAt = System.currentTimeMillis();
+        entry.nextAttemptAt = entry.createdAt;
+        return entry;
+    }
+
+    private List<OutboxEntry> find(Outbox outbox, List<Long> ids) {
+        List<OutboxEntry> found = new ArrayList<>();
+        for (OutboxEntry entry : outbox.due(Long.MAX_VALUE, Integer.MAX_VALUE,
+                Collections.emptyList(), Collections.emptyList())) {
+            if (ids.contains(entry.id)) {
+                found.add(entry);
+            }
+        }
+        return found;
+    }
+}
@@ -1,92 +1,364 @@
 package tech.wdg.incomingactivitygateway;
 
-import android.content.Context;
-import android.util.Log;
-
 import androidx.test.ext.junit.runners.AndroidJUnit4;
-import androidx.test.platform.app.InstrumentationRegistry;
-import androidx.work.Configuration;
-import androidx.work.Data;
-import androidx.work.OneTimeWorkRequest;
-import androidx.work.WorkInfo;
-import androidx.work.WorkManager;
-import androidx.work.testing.SynchronousExecutor;
-import androidx.work.testing.WorkManagerTestInitHelper;
-
-import org.junit.Before;
+
 import org.junit.Test;
 import org.junit.runner.RunWith;
 
-import static androidx.test.core.app.ApplicationProvider.getApplicationContext;
+import java.io.BufferedInputStream;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+import java.util.zip.GZIPInputStream;
+
+import okhttp3.Protocol;
+import okhttp3.mockwebserver.MockResponse;
+import okhttp3.mockwebserver.MockWebServer;
+import okhttp3.mockwebserver.RecordedRequest;
+import okhttp3.mockwebserver.SocketPolicy;
+import okio.Buffer;
+
 import static org.hamcrest.Matchers.is;
 import static org.junit.Assert.*;
 
 @RunWith(AndroidJUnit4.class)
 public class WebhookCallerTest {
 
-    @Before
-    public void setup() {
-        Context context = InstrumentationRegistry.getInstrumentation().getTargetContext();
-        Configuration config = new Configuration.Builder()
-                .setMinimumLoggingLevel(Log.DEBUG)
-                .setExecutor(new SynchronousExecutor())
-                .build();
-
-        WorkManagerTestInitHelper.initializeTestWorkManager(
-                context, config);
-    }
-
     @Test
     public void testHttpsSuccess() throws Exception {
-        WorkInfo workInfo = this.getWorkInfo("https://example.com", "test", "{}", false);
-        assertThat(workInfo.getState(), is(WorkInfo.State.SUCCEEDED));
+        Request request = this.send("https://example.com", "{}", false);
+        assertTrue(request.getResponseCode() > 0);
     }
 
     @Test
     public void testTlsV1Disabled() throws Exception {
-        WorkInfo workInfo = this.getWorkInfo("https://wordpress.com", "test", "{}", false);
-        assertThat(workInfo.getState(), is(WorkInfo.State.SUCCEEDED));
+        Request request = this.send("https://wordpress.com", "{}", false);
+        assertTrue(request.getResponseCode() > 0);
     }
 
     @Test
     public void testTlsV1DisabledSslIgnore() throws Exception {
-        WorkInfo workInfo = this.getWorkInfo("https://wordpress.com", "test", "{}", true);
-        assertThat(workInfo.getState(), is(WorkInfo.State.SUCCEEDED));
+        Request request = this.send("https://wordpress.com", "{}", true);
+        assertTrue(request.getResponseCode() > 0);
     }
 
     @Test
     public void testHttpSuccess() throws Exception {
-        WorkInfo workInfo = this.getWorkInfo("http://example.com", "test", "{}", false);
-        assertThat(workInfo.getState(), is(WorkInfo.State.SUCCEEDED));
+        Request request = this.send("http://example.com", "{}", false);
+        assertTrue(request.getResponseCode() > 0);
     }
 
     @Test
     public void testError() throws Exception {
-        WorkInfo workInfo = this.getWorkInfo("not a url", "test", "{}", false);
-        assertThat(workInfo.getState(), is(WorkInfo.State.FAILED));
+        assertThat(new Request("not a url", "{}").execute(), is(Request.RESULT_ERROR));
     }
 
     @Test
     public void testSelfSignedCert() throws Exception {
-        WorkInfo workInfo = this.getWorkInfo(
-                "https://self-signed.badssl.com/", "test", "{\"User-Agent\":\"Mozilla/5.0 (Macintosh; Intel Mac OS X 10_15_7) AppleWebKit/537.36 (KHTML, like Gecko) Chrome/110.0.0.0 Safari/537.36\"}", true);
-        assertThat(workInfo.getState(), is(WorkInfo.State.SUCCEEDED));
-    }
-
-    private WorkInfo getWorkInfo(String url, String text, String headers, boolean ignoreSsl) throws Exception {
-        Data input = new Data.Builder()
-                .put(RequestWorker.DATA_URL, url)
-                .put(RequestWorker.DATA_TEXT, text)
-                .put(RequestWorker.DATA_HEADERS, headers)
-                .put(RequestWorker.DATA_IGNORE_SSL, ignoreSsl)
-                .build();
-
-        OneTimeWorkRequest request = new OneTimeWorkRequest.Builder(RequestWorker.class)
-                .setInputData(input)
-                .build();
-
-        WorkManager workManager = WorkManager.getInstance(getApplicationContext());
-        workManager.enqueue(request).getResult().get();
-        return workManager.getWorkInfoById(request.getId()).get();
+        String url = "https://self-signed.badssl.com/";
+
+        // Rejected during the handshake, before any response
+        Request verified = this.send(url, "{}", false);
+        assertThat(verified.getResponseCode(), is(-1));
+
+        Request ignored = this.send(url, "{}", true);
+        assertTrue(ignored.getResponseCode() > 0);
+    }
+
+    @Test
+    public void testHttp2Multiplexed() throws Exception {
+        MockWebServer server = new MockWebServer();
+        server.setProtocols(Collections.singletonList(Protocol.H2_PRIOR_KNOWLEDGE));
+        for (int i = 0; i < 5; i++) {
+            server.enqueue(new MockResponse().setBody("{\"ok\":true}"));
+        }
+        server.start();
+
+        try {
+            String url = server.url("/hook").toString();
+            assertThat(this.sendHttp2(url, "{\"text\":\"warm up\"}"), is("success h2_prior_knowledge"));
+            assertThat(server.takeRequest().getBody().readUtf8(), is("{\"text\":\"warm up\"}"));
+
+            ExecutorService executor = Executors.newFixedThreadPool(4);
+            List<Future<String>> results = new ArrayList<>();
+            for (int i = 0; i < 4; i++) {
+                results.add(executor.submit(() -> this.sendHttp2(url, "{}")));
+            }
+            for (Future<String> result : results) {
+                assertThat(result.get(), is("success h2_prior_knowledge"));
+            }
+            executor.shutdown();
+
+            // Every request after the first one went over the same connection
+            for (int i = 0; i < 4; i++) {
+                assertTrue(server.takeRequest().getSequenceNumber() > 0);
+            }
+        } finally {
+            server.shutdown();
+        }
+    }
+
+    @Test
+    public void testHttp2FallsBackToHttp1() throws Exception {
+        MockWebServer server = new MockWebServer();
+        // The rejected h2c attempt takes up one response
+        for (int i = 0; i < 3; i++) {
+            server.enqueue(new MockResponse().setBody("ok"));
+        }
+        server.start();
+
+        try {
+            String url = server.url("/hook").toString();
+            assertThat(this.sendHttp2(url, "{\"text\":\"hello\"}"), is("success http/1.1"));
+
+            RecordedRequest delivered = server.takeRequest(5, TimeUnit.SECONDS);
+            if (delivered != null && !"/hook".equals(delivered.getPath())) {
+                // The rejected h2c attempt may be recorded first
+                delivered = server.takeRequest(5, TimeUnit.SECONDS);
+            }
+            assertNotNull(delivered);
+            assertThat(delivered.getBody().readUtf8(), is("{\"text\":\"hello\"}"));
+
+            // The host is now known to lack h2c and goes straight to HTTP/1.1
+            int before = server.getRequestCount();
+            assertThat(this.sendHttp2(url, "{}"), is("success http/1.1"));
+            assertThat(server.getRequestCount(), is(before + 1));
+        } finally {
+            server.shutdown();
+        }
+    }
+
+    @Test
+    public void testHttp2FallsBackOnHttp1Reply() throws Exception {
+        // Answers the h2c preface with an HTTP/1.1 error and hangs up, then
+        // serves the retried request
+        ServerSocket server = new ServerSocket(0);
+        List<String> bodies = Collections.synchronizedList(new ArrayList<>());
+        Thread thread = new Thread(() -> {
+            try {
+                for (int i = 0; i < 2; i++) {
+                    try (Socket socket = server.accept()) {
+                        socket.setSoTimeout(5000);
+                        BufferedInputStream in = new BufferedInputStream(socket.getInputStream());
+                        String head = this.readHead(in);
+                        OutputStream out = socket.getOutputStream();
+                        if (head.startsWith("PRI ")) {
+                            out.write("HTTP/1.1 400 Bad Request\r\nConnection: close\r\n\r\n"
+                                    .getBytes(StandardCharsets.US_ASCII));
+                            continue;
+                        }
+
+                        Matcher length = Pattern.compile("(?i)content-length: *(\\d+)").matcher(head);
+                        byte[] body = new byte[length.find() ? Integer.parseInt(length.group(1)) : 0];
+                        for (int read = 0; read < body.length; ) {
+                            read += in.read(body, read, body.length - read);
+                        }
+                        bodies.add(new String(body, StandardCharsets.UTF_8));
+                        out.write("HTTP/1.1 200 OK\r\nContent-Length: 2\r\nConnection: close\r\n\r\nok"
+                                .getBytes(StandardCharsets.US_ASCII));
+                    }
+                }
+            } catch (IOException ignored) {
+            }
+        });
+        thread.start();
+
+        try {
+            String url = "http://127.0.0.1:" + server.getLocalPort() + "/hook";
+            assertThat(this.sendHttp2(url, "{\"text\":\"hello\"}"), is("success http/1.1"));
+            assertThat(bodies, is(Collections.singletonList("{\"text\":\"hello\"}")));
+        } finally {
+            server.close();
+            thread.join(5000);
+        }
+    }
+
+    @Test
+    public void testGzipCompression() throws Exception {
+        MockWebServer server = new MockWebServer();
+        server.enqueue(new MockResponse().setBody("ok"));
+        server.enqueue(new MockResponse().setBody("ok"));
+        server.start();
+
+        try {
+            StringBuilder payload = new StringBuilder("[");
+            for (int i = 0; i < 200; i++) {
+                payload.append(i > 0 ? "," : "").append("{\"text\":\"hello\"}");
+            }
+            String large = payload.append(']').toString();
+            String url = server.url("/hook").toString();
+
+            Request request = new Request(url, large);
+            request.setCompression(BodyCodec.GZIP, 1024);
+            request.setUseChunkedMode(true);
+            assertThat(request.execute(), is(Request.RESULT_SUCCESS));
+
+            // Compressed bodies go out with their exact length even in chunked mode
+            RecordedRequest delivered = server.takeRequest(5, TimeUnit.SECONDS);
+            assertThat(delivered.getHeader("Content-Encoding"), is("gzip"));
+            assertNull(delivered.getHeader("Transfer-Encoding"));
+            byte[] body = delivered.getBody().readByteArray();
+            assertThat(delivered.getHeader("Content-Length"), is(String.valueOf(body.length)));
+            ByteArrayOutputStream inflated = new ByteArrayOutputStream();
+            try (GZIPInputStream in = new GZIPInputStream(new ByteArrayInputStream(body))) {
+                byte[] buffer = new byte[4096];
+                int read;
+                while ((read = in.read(buffer)) != -1) {
+                    inflated.write(buffer, 0, read);
+                }
+            }
+            assertThat(inflated.toString("UTF-8"), is(large));
+
+            // Below the threshold the body is sent as is
+            request = new Request(url, "{\"text\":\"hello\"}");
+            request.setCompression(BodyCodec.GZIP, 1024);
+            assertThat(request.execute(), is(Request.RESULT_SUCCESS));
+            delivered = server.takeRequest(5, TimeUnit.SECONDS);
+            assertNull(delivered.getHeader("Content-Encoding"));
+            assertThat(delivered.getBody().readUtf8(), is("{\"text\":\"hello\"}"));
+        } finally {
+            server.shutdown();
+        }
+    }
+
+    @Test
+    public void testUnreadableSuccessBodyStillDelivered() throws Exception {
+        MockWebServer server = new MockWebServer();
+        StringBuilder results = new StringBuilder("{\"results\":[");
+        for (int i = 0; i < 2000; i++) {
+            results.append(i > 0 ? "," : "").append("{\"status\":200}");
+        }
+        server.enqueue(new MockResponse().setChunkedBody(results.append("]}").toString(), 1024)
+                .setSocketPolicy(SocketPolicy.DISCONNECT_DURING_RESPONSE_BODY));
+        server.start();
+
+        try {
+            // The endpoint accepted the batch; losing its reply must not send it again
+            Request request = new Request(server.url("/hook").toString(), "[{},{}]");
+            request.setCaptureResponse(true);
+            assertThat(request.execute(), is(Request.RESULT_SUCCESS));
+            assertNull(WebhookBatch.itemOutcomes(request.getResponseBody(), 2));
+        } finally {
+            server.shutdown();
+        }
+    }
+
+    @Test
+    public void testDeadlineBoundsStalledEndpoint() throws Exception {
+        MockWebServer server = new MockWebServer();
+        // Accepts the request and never answers
+        server.enqueue(new MockResponse().setSocketPolicy(SocketPolicy.NO_RESPONSE));
+        server.enqueue(new MockResponse().setSocketPolicy(SocketPolicy.NO_RESPONSE));
+        server.start();
+
+        try {
+            for (ForwardingConfig.TransportMode mode : ForwardingConfig.TransportMode.values()) {
+                Request request = new Request(server.url("/hook").toString(), "{}");
+                request.setTransportMode(mode);
+                request.setTimeouts(1000, 30_000, 30_000, 2000);
+
+                long start = System.currentTimeMillis();
+                assertThat(request.execute(), is(Request.RESULT_RETRY));
+                assertTrue(System.currentTimeMillis() - start < 10_000);
+            }
+        } finally {
+            server.shutdown();
+        }
+    }
+
+    @Test
+    public void testLongResponseNotDrained() throws Exception {
+        MockWebServer server = new MockWebServer();
+        // Answers right away, then trickles a body that takes 16 s to arrive
+        server.enqueue(new MockResponse().setBody(new Buffer().write(new byte[1024 * 1024]))
+                .throttleBody(64 * 1024, 1, TimeUnit.SECONDS));
+        server.start();
+
+        try {
+            Request request = new Request(server.url("/hook").toString(), "{}");
+            request.setTimeouts(1000, 30_000, 30_000, 2000);
+
+            long start = System.currentTimeMillis();
+            assertThat(request.execute(), is(Request.RESULT_SUCCESS));
+            assertTrue(System.currentTimeMillis() - start < 5000);
+        } finally {
+            server.shutdown();
+        }
+    }
+
+    @Test
+    public void testMultibytePayloadSentWithExactLength() throws Exception {
+        String payload = "{\"text\":\"Привет, مرحبا 👋\"}";
+        byte[] encoded = payload.getBytes(StandardCharsets.UTF_8);
+
+        MockWebServer server = new MockWebServer();
+        server.enqueue(new MockResponse().setBody("ok"));
+        server.start();
+
+        try {
+            // Fixed-length mode is the default
+            Request request = new Request(server.url("/hook").toString(), payload);
+            assertThat(request.execute(), is(Request.RESULT_SUCCESS));
+
+            RecordedRequest delivered = server.takeRequest();
+            assertThat(delivered.getHeader("Content-Length"), is(String.valueOf(encoded.length)));
+            assertNull(delivered.getHeader("Transfer-Encoding"));
+            assertThat(delivered.getBody().readUtf8(), is(payload));
+        } finally {
+            server.shutdown();
+        }
+
+        List<OutboxEntry> batch = new ArrayList<>();
+        for (String text : new String[]{"{\"a\":\"ü\"}", "{\"b\":\"😀\"}"}) {
+            OutboxEntry entry = new OutboxEntry();
+            entry.payload = text.getBytes(StandardCharsets.UTF_8);
+            batch.add(entry);
+        }
+        assertThat(new String(WebhookBatch.body(batch, ForwardingConfig.BatchFormat.JSON_ARRAY),
+                StandardCharsets.UTF_8), is("[{\"a\":\"ü\"},{\"b\":\"😀\"}]"));
+        assertThat(new String(WebhookBatch.body(batch, ForwardingConfig.BatchFormat.NDJSON),
+                StandardCharsets.UTF_8), is("{\"a\":\"ü\"}\n{\"b\":\"😀\"}\n"));
+    }
+
+    private Request send(String url, String payload, boolean ignoreSsl) {
+        Request request = new Request(url, payload);
+        request.setJsonHeaders(ForwardingConfig.getDefaultJsonHeaders());
+        request.setIgnoreSsl(ignoreSsl);
+        request.execute();
+        return request;
+    }
+
+    private String readHead(InputStream in) throws IOException {
+        StringBuilder head = new StringBuilder();
+        int b;
+        while ((b = in.read()) != -1) {
+            head.append((char) b);
+            if (head.length() >= 4 && head.substring(head.length() - 4).equals("\r\n\r\n")) {
+                break;
+            }
+        }
+        return head.toString();
+    }
+
+    private String sendHttp2(String url, String payload) {
+        Request request = new Request(url, payload);
+        request.setJsonHeaders(ForwardingConfig.getDefaultJsonHeaders());
+        request.setTransportMode(ForwardingConfig.TransportMode.HTTP2);
+        String result = request.execute();
+        return result + " " + request.getProtocol();
     }
 }
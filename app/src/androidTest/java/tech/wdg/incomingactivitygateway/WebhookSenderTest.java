@@ -0,0 +1,99 @@
+package tech.wdg.incomingactivitygateway;
+
+import android.content.Context;
+
+import androidx.test.ext.junit.runners.AndroidJUnit4;
+import androidx.test.platform.app.InstrumentationRegistry;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.io.IOException;
+import java.util.UUID;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
+
+import okhttp3.mockwebserver.MockResponse;
+import okhttp3.mockwebserver.MockWebServer;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+@RunWith(AndroidJUnit4.class)
+public class WebhookSenderTest {
+
+    Context appContext = InstrumentationRegistry.getInstrumentation().getTargetContext();
+
+    @Test
+    public void testResponseBodyReturned() throws Exception {
+        MockWebServer server = new MockWebServer();
+        server.enqueue(new MockResponse().setBody("{\"ok\":true}"));
+        server.start();
+
+        try {
+            assertEquals("{\"ok\":true}",
+                    WebhookSender.sendWebhookSync(appContext, server.url("/hook").toString(), this.payload()));
+        } finally {
+            server.shutdown();
+        }
+    }
+
+    @Test
+    public void testErrorWithoutBodyReported() throws Exception {
+        MockWebServer server = new MockWebServer();
+        // A bare 503 has no error stream to read
+        server.enqueue(new MockResponse().setResponseCode(503));
+        server.start();
+
+        try {
+            WebhookSender.sendWebhookSync(appContext, server.url("/hook").toString(), this.payload());
+            fail("Expected an IOException for HTTP 503");
+        } catch (IOException e) {
+            assertTrue(e.getMessage(), e.getMessage().contains("503"));
+        } finally {
+            server.shutdown();
+        }
+    }
+
+    @Test
+    public void testCallbackGetsStatusOfBareError() throws Exception {
+        MockWebServer server = new MockWebServer();
+        server.enqueue(new MockResponse().setResponseCode(503));
+        server.start();
+
+        try {
+            CountDownLatch done = new CountDownLatch(1);
+            AtomicReference<String> error = new AtomicReference<>();
+            WebhookSender.sendWebhook(appContext, server.url("/hook").toString(), this.payload(),
+                    new WebhookSender.WebhookCallback() {
+                        @Override
+                        public void onSuccess(String response) {
+                            done.countDown();
+                        }
+
+                        @Override
+                        public void onError(String message) {
+                            error.set(message);
+                            done.countDown();
+                        }
+                    });
+
+            assertTrue(done.await(10, TimeUnit.SECONDS));
+            assertTrue(String.valueOf(error.get()), String.valueOf(error.get()).startsWith("HTTP error code: 503"));
+        } finally {
+            server.shutdown();
+        }
+    }
+
+    private WebhookPayload payload() {
+        WebhookPayload payload = new WebhookPayload();
+        payload.event = "test";
+        payload.eventId = UUID.randomUUID().toString();
+        payload.timestamp = System.currentTimeMillis();
+        payload.deviceId = "test";
+        payload.message = "test";
+        return payload;
+    }
+}
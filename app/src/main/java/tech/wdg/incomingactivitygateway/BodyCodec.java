@@ -0,0 +1,169 @@
+package tech.wdg.incomingactivitygateway;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.zip.CRC32;
+import java.util.zip.Deflater;
+
+/**
+ * Content codings for compressed request bodies, looked up by their
+ * Content-Encoding name. gzip and deflate are built in; other codings can
+ * be added with register().
+ *
+ * The built-in codecs keep a Deflater and an output buffer per thread, so
+ * compressing a payload allocates nothing once the buffer has grown.
+ */
+public abstract class BodyCodec {
+
+    public static final String GZIP = "gzip";
+    public static final String DEFLATE = "deflate";
+
+    private static final int LEVEL = Deflater.DEFAULT_COMPRESSION;
+    // Output buffers that grew past this are not kept per thread
+    private static final int MAX_RETAINED_BUFFER = 256 * 1024;
+
+    private static final Map<String, BodyCodec> codecs = new ConcurrentHashMap<>();
+
+    static {
+        register(new GzipCodec());
+        register(new DeflateCodec());
+    }
+
+    /**
+     * Compressed bytes: the first length bytes of data
+     */
+    public static final class Encoded {
+        public final byte[] data;
+        public final int length;
+
+        Encoded(byte[] data, int length) {
+            this.data = data;
+            this.length = length;
+        }
+    }
+
+    public static void register(BodyCodec codec) {
+        codecs.put(codec.getEncoding(), codec);
+    }
+
+    /**
+     * Codec for a Content-Encoding name, or null for none or an unknown one
+     */
+    public static BodyCodec forEncoding(String encoding) {
+        return encoding != null ? codecs.get(encoding) : null;
+    }
+
+    /**
+     * Content-Encoding header value
+     */
+    public abstract String getEncoding();
+
+    /**
+     * Compress the first length bytes of input. The result may share a
+     * per-thread buffer and is only valid until the next call on this thread.
+     */
+    public abstract Encoded encode(byte[] input, int length);
+
+    /**
+     * Raw or zlib-wrapped deflate into a reusable per-thread buffer
+     */
+    private abstract static class DeflaterCodec extends BodyCodec {
+        private final ThreadLocal<Deflater> deflaters;
+        private final ThreadLocal<byte[]> buffers = ThreadLocal.withInitial(() -> new byte[8 * 1024]);
+
+        DeflaterCodec(boolean raw) {
+            deflaters = ThreadLocal.withInitial(() -> new Deflater(LEVEL, raw));
+        }
+
+        /**
+         * Deflate input into this thread's buffer after offset bytes, keeping
+         * reserve bytes free at the end; the buffer is replaced if it grows
+         */
+        Encoded deflate(byte[] input, int length, int offset, int reserve) {
+            Deflater deflater = deflaters.get();
+            deflater.reset();
+            deflater.setInput(input, 0, length);
+            deflater.finish();
+
+            byte[] out = buffers.get();
+            int position = offset;
+            while (!deflater.finished()) {
+                if (out.length - position - reserve <= 0) {
+                    byte[] grown = new byte[out.length * 2];
+                    System.arraycopy(out, 0, grown, 0, position);
+                    out = grown;
+                }
+                position += deflater.deflate(out, position, out.length - position - reserve);
+            }
+
+            if (out.length <= MAX_RETAINED_BUFFER) {
+                buffers.set(out);
+            }
+            return new Encoded(out, position);
+        }
+    }
+
+    private static final class GzipCodec extends DeflaterCodec {
+        private static final int HEADER_SIZE = 10;
+        private static final int TRAILER_SIZE = 8;
+        private final ThreadLocal<CRC32> checksums = ThreadLocal.withInitial(CRC32::new);
+
+        GzipCodec() {
+            super(true);
+        }
+
+        @Override
+        public String getEncoding() {
+            return GZIP;
+        }
+
+        @Override
+        public Encoded encode(byte[] input, int length) {
+            // Leave room for the trailer so it never needs another copy
+            Encoded deflated = deflate(input, length, HEADER_SIZE, TRAILER_SIZE);
+            byte[] out = deflated.data;
+
+            // Magic, deflate method, no flags, no mtime, no extra flags, unknown OS
+            out[0] = (byte) 0x1f;
+            out[1] = (byte) 0x8b;
+            out[2] = Deflater.DEFLATED;
+            for (int i = 3; i < 9; i++) {
+                out[i] = 0;
+            }
+            out[9] = (byte) 0xff;
+
+            CRC32 crc = checksums.get();
+            crc.reset();
+            crc.update(input, 0, length);
+            int position = writeIntLE(out, deflated.length, (int) crc.getValue());
+            position = writeIntLE(out, position, length);
+            return new Encoded(out, position);
+        }
+
+        private static int writeIntLE(byte[] out, int position, int value) {
+            out[position] = (byte) value;
+            out[position + 1] = (byte) (value >> 8);
+            out[position + 2] = (byte) (value >> 16);
+            out[position + 3] = (byte) (value >> 24);
+            return position + 4;
+        }
+    }
+
+    private static final class DeflateCodec extends DeflaterCodec {
+
+        DeflateCodec() {
+            // HTTP "deflate" is the zlib format, not raw deflate
+            super(false);
+        }
+
+        @Override
+        public String getEncoding() {
+            return DEFLATE;
+        }
+
+        @Override
+        public Encoded encode(byte[] input, int length) {
+            return deflate(input, length, 0, 0);
+        }
+    }
+}
@@ -0,0 +1,444 @@
+package tech.wdg.incomingactivitygateway;
+
+import android.Manifest;
+import android.content.ContentResolver;
+import android.content.Context;
+import android.content.SharedPreferences;
+import android.content.pm.PackageManager;
+import android.database.ContentObserver;
+import android.database.Cursor;
+import android.os.Build;
+import android.os.Handler;
+import android.os.HandlerThread;
+import android.provider.CallLog;
+import android.telephony.PhoneStateListener;
+import android.telephony.TelephonyCallback;
+import android.telephony.TelephonyManager;
+import android.util.Log;
+
+import androidx.annotation.RequiresApi;
+import androidx.core.content.ContextCompat;
+
+import java.util.ArrayList;
+
+/**
+ * Follows incoming calls from ringing to hang-up and forwards two events
+ * per call to the CALL rules: one as soon as it rings and the caller's
+ * number is known, and one once it has ended, with how it ended and how
+ * long it lasted.
+ *
+ * Call state comes from TelephonyCallback (PhoneStateListener before
+ * Android 12) and from the PHONE_STATE broadcast, whichever arrives first;
+ * the one lagging behind is matched to the call the other reported.
+ * The ringing event takes the number from the broadcast or listener,
+ * which only carry it with call log access; the call is not logged yet
+ * while it rings. The final number, outcome and duration are taken from
+ * the call log once the call has been logged after hang-up: a ContentObserver reads only the
+ * rows added since the last one seen, by _ID. Without call log access,
+ * calls whose number was in the broadcast are forwarded with the duration
+ * measured here.
+ *
+ * All tracking runs on one background thread.
+ */
+public class CallTracker {
+    private static final String TAG = "CallTracker";
+
+    private static final String PREFS_NAME = "call_tracker";
+    private static final String KEY_LAST_CALL_ID = "last_call_id";
+
+    // Calls logged while the app was not running are only forwarded this late
+    static final long CATCH_UP_MS = 60 * 60 * 1000L;
+    // A call log row this close to a tracked call's ringing time is that call
+    static final long MATCH_WINDOW_MS = 60 * 1000L;
+
+    // Where a call state came from
+    static final int SOURCE_LISTENER = 0;
+    static final int SOURCE_BROADCAST = 1;
+
+    private static CallTracker instance;
+
+    private final Context context;
+    private final Handler handler;
+    private final SharedPreferences preferences;
+
+    // Only used on the handler thread
+    private final Calls calls = new Calls();
+    private Call lastEnded;
+    private long lastCallId;
+    private boolean listening;
+    private boolean observingCallLog;
+
+    /**
+     * One incoming call
+     */
+    static final class Call {
+        final long ringingAt;
+        String number;
+        int slotId = -1;
+        long answeredAt;
+        long endedAt;
+        long durationSeconds;
+        ForwardingConfig.CallStatus status = ForwardingConfig.CallStatus.RINGING;
+        boolean ringingForwarded;
+        // Sources that reported this call, by SOURCE_*
+        final boolean[] reportedBy = new boolean[2];
+
+        Call(long ringingAt) {
+            this.ringingAt = ringingAt;
+        }
+    }
+
+    /**
+     * Calls as reported by the listener and the broadcast. Both report
+     * every call, so the source lagging behind must not start a second
+     * call after the other one already ended it.
+     */
+    static final class Calls {
+        private Call current;
+        // Most recently ended call, which the lagging source may still be reporting
+        private Call ended;
+        // The call each source is reporting on, by SOURCE_*
+        private final Call[] following = new Call[2];
+
+        /**
+         * Apply a state change from a source; returns the call it ended
+         */
+        Call onState(int state, String number, int slotId, int source, long now) {
+            Call call = following[source];
+            if (call != null && call != current && state == TelephonyManager.CALL_STATE_RINGING) {
+                // The source missed the end of its last call
+                call = null;
+            }
+            if (call == null) {
+                if (current != null) {
+                    call = current;
+                } else if (state == TelephonyManager.CALL_STATE_RINGING) {
+                    if (ended != null && !ended.reportedBy[source] && now - ended.endedAt < MATCH_WINDOW_MS) {
+                        // Catching up on a call the other source already ended
+                        call = ended;
+                    } else {
+                        call = new Call(now);
+                        current = call;
+                    }
+                } else {
+                    // Outgoing calls go straight to off-hook and are not tracked
+                    return null;
+                }
+                call.reportedBy[source] = true;
+                following[source] = call;
+            }
+
+            if (number != null && !number.isEmpty()) {
+                call.number = number;
+            }
+            if (slotId >= 0) {
+                call.slotId = slotId;
+            }
+            if (state == TelephonyManager.CALL_STATE_IDLE) {
+                following[source] = null;
+            }
+            if (call != current) {
+                return null;
+            }
+
+            if (state == TelephonyManager.CALL_STATE_OFFHOOK
+                    && call.status == ForwardingConfig.CallStatus.RINGING) {
+                call.status = ForwardingConfig.CallStatus.ANSWERED;
+                call.answeredAt = now;
+            } else if (state == TelephonyManager.CALL_STATE_IDLE) {
+                current = null;
+                ended = call;
+                call.endedAt = now;
+                if (call.status == ForwardingConfig.CallStatus.ANSWERED) {
+                    call.status = ForwardingConfig.CallStatus.ENDED;
+                    call.durationSeconds = (now - call.answeredAt) / 1000;
+                } else {
+                    call.status = ForwardingConfig.CallStatus.MISSED;
+                }
+                return call;
+            }
+            return null;
+        }
+
+        /**
+         * The current call if it is ringing, its number is known and it
+         * was not taken before
+         */
+        Call takeRinging() {
+            Call call = current;
+            if (call == null || call.ringingForwarded || call.number == null
+                    || call.status != ForwardingConfig.CallStatus.RINGING) {
+                return null;
+            }
+            call.ringingForwarded = true;
+            return call;
+        }
+    }
+
+    private CallTracker(Context context) {
+        this.context = context.getApplicationContext();
+        this.preferences = this.context.getSharedPreferences(PREFS_NAME, Context.MODE_PRIVATE);
+
+        HandlerThread thread = new HandlerThread(TAG);
+        thread.start();
+        handler = new Handler(thread.getLooper());
+        // Listeners pick up the looper of the thread they are created on
+        handler.post(this::start);
+    }
+
+    public static synchronized CallTracker getInstance(Context context) {
+        if (instance == null) {
+            instance = new CallTracker(context);
+        }
+        return instance;
+    }
+
+    /**
+     * Start whatever tracking the granted permissions now allow, e.g. after
+     * the user granted phone or call log access
+     */
+    public void refresh() {
+        handler.post(this::start);
+    }
+
+    /**
+     * Call state from the PHONE_STATE broadcast, with the SIM slot and,
+     * before Android 10, the caller's number
+     */
+    public void onPhoneState(String state, String number, int slotId) {
+        int callState;
+        if (TelephonyManager.EXTRA_STATE_RINGING.equals(state)) {
+            callState = TelephonyManager.CALL_STATE_RINGING;
+        } else if (TelephonyManager.EXTRA_STATE_OFFHOOK.equals(state)) {
+            callState = TelephonyManager.CALL_STATE_OFFHOOK;
+        } else if (TelephonyManager.EXTRA_STATE_IDLE.equals(state)) {
+            callState = TelephonyManager.CALL_STATE_IDLE;
+        } else {
+            return;
+        }
+        handler.post(() -> onCallState(callState, number, slotId, SOURCE_BROADCAST));
+    }
+
+    private void start() {
+        if (!listening && hasPermission(Manifest.permission.READ_PHONE_STATE)) {
+            listening = listen();
+        }
+        if (!observingCallLog && hasPermission(Manifest.permission.READ_CALL_LOG)) {
+            observingCallLog = observeCallLog();
+        }
+    }
+
+    private boolean listen() {
+        TelephonyManager telephonyManager = (TelephonyManager) context.getSystemService(Context.TELEPHONY_SERVICE);
+        if (telephonyManager == null) {
+            return false;
+        }
+
+        try {
+            if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.S) {
+                telephonyManager.registerTelephonyCallback(handler::post, new CallStateCallback(this));
+            } else {
+                telephonyManager.listen(new PhoneStateListener() {
+                    @Override
+                    public void onCallStateChanged(int state, String phoneNumber) {
+                        onCallState(state, phoneNumber, -1, SOURCE_LISTENER);
+                    }
+                }, PhoneStateListener.LISTEN_CALL_STATE);
+            }
+            return true;
+        } catch (Exception e) {
+            Log.w(TAG, "Could not listen for call state, relying on the broadcast", e);
+            return false;
+        }
+    }
+
+    private boolean observeCallLog() {
+        ContentResolver resolver = context.getContentResolver();
+        try {
+            if (!preferences.contains(KEY_LAST_CALL_ID)) {
+                // Nothing from before the app started tracking
+                saveLastCallId(latestCallId(resolver));
+            }
+            lastCallId = preferences.getLong(KEY_LAST_CALL_ID, 0);
+
+            resolver.registerContentObserver(CallLog.Calls.CONTENT_URI, true, new ContentObserver(handler) {
+                @Override
+                public void onChange(boolean selfChange) {
+                    scanCallLog();
+                }
+            });
+        } catch (Exception e) {
+            Log.w(TAG, "Could not watch the call log", e);
+            return false;
+        }
+
+        // Calls that ended while the app was not running
+        scanCallLog();
+        return true;
+    }
+
+    private void onCallState(int state, String number, int slotId, int source) {
+        Call call = calls.onState(state, number, slotId, source, System.currentTimeMillis());
+        Call ringing = calls.takeRinging();
+        if (ringing != null) {
+            forward(ringing);
+        }
+        if (call == null) {
+            return;
+        }
+        lastEnded = call;
+
+        // The call log row may not be written yet, the observer catches it when it is
+        if (!(observingCallLog && scanCallLog())) {
+            if (call.number != null) {
+                forward(call);
+            } else {
+                Log.w(TAG, "Call ended, but its number is unknown without call log access");
+            }
+        }
+    }
+
+    /**
+     * Forward the incoming calls logged since the last scan; false if the
+     * call log could not be read
+     */
+    private boolean scanCallLog() {
+        String[] projection = {
+                CallLog.Calls._ID,
+                CallLog.Calls.NUMBER,
+                CallLog.Calls.TYPE,
+                CallLog.Calls.DATE,
+                CallLog.Calls.DURATION
+        };
+        String selection = CallLog.Calls._ID + " > ?";
+        String[] selectionArgs = { String.valueOf(lastCallId) };
+
+        long newestId = lastCallId;
+        long now = System.currentTimeMillis();
+        try (Cursor cursor = context.getContentResolver().query(CallLog.Calls.CONTENT_URI, projection,
+                selection, selectionArgs, CallLog.Calls._ID + " ASC")) {
+            if (cursor == null) {
+                return false;
+            }
+
+            while (cursor.moveToNext()) {
+                newestId = Math.max(newestId, cursor.getLong(0));
+                String number = cursor.getString(1);
+                ForwardingConfig.CallStatus status = statusOf(cursor.getInt(2));
+                long date = cursor.getLong(3);
+                if (status == null || number == null || now - date > CATCH_UP_MS) {
+                    continue;
+                }
+
+                Call call = new Call(date);
+                call.number = number;
+                call.status = status;
+                call.durationSeconds = status == ForwardingConfig.CallStatus.ENDED ? cursor.getLong(4) : 0;
+                // The log has no slot index, the tracked call does
+                if (lastEnded != null && Math.abs(date - lastEnded.ringingAt) < MATCH_WINDOW_MS) {
+                    call.slotId = lastEnded.slotId;
+                    lastEnded = null;
+                }
+                forward(call);
+            }
+        } catch (Exception e) {
+            Log.e(TAG, "Error reading the call log: " + e.getMessage());
+            return false;
+        }
+
+        if (newestId != lastCallId) {
+            saveLastCallId(newestId);
+        }
+        return true;
+    }
+
+    private long latestCallId(ContentResolver resolver) {
+        String[] projection = { CallLog.Calls._ID };
+        try (Cursor cursor = resolver.query(CallLog.Calls.CONTENT_URI, projection, null, null,
+                CallLog.Calls._ID + " DESC")) {
+            return cursor != null && cursor.moveToFirst() ? cursor.getLong(0) : 0;
+        }
+    }
+
+    private void saveLastCallId(long id) {
+        lastCallId = id;
+        preferences.edit().putLong(KEY_LAST_CALL_ID, id).apply();
+    }
+
+    private static ForwardingConfig.CallStatus statusOf(int type) {
+        switch (type) {
+            case CallLog.Calls.INCOMING_TYPE:
+                return ForwardingConfig.CallStatus.ENDED;
+            case CallLog.Calls.MISSED_TYPE:
+            case CallLog.Calls.REJECTED_TYPE:
+                return ForwardingConfig.CallStatus.MISSED;
+            default:
+                // Outgoing, voicemail, blocked
+                return null;
+        }
+    }
+
+    private void forward(Call call) {
+        Log.d(TAG, "Call from " + call.number + " " + call.status.getValue() + " after "
+                + call.durationSeconds + "s on SIM slot: " + call.slotId);
+        GatewayMetrics.increment(GatewayMetrics.Counter.EVENTS_RECEIVED);
+
+        // Enabled CALL rules whose sender list matches the caller
+        long matchStart = System.nanoTime();
+        ArrayList<ForwardingConfig> configs = new ArrayList<>();
+        ForwardingConfig.getRuleIndex(context).match(ForwardingConfig.ActivityType.CALL, call.number, configs);
+        GatewayMetrics.record(GatewayMetrics.Stage.MATCH, ForwardingConfig.ActivityType.CALL,
+                System.nanoTime() - matchStart);
+
+        boolean lookedUp = false;
+        String contactName = null;
+        String simName = null;
+
+        for (ForwardingConfig config : configs) {
+            // Check SIM slot filtering
+            if (config.getSimSlot() > 0 && config.getSimSlot() != (call.slotId + 1)) {
+                continue;
+            }
+
+            // Contact and SIM name are the same for every rule, look them up once
+            if (!lookedUp) {
+                contactName = ContactCache.getInstance(context).getName(call.number);
+                simName = call.slotId >= 0 ? OperatorSettingsActivity.getSimName(context, call.slotId) : "undetected";
+                lookedUp = true;
+            }
+
+            GatewayMetrics.increment(GatewayMetrics.Counter.RULES_MATCHED);
+
+            // The ringing time identifies the call and the status the event, so every rule
+            // derives the same event IDs from them
+            long renderStart = System.nanoTime();
+            String eventId = config.eventId(call.number, call.status.getValue(), call.ringingAt);
+            String payload = config.prepareEnhancedCallMessage(call.number,
+                    contactName != null ? contactName : "", simName, call.status, call.durationSeconds,
+                    call.ringingAt, eventId);
+            GatewayMetrics.record(GatewayMetrics.Stage.RENDER, config.getKey(), config.getUrl(),
+                    System.nanoTime() - renderStart);
+
+            Outbox.getInstance(context).enqueue(OutboxEntry.forRule(config, call.number, payload, eventId));
+        }
+    }
+
+    private boolean hasPermission(String permission) {
+        return ContextCompat.checkSelfPermission(context, permission) == PackageManager.PERMISSION_GRANTED;
+    }
+
+    @RequiresApi(Build.VERSION_CODES.S)
+    private static final class CallStateCallback extends TelephonyCallback
+            implements TelephonyCallback.CallStateListener {
+        private final CallTracker tracker;
+
+        CallStateCallback(CallTracker tracker) {
+            this.tracker = tracker;
+        }
+
+        @Override
+        public void onCallStateChanged(int state) {
+            tracker.onCallState(state, null, -1, SOURCE_LISTENER);
+        }
+    }
+}
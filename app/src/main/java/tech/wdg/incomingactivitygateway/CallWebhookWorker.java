@@ -7,8 +7,11 @@ import androidx.annotation.NonNull;
 import androidx.work.Worker;
 import androidx.work.WorkerParameters;
 
-import java.util.ArrayList;
 
+/**
+ * Call webhooks now go through the outbox; this worker only moves jobs
+ * that were queued in WorkManager by earlier versions of the app into it.
+ */
 public class CallWebhookWorker extends Worker {
 
     private static final String TAG = "CallWebhookWorker";
@@ -40,23 +43,19 @@ public class CallWebhookWorker extends Worker {
             }
 
             // Use enhanced message preparation if enabled, otherwise use regular template
-            String payload = config.prepareEnhancedCallMessage(phoneNumber, contactName, simName, timestamp);
+            // The timestamp comes from the job, so every retry sends the same event ID
+            String eventId = config.eventId(phoneNumber, "", timestamp);
+            // Jobs from earlier versions were queued while the phone was ringing
+            String payload = config.prepareEnhancedCallMessage(phoneNumber, contactName, simName,
+                    ForwardingConfig.CallStatus.RINGING, 0, timestamp, eventId);
 
-            // Send the webhook
-            Request request = new Request(config.getUrl(), payload);
-            request.setJsonHeaders(config.getHeaders());
-            request.setIgnoreSsl(config.getIgnoreSsl());
-            request.setUseChunkedMode(config.getChunkedMode());
-
-            String result = request.execute();
-
-            if (Request.RESULT_SUCCESS.equals(result)) {
-                Log.d(TAG, "Call webhook sent successfully for: " + phoneNumber);
-                return Result.success();
-            } else {
-                Log.e(TAG, "Call webhook failed: " + result);
+            OutboxEntry entry = OutboxEntry.forRule(config, phoneNumber, payload, eventId);
+            entry.attempts = getRunAttemptCount();
+            if (Outbox.getInstance(getApplicationContext()).enqueue(entry) == -1) {
                 return Result.retry();
             }
+            Log.d(TAG, "Call webhook for " + phoneNumber + " moved to the outbox");
+            return Result.success();
 
         } catch (Exception e) {
             Log.e(TAG, "Error in call webhook worker", e);
@@ -65,12 +64,6 @@ public class CallWebhookWorker extends Worker {
     }
 
     private ForwardingConfig findConfigByKey(String key) {
-        ArrayList<ForwardingConfig> configs = ForwardingConfig.getAll(getApplicationContext());
-        for (ForwardingConfig config : configs) {
-            if (config.getKey().equals(key)) {
-                return config;
-            }
-        }
-        return null;
+        return ForwardingConfig.getSnapshot(getApplicationContext()).get(key);
     }
 }
\ No newline at end of file
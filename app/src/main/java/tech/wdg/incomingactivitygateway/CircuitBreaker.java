@@ -0,0 +1,179 @@
+package tech.wdg.incomingactivitygateway;
+
+import android.util.Log;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Per-host circuit breaker for webhook delivery.
+ *
+ * A host is CLOSED while it answers. After FAILURE_THRESHOLD retryable
+ * failures in a row it goes OPEN: deliveries to it are parked without any
+ * network I/O until the open period ends. Then it is HALF_OPEN and lets a
+ * single probe through; the probe closing it again resumes delivery,
+ * a failed probe reopens it for twice as long, up to MAX_OPEN_MS. A host
+ * that answers with Retry-After is held open for the time it asked for.
+ */
+public final class CircuitBreaker {
+    private static final String TAG = "CircuitBreaker";
+
+    static final int FAILURE_THRESHOLD = 5;
+    static final long INITIAL_OPEN_MS = 30_000L;
+    static final long MAX_OPEN_MS = 10 * 60 * 1000L;
+
+    private static final Map<String, CircuitBreaker> breakers = new ConcurrentHashMap<>();
+
+    public enum State {
+        CLOSED("closed"),
+        OPEN("open"),
+        HALF_OPEN("half-open");
+
+        private final String value;
+
+        State(String value) {
+            this.value = value;
+        }
+
+        public String getValue() {
+            return value;
+        }
+    }
+
+    /**
+     * Breaker state at one point in time, for display
+     */
+    public static final class Status {
+        public final String host;
+        public final State state;
+        public final int failures;
+        // When the next probe may go out; only meaningful while OPEN
+        public final long retryAt;
+
+        Status(String host, State state, int failures, long retryAt) {
+            this.host = host;
+            this.state = state;
+            this.failures = failures;
+            this.retryAt = retryAt;
+        }
+    }
+
+    private final String host;
+    private State state = State.CLOSED;
+    private int failures;
+    private long openMs = INITIAL_OPEN_MS;
+    private long retryAt;
+    private boolean probing;
+
+    CircuitBreaker(String host) {
+        this.host = host;
+    }
+
+    /**
+     * Breaker shared by every delivery to the url's host
+     */
+    public static CircuitBreaker forUrl(String url) {
+        return breakers.computeIfAbsent(GatewayMetrics.hostOf(url), CircuitBreaker::new);
+    }
+
+    /**
+     * Whether a request may go out now. While HALF_OPEN only the first
+     * caller gets through, and it must report back with onResult().
+     */
+    public synchronized boolean allowRequest() {
+        if (state == State.OPEN && System.currentTimeMillis() >= retryAt) {
+            state = State.HALF_OPEN;
+            probing = false;
+        }
+
+        switch (state) {
+            case CLOSED:
+                return true;
+            case HALF_OPEN:
+                if (probing) {
+                    return false;
+                }
+                probing = true;
+                return true;
+            default:
+                return false;
+        }
+    }
+
+    /**
+     * Report the outcome of a request that allowRequest() let through
+     */
+    public synchronized void onResult(String result) {
+        if (Request.RESULT_SUCCESS.equals(result)) {
+            if (state != State.CLOSED) {
+                Log.i(TAG, host + " is reachable again, closing circuit");
+            }
+            state = State.CLOSED;
+            failures = 0;
+            openMs = INITIAL_OPEN_MS;
+            probing = false;
+        } else if (Request.RESULT_RETRY.equals(result)) {
+            failures++;
+            if (state == State.HALF_OPEN) {
+                // The probe failed: stay away for longer this time
+                openMs = Math.min(MAX_OPEN_MS, openMs * 2);
+                open();
+            } else if (state == State.CLOSED && failures >= FAILURE_THRESHOLD) {
+                open();
+            }
+        } else if (state == State.HALF_OPEN) {
+            // A permanent error tells nothing about the host; let another probe try
+            probing = false;
+        }
+    }
+
+    /**
+     * Hold requests back for the delay the server asked for, e.g. with
+     * Retry-After on a 429 or 503; the first request after it is a probe
+     */
+    public synchronized void holdFor(long delayMs) {
+        long until = System.currentTimeMillis() + delayMs;
+        if (state == State.OPEN && retryAt >= until) {
+            return;
+        }
+        state = State.OPEN;
+        probing = false;
+        retryAt = until;
+        Log.i(TAG, host + " asked to retry after " + (delayMs / 1000) + " s, holding deliveries");
+    }
+
+    /**
+     * Time the next probe may go out, or 0 when requests are not held back
+     */
+    public synchronized long getRetryAt() {
+        return state == State.OPEN ? retryAt : 0;
+    }
+
+    public synchronized Status getStatus() {
+        return new Status(host, state, failures, retryAt);
+    }
+
+    /**
+     * Status of every host that is not CLOSED
+     */
+    public static List<Status> tripped() {
+        List<Status> tripped = new ArrayList<>();
+        for (CircuitBreaker breaker : breakers.values()) {
+            Status status = breaker.getStatus();
+            if (status.state != State.CLOSED) {
+                tripped.add(status);
+            }
+        }
+        return tripped;
+    }
+
+    private void open() {
+        state = State.OPEN;
+        probing = false;
+        retryAt = System.currentTimeMillis() + openMs;
+        Log.w(TAG, host + " failed " + failures + " time(s) in a row, parking deliveries for "
+                + (openMs / 1000) + " s");
+    }
+}
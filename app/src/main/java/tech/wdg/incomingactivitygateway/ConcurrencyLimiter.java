@@ -0,0 +1,116 @@
+package tech.wdg.incomingactivitygateway;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Per-host limit on concurrent deliveries, adjusted with AIMD.
+ *
+ * Each completed request feeds back its round-trip time and result. While
+ * a host answers successfully and close to the fastest time seen recently,
+ * the limit grows by about one request per window; a retryable failure or
+ * a round trip well above that baseline cuts it by a constant factor, at
+ * most once per round trip. Work that does not get a slot stays queued (in
+ * the outbox, or in WorkManager for the legacy worker) instead of piling
+ * more requests onto a slow endpoint.
+ */
+public final class ConcurrencyLimiter {
+
+    static final int INITIAL_LIMIT = 4;
+    static final int MIN_LIMIT = 1;
+    static final int MAX_LIMIT = 32;
+    private static final double BACKOFF_RATIO = 0.7;
+    // Round trips above this multiple of the baseline count as congestion
+    private static final double LATENCY_TOLERANCE = 2.0;
+    // The baseline is relearned this often so a route change does not pin it
+    private static final long BASELINE_WINDOW_NANOS = 60_000_000_000L;
+
+    private static final Map<String, ConcurrencyLimiter> limiters = new ConcurrentHashMap<>();
+
+    private final String host;
+    private double limit = INITIAL_LIMIT;
+    private int inFlight;
+    private long baselineNanos = Long.MAX_VALUE;
+    private long baselineSetAt;
+    private long lastDecreaseAt;
+    private boolean decreased;
+
+    ConcurrencyLimiter(String host) {
+        this.host = host;
+    }
+
+    /**
+     * Limiter shared by every delivery to the url's host
+     */
+    public static ConcurrencyLimiter forUrl(String url) {
+        return limiters.computeIfAbsent(GatewayMetrics.hostOf(url), ConcurrencyLimiter::new);
+    }
+
+    /**
+     * Take a slot if the host is below its limit
+     */
+    public synchronized boolean tryAcquire() {
+        if (inFlight >= getLimit()) {
+            return false;
+        }
+        inFlight++;
+        return true;
+    }
+
+    /**
+     * Return a slot taken by tryAcquire(), with the outcome
+     * of the request made under it
+     */
+    public synchronized void release(String result, long rttNanos) {
+        int busy = inFlight;
+        inFlight = Math.max(0, inFlight - 1);
+
+        long now = System.nanoTime();
+        if (Request.RESULT_SUCCESS.equals(result)) {
+            if (baselineNanos == Long.MAX_VALUE || rttNanos < baselineNanos
+                    || now - baselineSetAt > BASELINE_WINDOW_NANOS) {
+                baselineNanos = Math.max(1, rttNanos);
+                baselineSetAt = now;
+            }
+
+            if (rttNanos > baselineNanos * LATENCY_TOLERANCE) {
+                decrease(now, rttNanos);
+            } else if (busy * 2 >= limit) {
+                // Only grow while the current window is actually in use
+                limit = Math.min(MAX_LIMIT, limit + 1.0 / limit);
+            }
+        } else if (Request.RESULT_RETRY.equals(result)) {
+            decrease(now, rttNanos);
+        }
+        // Permanent errors say nothing about the endpoint's capacity
+    }
+
+    /**
+     * Return a slot without having made a request under it
+     */
+    public synchronized void cancel() {
+        inFlight = Math.max(0, inFlight - 1);
+    }
+
+    public synchronized int getLimit() {
+        return (int) limit;
+    }
+
+    public synchronized int getInFlight() {
+        return inFlight;
+    }
+
+    public String getHost() {
+        return host;
+    }
+
+    private void decrease(long now, long rttNanos) {
+        // Requests that were in flight together report the same congestion
+        if (decreased && now - lastDecreaseAt < rttNanos) {
+            return;
+        }
+        decreased = true;
+        lastDecreaseAt = now;
+        limit = Math.max(MIN_LIMIT, limit * BACKOFF_RATIO);
+    }
+}
@@ -0,0 +1,158 @@
+package tech.wdg.incomingactivitygateway;
+
+import android.content.Context;
+import android.database.ContentObserver;
+import android.database.Cursor;
+import android.net.Uri;
+import android.os.Handler;
+import android.os.HandlerThread;
+import android.provider.ContactsContract;
+import android.telephony.PhoneNumberUtils;
+import android.util.Log;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Caller number to contact name, so repeated calls from the same number do
+ * not each run a PhoneLookup query.
+ *
+ * Numbers without a contact are cached too. The whole cache is dropped
+ * whenever the contacts provider reports a change, so a number is looked
+ * up at most once between two edits of the address book. Failed queries
+ * (e.g. READ_CONTACTS not granted yet) are not cached.
+ */
+public class ContactCache {
+    private static final String TAG = "ContactCache";
+
+    static final int MAX_ENTRIES = 256;
+
+    // Cached "no contact" result, distinct from a missing entry
+    private static final String NO_CONTACT = new String("");
+
+    private static ContactCache instance;
+
+    private final Context context;
+
+    // Normalized number -> display name or NO_CONTACT, least recently used first
+    private final LinkedHashMap<String, String> names = new LinkedHashMap<String, String>(16, 0.75f, true) {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<String, String> eldest) {
+            return size() > MAX_ENTRIES;
+        }
+    };
+
+    private int generation;
+    private volatile boolean disabled;
+
+    private ContactCache(Context context) {
+        this.context = context.getApplicationContext();
+        watchContacts();
+    }
+
+    public static synchronized ContactCache getInstance(Context context) {
+        if (instance == null) {
+            instance = new ContactCache(context);
+        }
+        return instance;
+    }
+
+    /**
+     * Display name of the contact with this number, or null if there is none
+     */
+    public String getName(String phoneNumber) {
+        if (phoneNumber == null || phoneNumber.isEmpty()) {
+            return null;
+        }
+
+        // Without change notifications every call queries
+        String key = disabled ? null : normalize(phoneNumber);
+        int startGeneration = 0;
+        if (key != null) {
+            synchronized (names) {
+                String cached = names.get(key);
+                if (cached != null) {
+                    return cached == NO_CONTACT ? null : cached;
+                }
+                startGeneration = generation;
+            }
+        }
+
+        String name;
+        try {
+            name = query(phoneNumber);
+        } catch (Exception e) {
+            Log.e(TAG, "Error getting contact name: " + e.getMessage());
+            return null;
+        }
+
+        if (key != null) {
+            synchronized (names) {
+                // Don't keep a result that was invalidated while querying
+                if (startGeneration == generation) {
+                    names.put(key, name != null ? name : NO_CONTACT);
+                }
+            }
+        }
+        return name;
+    }
+
+    /**
+     * Forget every cached lookup
+     */
+    public void invalidate() {
+        synchronized (names) {
+            generation++;
+            names.clear();
+        }
+    }
+
+    /**
+     * Whether a lookup of this number would be answered from the cache
+     */
+    boolean isCached(String phoneNumber) {
+        synchronized (names) {
+            return names.containsKey(normalize(phoneNumber));
+        }
+    }
+
+    private String query(String phoneNumber) {
+        Uri uri = Uri.withAppendedPath(ContactsContract.PhoneLookup.CONTENT_FILTER_URI, Uri.encode(phoneNumber));
+        String[] projection = { ContactsContract.PhoneLookup.DISPLAY_NAME };
+
+        try (Cursor cursor = context.getContentResolver().query(uri, projection, null, null, null)) {
+            if (cursor != null && cursor.moveToFirst()) {
+                return cursor.getString(cursor.getColumnIndexOrThrow(ContactsContract.PhoneLookup.DISPLAY_NAME));
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Digits and a leading plus only, so "+1 (555) 010-0000" and
+     * "+15550100000" share an entry
+     */
+    static String normalize(String phoneNumber) {
+        String normalized = PhoneNumberUtils.normalizeNumber(phoneNumber);
+        return normalized == null || normalized.isEmpty() ? phoneNumber : normalized;
+    }
+
+    private void watchContacts() {
+        HandlerThread thread = new HandlerThread(TAG);
+        thread.start();
+
+        try {
+            context.getContentResolver().registerContentObserver(ContactsContract.Contacts.CONTENT_URI, true,
+                    new ContentObserver(new Handler(thread.getLooper())) {
+                        @Override
+                        public void onChange(boolean selfChange) {
+                            invalidate();
+                        }
+                    });
+        } catch (Exception e) {
+            Log.w(TAG, "Could not watch contacts, lookups will not be cached", e);
+            thread.quitSafely();
+            disabled = true;
+        }
+    }
+}
@@ -5,8 +5,6 @@ import android.util.Log;
 
 import javax.net.ssl.SSLSocketFactory;
 
-import tech.wdg.incomingactivitygateway.SSLSocketFactory.TLSSocketFactory;
-
 /**
  * Singleton wrapper for custom SSL socket factory
  */
@@ -20,8 +18,8 @@ public class CustomSSLSocketFactory {
     public static synchronized SSLSocketFactory getInstance(Context context) {
         if (instance == null) {
             try {
-                // Create TLSSocketFactory with secure mode (false = don't ignore SSL)
-                instance = new TLSSocketFactory(false);
+                // Share the secure factory (and its TLS session cache) with HttpTransport
+                instance = HttpTransport.getSocketFactory(false);
                 Log.d(TAG, "Custom SSL socket factory initialized");
             } catch (Exception e) {
                 Log.e(TAG, "Failed to create custom SSL socket factory", e);
@@ -0,0 +1,236 @@
+package tech.wdg.incomingactivitygateway;
+
+import android.content.BroadcastReceiver;
+import android.content.Context;
+import android.content.Intent;
+import android.content.IntentFilter;
+import android.net.ConnectivityManager;
+import android.net.LinkProperties;
+import android.net.Network;
+import android.os.Build;
+import android.util.Log;
+
+import org.json.JSONObject;
+
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.function.Supplier;
+
+/**
+ * Precomputed device information sections for enhanced payloads.
+ *
+ * Sections are refreshed in the background when the matching system event
+ * arrives (SIM state, default network) or when their TTL runs out, so
+ * building a payload only picks up objects that are already computed.
+ * Cached objects are shared and must not be modified by callers.
+ */
+public class DeviceInfoCache {
+    private static final String TAG = "DeviceInfoCache";
+
+    // Device name can be changed in Settings without any broadcast
+    private static final long DEVICE_TTL_MS = 60 * 60 * 1000L;
+    private static final long SIM_TTL_MS = 10 * 60 * 1000L;
+    // Runtime permission grants are not broadcast either
+    private static final long PERMISSIONS_TTL_MS = 60 * 1000L;
+    private static final long NETWORK_TTL_MS = 30 * 1000L;
+
+    private static DeviceInfoCache instance;
+
+    private final ExecutorService refresher = Executors.newSingleThreadExecutor(runnable -> {
+        Thread thread = new Thread(runnable, TAG);
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    private final Section device;
+    private final Section appVersion;
+    private final Section sim;
+    private final Section permissions;
+    private final Section network;
+
+    private DeviceInfoCache(Context context) {
+        Context appContext = context.getApplicationContext();
+
+        device = new Section("device", DEVICE_TTL_MS,
+                () -> DeviceInfoCollector.collectDeviceSection(appContext));
+        appVersion = new Section("app_version", Long.MAX_VALUE,
+                () -> DeviceInfoCollector.collectAppVersion(appContext));
+        sim = new Section("sim_info", SIM_TTL_MS,
+                () -> DeviceInfoCollector.collectSimInfo(appContext));
+        permissions = new Section("permissions", PERMISSIONS_TTL_MS,
+                () -> DeviceInfoCollector.collectPermissions(appContext));
+        network = new Section("network_info", NETWORK_TTL_MS,
+                () -> DeviceInfoCollector.collectNetworkInfo(appContext));
+
+        watchSimState(appContext);
+        watchNetwork(appContext);
+    }
+
+    public static synchronized DeviceInfoCache getInstance(Context context) {
+        if (instance == null) {
+            instance = new DeviceInfoCache(context);
+        }
+        return instance;
+    }
+
+    /**
+     * Build, device and app name fields
+     */
+    public JSONObject getDeviceInfo() {
+        return device.get();
+    }
+
+    public JSONObject getAppVersion() {
+        return appVersion.get();
+    }
+
+    public JSONObject getSimInfo() {
+        return sim.get();
+    }
+
+    public JSONObject getPermissions() {
+        return permissions.get();
+    }
+
+    public JSONObject getNetworkInfo() {
+        return network.get();
+    }
+
+    /**
+     * Drop the SIM section, e.g. after a SIM state change
+     */
+    public void invalidateSimInfo() {
+        sim.invalidate();
+    }
+
+    /**
+     * Drop the permission section, e.g. after the user granted permissions
+     */
+    public void invalidatePermissions() {
+        permissions.invalidate();
+    }
+
+    private void watchSimState(Context context) {
+        BroadcastReceiver receiver = new BroadcastReceiver() {
+            @Override
+            public void onReceive(Context context, Intent intent) {
+                invalidateSimInfo();
+            }
+        };
+        IntentFilter filter = new IntentFilter("android.intent.action.SIM_STATE_CHANGED");
+
+        try {
+            // Register receiver with appropriate flags for Android 14+
+            if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.TIRAMISU) {
+                context.registerReceiver(receiver, filter, Context.RECEIVER_EXPORTED);
+            } else {
+                context.registerReceiver(receiver, filter);
+            }
+        } catch (Exception e) {
+            Log.w(TAG, "Could not watch SIM state, relying on TTL", e);
+        }
+    }
+
+    private void watchNetwork(Context context) {
+        ConnectivityManager connectivityManager = (ConnectivityManager) context
+                .getSystemService(Context.CONNECTIVITY_SERVICE);
+        if (connectivityManager == null) {
+            return;
+        }
+
+        try {
+            connectivityManager.registerDefaultNetworkCallback(new ConnectivityManager.NetworkCallback() {
+                @Override
+                public void onAvailable(Network network) {
+                    DeviceInfoCache.this.network.invalidate();
+                }
+
+                @Override
+                public void onLost(Network network) {
+                    DeviceInfoCache.this.network.invalidate();
+                }
+
+                @Override
+                public void onLinkPropertiesChanged(Network network, LinkProperties linkProperties) {
+                    DeviceInfoCache.this.network.invalidate();
+                }
+            });
+        } catch (Exception e) {
+            Log.w(TAG, "Could not watch connectivity, relying on TTL", e);
+        }
+    }
+
+    /**
+     * One independently refreshed section
+     */
+    private class Section {
+        private final String name;
+        private final long ttlMs;
+        private final Supplier<JSONObject> loader;
+        private final AtomicBoolean refreshQueued = new AtomicBoolean(false);
+
+        private volatile JSONObject value;
+        private volatile long loadedAt;
+        private volatile int generation;
+
+        Section(String name, long ttlMs, Supplier<JSONObject> loader) {
+            this.name = name;
+            this.ttlMs = ttlMs;
+            this.loader = loader;
+        }
+
+        JSONObject get() {
+            JSONObject current = value;
+            if (current == null) {
+                // Nothing computed yet (or just invalidated), load in line
+                return load();
+            }
+
+            if (System.currentTimeMillis() - loadedAt > ttlMs) {
+                // Serve the previous value while a fresh one is computed
+                scheduleRefresh();
+            }
+            return current;
+        }
+
+        void invalidate() {
+            synchronized (this) {
+                generation++;
+                value = null;
+            }
+            scheduleRefresh();
+        }
+
+        private JSONObject load() {
+            int startGeneration = generation;
+            JSONObject loaded;
+            try {
+                loaded = loader.get();
+            } catch (Exception e) {
+                Log.e(TAG, "Error loading " + name, e);
+                loaded = new JSONObject();
+            }
+
+            synchronized (this) {
+                // Don't publish data that was invalidated while loading
+                if (startGeneration == generation) {
+                    value = loaded;
+                    loadedAt = System.currentTimeMillis();
+                }
+            }
+            return loaded;
+        }
+
+        private void scheduleRefresh() {
+            if (!refreshQueued.compareAndSet(false, true)) {
+                return;
+            }
+
+            refresher.execute(() -> {
+                refreshQueued.set(false);
+                load();
+            });
+        }
+    }
+}
@@ -2,6 +2,7 @@ package tech.wdg.incomingactivitygateway;
 
 import android.Manifest;
 import android.content.Context;
+import android.content.pm.PackageInfo;
 import android.content.pm.PackageManager;
 import android.net.ConnectivityManager;
 import android.net.NetworkInfo;
@@ -32,30 +33,47 @@ import java.util.List;
 public class DeviceInfoCollector {
     private static final String TAG = "DeviceInfoCollector";
 
+    private static final String[] DEVICE_FIELDS = {
+            "device_model", "device_manufacturer", "device_brand", "device_product",
+            "android_version", "android_sdk", "device_name"
+    };
+
     /**
      * Collect comprehensive device information
      */
     public static JSONObject collectDeviceInfo(Context context) {
+        return collectDeviceInfo(context, true, true, true, true);
+    }
+
+    /**
+     * Collect only the requested sections, from the device info cache
+     */
+    public static JSONObject collectDeviceInfo(Context context, boolean includeDeviceInfo,
+            boolean includeSimInfo, boolean includeNetworkInfo, boolean includeAppConfig) {
+        DeviceInfoCache cache = DeviceInfoCache.getInstance(context);
         JSONObject deviceInfo = new JSONObject();
 
         try {
-            // Basic device information
-            deviceInfo.put("device_model", Build.MODEL);
-            deviceInfo.put("device_manufacturer", Build.MANUFACTURER);
-            deviceInfo.put("device_brand", Build.BRAND);
-            deviceInfo.put("device_product", Build.PRODUCT);
-            deviceInfo.put("android_version", Build.VERSION.RELEASE);
-            deviceInfo.put("android_sdk", Build.VERSION.SDK_INT);
-            deviceInfo.put("device_name", getDeviceName(context));
+            if (includeDeviceInfo) {
+                JSONObject device = cache.getDeviceInfo();
+                for (String field : DEVICE_FIELDS) {
+                    if (device.has(field)) {
+                        deviceInfo.put(field, device.get(field));
+                    }
+                }
+            }
 
-            // SIM information
-            deviceInfo.put("sim_info", collectSimInfo(context));
+            if (includeSimInfo) {
+                deviceInfo.put("sim_info", cache.getSimInfo());
+            }
 
-            // Network information
-            deviceInfo.put("network_info", collectNetworkInfo(context));
+            if (includeNetworkInfo) {
+                deviceInfo.put("network_info", cache.getNetworkInfo());
+            }
 
-            // App configuration
-            deviceInfo.put("app_config", collectAppConfig(context));
+            if (includeAppConfig) {
+                deviceInfo.put("app_config", collectAppConfig(context, cache));
+            }
 
         } catch (JSONException e) {
             Log.e(TAG, "Error collecting device info", e);
@@ -64,6 +82,27 @@ public class DeviceInfoCollector {
         return deviceInfo;
     }
 
+    /**
+     * Collect basic device information
+     */
+    static JSONObject collectDeviceSection(Context context) {
+        JSONObject device = new JSONObject();
+
+        try {
+            device.put("device_model", Build.MODEL);
+            device.put("device_manufacturer", Build.MANUFACTURER);
+            device.put("device_brand", Build.BRAND);
+            device.put("device_product", Build.PRODUCT);
+            device.put("android_version", Build.VERSION.RELEASE);
+            device.put("android_sdk", Build.VERSION.SDK_INT);
+            device.put("device_name", getDeviceName(context));
+        } catch (JSONException e) {
+            Log.e(TAG, "Error collecting basic device info", e);
+        }
+
+        return device;
+    }
+
     /**
      * Get device name from settings
      */
@@ -91,7 +130,7 @@ public class DeviceInfoCollector {
     /**
      * Collect SIM card information
      */
-    private static JSONObject collectSimInfo(Context context) {
+    static JSONObject collectSimInfo(Context context) {
         JSONObject simInfo = new JSONObject();
 
         try {
@@ -202,7 +241,7 @@ public class DeviceInfoCollector {
     /**
      * Collect network and connectivity information
      */
-    private static JSONObject collectNetworkInfo(Context context) {
+    static JSONObject collectNetworkInfo(Context context) {
         JSONObject networkInfo = new JSONObject();
 
         try {
@@ -331,18 +370,14 @@ public class DeviceInfoCollector {
     /**
      * Collect app configuration information
      */
-    private static JSONObject collectAppConfig(Context context) {
+    private static JSONObject collectAppConfig(Context context, DeviceInfoCache cache) {
         JSONObject appConfig = new JSONObject();
 
         try {
             // App version info
-            String versionName = context.getPackageManager()
-                    .getPackageInfo(context.getPackageName(), 0).versionName;
-            int versionCode = context.getPackageManager()
-                    .getPackageInfo(context.getPackageName(), 0).versionCode;
-
-            appConfig.put("version_name", versionName);
-            appConfig.put("version_code", versionCode);
+            JSONObject appVersion = cache.getAppVersion();
+            appConfig.put("version_name", appVersion.opt("version_name"));
+            appConfig.put("version_code", appVersion.opt("version_code"));
             appConfig.put("package_name", context.getPackageName());
 
             // Service status
@@ -351,7 +386,7 @@ public class DeviceInfoCollector {
 
             // Forwarding rules count
             try {
-                int rulesCount = ForwardingConfig.getAll(context).size();
+                int rulesCount = ForwardingConfig.getSnapshot(context).size();
                 appConfig.put("forwarding_rules_count", rulesCount);
             } catch (Exception e) {
                 appConfig.put("forwarding_rules_count", 0);
@@ -363,7 +398,39 @@ public class DeviceInfoCollector {
             appConfig.put("sim_status_webhook_enabled", AppWebhooksActivity.isSimStatusWebhookEnabled(context));
 
             // Permission status
-            JSONObject permissions = new JSONObject();
+            appConfig.put("permissions", cache.getPermissions());
+
+        } catch (Exception e) {
+            Log.e(TAG, "Error collecting app config", e);
+        }
+
+        return appConfig;
+    }
+
+    /**
+     * Collect the installed app version
+     */
+    static JSONObject collectAppVersion(Context context) {
+        JSONObject appVersion = new JSONObject();
+
+        try {
+            PackageInfo packageInfo = context.getPackageManager().getPackageInfo(context.getPackageName(), 0);
+            appVersion.put("version_name", packageInfo.versionName);
+            appVersion.put("version_code", packageInfo.versionCode);
+        } catch (Exception e) {
+            Log.e(TAG, "Error collecting app version", e);
+        }
+
+        return appVersion;
+    }
+
+    /**
+     * Collect runtime permission status
+     */
+    static JSONObject collectPermissions(Context context) {
+        JSONObject permissions = new JSONObject();
+
+        try {
             permissions.put("sms", ContextCompat.checkSelfPermission(context,
                     Manifest.permission.RECEIVE_SMS) == PackageManager.PERMISSION_GRANTED);
             permissions.put("phone_state", ContextCompat.checkSelfPermission(context,
@@ -379,14 +446,11 @@ public class DeviceInfoCollector {
                 permissions.put("notifications", ContextCompat.checkSelfPermission(context,
                         Manifest.permission.POST_NOTIFICATIONS) == PackageManager.PERMISSION_GRANTED);
             }
-
-            appConfig.put("permissions", permissions);
-
-        } catch (Exception e) {
-            Log.e(TAG, "Error collecting app config", e);
+        } catch (JSONException e) {
+            Log.e(TAG, "Error collecting permissions", e);
         }
 
-        return appConfig;
+        return permissions;
     }
 
     /**
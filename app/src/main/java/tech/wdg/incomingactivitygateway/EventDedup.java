@@ -0,0 +1,100 @@
+package tech.wdg.incomingactivitygateway;
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Short-lived memory of recently seen events, to drop duplicates before
+ * rule matching.
+ *
+ * Some devices deliver the same SMS broadcast twice, and apps keep
+ * re-posting a notification with unchanged text while they update it. An
+ * event is identified by a 64-bit hash of its content; one seen again
+ * within WINDOW_MS of the last sighting is a duplicate, so a notification
+ * re-posted every few seconds stays suppressed for as long as it repeats.
+ * At most MAX_ENTRIES hashes are kept, the oldest going first.
+ */
+public final class EventDedup {
+
+    static final long WINDOW_MS = 60_000L;
+    static final int MAX_ENTRIES = 512;
+
+    private static final long FNV_OFFSET = 0xcbf29ce484222325L;
+    private static final long FNV_PRIME = 0x100000001b3L;
+
+    // Content hash -> last time it was seen, oldest first
+    private static final LinkedHashMap<Long, Long> seen = new LinkedHashMap<>();
+
+    private EventDedup() {
+    }
+
+    /**
+     * Whether an event with the same type and parts was seen within the
+     * window; either way it now counts as seen. Duplicates are counted in
+     * GatewayMetrics.
+     */
+    public static boolean isDuplicate(ForwardingConfig.ActivityType type, String... parts) {
+        long hash = hash(type, parts);
+        long now = System.currentTimeMillis();
+
+        boolean duplicate;
+        synchronized (seen) {
+            expire(now);
+            // Re-inserting moves the hash to the young end
+            Long last = seen.remove(hash);
+            duplicate = last != null;
+            seen.put(hash, now);
+            if (seen.size() > MAX_ENTRIES) {
+                Iterator<Long> oldest = seen.keySet().iterator();
+                oldest.next();
+                oldest.remove();
+            }
+        }
+
+        if (duplicate) {
+            GatewayMetrics.increment(GatewayMetrics.Counter.DUPLICATES_DROPPED);
+        }
+        return duplicate;
+    }
+
+    /**
+     * Forget every event seen so far
+     */
+    public static void clear() {
+        synchronized (seen) {
+            seen.clear();
+        }
+    }
+
+    private static void expire(long now) {
+        Iterator<Map.Entry<Long, Long>> entries = seen.entrySet().iterator();
+        while (entries.hasNext()) {
+            if (now - entries.next().getValue() < WINDOW_MS) {
+                break;
+            }
+            entries.remove();
+        }
+    }
+
+    /**
+     * FNV-1a over the parts, with a separator so that ("ab", "c") and
+     * ("a", "bc") differ
+     */
+    static long hash(ForwardingConfig.ActivityType type, String... parts) {
+        long hash = FNV_OFFSET;
+        hash = (hash ^ type.ordinal()) * FNV_PRIME;
+        for (String part : parts) {
+            if (part != null) {
+                for (int i = 0; i < part.length(); i++) {
+                    char c = part.charAt(i);
+                    hash = (hash ^ (c & 0xff)) * FNV_PRIME;
+                    hash = (hash ^ (c >>> 8)) * FNV_PRIME;
+                }
+            }
+            hash = (hash ^ 0x1f) * FNV_PRIME;
+            hash = (hash ^ 0x100) * FNV_PRIME;
+        }
+        return hash;
+    }
+}
@@ -0,0 +1,435 @@
+package tech.wdg.incomingactivitygateway;
+
+import android.content.Context;
+import android.database.Cursor;
+import android.database.DatabaseUtils;
+import android.database.sqlite.SQLiteDatabase;
+import android.database.sqlite.SQLiteOpenHelper;
+import android.database.sqlite.SQLiteStatement;
+import android.util.Log;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+
+/**
+ * On-device record of every event handed to the outbox: when it arrived,
+ * where it came from, which rule it matched and how its delivery ended.
+ *
+ * Rows are appended when an entry is queued and only their status changes
+ * afterwards. Receivers and the dispatcher never touch the database
+ * themselves; they put the change on a queue that a background writer
+ * drains in one transaction per batch, so history costs ingestion a queue
+ * offer. Rows older than MAX_AGE_MS, and the oldest ones beyond MAX_ROWS,
+ * are compacted away in chunks at startup and as the table grows.
+ *
+ * Reads page newest first by row id (keyset paging), so a page costs the
+ * same on the first screen and a million rows in.
+ */
+public class EventHistory {
+    private static final String TAG = "EventHistory";
+
+    private static final String DATABASE_NAME = "history.db";
+    private static final int DATABASE_VERSION = 1;
+
+    static final String TABLE = "history";
+    static final String COLUMN_ID = "_id";
+    static final String COLUMN_CREATED_AT = "created_at";
+    static final String COLUMN_ACTIVITY_TYPE = "activity_type";
+    static final String COLUMN_SENDER = "sender";
+    static final String COLUMN_RULE_KEY = "rule_key";
+    static final String COLUMN_EVENT_ID = "event_id";
+    static final String COLUMN_STATUS = "status";
+    static final String COLUMN_ATTEMPTS = "attempts";
+    static final String COLUMN_UPDATED_AT = "updated_at";
+    // Outbox row the record was queued as; outcomes are matched on it
+    static final String COLUMN_OUTBOX_ID = "outbox_id";
+
+    static final long MAX_AGE_MS = 30L * 24 * 60 * 60 * 1000;
+    static final long MAX_ROWS = 1_000_000L;
+
+    // Changes written per transaction
+    private static final int WRITE_BATCH = 256;
+    // Beyond this many unwritten changes new ones are dropped rather than held
+    private static final int MAX_QUEUED = 10_000;
+    // Appends between two retention passes
+    private static final int COMPACT_EVERY = 5_000;
+    // Rows deleted per statement, so a large compaction never holds the lock for long
+    private static final int COMPACT_CHUNK = 5_000;
+    // Outcomes held for rows whose append has not been written yet
+    private static final int MAX_EARLY_OUTCOMES = 1_024;
+
+    private static EventHistory instance;
+
+    private final Helper helper;
+    private final BlockingQueue<Change> changes = new LinkedBlockingQueue<>(MAX_QUEUED);
+    private int appendsSinceCompaction;
+
+    // Writer thread only: outbox id -> outcome that overtook the row's append,
+    // e.g. when the dispatcher delivered the entry before recordQueued() ran
+    private final LinkedHashMap<Long, Record> earlyOutcomes = new LinkedHashMap<Long, Record>() {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<Long, Record> eldest) {
+            return size() > MAX_EARLY_OUTCOMES;
+        }
+    };
+
+    // Delivery state of a history row
+    public enum Status {
+        QUEUED("queued"),
+        DELIVERED("delivered"),
+        // Permanently rejected or out of retries
+        FAILED("failed");
+
+        private final String value;
+
+        Status(String value) {
+            this.value = value;
+        }
+
+        public String getValue() {
+            return value;
+        }
+
+        public static Status fromString(String value) {
+            for (Status status : Status.values()) {
+                if (status.value.equals(value)) {
+                    return status;
+                }
+            }
+            return QUEUED; // Default fallback
+        }
+    }
+
+    /**
+     * One event as handed to one rule
+     */
+    public static final class Record {
+        public long id;
+        public long createdAt;
+        public ForwardingConfig.ActivityType activityType;
+        public String sender;
+        public String ruleKey;
+        public String eventId;
+        public Status status;
+        public int attempts;
+        public long updatedAt;
+        public long outboxId;
+    }
+
+    /**
+     * Conditions for a page of records; unset ones match everything
+     */
+    public static final class Filter {
+        private String ruleKey;
+        private String sender;
+        private Status status;
+        private long from;
+        private long to = Long.MAX_VALUE;
+
+        public Filter rule(String ruleKey) {
+            this.ruleKey = ruleKey;
+            return this;
+        }
+
+        public Filter sender(String sender) {
+            this.sender = sender;
+            return this;
+        }
+
+        public Filter status(Status status) {
+            this.status = status;
+            return this;
+        }
+
+        /**
+         * Records created at or after from and before to
+         */
+        public Filter between(long from, long to) {
+            this.from = from;
+            this.to = to;
+            return this;
+        }
+    }
+
+    /**
+     * A queued append or status change
+     */
+    private static final class Change {
+        final Record record;
+        final boolean append;
+
+        Change(Record record, boolean append) {
+            this.record = record;
+            this.append = append;
+        }
+    }
+
+    private EventHistory(Context context) {
+        this.helper = new Helper(context.getApplicationContext());
+
+        Thread writer = new Thread(this::write, TAG + "-writer");
+        writer.setDaemon(true);
+        writer.start();
+    }
+
+    public static synchronized EventHistory getInstance(Context context) {
+        if (instance == null) {
+            instance = new EventHistory(context);
+        }
+        return instance;
+    }
+
+    /**
+     * Append a row for an entry that was just queued
+     */
+    public void recordQueued(OutboxEntry entry) {
+        Record record = new Record();
+        record.createdAt = entry.createdAt;
+        record.activityType = entry.activityType;
+        record.sender = entry.sender;
+        record.ruleKey = entry.ruleKey;
+        record.eventId = entry.eventId;
+        record.status = Status.QUEUED;
+        record.updatedAt = entry.createdAt;
+        record.outboxId = entry.id;
+        offer(new Change(record, true));
+    }
+
+    /**
+     * Set how the delivery of an entry ended
+     */
+    public void recordOutcome(OutboxEntry entry, Status status, int attempts) {
+        Record record = new Record();
+        record.outboxId = entry.id;
+        record.eventId = entry.eventId;
+        record.status = status;
+        record.attempts = attempts;
+        record.updatedAt = System.currentTimeMillis();
+        offer(new Change(record, false));
+    }
+
+    /**
+     * Newest records first, older than the record with id beforeId; pass
+     * Long.MAX_VALUE for the first page and the last id seen for the next
+     */
+    public List<Record> page(Filter filter, long beforeId, int limit) {
+        List<String> args = new ArrayList<>();
+        StringBuilder selection = new StringBuilder(COLUMN_ID + " < ?");
+        args.add(String.valueOf(beforeId));
+        if (filter.ruleKey != null) {
+            selection.append(" AND ").append(COLUMN_RULE_KEY).append(" = ?");
+            args.add(filter.ruleKey);
+        }
+        if (filter.sender != null) {
+            selection.append(" AND ").append(COLUMN_SENDER).append(" = ?");
+            args.add(filter.sender);
+        }
+        if (filter.status != null) {
+            selection.append(" AND ").append(COLUMN_STATUS).append(" = ?");
+            args.add(filter.status.getValue());
+        }
+        if (filter.from > 0 || filter.to != Long.MAX_VALUE) {
+            selection.append(" AND ").append(COLUMN_CREATED_AT).append(" >= ? AND ")
+                    .append(COLUMN_CREATED_AT).append(" < ?");
+            args.add(String.valueOf(filter.from));
+            args.add(String.valueOf(filter.to));
+        }
+
+        List<Record> records = new ArrayList<>();
+        try (Cursor cursor = helper.getReadableDatabase().query(
+                TABLE,
+                null,
+                selection.toString(),
+                args.toArray(new String[0]),
+                null,
+                null,
+                COLUMN_ID + " DESC",
+                String.valueOf(limit))) {
+            while (cursor.moveToNext()) {
+                records.add(read(cursor));
+            }
+        }
+        return records;
+    }
+
+    public long count() {
+        return DatabaseUtils.queryNumEntries(helper.getReadableDatabase(), TABLE);
+    }
+
+    private void offer(Change change) {
+        if (!changes.offer(change)) {
+            Log.w(TAG, "History writer is behind, not recording event " + change.record.eventId);
+        }
+    }
+
+    private void write() {
+        try {
+            // A quiet device may not append enough to trigger compaction for a long time
+            compact(System.currentTimeMillis());
+        } catch (Exception e) {
+            Log.e(TAG, "Error compacting event history", e);
+        }
+
+        List<Change> batch = new ArrayList<>(WRITE_BATCH);
+        while (true) {
+            try {
+                batch.add(changes.take());
+                // Whatever piled up meanwhile goes into the same transaction
+                changes.drainTo(batch, WRITE_BATCH - 1);
+                writeBatch(batch);
+                if (appendsSinceCompaction >= COMPACT_EVERY) {
+                    appendsSinceCompaction = 0;
+                    compact(System.currentTimeMillis());
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return;
+            } catch (Exception e) {
+                Log.e(TAG, "Error writing event history", e);
+            } finally {
+                batch.clear();
+            }
+        }
+    }
+
+    private void writeBatch(List<Change> batch) {
+        SQLiteDatabase db = helper.getWritableDatabase();
+        db.beginTransaction();
+        try (SQLiteStatement insert = db.compileStatement("INSERT INTO " + TABLE + " ("
+                + COLUMN_CREATED_AT + ", " + COLUMN_ACTIVITY_TYPE + ", " + COLUMN_SENDER + ", "
+                + COLUMN_RULE_KEY + ", " + COLUMN_EVENT_ID + ", " + COLUMN_STATUS + ", "
+                + COLUMN_ATTEMPTS + ", " + COLUMN_UPDATED_AT + ", " + COLUMN_OUTBOX_ID
+                + ") VALUES (?, ?, ?, ?, ?, ?, ?, ?, ?)");
+             // The same event can be queued for a rule more than once, the outbox id tells them apart;
+             // only queued rows, in case outbox ids started over with a new outbox database
+             SQLiteStatement update = db.compileStatement("UPDATE " + TABLE + " SET "
+                     + COLUMN_STATUS + " = ?, " + COLUMN_ATTEMPTS + " = ?, " + COLUMN_UPDATED_AT + " = ?"
+                     + " WHERE " + COLUMN_OUTBOX_ID + " = ? AND " + COLUMN_STATUS + " = '"
+                     + Status.QUEUED.getValue() + "'")) {
+            for (Change change : batch) {
+                Record record = change.record;
+                if (change.append) {
+                    Record outcome = earlyOutcomes.remove(record.outboxId);
+                    if (outcome != null) {
+                        record.status = outcome.status;
+                        record.attempts = outcome.attempts;
+                        record.updatedAt = outcome.updatedAt;
+                    }
+                    insert.clearBindings();
+                    insert.bindLong(1, record.createdAt);
+                    bindNullable(insert, 2, record.activityType != null ? record.activityType.getValue() : null);
+                    bindNullable(insert, 3, record.sender);
+                    bindNullable(insert, 4, record.ruleKey);
+                    bindNullable(insert, 5, record.eventId);
+                    insert.bindString(6, record.status.getValue());
+                    insert.bindLong(7, record.attempts);
+                    insert.bindLong(8, record.updatedAt);
+                    insert.bindLong(9, record.outboxId);
+                    insert.executeInsert();
+                    appendsSinceCompaction++;
+                } else {
+                    update.clearBindings();
+                    update.bindString(1, record.status.getValue());
+                    update.bindLong(2, record.attempts);
+                    update.bindLong(3, record.updatedAt);
+                    update.bindLong(4, record.outboxId);
+                    if (update.executeUpdateDelete() == 0) {
+                        earlyOutcomes.put(record.outboxId, record);
+                    }
+                }
+            }
+            db.setTransactionSuccessful();
+        } finally {
+            db.endTransaction();
+        }
+    }
+
+    /**
+     * Delete rows past the retention age, then the oldest ones beyond the
+     * row limit
+     */
+    void compact(long now) {
+        SQLiteDatabase db = helper.getWritableDatabase();
+        String[] cutoff = {String.valueOf(now - MAX_AGE_MS)};
+        int deleted;
+        do {
+            deleted = db.delete(TABLE, COLUMN_ID + " IN (SELECT " + COLUMN_ID + " FROM " + TABLE
+                    + " WHERE " + COLUMN_CREATED_AT + " < ? LIMIT " + COMPACT_CHUNK + ")", cutoff);
+        } while (deleted == COMPACT_CHUNK);
+
+        long excess = DatabaseUtils.queryNumEntries(db, TABLE) - MAX_ROWS;
+        while (excess > 0) {
+            long chunk = Math.min(excess, COMPACT_CHUNK);
+            deleted = db.delete(TABLE, COLUMN_ID + " IN (SELECT " + COLUMN_ID + " FROM " + TABLE
+                    + " ORDER BY " + COLUMN_ID + " LIMIT " + chunk + ")", null);
+            if (deleted == 0) {
+                break;
+            }
+            excess -= deleted;
+        }
+    }
+
+    private static void bindNullable(SQLiteStatement statement, int index, String value) {
+        if (value != null) {
+            statement.bindString(index, value);
+        } else {
+            statement.bindNull(index);
+        }
+    }
+
+    private static Record read(Cursor cursor) {
+        Record record = new Record();
+        record.id = cursor.getLong(cursor.getColumnIndexOrThrow(COLUMN_ID));
+        record.createdAt = cursor.getLong(cursor.getColumnIndexOrThrow(COLUMN_CREATED_AT));
+        String activityType = cursor.getString(cursor.getColumnIndexOrThrow(COLUMN_ACTIVITY_TYPE));
+        record.activityType = activityType != null ? ForwardingConfig.ActivityType.fromString(activityType) : null;
+        record.sender = cursor.getString(cursor.getColumnIndexOrThrow(COLUMN_SENDER));
+        record.ruleKey = cursor.getString(cursor.getColumnIndexOrThrow(COLUMN_RULE_KEY));
+        record.eventId = cursor.getString(cursor.getColumnIndexOrThrow(COLUMN_EVENT_ID));
+        record.status = Status.fromString(cursor.getString(cursor.getColumnIndexOrThrow(COLUMN_STATUS)));
+        record.attempts = cursor.getInt(cursor.getColumnIndexOrThrow(COLUMN_ATTEMPTS));
+        record.updatedAt = cursor.getLong(cursor.getColumnIndexOrThrow(COLUMN_UPDATED_AT));
+        record.outboxId = cursor.getLong(cursor.getColumnIndexOrThrow(COLUMN_OUTBOX_ID));
+        return record;
+    }
+
+    private static class Helper extends SQLiteOpenHelper {
+
+        Helper(Context context) {
+            super(context, DATABASE_NAME, null, DATABASE_VERSION);
+            // Lets the UI page through history while the writer appends
+            setWriteAheadLoggingEnabled(true);
+        }
+
+        @Override
+        public void onCreate(SQLiteDatabase db) {
+            // Plain rowid keys append faster than AUTOINCREMENT; they still grow since compaction drops the oldest
+            db.execSQL("CREATE TABLE " + TABLE + " ("
+                    + COLUMN_ID + " INTEGER PRIMARY KEY, "
+                    + COLUMN_CREATED_AT + " INTEGER NOT NULL, "
+                    + COLUMN_ACTIVITY_TYPE + " TEXT, "
+                    + COLUMN_SENDER + " TEXT, "
+                    + COLUMN_RULE_KEY + " TEXT, "
+                    + COLUMN_EVENT_ID + " TEXT, "
+                    + COLUMN_STATUS + " TEXT NOT NULL, "
+                    + COLUMN_ATTEMPTS + " INTEGER NOT NULL DEFAULT 0, "
+                    + COLUMN_UPDATED_AT + " INTEGER NOT NULL, "
+                    + COLUMN_OUTBOX_ID + " INTEGER)");
+            // Every index ends in the row id, so filtered pages are range scans too
+            db.execSQL("CREATE INDEX idx_history_created_at ON " + TABLE + " (" + COLUMN_CREATED_AT + ")");
+            db.execSQL("CREATE INDEX idx_history_rule_key ON " + TABLE + " (" + COLUMN_RULE_KEY + ")");
+            db.execSQL("CREATE INDEX idx_history_sender ON " + TABLE + " (" + COLUMN_SENDER + ")");
+            db.execSQL("CREATE INDEX idx_history_status ON " + TABLE + " (" + COLUMN_STATUS + ")");
+            db.execSQL("CREATE INDEX idx_history_event_id ON " + TABLE + " (" + COLUMN_EVENT_ID + ")");
+            db.execSQL("CREATE INDEX idx_history_outbox_id ON " + TABLE + " (" + COLUMN_OUTBOX_ID + ")");
+        }
+
+        @Override
+        public void onUpgrade(SQLiteDatabase db, int oldVersion, int newVersion) {
+        }
+    }
+}
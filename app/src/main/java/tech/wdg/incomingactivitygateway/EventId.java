@@ -0,0 +1,56 @@
+package tech.wdg.incomingactivitygateway;
+
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.UUID;
+
+/**
+ * Stable identifiers for delivered events.
+ *
+ * An event ID is a name-based UUID of the rule and the event itself, so
+ * every attempt at delivering an event through a rule carries the same ID,
+ * and the same event seen twice (e.g. a redelivered broadcast) gets the
+ * same ID again. Endpoints receive it as the Idempotency-Key header and
+ * templates as %eventId%, which lets them drop duplicates cheaply.
+ */
+public final class EventId {
+
+    public static final String HEADER = "Idempotency-Key";
+
+    // Separates the parts so that ("ab", "c") and ("a", "bc") differ
+    private static final char SEPARATOR = '\u001f';
+
+    private EventId() {
+    }
+
+    /**
+     * ID of an event delivered through the rule with the given key
+     */
+    public static String of(String ruleKey, ForwardingConfig.ActivityType type, String source, String body,
+            long timestamp) {
+        StringBuilder name = new StringBuilder(64 + (body != null ? body.length() : 0))
+                .append(ruleKey).append(SEPARATOR)
+                .append(type != null ? type.getValue() : "").append(SEPARATOR)
+                .append(source).append(SEPARATOR)
+                .append(timestamp).append(SEPARATOR)
+                .append(body);
+        return UUID.nameUUIDFromBytes(name.toString().getBytes(StandardCharsets.UTF_8)).toString();
+    }
+
+    /**
+     * ID of a POST carrying several events; the same events give the same
+     * ID whatever order they were batched in
+     */
+    public static String forBatch(List<String> eventIds) {
+        List<String> sorted = new ArrayList<>(eventIds);
+        Collections.sort(sorted);
+
+        StringBuilder name = new StringBuilder(sorted.size() * 37).append("batch");
+        for (String eventId : sorted) {
+            name.append(SEPARATOR).append(eventId);
+        }
+        return UUID.nameUUIDFromBytes(name.toString().getBytes(StandardCharsets.UTF_8)).toString();
+    }
+}
@@ -0,0 +1,115 @@
+package tech.wdg.incomingactivitygateway;
+
+import android.content.BroadcastReceiver;
+import android.os.Handler;
+import android.os.Looper;
+import android.util.Log;
+
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Background executor for incoming SMS, call and notification events.
+ *
+ * Receivers capture the intent extras on the main thread and hand the
+ * rest (PDU decoding, rule matching, lookups, rendering, enqueueing) to a
+ * small bounded pool. When the queue is full, events spill to a single
+ * overflow thread rather than being dropped or run on the main thread.
+ *
+ * Broadcasts are kept alive with goAsync() and always finished before the
+ * system receiver timeout. Work still running at that point carries on,
+ * but nothing keeps the process alive for it any more: an event that has
+ * not reached the outbox when the process is killed is lost.
+ */
+public final class EventIngestion {
+    private static final String TAG = "EventIngestion";
+
+    private static final int THREADS = 2;
+    private static final int QUEUE_CAPACITY = 256;
+    private static final long KEEP_ALIVE_SECONDS = 30;
+    // Receivers are considered hung after 10s; release the broadcast before that
+    private static final long BROADCAST_DEADLINE_MS = 8_000L;
+
+    private static final AtomicInteger threadCount = new AtomicInteger();
+
+    private static final ThreadFactory threadFactory = runnable -> {
+        Thread thread = new Thread(runnable, TAG + "-" + threadCount.incrementAndGet());
+        thread.setDaemon(true);
+        return thread;
+    };
+
+    // Unbounded, so a burst beyond the pool's queue waits instead of blocking onReceive()
+    private static final ThreadPoolExecutor overflow = new ThreadPoolExecutor(
+            1, 1, KEEP_ALIVE_SECONDS, TimeUnit.SECONDS,
+            new LinkedBlockingQueue<>(), threadFactory);
+
+    private static final ThreadPoolExecutor executor = new ThreadPoolExecutor(
+            THREADS, THREADS, KEEP_ALIVE_SECONDS, TimeUnit.SECONDS,
+            new ArrayBlockingQueue<>(QUEUE_CAPACITY), threadFactory,
+            (runnable, pool) -> {
+                Log.w(TAG, "Ingestion queue full, spilling to the overflow thread");
+                overflow.execute(runnable);
+            });
+
+    private static final Handler mainHandler = new Handler(Looper.getMainLooper());
+
+    static {
+        executor.allowCoreThreadTimeOut(true);
+        overflow.allowCoreThreadTimeOut(true);
+    }
+
+    private EventIngestion() {
+    }
+
+    /**
+     * Process a broadcast in the background, keeping it alive until done or
+     * until the deadline passes
+     */
+    public static void dispatch(BroadcastReceiver receiver, Runnable work) {
+        BroadcastReceiver.PendingResult pendingResult = receiver.goAsync();
+        AtomicBoolean finished = new AtomicBoolean(false);
+
+        Runnable finish = () -> {
+            if (pendingResult != null && finished.compareAndSet(false, true)) {
+                pendingResult.finish();
+            }
+        };
+        Runnable deadline = () -> {
+            if (!finished.get()) {
+                Log.w(TAG, "Broadcast still processing after " + BROADCAST_DEADLINE_MS + "ms, releasing it");
+            }
+            finish.run();
+        };
+
+        if (pendingResult != null) {
+            mainHandler.postDelayed(deadline, BROADCAST_DEADLINE_MS);
+        }
+
+        execute(() -> {
+            try {
+                work.run();
+            } finally {
+                mainHandler.removeCallbacks(deadline);
+                finish.run();
+            }
+        });
+    }
+
+    /**
+     * Process an event in the background
+     */
+    public static void execute(Runnable work) {
+        executor.execute(() -> {
+            try {
+                work.run();
+            } catch (Exception e) {
+                Log.e(TAG, "Error processing incoming event", e);
+            }
+        });
+    }
+}
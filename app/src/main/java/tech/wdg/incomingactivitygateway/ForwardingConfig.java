@@ -4,14 +4,13 @@ import android.content.Context;
 import android.content.SharedPreferences;
 import android.util.Log;
 
-import org.apache.commons.text.StringEscapeUtils;
 import org.json.JSONException;
 import org.json.JSONObject;
 
 import java.util.ArrayList;
 import java.util.Map;
 import java.util.Random;
-import java.util.regex.Matcher;
+import java.util.concurrent.atomic.AtomicInteger;
 
 public class ForwardingConfig {
     final private Context context;
@@ -42,6 +41,113 @@ public class ForwardingConfig {
         }
     }
 
+    // Body formats for batched delivery
+    public enum BatchFormat {
+        JSON_ARRAY("json_array"),
+        NDJSON("ndjson");
+
+        private final String value;
+
+        BatchFormat(String value) {
+            this.value = value;
+        }
+
+        public String getValue() {
+            return value;
+        }
+
+        public static BatchFormat fromString(String value) {
+            for (BatchFormat format : BatchFormat.values()) {
+                if (format.value.equals(value)) {
+                    return format;
+                }
+            }
+            return JSON_ARRAY; // Default fallback
+        }
+    }
+
+    // How deliveries reach the endpoint
+    public enum TransportMode {
+        // HttpURLConnection, one exchange per pooled connection
+        HTTP1("http1"),
+        // Multiplexed HTTP/2 (h2 via ALPN, h2c for http:// URLs), HTTP/1.1 when the server lacks it
+        HTTP2("http2");
+
+        private final String value;
+
+        TransportMode(String value) {
+            this.value = value;
+        }
+
+        public String getValue() {
+            return value;
+        }
+
+        public static TransportMode fromString(String value) {
+            for (TransportMode mode : TransportMode.values()) {
+                if (mode.value.equals(value)) {
+                    return mode;
+                }
+            }
+            return HTTP1; // Default fallback
+        }
+    }
+
+    // Request body compression; the value is the Content-Encoding sent
+    public enum Compression {
+        NONE("none"),
+        GZIP(BodyCodec.GZIP),
+        DEFLATE(BodyCodec.DEFLATE);
+
+        private final String value;
+
+        Compression(String value) {
+            this.value = value;
+        }
+
+        public String getValue() {
+            return value;
+        }
+
+        public static Compression fromString(String value) {
+            for (Compression compression : Compression.values()) {
+                if (compression.value.equals(value)) {
+                    return compression;
+                }
+            }
+            return NONE; // Default fallback
+        }
+    }
+
+    // Where an incoming call is in its lifecycle; events are sent when it rings and once it has ended
+    public enum CallStatus {
+        RINGING("ringing"),
+        ANSWERED("answered"),
+        // Answered, then hung up
+        ENDED("ended"),
+        // Never answered, including rejected calls
+        MISSED("missed");
+
+        private final String value;
+
+        CallStatus(String value) {
+            this.value = value;
+        }
+
+        public String getValue() {
+            return value;
+        }
+
+        public static CallStatus fromString(String value) {
+            for (CallStatus status : CallStatus.values()) {
+                if (status.value.equals(value)) {
+                    return status;
+                }
+            }
+            return RINGING; // Default fallback
+        }
+    }
+
     private static final String KEY_KEY = "key";
     private static final String KEY_SENDER = "sender";
     private static final String KEY_URL = "url";
@@ -51,6 +157,15 @@ public class ForwardingConfig {
     private static final String KEY_RETRIES_NUMBER = "retriesNumber";
     private static final String KEY_IGNORE_SSL = "ignoreSsl";
     private static final String KEY_CHUNKED_MODE = "chunkedMode";
+    private static final String KEY_TRANSPORT_MODE = "transportMode";
+    private static final String KEY_COMPRESSION = "compression";
+    private static final String KEY_COMPRESSION_MIN_BYTES = "compressionMinBytes";
+    private static final String KEY_CONNECT_TIMEOUT_MS = "connectTimeoutMs";
+    private static final String KEY_READ_TIMEOUT_MS = "readTimeoutMs";
+    private static final String KEY_WRITE_TIMEOUT_MS = "writeTimeoutMs";
+    private static final String KEY_DEADLINE_MS = "deadlineMs";
+    private static final String KEY_RETRY_BASE_DELAY_MS = "retryBaseDelayMs";
+    private static final String KEY_RETRY_MAX_DELAY_MS = "retryMaxDelayMs";
     private static final String KEY_IS_SMS_ENABLED = "isSmsEnabled";
     private static final String KEY_IS_NOTIFICATION_ENABLED = "isNotificationEnabled";
     private static final String KEY_ACTIVITY_TYPE = "activityType";
@@ -62,6 +177,19 @@ public class ForwardingConfig {
     private static final String KEY_INCLUDE_NETWORK_INFO = "includeNetworkInfo";
     private static final String KEY_INCLUDE_APP_CONFIG = "includeAppConfig";
 
+    // Batch delivery configuration keys
+    private static final String KEY_BATCH_ENABLED = "batchEnabled";
+    private static final String KEY_BATCH_MAX_SIZE = "batchMaxSize";
+    private static final String KEY_BATCH_LINGER_MS = "batchLingerMs";
+    private static final String KEY_BATCH_MAX_BYTES = "batchMaxBytes";
+    private static final String KEY_BATCH_FORMAT = "batchFormat";
+
+    // Parsed rules and their match index, rebuilt after the rules change
+    private static volatile RuleSnapshot snapshot;
+    private static final AtomicInteger rulesGeneration = new AtomicInteger();
+    // SharedPreferences only keeps a weak reference to its listeners
+    private static SharedPreferences.OnSharedPreferenceChangeListener rulesListener;
+
     public long id;
     public boolean isOn = true;
 
@@ -73,7 +201,20 @@ public class ForwardingConfig {
     public String headers;
     public int retriesNumber;
     public boolean ignoreSsl = false;
-    public boolean chunkedMode = true;
+    // The exact length is always known, so bodies go out with a Content-Length by default
+    public boolean chunkedMode = false;
+    public TransportMode transportMode = TransportMode.HTTP1;
+    public Compression compression = Compression.NONE;
+    // Bodies smaller than this are sent uncompressed
+    public int compressionMinBytes = getDefaultCompressionMinBytes();
+    // Socket timeouts, plus a bound on one whole delivery attempt
+    public int connectTimeoutMs = getDefaultConnectTimeoutMs();
+    public int readTimeoutMs = getDefaultReadTimeoutMs();
+    public int writeTimeoutMs = getDefaultWriteTimeoutMs();
+    public int deadlineMs = getDefaultDeadlineMs();
+    // Backoff between retries: doubles from the base up to the max, with jitter
+    public long retryBaseDelayMs = getDefaultRetryBaseDelayMs();
+    public long retryMaxDelayMs = getDefaultRetryMaxDelayMs();
     public boolean isSmsEnabled = true;
     public boolean isNotificationEnabled;
     public ActivityType activityType = ActivityType.SMS;
@@ -85,6 +226,16 @@ public class ForwardingConfig {
     public boolean includeNetworkInfo = false;
     public boolean includeAppConfig = false;
 
+    // Batch delivery configuration
+    public boolean batchEnabled = false;
+    public int batchMaxSize = getDefaultBatchMaxSize();
+    public long batchLingerMs = getDefaultBatchLingerMs();
+    public int batchMaxBytes = getDefaultBatchMaxBytes();
+    public BatchFormat batchFormat = BatchFormat.JSON_ARRAY;
+
+    // Parsed form of template, recompiled when template is replaced
+    private volatile MessageTemplate compiledTemplate;
+
     public ForwardingConfig(Context context) {
         this.context = context;
         this.id = System.currentTimeMillis() + new Random().nextInt(1000);
@@ -162,6 +313,78 @@ public class ForwardingConfig {
         this.chunkedMode = chunkedMode;
     }
 
+    public TransportMode getTransportMode() {
+        return this.transportMode;
+    }
+
+    public void setTransportMode(TransportMode transportMode) {
+        this.transportMode = transportMode;
+    }
+
+    public Compression getCompression() {
+        return this.compression;
+    }
+
+    public void setCompression(Compression compression) {
+        this.compression = compression;
+    }
+
+    public int getCompressionMinBytes() {
+        return this.compressionMinBytes;
+    }
+
+    public void setCompressionMinBytes(int compressionMinBytes) {
+        this.compressionMinBytes = compressionMinBytes;
+    }
+
+    public int getConnectTimeoutMs() {
+        return this.connectTimeoutMs;
+    }
+
+    public void setConnectTimeoutMs(int connectTimeoutMs) {
+        this.connectTimeoutMs = connectTimeoutMs;
+    }
+
+    public int getReadTimeoutMs() {
+        return this.readTimeoutMs;
+    }
+
+    public void setReadTimeoutMs(int readTimeoutMs) {
+        this.readTimeoutMs = readTimeoutMs;
+    }
+
+    public int getWriteTimeoutMs() {
+        return this.writeTimeoutMs;
+    }
+
+    public void setWriteTimeoutMs(int writeTimeoutMs) {
+        this.writeTimeoutMs = writeTimeoutMs;
+    }
+
+    public int getDeadlineMs() {
+        return this.deadlineMs;
+    }
+
+    public void setDeadlineMs(int deadlineMs) {
+        this.deadlineMs = deadlineMs;
+    }
+
+    public long getRetryBaseDelayMs() {
+        return this.retryBaseDelayMs;
+    }
+
+    public void setRetryBaseDelayMs(long retryBaseDelayMs) {
+        this.retryBaseDelayMs = retryBaseDelayMs;
+    }
+
+    public long getRetryMaxDelayMs() {
+        return this.retryMaxDelayMs;
+    }
+
+    public void setRetryMaxDelayMs(long retryMaxDelayMs) {
+        this.retryMaxDelayMs = retryMaxDelayMs;
+    }
+
     public boolean getIsSmsEnabled() {
         return this.isSmsEnabled;
     }
@@ -227,6 +450,47 @@ public class ForwardingConfig {
         this.includeAppConfig = includeAppConfig;
     }
 
+    // Batch delivery configuration getters and setters
+    public boolean isBatchEnabled() {
+        return this.batchEnabled;
+    }
+
+    public void setBatchEnabled(boolean batchEnabled) {
+        this.batchEnabled = batchEnabled;
+    }
+
+    public int getBatchMaxSize() {
+        return this.batchMaxSize;
+    }
+
+    public void setBatchMaxSize(int batchMaxSize) {
+        this.batchMaxSize = batchMaxSize;
+    }
+
+    public long getBatchLingerMs() {
+        return this.batchLingerMs;
+    }
+
+    public void setBatchLingerMs(long batchLingerMs) {
+        this.batchLingerMs = batchLingerMs;
+    }
+
+    public int getBatchMaxBytes() {
+        return this.batchMaxBytes;
+    }
+
+    public void setBatchMaxBytes(int batchMaxBytes) {
+        this.batchMaxBytes = batchMaxBytes;
+    }
+
+    public BatchFormat getBatchFormat() {
+        return this.batchFormat;
+    }
+
+    public void setBatchFormat(BatchFormat batchFormat) {
+        this.batchFormat = batchFormat;
+    }
+
     public static String getDefaultJsonTemplate() {
         return "{\n  \"from\":\"%from%\",\n  \"text\":\"%text%\",\n  \"sentStamp\":%sentStamp%,\n  \"receivedStamp\":%receivedStamp%,\n  \"sim\":\"%sim%\"\n}";
     }
@@ -239,38 +503,98 @@ public class ForwardingConfig {
         return 10;
     }
 
+    public static int getDefaultBatchMaxSize() {
+        return 50;
+    }
+
+    public static long getDefaultBatchLingerMs() {
+        return 2000;
+    }
+
+    public static int getDefaultBatchMaxBytes() {
+        return 256 * 1024;
+    }
+
+    public static int getDefaultCompressionMinBytes() {
+        return 1024;
+    }
+
+    public static int getDefaultConnectTimeoutMs() {
+        return 10_000;
+    }
+
+    public static int getDefaultReadTimeoutMs() {
+        return 30_000;
+    }
+
+    public static int getDefaultWriteTimeoutMs() {
+        return 30_000;
+    }
+
+    public static int getDefaultDeadlineMs() {
+        return 60_000;
+    }
+
+    public static long getDefaultRetryBaseDelayMs() {
+        return 10_000;
+    }
+
+    public static long getDefaultRetryMaxDelayMs() {
+        return 5 * 60 * 60 * 1000L;
+    }
+
     public void save() {
         try {
             if (this.getKey() == null) {
                 this.setKey(this.generateKey());
             }
 
-            JSONObject json = new JSONObject();
-            json.put(KEY_KEY, this.getKey());
-            json.put(KEY_SENDER, this.sender);
-            json.put(KEY_URL, this.url);
-            json.put(KEY_SIM_SLOT, this.simSlot);
-            json.put(KEY_TEMPLATE, this.template);
-            json.put(KEY_HEADERS, this.headers);
-            json.put(KEY_RETRIES_NUMBER, this.retriesNumber);
-            json.put(KEY_IGNORE_SSL, this.ignoreSsl);
-            json.put(KEY_CHUNKED_MODE, this.chunkedMode);
-            json.put(KEY_IS_SMS_ENABLED, this.isSmsEnabled);
-            json.put(KEY_IS_NOTIFICATION_ENABLED, this.isNotificationEnabled);
-            json.put(KEY_ACTIVITY_TYPE, this.activityType.getValue());
-            json.put("isOn", this.isOn);
+            // Streamed straight to text; null fields are left out as JSONObject.put did
+            JsonWriter json = JsonWriter.obtain().beginObject();
+            json.field(KEY_KEY, this.getKey());
+            json.field(KEY_SENDER, this.sender);
+            json.field(KEY_URL, this.url);
+            json.field(KEY_SIM_SLOT, this.simSlot);
+            json.field(KEY_TEMPLATE, this.template);
+            json.field(KEY_HEADERS, this.headers);
+            json.field(KEY_RETRIES_NUMBER, this.retriesNumber);
+            json.field(KEY_IGNORE_SSL, this.ignoreSsl);
+            json.field(KEY_CHUNKED_MODE, this.chunkedMode);
+            json.field(KEY_TRANSPORT_MODE, this.transportMode.getValue());
+            json.field(KEY_COMPRESSION, this.compression.getValue());
+            json.field(KEY_COMPRESSION_MIN_BYTES, this.compressionMinBytes);
+            json.field(KEY_CONNECT_TIMEOUT_MS, this.connectTimeoutMs);
+            json.field(KEY_READ_TIMEOUT_MS, this.readTimeoutMs);
+            json.field(KEY_WRITE_TIMEOUT_MS, this.writeTimeoutMs);
+            json.field(KEY_DEADLINE_MS, this.deadlineMs);
+            json.field(KEY_RETRY_BASE_DELAY_MS, this.retryBaseDelayMs);
+            json.field(KEY_RETRY_MAX_DELAY_MS, this.retryMaxDelayMs);
+            json.field(KEY_IS_SMS_ENABLED, this.isSmsEnabled);
+            json.field(KEY_IS_NOTIFICATION_ENABLED, this.isNotificationEnabled);
+            json.field(KEY_ACTIVITY_TYPE, this.activityType.getValue());
+            json.field("isOn", this.isOn);
 
             // Enhanced data configuration
-            json.put(KEY_ENHANCED_DATA_ENABLED, this.enhancedDataEnabled);
-            json.put(KEY_INCLUDE_DEVICE_INFO, this.includeDeviceInfo);
-            json.put(KEY_INCLUDE_SIM_INFO, this.includeSimInfo);
-            json.put(KEY_INCLUDE_NETWORK_INFO, this.includeNetworkInfo);
-            json.put(KEY_INCLUDE_APP_CONFIG, this.includeAppConfig);
+            json.field(KEY_ENHANCED_DATA_ENABLED, this.enhancedDataEnabled);
+            json.field(KEY_INCLUDE_DEVICE_INFO, this.includeDeviceInfo);
+            json.field(KEY_INCLUDE_SIM_INFO, this.includeSimInfo);
+            json.field(KEY_INCLUDE_NETWORK_INFO, this.includeNetworkInfo);
+            json.field(KEY_INCLUDE_APP_CONFIG, this.includeAppConfig);
+
+            // Batch delivery configuration
+            json.field(KEY_BATCH_ENABLED, this.batchEnabled);
+            json.field(KEY_BATCH_MAX_SIZE, this.batchMaxSize);
+            json.field(KEY_BATCH_LINGER_MS, this.batchLingerMs);
+            json.field(KEY_BATCH_MAX_BYTES, this.batchMaxBytes);
+            json.field(KEY_BATCH_FORMAT, this.batchFormat.getValue());
+            json.endObject();
 
             SharedPreferences.Editor editor = getEditor(context);
-            editor.putString(this.getKey(), json.toString());
+            editor.putString(this.getKey(), json.finish());
 
             editor.commit();
+            getCompiledTemplate();
+            invalidateCache();
         } catch (Exception e) {
             Log.e("ForwardingConfig", e.getMessage());
         }
@@ -361,6 +685,51 @@ public class ForwardingConfig {
                         config.includeAppConfig = json.getBoolean(KEY_INCLUDE_APP_CONFIG);
                     }
 
+                    // Load batch delivery configuration
+                    if (json.has(KEY_BATCH_ENABLED)) {
+                        config.batchEnabled = json.getBoolean(KEY_BATCH_ENABLED);
+                    }
+                    if (json.has(KEY_BATCH_MAX_SIZE)) {
+                        config.batchMaxSize = json.getInt(KEY_BATCH_MAX_SIZE);
+                    }
+                    if (json.has(KEY_BATCH_LINGER_MS)) {
+                        config.batchLingerMs = json.getLong(KEY_BATCH_LINGER_MS);
+                    }
+                    if (json.has(KEY_BATCH_MAX_BYTES)) {
+                        config.batchMaxBytes = json.getInt(KEY_BATCH_MAX_BYTES);
+                    }
+                    if (json.has(KEY_BATCH_FORMAT)) {
+                        config.batchFormat = BatchFormat.fromString(json.getString(KEY_BATCH_FORMAT));
+                    }
+
+                    if (json.has(KEY_TRANSPORT_MODE)) {
+                        config.transportMode = TransportMode.fromString(json.getString(KEY_TRANSPORT_MODE));
+                    }
+                    if (json.has(KEY_COMPRESSION)) {
+                        config.compression = Compression.fromString(json.getString(KEY_COMPRESSION));
+                    }
+                    if (json.has(KEY_COMPRESSION_MIN_BYTES)) {
+                        config.compressionMinBytes = json.getInt(KEY_COMPRESSION_MIN_BYTES);
+                    }
+                    if (json.has(KEY_CONNECT_TIMEOUT_MS)) {
+                        config.connectTimeoutMs = json.getInt(KEY_CONNECT_TIMEOUT_MS);
+                    }
+                    if (json.has(KEY_READ_TIMEOUT_MS)) {
+                        config.readTimeoutMs = json.getInt(KEY_READ_TIMEOUT_MS);
+                    }
+                    if (json.has(KEY_WRITE_TIMEOUT_MS)) {
+                        config.writeTimeoutMs = json.getInt(KEY_WRITE_TIMEOUT_MS);
+                    }
+                    if (json.has(KEY_DEADLINE_MS)) {
+                        config.deadlineMs = json.getInt(KEY_DEADLINE_MS);
+                    }
+                    if (json.has(KEY_RETRY_BASE_DELAY_MS)) {
+                        config.retryBaseDelayMs = json.getLong(KEY_RETRY_BASE_DELAY_MS);
+                    }
+                    if (json.has(KEY_RETRY_MAX_DELAY_MS)) {
+                        config.retryMaxDelayMs = json.getLong(KEY_RETRY_MAX_DELAY_MS);
+                    }
+
                     config.id = config.getKey().hashCode();
                 } catch (JSONException e) {
                     Log.e("ForwardingConfig", e.getMessage());
@@ -382,30 +751,86 @@ public class ForwardingConfig {
         SharedPreferences.Editor editor = getEditor(context);
         editor.remove(this.getKey());
         editor.commit();
+        invalidateCache();
     }
 
-    public String prepareMessage(String from, String text, String sim, long timeStamp) {
-        String template = this.getJsonTemplate();
+    /**
+     * Get the parsed rules, reloading them if they changed since the last call
+     */
+    public static RuleSnapshot getSnapshot(Context context) {
+        RuleSnapshot current = snapshot;
+        if (current != null) {
+            return current;
+        }
 
-        template = template.replace("%from%", from);
-        template = template.replace("%text%", text);
-        template = template.replace("%sim%", sim);
-        template = template.replace("%sentStamp%", String.valueOf(timeStamp));
-        template = template.replace("%receivedStamp%", String.valueOf(System.currentTimeMillis()));
+        synchronized (ForwardingConfig.class) {
+            Context appContext = context.getApplicationContext() != null
+                    ? context.getApplicationContext()
+                    : context;
 
-        return template;
+            if (rulesListener == null) {
+                rulesListener = (prefs, changedKey) -> invalidateCache();
+                getPreference(appContext).registerOnSharedPreferenceChangeListener(rulesListener);
+            }
+
+            current = snapshot;
+            if (current == null) {
+                int generation = rulesGeneration.get();
+                current = new RuleSnapshot(getAll(appContext), appContext.getString(R.string.asterisk));
+                // Don't cache rules that changed while they were being parsed
+                if (generation == rulesGeneration.get()) {
+                    snapshot = current;
+                }
+            }
+        }
+        return current;
+    }
+
+    /**
+     * Get the match index for the enabled rules
+     */
+    public static RuleIndex getRuleIndex(Context context) {
+        return getSnapshot(context).getIndex();
+    }
+
+    /**
+     * Drop the cached rules; call after writing the rules preferences directly
+     */
+    public static void invalidateCache() {
+        rulesGeneration.incrementAndGet();
+        snapshot = null;
+    }
+
+    /**
+     * ID of an event delivered through this rule, see EventId
+     */
+    public String eventId(String source, String body, long timeStamp) {
+        return EventId.of(this.key, this.activityType, source, body, timeStamp);
+    }
+
+    public String prepareMessage(String from, String text, String sim, long timeStamp, String eventId) {
+        MessageTemplate.Values values = new MessageTemplate.Values()
+                .set(MessageTemplate.Field.EVENT_ID, eventId)
+                .set(MessageTemplate.Field.FROM, from)
+                .set(MessageTemplate.Field.TEXT, text)
+                .set(MessageTemplate.Field.SIM, sim)
+                .set(MessageTemplate.Field.SENT_STAMP, timeStamp)
+                .set(MessageTemplate.Field.RECEIVED_STAMP, System.currentTimeMillis());
+
+        return getCompiledTemplate().render(values);
     }
 
     /**
      * Enhanced SMS message preparation with optional device information
      */
-    public String prepareEnhancedMessage(String from, String text, String sim, long timeStamp) {
+    public String prepareEnhancedMessage(String from, String text, String sim, long timeStamp, String eventId) {
         // Check if enhanced data is enabled for this specific rule
         if (this.enhancedDataEnabled) {
             try {
                 // Create enhanced payload using WebhookSender
                 WebhookPayload payload = new WebhookPayload();
                 payload.event = "sms_received";
+                payload.eventId = eventId;
                 payload.timestamp = timeStamp;
                 payload.deviceId = android.os.Build.MODEL;
                 payload.message = "SMS received from " + from;
@@ -420,44 +845,45 @@ public class ForwardingConfig {
                 // Add enhanced device information based on rule configuration
                 addEnhancedDeviceInfoForRule(payload);
 
-                return payload.toJson().toString();
+                return payload.toJsonString();
             } catch (Exception e) {
                 Log.e("ForwardingConfig", "Error creating enhanced SMS payload, falling back to template", e);
             }
         }
 
         // Fallback to regular template
-        return prepareMessage(from, text, sim, timeStamp);
+        return prepareMessage(from, text, sim, timeStamp, eventId);
     }
 
     public String prepareNotificationMessage(String packageName, String title, String content, String fullMessage,
-            long timeStamp) {
-        String template = this.getJsonTemplate();
-
-        // Replace notification-specific template variables
-        template = template.replace("%from%", packageName);
-        template = template.replace("%text%", fullMessage);
-        template = template.replace("%title%", title != null ? title : "");
-        template = template.replace("%content%", content != null ? content : "");
-        template = template.replace("%package%", packageName);
-        template = template.replace("%sentStamp%", String.valueOf(timeStamp));
-        template = template.replace("%receivedStamp%", String.valueOf(System.currentTimeMillis()));
-        template = template.replace("%sim%", "notification"); // For notifications, sim is always "notification"
-
-        return template;
+            long timeStamp, String eventId) {
+        // Notification-specific template variables; sim is always "notification"
+        MessageTemplate.Values values = new MessageTemplate.Values()
+                .set(MessageTemplate.Field.EVENT_ID, eventId)
+                .set(MessageTemplate.Field.FROM, packageName)
+                .set(MessageTemplate.Field.TEXT, fullMessage)
+                .set(MessageTemplate.Field.TITLE, title != null ? title : "")
+                .set(MessageTemplate.Field.CONTENT, content != null ? content : "")
+                .set(MessageTemplate.Field.PACKAGE, packageName)
+                .set(MessageTemplate.Field.SENT_STAMP, timeStamp)
+                .set(MessageTemplate.Field.RECEIVED_STAMP, System.currentTimeMillis())
+                .set(MessageTemplate.Field.SIM, "notification");
+
+        return getCompiledTemplate().render(values);
     }
 
     /**
      * Enhanced notification message preparation with optional device information
      */
     public String prepareEnhancedNotificationMessage(String packageName, String title, String content,
-            String fullMessage, long timeStamp) {
+            String fullMessage, long timeStamp, String eventId) {
         // Check if enhanced data is enabled for this specific rule
         if (this.enhancedDataEnabled) {
             try {
                 // Create enhanced payload using WebhookSender
                 WebhookPayload payload = new WebhookPayload();
                 payload.event = "push_notification_received";
+                payload.eventId = eventId;
                 payload.timestamp = timeStamp;
                 payload.deviceId = android.os.Build.MODEL;
                 payload.message = "Push notification received from " + packageName;
@@ -475,56 +901,56 @@ public class ForwardingConfig {
                 // Add enhanced device information based on rule configuration
                 addEnhancedDeviceInfoForRule(payload);
 
-                return payload.toJson().toString();
+                return payload.toJsonString();
             } catch (Exception e) {
                 Log.e("ForwardingConfig", "Error creating enhanced notification payload, falling back to template", e);
             }
         }
 
         // Fallback to regular template
-        return prepareNotificationMessage(packageName, title, content, fullMessage, timeStamp);
+        return prepareNotificationMessage(packageName, title, content, fullMessage, timeStamp, eventId);
     }
 
-    public String prepareCallMessage(String phoneNumber, String contactName, long timeStamp) {
-        String template = this.getJsonTemplate();
-
-        // Replace call-specific template variables
-        template = template.replace("%from%", phoneNumber);
-        template = template.replace("%contact%", contactName != null ? contactName : "Unknown");
-        template = template.replace("%timestamp%", String.valueOf(timeStamp));
-        template = template.replace("%duration%", "0"); // Duration is 0 for incoming calls
-        template = template.replace("%sentStamp%", String.valueOf(timeStamp));
-        template = template.replace("%receivedStamp%", String.valueOf(System.currentTimeMillis()));
-
-        return template;
+    public String prepareCallMessage(String phoneNumber, String contactName, long timeStamp, String eventId) {
+        return getCompiledTemplate().render(
+                callValues(phoneNumber, contactName, CallStatus.RINGING, 0, timeStamp, eventId));
     }
 
     // New overloaded method with SIM name
-    public String prepareCallMessage(String phoneNumber, String contactName, String simName, long timeStamp) {
-        String template = this.getJsonTemplate();
+    public String prepareCallMessage(String phoneNumber, String contactName, String simName, CallStatus status,
+            long durationSeconds, long timeStamp, String eventId) {
+        MessageTemplate.Values values = callValues(phoneNumber, contactName, status, durationSeconds, timeStamp,
+                eventId)
+                .set(MessageTemplate.Field.SIM, simName != null ? simName : "undetected");
 
-        // Replace call-specific template variables
-        template = template.replace("%from%", phoneNumber);
-        template = template.replace("%contact%", contactName != null ? contactName : "Unknown");
-        template = template.replace("%timestamp%", String.valueOf(timeStamp));
-        template = template.replace("%duration%", "0"); // Duration is 0 for incoming calls
-        template = template.replace("%sentStamp%", String.valueOf(timeStamp));
-        template = template.replace("%receivedStamp%", String.valueOf(System.currentTimeMillis()));
-        template = template.replace("%sim%", simName != null ? simName : "undetected");
+        return getCompiledTemplate().render(values);
+    }
 
-        return template;
+    private static MessageTemplate.Values callValues(String phoneNumber, String contactName, CallStatus status,
+            long durationSeconds, long timeStamp, String eventId) {
+        return new MessageTemplate.Values()
+                .set(MessageTemplate.Field.EVENT_ID, eventId)
+                .set(MessageTemplate.Field.FROM, phoneNumber)
+                .set(MessageTemplate.Field.CONTACT, contactName != null ? contactName : "Unknown")
+                .set(MessageTemplate.Field.TIMESTAMP, timeStamp)
+                .set(MessageTemplate.Field.STATUS, status.getValue())
+                .set(MessageTemplate.Field.DURATION, durationSeconds)
+                .set(MessageTemplate.Field.SENT_STAMP, timeStamp)
+                .set(MessageTemplate.Field.RECEIVED_STAMP, System.currentTimeMillis());
     }
 
     /**
      * Enhanced call message preparation with optional device information
      */
-    public String prepareEnhancedCallMessage(String phoneNumber, String contactName, String simName, long timeStamp) {
+    public String prepareEnhancedCallMessage(String phoneNumber, String contactName, String simName,
+            CallStatus status, long durationSeconds, long timeStamp, String eventId) {
         // Check if enhanced data is enabled for this specific rule
         if (this.enhancedDataEnabled) {
             try {
                 // Create enhanced payload using WebhookSender
                 WebhookPayload payload = new WebhookPayload();
                 payload.event = "call_received";
+                payload.eventId = eventId;
                 payload.timestamp = timeStamp;
                 payload.deviceId = android.os.Build.MODEL;
                 payload.message = "Incoming call from " + phoneNumber;
@@ -533,7 +959,8 @@ public class ForwardingConfig {
                 payload.addData("from", phoneNumber);
                 payload.addData("contact", contactName != null ? contactName : "Unknown");
                 payload.addData("timestamp", timeStamp);
-                payload.addData("duration", 0); // Duration is 0 for incoming calls
+                payload.addData("status", status.getValue());
+                payload.addData("duration", durationSeconds); // Seconds, 0 for missed calls
                 payload.addData("sentStamp", timeStamp);
                 payload.addData("receivedStamp", System.currentTimeMillis());
                 payload.addData("sim", simName != null ? simName : "undetected");
@@ -541,14 +968,14 @@ public class ForwardingConfig {
                 // Add enhanced device information based on rule configuration
                 addEnhancedDeviceInfoForRule(payload);
 
-                return payload.toJson().toString();
+                return payload.toJsonString();
             } catch (Exception e) {
                 Log.e("ForwardingConfig", "Error creating enhanced call payload, falling back to template", e);
             }
         }
 
         // Fallback to regular template
-        return prepareCallMessage(phoneNumber, contactName, simName, timeStamp);
+        return prepareCallMessage(phoneNumber, contactName, simName, status, durationSeconds, timeStamp, eventId);
     }
 
     /**
@@ -556,40 +983,9 @@ public class ForwardingConfig {
      */
     private void addEnhancedDeviceInfoForRule(WebhookPayload payload) {
         try {
-            JSONObject deviceInfo = DeviceInfoCollector.collectDeviceInfo(context);
-
-            // Filter device info based on this rule's preferences
-            JSONObject filteredDeviceInfo = new JSONObject();
-
-            if (this.includeDeviceInfo) {
-                // Add basic device information
-                if (deviceInfo.has("device_model"))
-                    filteredDeviceInfo.put("device_model", deviceInfo.get("device_model"));
-                if (deviceInfo.has("device_manufacturer"))
-                    filteredDeviceInfo.put("device_manufacturer", deviceInfo.get("device_manufacturer"));
-                if (deviceInfo.has("device_brand"))
-                    filteredDeviceInfo.put("device_brand", deviceInfo.get("device_brand"));
-                if (deviceInfo.has("device_product"))
-                    filteredDeviceInfo.put("device_product", deviceInfo.get("device_product"));
-                if (deviceInfo.has("android_version"))
-                    filteredDeviceInfo.put("android_version", deviceInfo.get("android_version"));
-                if (deviceInfo.has("android_sdk"))
-                    filteredDeviceInfo.put("android_sdk", deviceInfo.get("android_sdk"));
-                if (deviceInfo.has("device_name"))
-                    filteredDeviceInfo.put("device_name", deviceInfo.get("device_name"));
-            }
-
-            if (this.includeSimInfo && deviceInfo.has("sim_info")) {
-                filteredDeviceInfo.put("sim_info", deviceInfo.get("sim_info"));
-            }
-
-            if (this.includeNetworkInfo && deviceInfo.has("network_info")) {
-                filteredDeviceInfo.put("network_info", deviceInfo.get("network_info"));
-            }
-
-            if (this.includeAppConfig && deviceInfo.has("app_config")) {
-                filteredDeviceInfo.put("app_config", deviceInfo.get("app_config"));
-            }
+            // Only the sections this rule asks for, from the device info cache
+            JSONObject filteredDeviceInfo = DeviceInfoCollector.collectDeviceInfo(context,
+                    this.includeDeviceInfo, this.includeSimInfo, this.includeNetworkInfo, this.includeAppConfig);
 
             // Only add device_info if there's something to include
             if (filteredDeviceInfo.length() > 0) {
@@ -636,6 +1032,18 @@ public class ForwardingConfig {
         this.template = template;
     }
 
+    /**
+     * Get the parsed template, compiling it if the template text was replaced
+     */
+    public MessageTemplate getCompiledTemplate() {
+        MessageTemplate compiled = compiledTemplate;
+        if (compiled == null || compiled.getSource() != this.template) {
+            compiled = MessageTemplate.compile(this.template);
+            compiledTemplate = compiled;
+        }
+        return compiled;
+    }
+
     public void delete(Context context) {
         remove();
     }
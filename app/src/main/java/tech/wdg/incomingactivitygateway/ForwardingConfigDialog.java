@@ -25,6 +25,7 @@ import java.net.MalformedURLException;
 import java.net.URL;
 import java.util.ArrayList;
 import java.util.Objects;
+import java.util.UUID;
 
 public class ForwardingConfigDialog {
 
@@ -82,7 +83,7 @@ public class ForwardingConfigDialog {
         retriesNumInput.setText(String.valueOf(ForwardingConfig.getDefaultRetriesNumber()));
 
         final MaterialSwitch chunkedModeSwitch = view.findViewById(R.id.input_chunked_mode);
-        chunkedModeSwitch.setChecked(true);
+        chunkedModeSwitch.setChecked(false);
 
         prepareSimSelector(context, view, 0);
 
@@ -295,23 +296,31 @@ public class ForwardingConfigDialog {
 
             // Use the new operator settings for SIM name
             String simName = OperatorSettingsActivity.getSimName(context, 0); // Use first SIM for testing
+            // Every test send is a new event
+            String eventId = UUID.randomUUID().toString();
 
             if (config.getActivityType() == ForwardingConfig.ActivityType.PUSH) {
                 payload = config.prepareEnhancedNotificationMessage(
                         "com.example.testapp", "Test Title", "Test Content", "Test Message",
-                        System.currentTimeMillis());
+                        System.currentTimeMillis(), eventId);
             } else if (config.getActivityType() == ForwardingConfig.ActivityType.CALL) {
                 payload = config.prepareEnhancedCallMessage(
-                        "+1234567890", "Test Contact", simName, System.currentTimeMillis());
+                        "+1234567890", "Test Contact", simName, ForwardingConfig.CallStatus.ENDED, 42,
+                        System.currentTimeMillis(), eventId);
             } else {
                 payload = config.prepareEnhancedMessage(
-                        "123456789", "test message", simName, System.currentTimeMillis());
+                        "123456789", "test message", simName, System.currentTimeMillis(), eventId);
             }
 
             Request request = new Request(config.getUrl(), payload);
             request.setJsonHeaders(config.getHeaders());
+            request.setIdempotencyKey(eventId);
             request.setIgnoreSsl(config.getIgnoreSsl());
             request.setUseChunkedMode(config.getChunkedMode());
+            request.setTransportMode(config.getTransportMode());
+            request.setCompression(config.getCompression().getValue(), config.getCompressionMinBytes());
+            request.setTimeouts(config.getConnectTimeoutMs(), config.getReadTimeoutMs(),
+                    config.getWriteTimeoutMs(), config.getDeadlineMs());
 
             String result = request.execute();
             if (!Objects.equals(result, Request.RESULT_SUCCESS)) {
@@ -41,6 +41,7 @@ import java.util.ArrayList;
 import java.util.Collections;
 import java.util.Iterator;
 import java.util.List;
+import java.util.UUID;
 
 public class ForwardingRuleEditActivity extends AppCompatActivity {
 
@@ -53,8 +54,12 @@ public class ForwardingRuleEditActivity extends AppCompatActivity {
     // Basic fields
     private TextInputEditText urlInput;
     private TextInputEditText retriesInput;
+    private TextInputEditText timeoutInput;
     private MaterialSwitch ignoreSslSwitch;
     private MaterialSwitch chunkedModeSwitch;
+    private MaterialSwitch http2Switch;
+    private MaterialSwitch compressionSwitch;
+    private MaterialSwitch batchDeliverySwitch;
 
     // Activity type selection
     private ChipGroup activityTypeChipGroup;
@@ -171,8 +176,12 @@ public class ForwardingRuleEditActivity extends AppCompatActivity {
         // Basic fields
         urlInput = findViewById(R.id.input_url);
         retriesInput = findViewById(R.id.input_retries);
+        timeoutInput = findViewById(R.id.input_timeout);
         ignoreSslSwitch = findViewById(R.id.switch_ignore_ssl);
         chunkedModeSwitch = findViewById(R.id.switch_chunked_mode);
+        http2Switch = findViewById(R.id.switch_http2);
+        compressionSwitch = findViewById(R.id.switch_compression);
+        batchDeliverySwitch = findViewById(R.id.switch_batch_delivery);
 
         // Activity type selection
         activityTypeChipGroup = findViewById(R.id.activity_type_chip_group);
@@ -293,7 +302,8 @@ public class ForwardingRuleEditActivity extends AppCompatActivity {
 
     private void setupDefaultValues() {
         retriesInput.setText(String.valueOf(ForwardingConfig.getDefaultRetriesNumber()));
-        chunkedModeSwitch.setChecked(true);
+        timeoutInput.setText(String.valueOf(ForwardingConfig.getDefaultDeadlineMs() / 1000));
+        chunkedModeSwitch.setChecked(false);
 
         // Enable "All sources" by default for new rules
         allSourcesSwitch.setChecked(true);
@@ -373,8 +383,12 @@ public class ForwardingRuleEditActivity extends AppCompatActivity {
 
         urlInput.setText(config.getUrl());
         retriesInput.setText(String.valueOf(config.getRetriesNumber()));
+        timeoutInput.setText(String.valueOf(config.getDeadlineMs() / 1000));
         ignoreSslSwitch.setChecked(config.getIgnoreSsl());
         chunkedModeSwitch.setChecked(config.getChunkedMode());
+        http2Switch.setChecked(config.getTransportMode() == ForwardingConfig.TransportMode.HTTP2);
+        compressionSwitch.setChecked(config.getCompression() != ForwardingConfig.Compression.NONE);
+        batchDeliverySwitch.setChecked(config.isBatchEnabled());
 
         // Set activity type
         if (config.getActivityType() == ForwardingConfig.ActivityType.PUSH) {
@@ -541,7 +555,8 @@ public class ForwardingRuleEditActivity extends AppCompatActivity {
         return value.equals("%from%") || value.equals("%text%") || value.equals("%sentStamp%") ||
                 value.equals("%receivedStamp%") || value.equals("%sim%") || value.equals("%timestamp%") ||
                 value.equals("%duration%") || value.equals("%contact%") || value.equals("%title%") ||
-                value.equals("%content%") || value.equals("%package%") || value.equals("%message%");
+                value.equals("%content%") || value.equals("%package%") || value.equals("%message%") ||
+                value.equals("%eventId%") || value.equals("%status%");
     }
 
     private void parseExistingHeaders() {
@@ -690,8 +705,14 @@ public class ForwardingRuleEditActivity extends AppCompatActivity {
         }
         config.setUrl(urlInput.getText().toString().trim());
         config.setRetriesNumber(Integer.parseInt(retriesInput.getText().toString()));
+        config.setDeadlineMs(Integer.parseInt(timeoutInput.getText().toString()) * 1000);
         config.setIgnoreSsl(ignoreSslSwitch.isChecked());
         config.setChunkedMode(chunkedModeSwitch.isChecked());
+        config.setTransportMode(http2Switch.isChecked()
+                ? ForwardingConfig.TransportMode.HTTP2
+                : ForwardingConfig.TransportMode.HTTP1);
+        config.setCompression(selectedCompression());
+        config.setBatchEnabled(batchDeliverySwitch.isChecked());
 
         // Set activity type based on selected chip
         if (chipTypePush.isChecked()) {
@@ -796,6 +817,18 @@ public class ForwardingRuleEditActivity extends AppCompatActivity {
             isValid = false;
         }
 
+        // Validate the attempt timeout
+        try {
+            int timeout = Integer.parseInt(timeoutInput.getText().toString());
+            if (timeout < 1 || timeout > 600) {
+                timeoutInput.setError("Timeout must be between 1 and 600 seconds");
+                isValid = false;
+            }
+        } catch (NumberFormatException e) {
+            timeoutInput.setError("Invalid number");
+            isValid = false;
+        }
+
         return isValid;
     }
 
@@ -835,6 +868,19 @@ public class ForwardingRuleEditActivity extends AppCompatActivity {
         }
     }
 
+    /**
+     * The switch only offers gzip; a rule already using another coding keeps it
+     */
+    private ForwardingConfig.Compression selectedCompression() {
+        if (!compressionSwitch.isChecked()) {
+            return ForwardingConfig.Compression.NONE;
+        }
+        if (config != null && config.getCompression() != ForwardingConfig.Compression.NONE) {
+            return config.getCompression();
+        }
+        return ForwardingConfig.Compression.GZIP;
+    }
+
     private String buildHeaders() {
         try {
             JSONObject headers = new JSONObject();
@@ -877,6 +923,11 @@ public class ForwardingRuleEditActivity extends AppCompatActivity {
         tempConfig.setHeaders(buildHeaders());
         tempConfig.setIgnoreSsl(ignoreSslSwitch.isChecked());
         tempConfig.setChunkedMode(chunkedModeSwitch.isChecked());
+        tempConfig.setTransportMode(http2Switch.isChecked()
+                ? ForwardingConfig.TransportMode.HTTP2
+                : ForwardingConfig.TransportMode.HTTP1);
+        tempConfig.setCompression(selectedCompression());
+        tempConfig.setDeadlineMs(Integer.parseInt(timeoutInput.getText().toString()) * 1000);
 
         // Set activity type
         if (chipTypePush.isChecked()) {
@@ -890,26 +941,34 @@ public class ForwardingRuleEditActivity extends AppCompatActivity {
         // Test the configuration
         Thread testThread = new Thread(() -> {
             String payload;
+            // Every test send is a new event
+            String eventId = UUID.randomUUID().toString();
             if (chipTypePush.isChecked()) {
                 payload = tempConfig.prepareNotificationMessage(
                         "com.example.testapp", "Test Title", "Test Content", "Test Message",
-                        System.currentTimeMillis());
+                        System.currentTimeMillis(), eventId);
             } else if (chipTypeCall.isChecked()) {
                 // Use the new operator settings for SIM name
                 String simName = OperatorSettingsActivity.getSimName(this, 0); // Use first SIM for testing
                 payload = tempConfig.prepareCallMessage(
-                        "+1234567890", "Test Contact", simName, System.currentTimeMillis());
+                        "+1234567890", "Test Contact", simName, ForwardingConfig.CallStatus.ENDED, 42,
+                        System.currentTimeMillis(), eventId);
             } else {
                 // Use the new operator settings for SIM name
                 String simName = OperatorSettingsActivity.getSimName(this, 0); // Use first SIM for testing
                 payload = tempConfig.prepareMessage(
-                        "123456789", "test message", simName, System.currentTimeMillis());
+                        "123456789", "test message", simName, System.currentTimeMillis(), eventId);
             }
 
             Request request = new Request(tempConfig.getUrl(), payload);
             request.setJsonHeaders(tempConfig.getHeaders());
+            request.setIdempotencyKey(eventId);
             request.setIgnoreSsl(tempConfig.getIgnoreSsl());
             request.setUseChunkedMode(tempConfig.getChunkedMode());
+            request.setTransportMode(tempConfig.getTransportMode());
+            request.setCompression(tempConfig.getCompression().getValue(), tempConfig.getCompressionMinBytes());
+            request.setTimeouts(tempConfig.getConnectTimeoutMs(), tempConfig.getReadTimeoutMs(),
+                    tempConfig.getWriteTimeoutMs(), tempConfig.getDeadlineMs());
 
             String result = request.execute();
 
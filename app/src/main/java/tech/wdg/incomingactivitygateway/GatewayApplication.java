@@ -22,6 +22,15 @@ public class GatewayApplication extends Application {
         // Clean up cache directories
         cleanupCacheDirectories();
 
+        // Resume delivery of webhooks queued before the process was restarted
+        OutboxDispatcher.getInstance(this);
+
+        // Long SMS whose parts were still arriving when the process stopped
+        EventIngestion.execute(() -> SmsBroadcastReceiver.restorePendingParts(this));
+
+        // Follow incoming calls, including ones logged while the process was not running
+        CallTracker.getInstance(this);
+
         Log.d(TAG, "Gateway Application initialized");
     }
 
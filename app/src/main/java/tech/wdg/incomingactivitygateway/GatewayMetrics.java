@@ -0,0 +1,368 @@
+package tech.wdg.incomingactivitygateway;
+
+import org.json.JSONArray;
+import org.json.JSONException;
+import org.json.JSONObject;
+
+import java.net.URI;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.EnumMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * In-process counters and latency histograms for the forwarding pipeline.
+ *
+ * Receive and match are recorded per activity type, since no rule is known
+ * yet. Render, enqueue, first attempt and delivered are recorded per rule
+ * key and endpoint host. Every stage also feeds an overall histogram.
+ * Recording is lock-free; metrics start from zero with each process.
+ */
+public final class GatewayMetrics {
+
+    /**
+     * Pipeline stages with a latency histogram
+     */
+    public enum Stage {
+        // Broadcast arrival until background processing starts
+        RECEIVE("receive"),
+        MATCH("match"),
+        RENDER("render"),
+        ENQUEUE("enqueue"),
+        // Enqueue until the first delivery attempt starts
+        FIRST_ATTEMPT("first_attempt"),
+        // Enqueue until the endpoint accepted the event
+        DELIVERED("delivered");
+
+        private final String value;
+
+        Stage(String value) {
+            this.value = value;
+        }
+
+        public String getValue() {
+            return value;
+        }
+    }
+
+    public enum Counter {
+        EVENTS_RECEIVED("events_received"),
+        RULES_MATCHED("rules_matched"),
+        ENQUEUED("enqueued"),
+        DELIVERED("delivered"),
+        FAILED_ATTEMPTS("failed_attempts"),
+        DROPPED("dropped"),
+        // Repeated broadcasts and notification updates, dropped before matching
+        DUPLICATES_DROPPED("duplicates_dropped");
+
+        private final String value;
+
+        Counter(String value) {
+            this.value = value;
+        }
+
+        public String getValue() {
+            return value;
+        }
+    }
+
+    private static final int MAX_CACHED_HOSTS = 256;
+
+    private static final LongAdder[] counters = new LongAdder[Counter.values().length];
+    private static final Series totals = new Series();
+    private static final Map<ForwardingConfig.ActivityType, Series> byType =
+            new EnumMap<>(ForwardingConfig.ActivityType.class);
+    // Rule key -> endpoint host -> histograms
+    private static final ConcurrentHashMap<String, ConcurrentHashMap<String, Series>> byRule =
+            new ConcurrentHashMap<>();
+    private static final ConcurrentHashMap<String, String> hosts = new ConcurrentHashMap<>();
+
+    private static volatile long startedAt = System.currentTimeMillis();
+
+    static {
+        for (int i = 0; i < counters.length; i++) {
+            counters[i] = new LongAdder();
+        }
+        for (ForwardingConfig.ActivityType type : ForwardingConfig.ActivityType.values()) {
+            byType.put(type, new Series());
+        }
+    }
+
+    private GatewayMetrics() {
+    }
+
+    public static void increment(Counter counter) {
+        counters[counter.ordinal()].increment();
+    }
+
+    public static void add(Counter counter, long amount) {
+        counters[counter.ordinal()].add(amount);
+    }
+
+    /**
+     * Record a receive or match latency for an activity type
+     */
+    public static void record(Stage stage, ForwardingConfig.ActivityType type, long nanos) {
+        totals.get(stage).recordNanos(nanos);
+        byType.get(type).get(stage).recordNanos(nanos);
+    }
+
+    /**
+     * Record a latency for a rule and the endpoint it delivers to
+     */
+    public static void record(Stage stage, String ruleKey, String url, long nanos) {
+        totals.get(stage).recordNanos(nanos);
+        seriesFor(ruleKey, url).get(stage).recordNanos(nanos);
+    }
+
+    /**
+     * Record a wall clock interval for a rule, e.g. since an entry was enqueued
+     */
+    public static void recordSince(Stage stage, String ruleKey, String url, long startMillis) {
+        long elapsed = Math.max(0, System.currentTimeMillis() - startMillis);
+        record(stage, ruleKey, url, elapsed * 1_000_000L);
+    }
+
+    public static Snapshot snapshot() {
+        return new Snapshot();
+    }
+
+    /**
+     * Forget everything recorded so far
+     */
+    public static void reset() {
+        for (LongAdder counter : counters) {
+            counter.reset();
+        }
+        totals.clear();
+        for (Series series : byType.values()) {
+            series.clear();
+        }
+        byRule.clear();
+        startedAt = System.currentTimeMillis();
+    }
+
+    private static Series seriesFor(String ruleKey, String url) {
+        String key = ruleKey != null ? ruleKey : "";
+        String host = hostOf(url);
+
+        ConcurrentHashMap<String, Series> ruleHosts = byRule.get(key);
+        if (ruleHosts == null) {
+            ruleHosts = byRule.computeIfAbsent(key, k -> new ConcurrentHashMap<>());
+        }
+        Series series = ruleHosts.get(host);
+        if (series == null) {
+            series = ruleHosts.computeIfAbsent(host, h -> new Series());
+        }
+        return series;
+    }
+
+    static String hostOf(String url) {
+        if (url == null) {
+            return "";
+        }
+
+        String host = hosts.get(url);
+        if (host != null) {
+            return host;
+        }
+
+        try {
+            host = URI.create(url.trim()).getHost();
+        } catch (IllegalArgumentException e) {
+            host = null;
+        }
+        if (host == null) {
+            host = "";
+        }
+
+        if (hosts.size() < MAX_CACHED_HOSTS) {
+            hosts.put(url, host);
+        }
+        return host;
+    }
+
+    /**
+     * One histogram per stage, created when the stage is first recorded
+     */
+    private static final class Series {
+        private final AtomicReferenceArray<LatencyHistogram> stages =
+                new AtomicReferenceArray<>(Stage.values().length);
+
+        LatencyHistogram get(Stage stage) {
+            LatencyHistogram histogram = stages.get(stage.ordinal());
+            if (histogram == null) {
+                stages.compareAndSet(stage.ordinal(), null, new LatencyHistogram());
+                histogram = stages.get(stage.ordinal());
+            }
+            return histogram;
+        }
+
+        LatencyHistogram peek(Stage stage) {
+            return stages.get(stage.ordinal());
+        }
+
+        void clear() {
+            for (int i = 0; i < stages.length(); i++) {
+                stages.set(i, null);
+            }
+        }
+
+        Map<Stage, StageSummary> summarize() {
+            Map<Stage, StageSummary> summaries = new EnumMap<>(Stage.class);
+            for (Stage stage : Stage.values()) {
+                LatencyHistogram histogram = peek(stage);
+                if (histogram != null && histogram.getCount() > 0) {
+                    summaries.put(stage, new StageSummary(histogram));
+                }
+            }
+            return summaries;
+        }
+    }
+
+    /**
+     * Latency percentiles of one stage, in milliseconds
+     */
+    public static final class StageSummary {
+        public final long count;
+        public final double p50Ms;
+        public final double p90Ms;
+        public final double p99Ms;
+        public final double maxMs;
+        public final double meanMs;
+
+        StageSummary(LatencyHistogram histogram) {
+            count = histogram.getCount();
+            p50Ms = histogram.getPercentileMicros(50) / 1000.0;
+            p90Ms = histogram.getPercentileMicros(90) / 1000.0;
+            p99Ms = histogram.getPercentileMicros(99) / 1000.0;
+            maxMs = histogram.getMaxMicros() / 1000.0;
+            meanMs = histogram.getMeanMicros() / 1000.0;
+        }
+
+        JSONObject toJson() throws JSONException {
+            JSONObject json = new JSONObject();
+            json.put("count", count);
+            json.put("p50_ms", round(p50Ms));
+            json.put("p90_ms", round(p90Ms));
+            json.put("p99_ms", round(p99Ms));
+            json.put("max_ms", round(maxMs));
+            json.put("mean_ms", round(meanMs));
+            return json;
+        }
+
+        private static double round(double value) {
+            return Math.round(value * 1000) / 1000.0;
+        }
+    }
+
+    /**
+     * Stage summaries of one rule and endpoint host
+     */
+    public static final class RuleSummary {
+        public final String ruleKey;
+        public final String host;
+        public final Map<Stage, StageSummary> stages;
+
+        RuleSummary(String ruleKey, String host, Map<Stage, StageSummary> stages) {
+            this.ruleKey = ruleKey;
+            this.host = host;
+            this.stages = Collections.unmodifiableMap(stages);
+        }
+    }
+
+    /**
+     * Point-in-time copy of all metrics
+     */
+    public static final class Snapshot {
+        private final long since;
+        private final long takenAt;
+        private final Map<Counter, Long> counterValues = new EnumMap<>(Counter.class);
+        private final Map<Stage, StageSummary> overall;
+        private final Map<ForwardingConfig.ActivityType, Map<Stage, StageSummary>> types =
+                new EnumMap<>(ForwardingConfig.ActivityType.class);
+        private final List<RuleSummary> rules = new ArrayList<>();
+
+        private Snapshot() {
+            since = startedAt;
+            takenAt = System.currentTimeMillis();
+
+            for (Counter counter : Counter.values()) {
+                counterValues.put(counter, counters[counter.ordinal()].sum());
+            }
+            overall = totals.summarize();
+            for (Map.Entry<ForwardingConfig.ActivityType, Series> entry : byType.entrySet()) {
+                Map<Stage, StageSummary> stages = entry.getValue().summarize();
+                if (!stages.isEmpty()) {
+                    types.put(entry.getKey(), stages);
+                }
+            }
+            for (Map.Entry<String, ConcurrentHashMap<String, Series>> rule : byRule.entrySet()) {
+                for (Map.Entry<String, Series> host : rule.getValue().entrySet()) {
+                    rules.add(new RuleSummary(rule.getKey(), host.getKey(), host.getValue().summarize()));
+                }
+            }
+        }
+
+        public long getCount(Counter counter) {
+            return counterValues.get(counter);
+        }
+
+        /**
+         * Summary of a stage across all rules, or null if nothing was recorded
+         */
+        public StageSummary getOverall(Stage stage) {
+            return overall.get(stage);
+        }
+
+        public List<RuleSummary> getRules() {
+            return Collections.unmodifiableList(rules);
+        }
+
+        public JSONObject toJson() {
+            JSONObject json = new JSONObject();
+            try {
+                json.put("since", since);
+                json.put("taken_at", takenAt);
+
+                JSONObject countersJson = new JSONObject();
+                for (Map.Entry<Counter, Long> entry : counterValues.entrySet()) {
+                    countersJson.put(entry.getKey().getValue(), entry.getValue());
+                }
+                json.put("counters", countersJson);
+                json.put("overall", stagesToJson(overall));
+
+                JSONObject typesJson = new JSONObject();
+                for (Map.Entry<ForwardingConfig.ActivityType, Map<Stage, StageSummary>> entry : types.entrySet()) {
+                    typesJson.put(entry.getKey().getValue(), stagesToJson(entry.getValue()));
+                }
+                json.put("events", typesJson);
+
+                JSONArray rulesJson = new JSONArray();
+                for (RuleSummary rule : rules) {
+                    JSONObject ruleJson = new JSONObject();
+                    ruleJson.put("rule_key", rule.ruleKey);
+                    ruleJson.put("host", rule.host);
+                    ruleJson.put("stages", stagesToJson(rule.stages));
+                    rulesJson.put(ruleJson);
+                }
+                json.put("rules", rulesJson);
+            } catch (JSONException e) {
+                // Only thrown for non-finite numbers, which percentiles never are
+            }
+            return json;
+        }
+
+        private static JSONObject stagesToJson(Map<Stage, StageSummary> stages) throws JSONException {
+            JSONObject json = new JSONObject();
+            for (Map.Entry<Stage, StageSummary> entry : stages.entrySet()) {
+                json.put(entry.getKey().getValue(), entry.getValue().toJson());
+            }
+            return json;
+        }
+    }
+}
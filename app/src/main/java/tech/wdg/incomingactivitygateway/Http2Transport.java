@@ -0,0 +1,391 @@
+package tech.wdg.incomingactivitygateway;
+
+import android.util.Log;
+
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.io.Reader;
+import java.net.ConnectException;
+import java.net.InetAddress;
+import java.net.ProtocolException;
+import java.net.Socket;
+import java.net.URL;
+import java.security.KeyManagementException;
+import java.security.NoSuchAlgorithmException;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+
+import javax.net.SocketFactory;
+
+import okhttp3.Call;
+import okhttp3.Connection;
+import okhttp3.ConnectionPool;
+import okhttp3.EventListener;
+import okhttp3.MediaType;
+import okhttp3.OkHttpClient;
+import okhttp3.Protocol;
+import okhttp3.RequestBody;
+import okhttp3.ResponseBody;
+import okhttp3.internal.http2.ErrorCode;
+import okhttp3.internal.http2.StreamResetException;
+import okio.BufferedSink;
+import tech.wdg.incomingactivitygateway.SSLSocketFactory.TLSSocketFactory;
+
+/**
+ * HTTP/2 delivery for rules using TransportMode.HTTP2.
+ *
+ * All clients share one connection pool, so concurrent deliveries to the
+ * same host become streams on a single connection instead of one socket
+ * each. https endpoints negotiate h2 through ALPN and stay on HTTP/1.1 when
+ * the server does not offer it. http endpoints are tried with h2c (prior
+ * knowledge); a host that turns out not to speak it is remembered and
+ * served over HTTP/1.1 until it is checked again. A failed h2c attempt is
+ * only repeated over HTTP/1.1 when it cannot have reached an HTTP/2 server.
+ *
+ * Socket timeouts come from the rule, and the whole post(), including a
+ * fallback to HTTP/1.1, has to finish within the rule's deadline.
+ */
+public final class Http2Transport {
+    private static final String TAG = "Http2Transport";
+
+    private static final int MAX_IDLE_CONNECTIONS = 8;
+    private static final long KEEP_ALIVE_MINUTES = 5;
+    // How long a cleartext host stays on HTTP/1.1 before h2c is tried again
+    private static final long CLEARTEXT_RECHECK_MS = 10 * 60 * 1000L;
+    private static final int DRAIN_BUFFER_SIZE = 1024;
+
+    private static final OkHttpClient base = new OkHttpClient.Builder()
+            .connectionPool(new ConnectionPool(MAX_IDLE_CONNECTIONS, KEEP_ALIVE_MINUTES, TimeUnit.MINUTES))
+            .protocols(Arrays.asList(Protocol.HTTP_2, Protocol.HTTP_1_1))
+            .build();
+    private static final OkHttpClient priorKnowledge = base.newBuilder()
+            .protocols(Collections.singletonList(Protocol.H2_PRIOR_KNOWLEDGE))
+            .socketFactory(new CleartextSocketFactory())
+            .eventListener(new EventListener() {
+                @Override
+                public void connectionAcquired(Call call, Connection connection) {
+                    RequestBody body = call.request().body();
+                    if (body instanceof TrackedBody) {
+                        ((TrackedBody) body).socket = connection.socket();
+                    }
+                }
+            })
+            .build();
+
+    private static volatile OkHttpClient secure;
+    private static volatile OkHttpClient insecure;
+
+    // host:port of cleartext endpoints without h2c -> when that was found out
+    private static final Map<String, Long> http1Only = new ConcurrentHashMap<>();
+    // Clients derived from the ones above with a rule's socket timeouts; rules
+    // rarely differ, so this stays small
+    private static final Map<String, OkHttpClient> tuned = new ConcurrentHashMap<>();
+
+    private Http2Transport() {
+    }
+
+    /**
+     * Outcome of one exchange
+     */
+    public static final class Response {
+        public final int code;
+        public final String body;
+        public final String protocol;
+        public final String retryAfter;
+
+        Response(int code, String body, String protocol, String retryAfter) {
+            this.code = code;
+            this.body = body;
+            this.protocol = protocol;
+            this.retryAfter = retryAfter;
+        }
+    }
+
+    /**
+     * Socket timeouts and the overall deadline of one post(), in milliseconds
+     */
+    public static final class Timeouts {
+        final int connectMs;
+        final int readMs;
+        final int writeMs;
+        final int deadlineMs;
+
+        public Timeouts(int connectMs, int readMs, int writeMs, int deadlineMs) {
+            this.connectMs = connectMs;
+            this.readMs = readMs;
+            this.writeMs = writeMs;
+            this.deadlineMs = deadlineMs;
+        }
+    }
+
+    /**
+     * POST the first length bytes of body; the response body is read up to
+     * maxChars when maxChars is not negative, and discarded otherwise;
+     * the start of an error response is always kept for the log
+     */
+    public static Response post(URL url, Map<String, String> headers, byte[] body, int length,
+            boolean ignoreSsl, int maxChars, Timeouts timeouts)
+            throws IOException, KeyManagementException, NoSuchAlgorithmException {
+        long deadlineAt = System.currentTimeMillis() + timeouts.deadlineMs;
+        okhttp3.Request.Builder builder = new okhttp3.Request.Builder().url(url);
+        for (Map.Entry<String, String> header : headers.entrySet()) {
+            builder.header(header.getKey(), header.getValue());
+        }
+        // No media type here, so the Content-Type header set above is kept as is
+        okhttp3.Request request = builder.post(RequestBody.create(body, null, 0, length)).build();
+
+        if (!"http".equals(url.getProtocol())) {
+            return exchange(tune(ignoreSsl ? "insecure" : "secure", client(ignoreSsl), timeouts),
+                    request, maxChars, deadlineAt);
+        }
+
+        String route = url.getHost() + ":" + (url.getPort() != -1 ? url.getPort() : url.getDefaultPort());
+        Long since = http1Only.get(route);
+        if (since != null && System.currentTimeMillis() - since < CLEARTEXT_RECHECK_MS) {
+            return exchange(tune("http1", base, timeouts), request, maxChars, deadlineAt);
+        }
+
+        TrackedBody tracked = new TrackedBody(request.body());
+        try {
+            Response response = exchange(tune("h2c", priorKnowledge, timeouts),
+                    request.newBuilder().post(tracked).build(), maxChars, deadlineAt);
+            http1Only.remove(route);
+            return response;
+        } catch (IOException e) {
+            // An h2c server that got the whole body may have acted on it, so only a failure
+            // before that, or one showing the peer does not speak HTTP/2, is repeated over
+            // HTTP/1.1; anything else is left to the RetryPolicy
+            if (tracked.sent && !tracked.answeredWithHttp1() && !isProtocolError(e)) {
+                throw e;
+            }
+            Response response = exchange(tune("http1", base, timeouts), request, maxChars, deadlineAt);
+            // A refused or timed out connection says nothing about h2c
+            if (!(e instanceof ConnectException) && !(e instanceof InterruptedIOException)) {
+                Log.i(TAG, route + " does not speak h2c, using HTTP/1.1 (" + e.getMessage() + ")");
+                http1Only.put(route, System.currentTimeMillis());
+            }
+            return response;
+        }
+    }
+
+    /**
+     * Errors showing the peer rejected the request before acting on it
+     */
+    private static boolean isProtocolError(IOException e) {
+        return e instanceof ProtocolException
+                || (e instanceof StreamResetException
+                && ((StreamResetException) e).errorCode == ErrorCode.PROTOCOL_ERROR);
+    }
+
+    /**
+     * Request body that records whether it was written out in full, and
+     * the connection it went out on
+     */
+    private static final class TrackedBody extends RequestBody {
+        private final RequestBody body;
+        volatile boolean sent;
+        volatile Socket socket;
+
+        TrackedBody(RequestBody body) {
+            this.body = body;
+        }
+
+        @Override
+        public MediaType contentType() {
+            return body.contentType();
+        }
+
+        @Override
+        public long contentLength() throws IOException {
+            return body.contentLength();
+        }
+
+        @Override
+        public void writeTo(BufferedSink sink) throws IOException {
+            body.writeTo(sink);
+            sent = true;
+        }
+
+        /**
+         * Whether the peer answered the h2c preface like an HTTP/1.x server,
+         * which never acts on a request it cannot parse
+         */
+        boolean answeredWithHttp1() {
+            Socket socket = this.socket;
+            return socket instanceof CleartextSocket && ((CleartextSocket) socket).http1Reply;
+        }
+    }
+
+    /**
+     * Sockets for h2c attempts; OkHttp only ever asks for unconnected ones
+     */
+    private static final class CleartextSocketFactory extends SocketFactory {
+        @Override
+        public Socket createSocket() {
+            return new CleartextSocket();
+        }
+
+        @Override
+        public Socket createSocket(String host, int port) {
+            throw new UnsupportedOperationException();
+        }
+
+        @Override
+        public Socket createSocket(String host, int port, InetAddress localHost, int localPort) {
+            throw new UnsupportedOperationException();
+        }
+
+        @Override
+        public Socket createSocket(InetAddress host, int port) {
+            throw new UnsupportedOperationException();
+        }
+
+        @Override
+        public Socket createSocket(InetAddress address, int port, InetAddress localAddress, int localPort) {
+            throw new UnsupportedOperationException();
+        }
+    }
+
+    /**
+     * Socket that checks whether the peer's first bytes are an HTTP/1.x
+     * status line; an HTTP/2 server starts with a SETTINGS frame instead
+     */
+    private static final class CleartextSocket extends Socket {
+        private static final byte[] STATUS_LINE = {'H', 'T', 'T', 'P', '/'};
+
+        private final byte[] head = new byte[STATUS_LINE.length];
+        private int headLength;
+        private InputStream in;
+        volatile boolean http1Reply;
+
+        @Override
+        public synchronized InputStream getInputStream() throws IOException {
+            if (in == null) {
+                in = new FilterInputStream(super.getInputStream()) {
+                    @Override
+                    public int read() throws IOException {
+                        int b = super.read();
+                        if (b != -1) {
+                            record(new byte[]{(byte) b}, 0, 1);
+                        }
+                        return b;
+                    }
+
+                    @Override
+                    public int read(byte[] buffer, int offset, int length) throws IOException {
+                        int read = super.read(buffer, offset, length);
+                        record(buffer, offset, read);
+                        return read;
+                    }
+                };
+            }
+            return in;
+        }
+
+        private void record(byte[] buffer, int offset, int read) {
+            for (int i = 0; i < read && headLength < head.length; i++) {
+                head[headLength++] = buffer[offset + i];
+                if (headLength == head.length) {
+                    http1Reply = Arrays.equals(head, STATUS_LINE);
+                }
+            }
+        }
+    }
+
+    private static OkHttpClient client(boolean ignoreSsl) throws KeyManagementException, NoSuchAlgorithmException {
+        OkHttpClient client = ignoreSsl ? insecure : secure;
+        if (client != null) {
+            return client;
+        }
+
+        synchronized (Http2Transport.class) {
+            client = ignoreSsl ? insecure : secure;
+            if (client == null) {
+                TLSSocketFactory factory = HttpTransport.getSocketFactory(ignoreSsl);
+                OkHttpClient.Builder builder = base.newBuilder()
+                        .sslSocketFactory(factory, factory.getTrustManager());
+                if (ignoreSsl) {
+                    builder.hostnameVerifier((hostname, session) -> true);
+                }
+                client = builder.build();
+
+                if (ignoreSsl) {
+                    insecure = client;
+                } else {
+                    secure = client;
+                }
+            }
+        }
+        return client;
+    }
+
+    private static OkHttpClient tune(String variant, OkHttpClient client, Timeouts timeouts) {
+        if (client.connectTimeoutMillis() == timeouts.connectMs
+                && client.readTimeoutMillis() == timeouts.readMs
+                && client.writeTimeoutMillis() == timeouts.writeMs) {
+            return client;
+        }
+
+        String key = variant + ":" + timeouts.connectMs + ":" + timeouts.readMs + ":" + timeouts.writeMs;
+        return tuned.computeIfAbsent(key, k -> client.newBuilder()
+                .connectTimeout(timeouts.connectMs, TimeUnit.MILLISECONDS)
+                .readTimeout(timeouts.readMs, TimeUnit.MILLISECONDS)
+                .writeTimeout(timeouts.writeMs, TimeUnit.MILLISECONDS)
+                .build());
+    }
+
+    private static Response exchange(OkHttpClient client, okhttp3.Request request, int maxChars, long deadlineAt)
+            throws IOException {
+        long remaining = deadlineAt - System.currentTimeMillis();
+        if (remaining <= 0) {
+            throw new InterruptedIOException("deadline exceeded");
+        }
+
+        // The call timeout spans connecting, sending and reading the whole response
+        Call call = client.newCall(request);
+        call.timeout().timeout(remaining, TimeUnit.MILLISECONDS);
+        try (okhttp3.Response response = call.execute()) {
+            ResponseBody responseBody = response.body();
+            String body = null;
+
+            if (responseBody != null) {
+                int limit = maxChars < 0 && !response.isSuccessful() ? Request.ERROR_BODY_CHARS : maxChars;
+                // The status already decided the outcome, a broken body does not make it a retry
+                try {
+                    if (limit >= 0) {
+                        body = read(responseBody, limit);
+                    }
+                    // Consume the rest so an HTTP/1.1 connection can be reused
+                    drain(responseBody.byteStream());
+                } catch (IOException e) {
+                    Log.w(TAG, "could not read response body: " + e);
+                }
+            }
+            return new Response(response.code(), body, response.protocol().toString(),
+                    response.header("Retry-After"));
+        }
+    }
+
+    private static String read(ResponseBody responseBody, int maxChars) throws IOException {
+        StringBuilder body = new StringBuilder();
+        Reader reader = responseBody.charStream();
+        char[] buffer = new char[DRAIN_BUFFER_SIZE];
+        int read;
+        while (body.length() < maxChars && (read = reader.read(buffer)) != -1) {
+            body.append(buffer, 0, Math.min(read, maxChars - body.length()));
+        }
+        return body.toString();
+    }
+
+    private static void drain(InputStream stream) throws IOException {
+        byte[] buffer = new byte[DRAIN_BUFFER_SIZE];
+        while (stream.read(buffer) != -1) {
+            // Discard
+        }
+    }
+}
@@ -0,0 +1,248 @@
+package tech.wdg.incomingactivitygateway;
+
+import android.annotation.SuppressLint;
+import android.util.Log;
+
+import org.apache.http.conn.ssl.AllowAllHostnameVerifier;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.Reader;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.nio.charset.StandardCharsets;
+import java.security.KeyManagementException;
+import java.security.NoSuchAlgorithmException;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+import javax.net.ssl.HostnameVerifier;
+import javax.net.ssl.HttpsURLConnection;
+
+import tech.wdg.incomingactivitygateway.SSLSocketFactory.TLSSocketFactory;
+
+/**
+ * Process-wide HTTP transport shared by all webhook deliveries.
+ *
+ * HttpURLConnection keeps idle sockets in a per-host pool as long as the
+ * response body is fully consumed and the connection is not disconnected,
+ * and TLS sessions are resumed as long as the same SSL socket factory is
+ * reused. This class owns one factory per ignoreSsl mode and releases
+ * connections back to the pool instead of tearing them down.
+ */
+public final class HttpTransport {
+    private static final String TAG = "HttpTransport";
+
+    // Idle connections kept per route by the platform connection pool
+    private static final int MAX_IDLE_CONNECTIONS = 8;
+    private static final int DRAIN_BUFFER_SIZE = 1024;
+    // Most of a response left unread that is consumed to keep the socket; past
+    // this the connection is dropped instead, so an endless body cannot hold it
+    private static final int MAX_DRAIN_BYTES = 64 * 1024;
+
+    @SuppressLint("AllowAllHostnameVerifier")
+    private static final HostnameVerifier ALLOW_ALL_HOSTNAMES = new AllowAllHostnameVerifier();
+
+    private static volatile TLSSocketFactory secureFactory;
+    private static volatile TLSSocketFactory insecureFactory;
+
+    // Cuts off exchanges that outlive their deadline
+    private static final ScheduledThreadPoolExecutor watchdog = new ScheduledThreadPoolExecutor(1, runnable -> {
+        Thread thread = new Thread(runnable, TAG + "-watchdog");
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    static {
+        watchdog.setRemoveOnCancelPolicy(true);
+        System.setProperty("http.keepAlive", "true");
+        System.setProperty("http.maxConnections", String.valueOf(MAX_IDLE_CONNECTIONS));
+    }
+
+    private HttpTransport() {
+    }
+
+    /**
+     * Get the cached SSL socket factory for the given mode
+     */
+    public static TLSSocketFactory getSocketFactory(boolean ignoreSsl)
+            throws KeyManagementException, NoSuchAlgorithmException {
+        TLSSocketFactory factory = ignoreSsl ? insecureFactory : secureFactory;
+        if (factory != null) {
+            return factory;
+        }
+
+        synchronized (HttpTransport.class) {
+            factory = ignoreSsl ? insecureFactory : secureFactory;
+            if (factory == null) {
+                factory = new TLSSocketFactory(ignoreSsl);
+                if (ignoreSsl) {
+                    insecureFactory = factory;
+                } else {
+                    secureFactory = factory;
+                }
+                Log.d(TAG, "SSL socket factory initialized (ignoreSsl=" + ignoreSsl + ")");
+            }
+        }
+        return factory;
+    }
+
+    /**
+     * Open a pooled connection configured for the given SSL mode
+     */
+    @SuppressLint("AllowAllHostnameVerifier")
+    public static HttpURLConnection open(URL url, boolean ignoreSsl)
+            throws IOException, KeyManagementException, NoSuchAlgorithmException {
+        HttpURLConnection connection = (HttpURLConnection) url.openConnection();
+
+        if (connection instanceof HttpsURLConnection) {
+            HttpsURLConnection httpsConnection = (HttpsURLConnection) connection;
+            httpsConnection.setSSLSocketFactory(getSocketFactory(ignoreSsl));
+            if (ignoreSsl) {
+                httpsConnection.setHostnameVerifier(ALLOW_ALL_HOSTNAMES);
+            }
+        }
+
+        return connection;
+    }
+
+    /**
+     * Bound on one exchange. Socket timeouts only limit each individual
+     * wait; this disconnects the connection once the whole attempt has
+     * taken too long, e.g. against a server trickling its response.
+     */
+    public static final class Deadline {
+        private final HttpURLConnection connection;
+        private ScheduledFuture<?> timer;
+        private boolean finished;
+        private boolean expired;
+
+        private Deadline(HttpURLConnection connection) {
+            this.connection = connection;
+        }
+
+        /**
+         * Stop the clock before the connection goes back to the pool;
+         * returns false if the deadline had already passed
+         */
+        public synchronized boolean finish() {
+            if (!finished) {
+                finished = true;
+                timer.cancel(false);
+            }
+            return !expired;
+        }
+
+        public synchronized boolean hasExpired() {
+            return expired;
+        }
+
+        private synchronized void expire() {
+            if (!finished) {
+                expired = true;
+                finished = true;
+                connection.disconnect();
+            }
+        }
+    }
+
+    /**
+     * Start the deadline for an exchange on the connection
+     */
+    public static Deadline startDeadline(HttpURLConnection connection, long timeoutMs) {
+        Deadline deadline = new Deadline(connection);
+        synchronized (deadline) {
+            deadline.timer = watchdog.schedule(deadline::expire, timeoutMs, TimeUnit.MILLISECONDS);
+        }
+        return deadline;
+    }
+
+    /**
+     * Consume the rest of the response so the socket can go back to the pool;
+     * a response with more than MAX_DRAIN_BYTES left is cut off instead
+     */
+    public static void release(HttpURLConnection connection) {
+        if (connection == null) {
+            return;
+        }
+
+        InputStream stream = null;
+        try {
+            stream = connection.getResponseCode() >= HttpURLConnection.HTTP_BAD_REQUEST
+                    ? connection.getErrorStream()
+                    : connection.getInputStream();
+            if (!drain(stream)) {
+                connection.disconnect();
+            }
+        } catch (IOException e) {
+            // Broken response, the socket cannot be reused
+            connection.disconnect();
+        } finally {
+            closeQuietly(stream);
+        }
+    }
+
+    /**
+     * Read up to maxChars of the response body; release() hands the
+     * connection back to the pool afterwards
+     */
+    public static String readBody(HttpURLConnection connection, int maxChars) throws IOException {
+        InputStream stream = connection.getResponseCode() >= HttpURLConnection.HTTP_BAD_REQUEST
+                ? connection.getErrorStream()
+                : connection.getInputStream();
+        if (stream == null) {
+            return "";
+        }
+
+        StringBuilder body = new StringBuilder();
+        Reader reader = new InputStreamReader(stream, StandardCharsets.UTF_8);
+        char[] buffer = new char[DRAIN_BUFFER_SIZE];
+        int read;
+        while (body.length() < maxChars && (read = reader.read(buffer)) != -1) {
+            body.append(buffer, 0, Math.min(read, maxChars - body.length()));
+        }
+        return body.toString();
+    }
+
+    /**
+     * Drop a connection that failed mid-exchange
+     */
+    public static void discard(HttpURLConnection connection) {
+        if (connection != null) {
+            connection.disconnect();
+        }
+    }
+
+    /**
+     * Read the stream to its end within MAX_DRAIN_BYTES; false if it goes on
+     */
+    private static boolean drain(InputStream stream) throws IOException {
+        if (stream == null) {
+            return true;
+        }
+
+        byte[] buffer = new byte[DRAIN_BUFFER_SIZE];
+        int drained = 0;
+        int read;
+        while ((read = stream.read(buffer)) != -1) {
+            drained += read;
+            if (drained > MAX_DRAIN_BYTES) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static void closeQuietly(InputStream stream) {
+        if (stream == null) {
+            return;
+        }
+
+        try {
+            stream.close();
+        } catch (IOException ignored) {
+        }
+    }
+}
@@ -0,0 +1,226 @@
+package tech.wdg.incomingactivitygateway;
+
+import org.json.JSONArray;
+import org.json.JSONObject;
+
+import java.util.Collection;
+import java.util.Iterator;
+import java.util.Map;
+
+/**
+ * Streaming JSON serializer for payloads and stored rules.
+ *
+ * Values are appended straight to a per-thread buffer instead of being
+ * collected in a JSONObject tree first; cached org.json objects (such as
+ * the device info sections) are walked in place without being copied.
+ * Members keep their insertion order and numbers are formatted like
+ * org.json does, so stored rules and webhook bodies read back the same.
+ *
+ * A writer is used by one thread for one document: obtain(), write,
+ * then finish() to get the text and return the buffer.
+ */
+public final class JsonWriter {
+
+    // Buffers that grew past this are dropped rather than kept per thread
+    private static final int MAX_RETAINED_BUFFER = 64 * 1024;
+
+    private static final ThreadLocal<JsonWriter> POOL = ThreadLocal.withInitial(JsonWriter::new);
+
+    private StringBuilder out = new StringBuilder(1024);
+    private boolean needsSeparator;
+    private boolean inUse;
+
+    private JsonWriter() {
+    }
+
+    /**
+     * Get this thread's writer; nested documents get a fresh one
+     */
+    public static JsonWriter obtain() {
+        JsonWriter writer = POOL.get();
+        if (writer.inUse) {
+            writer = new JsonWriter();
+        }
+        writer.inUse = true;
+        writer.out.setLength(0);
+        writer.needsSeparator = false;
+        return writer;
+    }
+
+    /**
+     * The document written so far; the writer must not be used afterwards
+     */
+    public String finish() {
+        String json = out.toString();
+        if (out.capacity() > MAX_RETAINED_BUFFER) {
+            out = new StringBuilder(1024);
+        }
+        inUse = false;
+        return json;
+    }
+
+    public JsonWriter beginObject() {
+        separate();
+        out.append('{');
+        needsSeparator = false;
+        return this;
+    }
+
+    public JsonWriter endObject() {
+        out.append('}');
+        needsSeparator = true;
+        return this;
+    }
+
+    public JsonWriter beginArray() {
+        separate();
+        out.append('[');
+        needsSeparator = false;
+        return this;
+    }
+
+    public JsonWriter endArray() {
+        out.append(']');
+        needsSeparator = true;
+        return this;
+    }
+
+    public JsonWriter name(String name) {
+        separate();
+        string(name);
+        out.append(':');
+        needsSeparator = false;
+        return this;
+    }
+
+    /**
+     * Write a member, skipping it when the value is null like JSONObject.put
+     */
+    public JsonWriter field(String name, Object value) {
+        if (value != null) {
+            name(name).value(value);
+        }
+        return this;
+    }
+
+    public JsonWriter field(String name, long value) {
+        return name(name).value(value);
+    }
+
+    public JsonWriter field(String name, boolean value) {
+        return name(name).value(value);
+    }
+
+    public JsonWriter value(String value) {
+        separate();
+        if (value == null) {
+            out.append("null");
+        } else {
+            string(value);
+        }
+        needsSeparator = true;
+        return this;
+    }
+
+    public JsonWriter value(long value) {
+        separate();
+        out.append(value);
+        needsSeparator = true;
+        return this;
+    }
+
+    public JsonWriter value(double value) {
+        separate();
+        if (Double.isNaN(value) || Double.isInfinite(value)) {
+            // Not representable in JSON
+            out.append("null");
+        } else if (value == (long) value) {
+            // Same as org.json: whole numbers are written without a fraction
+            out.append((long) value);
+        } else {
+            out.append(value);
+        }
+        needsSeparator = true;
+        return this;
+    }
+
+    public JsonWriter value(boolean value) {
+        separate();
+        out.append(value);
+        needsSeparator = true;
+        return this;
+    }
+
+    /**
+     * Write any value org.json accepts, including nested JSONObject,
+     * JSONArray, maps and collections
+     */
+    public JsonWriter value(Object value) {
+        if (value == null || value == JSONObject.NULL) {
+            return value((String) null);
+        } else if (value instanceof String) {
+            return value((String) value);
+        } else if (value instanceof Boolean) {
+            return value(((Boolean) value).booleanValue());
+        } else if (value instanceof Double || value instanceof Float) {
+            return value(((Number) value).doubleValue());
+        } else if (value instanceof Number) {
+            return value(((Number) value).longValue());
+        } else if (value instanceof JSONObject) {
+            return object((JSONObject) value);
+        } else if (value instanceof JSONArray) {
+            return array((JSONArray) value);
+        } else if (value instanceof Map) {
+            return map((Map<?, ?>) value);
+        } else if (value instanceof Collection) {
+            return collection((Collection<?>) value);
+        }
+        return value(value.toString());
+    }
+
+    private JsonWriter object(JSONObject object) {
+        beginObject();
+        Iterator<String> keys = object.keys();
+        while (keys.hasNext()) {
+            String key = keys.next();
+            name(key).value(object.opt(key));
+        }
+        return endObject();
+    }
+
+    private JsonWriter array(JSONArray array) {
+        beginArray();
+        for (int i = 0; i < array.length(); i++) {
+            value(array.opt(i));
+        }
+        return endArray();
+    }
+
+    private JsonWriter map(Map<?, ?> map) {
+        beginObject();
+        for (Map.Entry<?, ?> entry : map.entrySet()) {
+            field(String.valueOf(entry.getKey()), entry.getValue());
+        }
+        return endObject();
+    }
+
+    private JsonWriter collection(Collection<?> values) {
+        beginArray();
+        for (Object value : values) {
+            value(value);
+        }
+        return endArray();
+    }
+
+    private void separate() {
+        if (needsSeparator) {
+            out.append(',');
+        }
+    }
+
+    private void string(String value) {
+        out.append('"');
+        MessageTemplate.appendJsonEscaped(out, value);
+        out.append('"');
+    }
+}
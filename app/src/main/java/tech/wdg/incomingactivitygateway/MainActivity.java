@@ -262,6 +262,12 @@ public class MainActivity extends AppCompatActivity implements ForwardingRulesAd
         super.onRequestPermissionsResult(requestCode, permissions, grantResults);
 
         if (requestCode == PERMISSION_REQUEST_CODE) {
+            // Enhanced payloads report permission status from a cache
+            DeviceInfoCache.getInstance(this).invalidatePermissions();
+            // Carrier names need READ_PHONE_STATE
+            SimSlots.getInstance(this).refresh();
+            CallTracker.getInstance(this).refresh();
+
             // Count granted permissions
             int grantedCount = 0;
             int deniedCount = 0;
@@ -0,0 +1,205 @@
+package tech.wdg.incomingactivitygateway;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * A rule's JSON template parsed once into literal text and placeholder
+ * slots.
+ *
+ * Rendering is a single pass over the segments into a per-thread buffer.
+ * Placeholder values are JSON-escaped, the template text is copied as is.
+ * Placeholders without a value for the event being rendered (for example
+ * %title% in an SMS rule) are kept literally, as they always were.
+ */
+public final class MessageTemplate {
+
+    public enum Field {
+        FROM("from"),
+        TEXT("text"),
+        SIM("sim"),
+        SENT_STAMP("sentStamp"),
+        RECEIVED_STAMP("receivedStamp"),
+        TITLE("title"),
+        CONTENT("content"),
+        PACKAGE("package"),
+        CONTACT("contact"),
+        TIMESTAMP("timestamp"),
+        DURATION("duration"),
+        STATUS("status"),
+        EVENT_ID("eventId");
+
+        private final String name;
+
+        Field(String name) {
+            this.name = name;
+        }
+
+        public String getName() {
+            return name;
+        }
+
+        public static Field fromName(String name) {
+            for (Field field : Field.values()) {
+                if (field.name.equals(name)) {
+                    return field;
+                }
+            }
+            return null;
+        }
+    }
+
+    /**
+     * Placeholder values for one event
+     */
+    public static final class Values {
+        private final String[] values = new String[Field.values().length];
+
+        public Values set(Field field, String value) {
+            values[field.ordinal()] = value;
+            return this;
+        }
+
+        public Values set(Field field, long value) {
+            return set(field, Long.toString(value));
+        }
+
+        String get(Field field) {
+            return values[field.ordinal()];
+        }
+    }
+
+    private static final int MAX_RETAINED_BUFFER = 64 * 1024;
+
+    private static final ThreadLocal<StringBuilder> BUFFER = new ThreadLocal<StringBuilder>() {
+        @Override
+        protected StringBuilder initialValue() {
+            return new StringBuilder(1024);
+        }
+    };
+
+    private final String source;
+    // literals[i] precedes fields[i]; the last literal closes the template
+    private final String[] literals;
+    private final Field[] fields;
+
+    private MessageTemplate(String source, String[] literals, Field[] fields) {
+        this.source = source;
+        this.literals = literals;
+        this.fields = fields;
+    }
+
+    /**
+     * Parse a template; unknown %names% stay part of the literal text
+     */
+    public static MessageTemplate compile(String template) {
+        String source = template != null ? template : "";
+
+        List<String> literals = new ArrayList<>();
+        List<Field> fields = new ArrayList<>();
+
+        int literalStart = 0;
+        int i = 0;
+        while (i < source.length()) {
+            int open = source.indexOf('%', i);
+            if (open < 0) {
+                break;
+            }
+
+            int close = source.indexOf('%', open + 1);
+            if (close < 0) {
+                break;
+            }
+
+            Field field = Field.fromName(source.substring(open + 1, close));
+            if (field == null) {
+                // Not a placeholder; the closing % may open the next one
+                i = open + 1;
+                continue;
+            }
+
+            literals.add(source.substring(literalStart, open));
+            fields.add(field);
+            literalStart = close + 1;
+            i = close + 1;
+        }
+        literals.add(source.substring(literalStart));
+
+        return new MessageTemplate(template,
+                literals.toArray(new String[0]),
+                fields.toArray(new Field[0]));
+    }
+
+    /**
+     * The template text this was compiled from
+     */
+    public String getSource() {
+        return source;
+    }
+
+    public String render(Values values) {
+        StringBuilder out = BUFFER.get();
+        out.setLength(0);
+
+        for (int i = 0; i < fields.length; i++) {
+            out.append(literals[i]);
+
+            String value = values.get(fields[i]);
+            if (value != null) {
+                appendJsonEscaped(out, value);
+            } else {
+                out.append('%').append(fields[i].getName()).append('%');
+            }
+        }
+        out.append(literals[fields.length]);
+
+        String rendered = out.toString();
+        if (out.capacity() > MAX_RETAINED_BUFFER) {
+            BUFFER.remove();
+        }
+        return rendered;
+    }
+
+    /**
+     * Append a value escaped for use inside a JSON string literal
+     */
+    static void appendJsonEscaped(StringBuilder out, CharSequence value) {
+        for (int i = 0; i < value.length(); i++) {
+            char c = value.charAt(i);
+            switch (c) {
+                case '"':
+                    out.append("\\\"");
+                    break;
+                case '\\':
+                    out.append("\\\\");
+                    break;
+                case '\n':
+                    out.append("\\n");
+                    break;
+                case '\r':
+                    out.append("\\r");
+                    break;
+                case '\t':
+                    out.append("\\t");
+                    break;
+                case '\b':
+                    out.append("\\b");
+                    break;
+                case '\f':
+                    out.append("\\f");
+                    break;
+                default:
+                    if (c < 0x20 || c == 0x2028 || c == 0x2029) {
+                        out.append("\\u");
+                        String hex = Integer.toHexString(c);
+                        for (int pad = hex.length(); pad < 4; pad++) {
+                            out.append('0');
+                        }
+                        out.append(hex);
+                    } else {
+                        out.append(c);
+                    }
+            }
+        }
+    }
+}
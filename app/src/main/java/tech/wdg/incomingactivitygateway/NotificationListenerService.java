@@ -7,16 +7,7 @@ import android.service.notification.StatusBarNotification;
 import android.text.TextUtils;
 import android.util.Log;
 
-import androidx.work.BackoffPolicy;
-import androidx.work.Constraints;
-import androidx.work.Data;
-import androidx.work.NetworkType;
-import androidx.work.OneTimeWorkRequest;
-import androidx.work.WorkManager;
-import androidx.work.WorkRequest;
-
 import java.util.ArrayList;
-import java.util.concurrent.TimeUnit;
 
 public class NotificationListenerService extends android.service.notification.NotificationListenerService {
 
@@ -33,6 +24,7 @@ public class NotificationListenerService extends android.service.notification.No
     @Override
     public void onNotificationPosted(StatusBarNotification sbn) {
         super.onNotificationPosted(sbn);
+        long receivedAt = System.nanoTime();
 
         try {
             // Get notification details
@@ -64,11 +56,24 @@ public class NotificationListenerService extends android.service.notification.No
 
             // Create notification message
             String notificationMessage = buildNotificationMessage(packageName, title, content);
+            long postedAt = sbn.getPostTime();
+
+            // Apps re-post the same notification while updating it; forward its text once
+            if (EventDedup.isDuplicate(ForwardingConfig.ActivityType.PUSH, sbn.getKey(), notificationMessage)) {
+                Log.d(TAG, "Skipping repeated notification from " + packageName);
+                return;
+            }
 
             Log.d(TAG, "Processing notification from " + packageName + ": " + notificationMessage);
 
-            // Process forwarding rules
-            processNotificationForwarding(packageName, title, content, notificationMessage);
+            // Process forwarding rules off the main thread
+            EventIngestion.execute(() -> {
+                GatewayMetrics.record(GatewayMetrics.Stage.RECEIVE, ForwardingConfig.ActivityType.PUSH,
+                        System.nanoTime() - receivedAt);
+                GatewayMetrics.increment(GatewayMetrics.Counter.EVENTS_RECEIVED);
+
+                processNotificationForwarding(packageName, title, content, notificationMessage, postedAt);
+            });
 
         } catch (Exception e) {
             Log.e(TAG, "Error processing notification", e);
@@ -92,71 +97,36 @@ public class NotificationListenerService extends android.service.notification.No
         return message.toString();
     }
 
-    private void processNotificationForwarding(String packageName, String title, String content, String fullMessage) {
-        ArrayList<ForwardingConfig> configs = ForwardingConfig.getAll(context);
-        String asterisk = context.getString(R.string.asterisk);
+    private void processNotificationForwarding(String packageName, String title, String content, String fullMessage,
+            long postedAt) {
+        // Enabled PUSH rules whose sender is the package name or part of it
+        long matchStart = System.nanoTime();
+        ArrayList<ForwardingConfig> configs = new ArrayList<>();
+        ForwardingConfig.getRuleIndex(context).match(ForwardingConfig.ActivityType.PUSH, packageName, configs);
+        GatewayMetrics.record(GatewayMetrics.Stage.MATCH, ForwardingConfig.ActivityType.PUSH,
+                System.nanoTime() - matchStart);
 
         for (ForwardingConfig config : configs) {
-            // Skip if rule is disabled
-            if (!config.isOn) {
-                continue;
-            }
-
-            // Skip if this is not a PUSH notification rule
-            if (config.getActivityType() != ForwardingConfig.ActivityType.PUSH) {
-                continue;
-            }
-
-            // Check if sender matches (for notifications, sender is the app package name)
-            String configSender = config.getSender();
-            boolean senderMatches = configSender.equals(asterisk) ||
-                    configSender.equals(packageName) ||
-                    packageName.contains(configSender);
-
-            if (!senderMatches) {
-                continue;
-            }
-
             Log.d(TAG, "Forwarding notification from " + packageName + " via rule: " + config.getKey());
 
             // Prepare and send the notification
-            sendNotificationWebhook(config, packageName, title, content, fullMessage);
+            sendNotificationWebhook(config, packageName, title, content, fullMessage, postedAt);
         }
     }
 
     private void sendNotificationWebhook(ForwardingConfig config, String packageName, String title, String content,
-            String fullMessage) {
-        long timeStamp = System.currentTimeMillis();
+            String fullMessage, long timeStamp) {
+        GatewayMetrics.increment(GatewayMetrics.Counter.RULES_MATCHED);
 
         // Use enhanced message preparation if enabled, otherwise use regular template
-        String message = config.prepareEnhancedNotificationMessage(packageName, title, content, fullMessage, timeStamp);
-
-        // Create work request for sending webhook
-        Constraints constraints = new Constraints.Builder()
-                .setRequiredNetworkType(NetworkType.CONNECTED)
-                .build();
-
-        Data data = new Data.Builder()
-                .putString(RequestWorker.DATA_URL, config.getUrl())
-                .putString(RequestWorker.DATA_TEXT, message)
-                .putString(RequestWorker.DATA_HEADERS, config.getHeaders())
-                .putBoolean(RequestWorker.DATA_IGNORE_SSL, config.getIgnoreSsl())
-                .putBoolean(RequestWorker.DATA_CHUNKED_MODE, config.getChunkedMode())
-                .putInt(RequestWorker.DATA_MAX_RETRIES, config.getRetriesNumber())
-                .build();
-
-        WorkRequest workRequest = new OneTimeWorkRequest.Builder(RequestWorker.class)
-                .setConstraints(constraints)
-                .setBackoffCriteria(
-                        BackoffPolicy.EXPONENTIAL,
-                        OneTimeWorkRequest.MIN_BACKOFF_MILLIS,
-                        TimeUnit.MILLISECONDS)
-                .setInputData(data)
-                .build();
-
-        WorkManager
-                .getInstance(this.context)
-                .enqueue(workRequest);
+        long renderStart = System.nanoTime();
+        String eventId = config.eventId(packageName, fullMessage, timeStamp);
+        String message = config.prepareEnhancedNotificationMessage(packageName, title, content, fullMessage, timeStamp,
+                eventId);
+        GatewayMetrics.record(GatewayMetrics.Stage.RENDER, config.getKey(), config.getUrl(),
+                System.nanoTime() - renderStart);
+
+        Outbox.getInstance(this.context).enqueue(OutboxEntry.forRule(config, packageName, message, eventId));
     }
 
     @Override
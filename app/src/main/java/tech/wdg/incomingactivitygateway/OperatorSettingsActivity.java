@@ -35,8 +35,8 @@ import java.util.List;
 public class OperatorSettingsActivity extends AppCompatActivity {
 
     private static final String TAG = "OperatorSettings";
-    private static final String PREFS_NAME = "operator_settings";
-    private static final String KEY_ENABLE_SIM_INFO = "enable_sim_info";
+    static final String PREFS_NAME = "operator_settings";
+    static final String KEY_ENABLE_SIM_INFO = "enable_sim_info";
     private static final String KEY_SIM_PREFIX = "sim_";
     private static final String KEY_SIM_NAME_SUFFIX = "_name";
     private static final String KEY_SIM_NUMBER_SUFFIX = "_number";
@@ -222,16 +222,16 @@ public class OperatorSettingsActivity extends AppCompatActivity {
     }
 
     private void loadCustomSimSettings(SimCardInfo simInfo) {
-        String nameKey = KEY_SIM_PREFIX + simInfo.slotIndex + KEY_SIM_NAME_SUFFIX;
-        String numberKey = KEY_SIM_PREFIX + simInfo.slotIndex + KEY_SIM_NUMBER_SUFFIX;
+        String nameKey = simNameKey(simInfo.slotIndex);
+        String numberKey = simNumberKey(simInfo.slotIndex);
 
         simInfo.customName = preferences.getString(nameKey, "");
         simInfo.customNumber = preferences.getString(numberKey, "");
     }
 
     private void saveCustomSimSettings(SimCardInfo simInfo) {
-        String nameKey = KEY_SIM_PREFIX + simInfo.slotIndex + KEY_SIM_NAME_SUFFIX;
-        String numberKey = KEY_SIM_PREFIX + simInfo.slotIndex + KEY_SIM_NUMBER_SUFFIX;
+        String nameKey = simNameKey(simInfo.slotIndex);
+        String numberKey = simNumberKey(simInfo.slotIndex);
 
         preferences.edit()
                 .putString(nameKey, simInfo.customName)
@@ -329,83 +329,18 @@ public class OperatorSettingsActivity extends AppCompatActivity {
     }
 
     public static String getSimName(Context context, int slotIndex) {
-        if (!isSimInfoEnabled(context)) {
-            return "sim" + (slotIndex + 1);
-        }
-
-        SharedPreferences prefs = context.getSharedPreferences(PREFS_NAME, Context.MODE_PRIVATE);
-        String customName = prefs.getString(KEY_SIM_PREFIX + slotIndex + KEY_SIM_NAME_SUFFIX, "");
-
-        if (!customName.isEmpty()) {
-            return customName;
-        }
-
-        // Try to get operator name if available
-        try {
-            SubscriptionManager subscriptionManager = (SubscriptionManager) context
-                    .getSystemService(Context.TELEPHONY_SUBSCRIPTION_SERVICE);
-            if (ActivityCompat.checkSelfPermission(context,
-                    Manifest.permission.READ_PHONE_STATE) == PackageManager.PERMISSION_GRANTED) {
-                List<SubscriptionInfo> subscriptions = subscriptionManager.getActiveSubscriptionInfoList();
-                if (subscriptions != null) {
-                    for (SubscriptionInfo subscription : subscriptions) {
-                        if (subscription.getSimSlotIndex() == slotIndex) {
-                            return subscription.getCarrierName() != null ? subscription.getCarrierName().toString()
-                                    : "sim" + (slotIndex + 1);
-                        }
-                    }
-                }
-            }
-        } catch (Exception e) {
-            Log.e(TAG, "Error getting SIM name", e);
-        }
-
-        return "sim" + (slotIndex + 1);
+        return SimSlots.getInstance(context).getName(slotIndex);
     }
 
     public static String getSimNumber(Context context, int slotIndex) {
-        if (!isSimInfoEnabled(context)) {
-            return "sim" + (slotIndex + 1);
-        }
-
-        SharedPreferences prefs = context.getSharedPreferences(PREFS_NAME, Context.MODE_PRIVATE);
-        String customNumber = prefs.getString(KEY_SIM_PREFIX + slotIndex + KEY_SIM_NUMBER_SUFFIX, "");
-
-        if (!customNumber.isEmpty()) {
-            return customNumber;
-        }
+        return SimSlots.getInstance(context).getNumber(slotIndex);
+    }
 
-        // Try to get actual phone number if available
-        try {
-            SubscriptionManager subscriptionManager = (SubscriptionManager) context
-                    .getSystemService(Context.TELEPHONY_SUBSCRIPTION_SERVICE);
-            if (ActivityCompat.checkSelfPermission(context,
-                    Manifest.permission.READ_PHONE_STATE) == PackageManager.PERMISSION_GRANTED) {
-                List<SubscriptionInfo> subscriptions = subscriptionManager.getActiveSubscriptionInfoList();
-                if (subscriptions != null) {
-                    for (SubscriptionInfo subscription : subscriptions) {
-                        if (subscription.getSimSlotIndex() == slotIndex) {
-                            if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.TIRAMISU) {
-                                // For Android 13+, phone numbers are restricted
-                                return "sim" + (slotIndex + 1);
-                            } else {
-                                // For older versions, try to get the number
-                                try {
-                                    String number = subscription.getNumber();
-                                    return (number != null && !number.isEmpty()) ? number : "sim" + (slotIndex + 1);
-                                } catch (Exception e) {
-                                    Log.w(TAG, "Could not get phone number", e);
-                                    return "sim" + (slotIndex + 1);
-                                }
-                            }
-                        }
-                    }
-                }
-            }
-        } catch (Exception e) {
-            Log.e(TAG, "Error getting SIM number", e);
-        }
+    static String simNameKey(int slotIndex) {
+        return KEY_SIM_PREFIX + slotIndex + KEY_SIM_NAME_SUFFIX;
+    }
 
-        return "sim" + (slotIndex + 1);
+    static String simNumberKey(int slotIndex) {
+        return KEY_SIM_PREFIX + slotIndex + KEY_SIM_NUMBER_SUFFIX;
     }
-}
\ No newline at end of file
+}
@@ -0,0 +1,449 @@
+package tech.wdg.incomingactivitygateway;
+
+import android.content.ContentValues;
+import android.content.Context;
+import android.database.Cursor;
+import android.database.DatabaseUtils;
+import android.database.sqlite.SQLiteDatabase;
+import android.database.sqlite.SQLiteOpenHelper;
+import android.util.Log;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Durable queue of rendered webhooks backed by a dedicated SQLite table.
+ * Receivers append to it and OutboxDispatcher drains it, so an event is
+ * only removed once its delivery succeeded or permanently failed.
+ */
+public class Outbox {
+    private static final String TAG = "Outbox";
+
+    private static final String DATABASE_NAME = "outbox.db";
+    private static final int DATABASE_VERSION = 1;
+
+    static final String TABLE = "outbox";
+    static final String COLUMN_ID = "_id";
+    static final String COLUMN_RULE_KEY = "rule_key";
+    static final String COLUMN_URL = "url";
+    static final String COLUMN_HEADERS = "headers";
+    static final String COLUMN_PAYLOAD = "payload";
+    static final String COLUMN_IGNORE_SSL = "ignore_ssl";
+    static final String COLUMN_CHUNKED_MODE = "chunked_mode";
+    static final String COLUMN_MAX_RETRIES = "max_retries";
+    static final String COLUMN_ATTEMPTS = "attempts";
+    static final String COLUMN_NEXT_ATTEMPT_AT = "next_attempt_at";
+    static final String COLUMN_CREATED_AT = "created_at";
+    static final String COLUMN_BATCH_MAX_SIZE = "batch_max_size";
+    static final String COLUMN_BATCH_MAX_BYTES = "batch_max_bytes";
+    static final String COLUMN_BATCH_FORMAT = "batch_format";
+    static final String COLUMN_TRANSPORT_MODE = "transport_mode";
+    static final String COLUMN_COMPRESSION = "compression";
+    static final String COLUMN_COMPRESSION_MIN_BYTES = "compression_min_bytes";
+    static final String COLUMN_CONNECT_TIMEOUT_MS = "connect_timeout_ms";
+    static final String COLUMN_READ_TIMEOUT_MS = "read_timeout_ms";
+    static final String COLUMN_WRITE_TIMEOUT_MS = "write_timeout_ms";
+    static final String COLUMN_DEADLINE_MS = "deadline_ms";
+    static final String COLUMN_RETRY_BASE_DELAY_MS = "retry_base_delay_ms";
+    static final String COLUMN_RETRY_MAX_DELAY_MS = "retry_max_delay_ms";
+    static final String COLUMN_EVENT_ID = "event_id";
+
+    // Parts of a concatenated SMS waiting for the rest, see SmsReassembly
+    static final String PARTS_TABLE = "sms_parts";
+    static final String COLUMN_MESSAGE_KEY = "message_key";
+    static final String COLUMN_SENDER = "sender";
+    static final String COLUMN_REFERENCE = "reference";
+    static final String COLUMN_PART_COUNT = "part_count";
+    static final String COLUMN_SEQUENCE = "sequence";
+    static final String COLUMN_BODY = "body";
+    static final String COLUMN_TIMESTAMP = "timestamp";
+    static final String COLUMN_SLOT_ID = "slot_id";
+    static final String COLUMN_RECEIVED_AT = "received_at";
+
+    // Entries sharing an endpoint that may go out in the same batched POST
+    private static final String BATCH_GROUP_SELECTION = COLUMN_BATCH_MAX_SIZE + " > 0"
+            + " AND " + COLUMN_URL + " = ?"
+            + " AND IFNULL(" + COLUMN_HEADERS + ", '') = ?"
+            + " AND " + COLUMN_IGNORE_SSL + " = ?"
+            + " AND " + COLUMN_CHUNKED_MODE + " = ?"
+            + " AND IFNULL(" + COLUMN_BATCH_FORMAT + ", '') = ?"
+            + " AND IFNULL(" + COLUMN_TRANSPORT_MODE + ", '') = ?"
+            + " AND IFNULL(" + COLUMN_COMPRESSION + ", '') = ?";
+
+    private static Outbox instance;
+
+    private final Context context;
+    private final Helper helper;
+
+    private Outbox(Context context) {
+        this.context = context.getApplicationContext();
+        this.helper = new Helper(this.context);
+    }
+
+    public static synchronized Outbox getInstance(Context context) {
+        if (instance == null) {
+            instance = new Outbox(context);
+        }
+        return instance;
+    }
+
+    /**
+     * Persist an entry and wake the dispatcher, which waits out busy hosts
+     * and open circuits without using up the entry's retries
+     */
+    public long enqueue(OutboxEntry entry) {
+        long start = System.nanoTime();
+        ContentValues values = new ContentValues();
+        values.put(COLUMN_RULE_KEY, entry.ruleKey);
+        values.put(COLUMN_URL, entry.url);
+        values.put(COLUMN_HEADERS, entry.headers);
+        values.put(COLUMN_PAYLOAD, entry.payload);
+        values.put(COLUMN_IGNORE_SSL, entry.ignoreSsl ? 1 : 0);
+        values.put(COLUMN_CHUNKED_MODE, entry.chunkedMode ? 1 : 0);
+        values.put(COLUMN_MAX_RETRIES, entry.maxRetries);
+        values.put(COLUMN_ATTEMPTS, entry.attempts);
+        values.put(COLUMN_NEXT_ATTEMPT_AT, entry.nextAttemptAt);
+        values.put(COLUMN_CREATED_AT, entry.createdAt);
+        values.put(COLUMN_BATCH_MAX_SIZE, entry.batchMaxSize);
+        values.put(COLUMN_BATCH_MAX_BYTES, entry.batchMaxBytes);
+        values.put(COLUMN_BATCH_FORMAT, entry.batchFormat);
+        values.put(COLUMN_TRANSPORT_MODE, entry.transportMode);
+        values.put(COLUMN_COMPRESSION, entry.compression);
+        values.put(COLUMN_COMPRESSION_MIN_BYTES, entry.compressionMinBytes);
+        values.put(COLUMN_CONNECT_TIMEOUT_MS, entry.connectTimeoutMs);
+        values.put(COLUMN_READ_TIMEOUT_MS, entry.readTimeoutMs);
+        values.put(COLUMN_WRITE_TIMEOUT_MS, entry.writeTimeoutMs);
+        values.put(COLUMN_DEADLINE_MS, entry.deadlineMs);
+        values.put(COLUMN_RETRY_BASE_DELAY_MS, entry.retryBaseDelayMs);
+        values.put(COLUMN_RETRY_MAX_DELAY_MS, entry.retryMaxDelayMs);
+        values.put(COLUMN_EVENT_ID, entry.eventId);
+
+        long id = helper.getWritableDatabase().insert(TABLE, null, values);
+        if (id == -1) {
+            Log.e(TAG, "Failed to persist outbox entry for rule " + entry.ruleKey);
+            return id;
+        }
+
+        entry.id = id;
+        if (entry.isBatched()) {
+            flushBatchIfFull(entry);
+        }
+        GatewayMetrics.record(GatewayMetrics.Stage.ENQUEUE, entry.ruleKey, entry.url, System.nanoTime() - start);
+        GatewayMetrics.increment(GatewayMetrics.Counter.ENQUEUED);
+        EventHistory.getInstance(context).recordQueued(entry);
+
+        OutboxDispatcher.getInstance(context).wake();
+        return id;
+    }
+
+    /**
+     * Get entries whose next attempt is due, oldest first, leaving out the
+     * given entries and endpoints
+     */
+    public List<OutboxEntry> due(long now, int limit, Collection<Long> excludedIds, Collection<String> excludedUrls) {
+        List<OutboxEntry> entries = new ArrayList<>();
+
+        List<String> args = new ArrayList<>();
+        args.add(String.valueOf(now));
+        String selection = COLUMN_NEXT_ATTEMPT_AT + " <= ?" + exclusion(excludedIds, excludedUrls, args);
+
+        try (Cursor cursor = helper.getReadableDatabase().query(
+                TABLE,
+                null,
+                selection,
+                args.toArray(new String[0]),
+                null,
+                null,
+                COLUMN_NEXT_ATTEMPT_AT + ", " + COLUMN_ID,
+                String.valueOf(limit))) {
+            while (cursor.moveToNext()) {
+                entries.add(read(cursor));
+            }
+        }
+
+        return entries;
+    }
+
+    /**
+     * Get entries that can share a batched POST with the given one: those
+     * already due plus fresh ones still lingering, oldest first
+     */
+    public List<OutboxEntry> batchFor(OutboxEntry head, long now, Collection<Long> excludedIds) {
+        List<OutboxEntry> entries = new ArrayList<>();
+
+        List<String> args = new ArrayList<>(Arrays.asList(batchGroupArgs(head)));
+        args.add(String.valueOf(now));
+        String selection = BATCH_GROUP_SELECTION + " AND (" + COLUMN_NEXT_ATTEMPT_AT + " <= ? OR "
+                + COLUMN_ATTEMPTS + " = 0)" + exclusion(excludedIds, Collections.emptyList(), args);
+
+        try (Cursor cursor = helper.getReadableDatabase().query(
+                TABLE,
+                null,
+                selection,
+                args.toArray(new String[0]),
+                null,
+                null,
+                COLUMN_NEXT_ATTEMPT_AT + ", " + COLUMN_ID,
+                String.valueOf(Math.max(1, head.batchMaxSize)))) {
+            while (cursor.moveToNext()) {
+                entries.add(read(cursor));
+            }
+        }
+
+        return entries;
+    }
+
+    /**
+     * Time of the earliest pending attempt outside the given entries and
+     * endpoints, or -1 if there is none
+     */
+    public long nextAttemptAt(Collection<Long> excludedIds, Collection<String> excludedUrls) {
+        List<String> args = new ArrayList<>();
+        String selection = "1" + exclusion(excludedIds, excludedUrls, args);
+
+        try (Cursor cursor = helper.getReadableDatabase().rawQuery(
+                "SELECT MIN(" + COLUMN_NEXT_ATTEMPT_AT + ") FROM " + TABLE + " WHERE " + selection,
+                args.toArray(new String[0]))) {
+            if (cursor.moveToFirst() && !cursor.isNull(0)) {
+                return cursor.getLong(0);
+            }
+        }
+        return -1;
+    }
+
+    public long pendingCount() {
+        return DatabaseUtils.queryNumEntries(helper.getReadableDatabase(), TABLE);
+    }
+
+    public void remove(long id) {
+        helper.getWritableDatabase().delete(TABLE, COLUMN_ID + " = ?", new String[]{String.valueOf(id)});
+    }
+
+    public void scheduleRetry(long id, int attempts, long nextAttemptAt) {
+        ContentValues values = new ContentValues();
+        values.put(COLUMN_ATTEMPTS, attempts);
+        values.put(COLUMN_NEXT_ATTEMPT_AT, nextAttemptAt);
+        helper.getWritableDatabase().update(TABLE, values, COLUMN_ID + " = ?", new String[]{String.valueOf(id)});
+    }
+
+    /**
+     * Keep one part of a concatenated SMS until the whole message is
+     * forwarded; a part already stored is ignored
+     */
+    public void saveSmsPart(SmsReassembly.StoredPart part) {
+        ContentValues values = new ContentValues();
+        values.put(COLUMN_MESSAGE_KEY, part.key);
+        values.put(COLUMN_SENDER, part.sender);
+        values.put(COLUMN_REFERENCE, part.part.reference);
+        values.put(COLUMN_PART_COUNT, part.part.count);
+        values.put(COLUMN_SEQUENCE, part.part.sequence);
+        values.put(COLUMN_BODY, part.body);
+        values.put(COLUMN_TIMESTAMP, part.timestamp);
+        values.put(COLUMN_SLOT_ID, part.slotId);
+        values.put(COLUMN_RECEIVED_AT, part.receivedAt);
+
+        if (helper.getWritableDatabase().insertWithOnConflict(PARTS_TABLE, null, values,
+                SQLiteDatabase.CONFLICT_IGNORE) == -1) {
+            Log.w(TAG, "SMS part " + part.part.sequence + " from " + part.sender + " not stored");
+        }
+    }
+
+    /**
+     * Stored SMS parts, oldest first
+     */
+    public List<SmsReassembly.StoredPart> smsParts() {
+        List<SmsReassembly.StoredPart> parts = new ArrayList<>();
+        try (Cursor cursor = helper.getReadableDatabase().query(PARTS_TABLE, null, null, null, null, null,
+                COLUMN_RECEIVED_AT + ", " + COLUMN_ID)) {
+            while (cursor.moveToNext()) {
+                parts.add(new SmsReassembly.StoredPart(
+                        cursor.getString(cursor.getColumnIndexOrThrow(COLUMN_MESSAGE_KEY)),
+                        cursor.getString(cursor.getColumnIndexOrThrow(COLUMN_SENDER)),
+                        new SmsReassembly.Part(
+                                cursor.getInt(cursor.getColumnIndexOrThrow(COLUMN_REFERENCE)),
+                                cursor.getInt(cursor.getColumnIndexOrThrow(COLUMN_PART_COUNT)),
+                                cursor.getInt(cursor.getColumnIndexOrThrow(COLUMN_SEQUENCE))),
+                        cursor.getString(cursor.getColumnIndexOrThrow(COLUMN_BODY)),
+                        cursor.getLong(cursor.getColumnIndexOrThrow(COLUMN_TIMESTAMP)),
+                        cursor.getInt(cursor.getColumnIndexOrThrow(COLUMN_SLOT_ID)),
+                        cursor.getLong(cursor.getColumnIndexOrThrow(COLUMN_RECEIVED_AT))));
+            }
+        }
+        return parts;
+    }
+
+    /**
+     * Drop the stored parts of one message, or of all messages if key is null
+     */
+    public void removeSmsParts(String key) {
+        if (key == null) {
+            helper.getWritableDatabase().delete(PARTS_TABLE, null, null);
+        } else {
+            helper.getWritableDatabase().delete(PARTS_TABLE, COLUMN_MESSAGE_KEY + " = ?", new String[]{key});
+        }
+    }
+
+    /**
+     * Stop lingering once a batch group has reached its size or byte limit
+     */
+    private void flushBatchIfFull(OutboxEntry entry) {
+        String[] args = batchGroupArgs(entry);
+        String selection = BATCH_GROUP_SELECTION + " AND " + COLUMN_ATTEMPTS + " = 0";
+
+        long count;
+        long bytes;
+        try (Cursor cursor = helper.getReadableDatabase().rawQuery(
+                "SELECT COUNT(*), TOTAL(LENGTH(" + COLUMN_PAYLOAD + ")) FROM " + TABLE + " WHERE " + selection,
+                args)) {
+            if (!cursor.moveToFirst()) {
+                return;
+            }
+            count = cursor.getLong(0);
+            bytes = cursor.getLong(1);
+        }
+
+        if (count < entry.batchMaxSize && (entry.batchMaxBytes <= 0 || bytes < entry.batchMaxBytes)) {
+            return;
+        }
+
+        long now = System.currentTimeMillis();
+        String[] updateArgs = new String[args.length + 1];
+        System.arraycopy(args, 0, updateArgs, 0, args.length);
+        updateArgs[args.length] = String.valueOf(now);
+
+        ContentValues values = new ContentValues();
+        values.put(COLUMN_NEXT_ATTEMPT_AT, now);
+        helper.getWritableDatabase().update(TABLE, values,
+                selection + " AND " + COLUMN_NEXT_ATTEMPT_AT + " > ?", updateArgs);
+    }
+
+    /**
+     * Extra WHERE terms leaving out entries and endpoints; ids are inlined
+     * since there can be more of them than bind parameters allowed
+     */
+    private static String exclusion(Collection<Long> excludedIds, Collection<String> excludedUrls, List<String> args) {
+        StringBuilder selection = new StringBuilder();
+        if (!excludedIds.isEmpty()) {
+            selection.append(" AND ").append(COLUMN_ID).append(" NOT IN (");
+            boolean first = true;
+            for (Long id : excludedIds) {
+                selection.append(first ? "" : ",").append(id.longValue());
+                first = false;
+            }
+            selection.append(')');
+        }
+        if (!excludedUrls.isEmpty()) {
+            selection.append(" AND ").append(COLUMN_URL).append(" NOT IN (");
+            boolean first = true;
+            for (String url : excludedUrls) {
+                selection.append(first ? "?" : ",?");
+                args.add(url);
+                first = false;
+            }
+            selection.append(')');
+        }
+        return selection.toString();
+    }
+
+    private static String[] batchGroupArgs(OutboxEntry entry) {
+        return new String[]{
+                entry.url,
+                entry.headers != null ? entry.headers : "",
+                entry.ignoreSsl ? "1" : "0",
+                entry.chunkedMode ? "1" : "0",
+                entry.batchFormat != null ? entry.batchFormat : "",
+                entry.transportMode != null ? entry.transportMode : "",
+                entry.compression != null ? entry.compression : ""
+        };
+    }
+
+    private static OutboxEntry read(Cursor cursor) {
+        OutboxEntry entry = new OutboxEntry();
+        entry.id = cursor.getLong(cursor.getColumnIndexOrThrow(COLUMN_ID));
+        entry.ruleKey = cursor.getString(cursor.getColumnIndexOrThrow(COLUMN_RULE_KEY));
+        entry.url = cursor.getString(cursor.getColumnIndexOrThrow(COLUMN_URL));
+        entry.headers = cursor.getString(cursor.getColumnIndexOrThrow(COLUMN_HEADERS));
+        entry.payload = cursor.getBlob(cursor.getColumnIndexOrThrow(COLUMN_PAYLOAD));
+        entry.ignoreSsl = cursor.getInt(cursor.getColumnIndexOrThrow(COLUMN_IGNORE_SSL)) != 0;
+        entry.chunkedMode = cursor.getInt(cursor.getColumnIndexOrThrow(COLUMN_CHUNKED_MODE)) != 0;
+        entry.maxRetries = cursor.getInt(cursor.getColumnIndexOrThrow(COLUMN_MAX_RETRIES));
+        entry.attempts = cursor.getInt(cursor.getColumnIndexOrThrow(COLUMN_ATTEMPTS));
+        entry.nextAttemptAt = cursor.getLong(cursor.getColumnIndexOrThrow(COLUMN_NEXT_ATTEMPT_AT));
+        entry.createdAt = cursor.getLong(cursor.getColumnIndexOrThrow(COLUMN_CREATED_AT));
+        entry.batchMaxSize = cursor.getInt(cursor.getColumnIndexOrThrow(COLUMN_BATCH_MAX_SIZE));
+        entry.batchMaxBytes = cursor.getInt(cursor.getColumnIndexOrThrow(COLUMN_BATCH_MAX_BYTES));
+        entry.batchFormat = cursor.getString(cursor.getColumnIndexOrThrow(COLUMN_BATCH_FORMAT));
+        entry.transportMode = cursor.getString(cursor.getColumnIndexOrThrow(COLUMN_TRANSPORT_MODE));
+        entry.compression = cursor.getString(cursor.getColumnIndexOrThrow(COLUMN_COMPRESSION));
+        entry.compressionMinBytes = cursor.getInt(cursor.getColumnIndexOrThrow(COLUMN_COMPRESSION_MIN_BYTES));
+        entry.connectTimeoutMs = cursor.getInt(cursor.getColumnIndexOrThrow(COLUMN_CONNECT_TIMEOUT_MS));
+        entry.readTimeoutMs = cursor.getInt(cursor.getColumnIndexOrThrow(COLUMN_READ_TIMEOUT_MS));
+        entry.writeTimeoutMs = cursor.getInt(cursor.getColumnIndexOrThrow(COLUMN_WRITE_TIMEOUT_MS));
+        entry.deadlineMs = cursor.getInt(cursor.getColumnIndexOrThrow(COLUMN_DEADLINE_MS));
+        entry.retryBaseDelayMs = cursor.getLong(cursor.getColumnIndexOrThrow(COLUMN_RETRY_BASE_DELAY_MS));
+        entry.retryMaxDelayMs = cursor.getLong(cursor.getColumnIndexOrThrow(COLUMN_RETRY_MAX_DELAY_MS));
+        entry.eventId = cursor.getString(cursor.getColumnIndexOrThrow(COLUMN_EVENT_ID));
+        return entry;
+    }
+
+    private static class Helper extends SQLiteOpenHelper {
+
+        Helper(Context context) {
+            super(context, DATABASE_NAME, null, DATABASE_VERSION);
+            // Lets receivers append while the dispatcher is reading
+            setWriteAheadLoggingEnabled(true);
+        }
+
+        @Override
+        public void onCreate(SQLiteDatabase db) {
+            db.execSQL("CREATE TABLE " + TABLE + " ("
+                    + COLUMN_ID + " INTEGER PRIMARY KEY AUTOINCREMENT, "
+                    + COLUMN_RULE_KEY + " TEXT, "
+                    + COLUMN_URL + " TEXT NOT NULL, "
+                    + COLUMN_HEADERS + " TEXT, "
+                    + COLUMN_PAYLOAD + " BLOB NOT NULL, "
+                    + COLUMN_IGNORE_SSL + " INTEGER NOT NULL DEFAULT 0, "
+                    + COLUMN_CHUNKED_MODE + " INTEGER NOT NULL DEFAULT 0, "
+                    + COLUMN_MAX_RETRIES + " INTEGER NOT NULL DEFAULT 10, "
+                    + COLUMN_ATTEMPTS + " INTEGER NOT NULL DEFAULT 0, "
+                    + COLUMN_NEXT_ATTEMPT_AT + " INTEGER NOT NULL, "
+                    + COLUMN_CREATED_AT + " INTEGER NOT NULL, "
+                    + COLUMN_BATCH_MAX_SIZE + " INTEGER NOT NULL DEFAULT 0, "
+                    + COLUMN_BATCH_MAX_BYTES + " INTEGER NOT NULL DEFAULT 0, "
+                    + COLUMN_BATCH_FORMAT + " TEXT, "
+                    + COLUMN_TRANSPORT_MODE + " TEXT, "
+                    + COLUMN_COMPRESSION + " TEXT, "
+                    + COLUMN_COMPRESSION_MIN_BYTES + " INTEGER NOT NULL DEFAULT 0, "
+                    + COLUMN_CONNECT_TIMEOUT_MS + " INTEGER NOT NULL DEFAULT 0, "
+                    + COLUMN_READ_TIMEOUT_MS + " INTEGER NOT NULL DEFAULT 0, "
+                    + COLUMN_WRITE_TIMEOUT_MS + " INTEGER NOT NULL DEFAULT 0, "
+                    + COLUMN_DEADLINE_MS + " INTEGER NOT NULL DEFAULT 0, "
+                    + COLUMN_RETRY_BASE_DELAY_MS + " INTEGER NOT NULL DEFAULT 0, "
+                    + COLUMN_RETRY_MAX_DELAY_MS + " INTEGER NOT NULL DEFAULT 0, "
+                    + COLUMN_EVENT_ID + " TEXT)");
+            db.execSQL("CREATE INDEX idx_outbox_next_attempt ON " + TABLE
+                    + " (" + COLUMN_NEXT_ATTEMPT_AT + ", " + COLUMN_ID + ")");
+            db.execSQL("CREATE INDEX idx_outbox_url ON " + TABLE + " (" + COLUMN_URL + ")");
+            db.execSQL("CREATE TABLE " + PARTS_TABLE + " ("
+                    + COLUMN_ID + " INTEGER PRIMARY KEY AUTOINCREMENT, "
+                    + COLUMN_MESSAGE_KEY + " TEXT NOT NULL, "
+                    + COLUMN_SENDER + " TEXT NOT NULL, "
+                    + COLUMN_REFERENCE + " INTEGER NOT NULL, "
+                    + COLUMN_PART_COUNT + " INTEGER NOT NULL, "
+                    + COLUMN_SEQUENCE + " INTEGER NOT NULL, "
+                    + COLUMN_BODY + " TEXT NOT NULL, "
+                    + COLUMN_TIMESTAMP + " INTEGER NOT NULL, "
+                    + COLUMN_SLOT_ID + " INTEGER NOT NULL, "
+                    + COLUMN_RECEIVED_AT + " INTEGER NOT NULL, "
+                    + "UNIQUE (" + COLUMN_MESSAGE_KEY + ", " + COLUMN_SEQUENCE + "))");
+        }
+
+        @Override
+        public void onUpgrade(SQLiteDatabase db, int oldVersion, int newVersion) {
+            // First version, nothing to migrate yet
+        }
+    }
+}
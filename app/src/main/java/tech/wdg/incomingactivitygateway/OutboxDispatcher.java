@@ -0,0 +1,411 @@
+package tech.wdg.incomingactivitygateway;
+
+import android.content.Context;
+import android.net.ConnectivityManager;
+import android.net.Network;
+import android.net.NetworkCapabilities;
+import android.util.Log;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Long-lived thread that drains the outbox into a small pool of senders.
+ *
+ * Entries are handed out oldest first; entries of batching rules go out
+ * together with everything else pending for the same endpoint. Each
+ * request needs a slot from its host's ConcurrencyLimiter, so a slow
+ * endpoint only holds as many senders as it can keep up with and the
+ * rest of its entries wait in the outbox while other hosts are served.
+ * Entries for a host whose CircuitBreaker is open are not sent at all
+ * until the breaker lets a probe through.
+ *
+ * Transient failures are rescheduled with the rule's jittered exponential
+ * backoff, or later if the server sent Retry-After, until the rule's retry
+ * limit is reached; permanent ones (most 4xx) are dropped right away.
+ *
+ * The thread sleeps until the next entry is due, a sender finishes, a new
+ * entry is enqueued or the network comes back.
+ */
+public class OutboxDispatcher {
+    private static final String TAG = "OutboxDispatcher";
+
+    private static final int BATCH_LIMIT = 50;
+    // Requests in flight across all hosts
+    private static final int MAX_SENDERS = 16;
+    // Pause after an unexpected error in the dispatch loop itself
+    private static final long ERROR_PAUSE_MS = 10_000L;
+
+    private static OutboxDispatcher instance;
+
+    private final Context context;
+    private final Object lock = new Object();
+    private boolean pending = false;
+    private volatile boolean networkAvailable = true;
+
+    private final ExecutorService senders = Executors.newFixedThreadPool(MAX_SENDERS, runnable -> {
+        Thread thread = new Thread(runnable, TAG + "-sender");
+        thread.setDaemon(true);
+        return thread;
+    });
+    // Entries handed to a sender and not yet removed or rescheduled
+    private final Set<Long> inFlight = ConcurrentHashMap.newKeySet();
+    private final AtomicInteger sending = new AtomicInteger();
+
+    private OutboxDispatcher(Context context) {
+        this.context = context.getApplicationContext();
+    }
+
+    /**
+     * Get the dispatcher, starting its thread on first use
+     */
+    public static synchronized OutboxDispatcher getInstance(Context context) {
+        if (instance == null) {
+            instance = new OutboxDispatcher(context);
+            instance.start();
+        }
+        return instance;
+    }
+
+    /**
+     * Signal that new work may be available
+     */
+    public void wake() {
+        synchronized (lock) {
+            pending = true;
+            lock.notifyAll();
+        }
+    }
+
+    private void start() {
+        registerNetworkCallback();
+
+        Thread thread = new Thread(this::run, TAG);
+        thread.setDaemon(true);
+        thread.start();
+        Log.d(TAG, "Outbox dispatcher started");
+    }
+
+    private void run() {
+        Outbox outbox = Outbox.getInstance(context);
+
+        while (true) {
+            try {
+                if (!networkAvailable) {
+                    awaitWork(-1);
+                    continue;
+                }
+
+                // Endpoints that may not get another request this round
+                Set<String> held = new HashSet<>();
+                if (!dispatchDue(outbox, held)) {
+                    // All senders busy: the next one to finish wakes us up
+                    awaitWork(-1);
+                    continue;
+                }
+                awaitWork(nextWakeUp(outbox, held));
+            } catch (InterruptedException e) {
+                Log.w(TAG, "Outbox dispatcher interrupted");
+                return;
+            } catch (Exception e) {
+                // Keep the thread alive; the entry stays queued and is retried later
+                Log.e(TAG, "Error draining outbox", e);
+                try {
+                    awaitWork(System.currentTimeMillis() + ERROR_PAUSE_MS);
+                } catch (InterruptedException interrupted) {
+                    return;
+                }
+            }
+        }
+    }
+
+    private void awaitWork(long nextAttemptAt) throws InterruptedException {
+        synchronized (lock) {
+            if (pending) {
+                pending = false;
+                return;
+            }
+
+            if (nextAttemptAt < 0) {
+                lock.wait();
+            } else {
+                long delay = nextAttemptAt - System.currentTimeMillis();
+                if (delay > 0) {
+                    lock.wait(delay);
+                }
+            }
+            pending = false;
+        }
+    }
+
+    /**
+     * Hand due entries to senders until none are left that may go out now;
+     * returns false when it stopped because every sender is busy
+     */
+    private boolean dispatchDue(Outbox outbox, Set<String> held) {
+        while (true) {
+            if (sending.get() >= MAX_SENDERS) {
+                return false;
+            }
+
+            List<OutboxEntry> due = outbox.due(System.currentTimeMillis(), BATCH_LIMIT, inFlight, held);
+            if (due.isEmpty()) {
+                return true;
+            }
+
+            boolean progressed = false;
+            for (OutboxEntry entry : due) {
+                if (sending.get() >= MAX_SENDERS) {
+                    return false;
+                }
+                if (inFlight.contains(entry.id) || held.contains(entry.url)) {
+                    continue;
+                }
+
+                ConcurrencyLimiter limiter = ConcurrencyLimiter.forUrl(entry.url);
+                if (!limiter.tryAcquire()) {
+                    held.add(entry.url);
+                    progressed = true;
+                    continue;
+                }
+                CircuitBreaker breaker = CircuitBreaker.forUrl(entry.url);
+                if (!breaker.allowRequest()) {
+                    // Parked without touching the network or the attempt count
+                    limiter.cancel();
+                    held.add(entry.url);
+                    progressed = true;
+                    continue;
+                }
+
+                List<OutboxEntry> entries = entry.isBatched()
+                        ? takeBatch(outbox, entry)
+                        : Collections.singletonList(entry);
+                submit(outbox, entries, limiter, breaker);
+                progressed = true;
+            }
+
+            if (!progressed) {
+                return true;
+            }
+        }
+    }
+
+    /**
+     * Next time anything may be due: the earliest pending attempt outside
+     * the held endpoints, or the end of an open circuit among them
+     */
+    private long nextWakeUp(Outbox outbox, Set<String> held) {
+        long next = outbox.nextAttemptAt(inFlight, held);
+        for (String url : held) {
+            long retryAt = CircuitBreaker.forUrl(url).getRetryAt();
+            if (retryAt > 0 && (next < 0 || retryAt < next)) {
+                next = retryAt;
+            }
+        }
+        return next;
+    }
+
+    private void submit(Outbox outbox, List<OutboxEntry> entries, ConcurrencyLimiter limiter,
+            CircuitBreaker breaker) {
+        for (OutboxEntry entry : entries) {
+            inFlight.add(entry.id);
+        }
+        sending.incrementAndGet();
+
+        senders.execute(() -> {
+            String result = Request.RESULT_RETRY;
+            long start = System.nanoTime();
+            try {
+                result = entries.get(0).isBatched()
+                        ? deliverBatch(outbox, entries)
+                        : deliver(outbox, entries.get(0));
+            } catch (Exception e) {
+                // Keep the entries queued; they are retried after the usual backoff
+                Log.e(TAG, "Error delivering to " + entries.get(0).url, e);
+                for (OutboxEntry entry : entries) {
+                    try {
+                        onFailure(outbox, entry, Request.RESULT_RETRY, -1);
+                    } catch (Exception rescheduleError) {
+                        Log.e(TAG, "Could not reschedule outbox entry " + entry.id, rescheduleError);
+                    }
+                }
+            } finally {
+                limiter.release(result, System.nanoTime() - start);
+                breaker.onResult(result);
+                for (OutboxEntry entry : entries) {
+                    inFlight.remove(entry.id);
+                }
+                sending.decrementAndGet();
+                wake();
+            }
+        });
+    }
+
+    private String deliver(Outbox outbox, OutboxEntry entry) {
+        Request request = new Request(entry.url, entry.payload);
+        request.setJsonHeaders(entry.headers);
+        request.setIdempotencyKey(entry.eventId);
+        request.setIgnoreSsl(entry.ignoreSsl);
+        request.setUseChunkedMode(entry.chunkedMode);
+        request.setTransportMode(ForwardingConfig.TransportMode.fromString(entry.transportMode));
+        request.setCompression(entry.compression, entry.compressionMinBytes);
+        request.setTimeouts(entry.connectTimeoutMs, entry.readTimeoutMs, entry.writeTimeoutMs, entry.deadlineMs);
+
+        recordAttempt(entry);
+        String result = request.execute();
+
+        if (Request.RESULT_SUCCESS.equals(result)) {
+            outbox.remove(entry.id);
+            recordDelivered(entry);
+        } else {
+            holdIfAsked(entry.url, result, request.getRetryAfterMs());
+            onFailure(outbox, entry, result, request.getRetryAfterMs());
+        }
+        return result;
+    }
+
+    /**
+     * Collect every pending entry for the same endpoint to go out in one POST
+     */
+    private List<OutboxEntry> takeBatch(Outbox outbox, OutboxEntry head) {
+        List<OutboxEntry> batch = WebhookBatch.take(
+                outbox.batchFor(head, System.currentTimeMillis(), inFlight), head.batchMaxSize, head.batchMaxBytes);
+        if (batch.isEmpty()) {
+            batch.add(head);
+        }
+        return batch;
+    }
+
+    private String deliverBatch(Outbox outbox, List<OutboxEntry> batch) {
+        OutboxEntry head = batch.get(0);
+        ForwardingConfig.BatchFormat format = ForwardingConfig.BatchFormat.fromString(head.batchFormat);
+
+        Request request = new Request(head.url, WebhookBatch.body(batch, format));
+        request.setContentType(WebhookBatch.contentType(format));
+        request.setJsonHeaders(head.headers);
+        request.setIdempotencyKey(batchKey(batch));
+        request.setIgnoreSsl(head.ignoreSsl);
+        request.setUseChunkedMode(head.chunkedMode);
+        request.setTransportMode(ForwardingConfig.TransportMode.fromString(head.transportMode));
+        request.setCompression(head.compression, head.compressionMinBytes);
+        request.setTimeouts(head.connectTimeoutMs, head.readTimeoutMs, head.writeTimeoutMs, head.deadlineMs);
+        request.setCaptureResponse(true);
+
+        for (OutboxEntry entry : batch) {
+            recordAttempt(entry);
+        }
+        String result = request.execute();
+        Log.d(TAG, "Batch of " + batch.size() + " to " + head.url + ": " + result);
+
+        boolean[] outcomes = Request.RESULT_SUCCESS.equals(result)
+                ? WebhookBatch.itemOutcomes(request.getResponseBody(), batch.size())
+                : null;
+        holdIfAsked(head.url, result, request.getRetryAfterMs());
+
+        for (int i = 0; i < batch.size(); i++) {
+            OutboxEntry entry = batch.get(i);
+            if (Request.RESULT_SUCCESS.equals(result) && (outcomes == null || outcomes[i])) {
+                outbox.remove(entry.id);
+                recordDelivered(entry);
+            } else {
+                onFailure(outbox, entry, Request.RESULT_SUCCESS.equals(result) ? Request.RESULT_RETRY : result,
+                        request.getRetryAfterMs());
+            }
+        }
+        return result;
+    }
+
+    /**
+     * Idempotency key of a batched POST; a retry of the same events sends
+     * the same key, a batch that lost or gained entries a different one
+     */
+    private static String batchKey(List<OutboxEntry> batch) {
+        List<String> eventIds = new ArrayList<>(batch.size());
+        for (OutboxEntry entry : batch) {
+            eventIds.add(entry.eventId);
+        }
+        return EventId.forBatch(eventIds);
+    }
+
+    /**
+     * A Retry-After on a transient failure speaks for the whole host, so
+     * its other entries wait too instead of running into the same answer
+     */
+    private static void holdIfAsked(String url, String result, long retryAfterMs) {
+        if (Request.RESULT_RETRY.equals(result) && retryAfterMs > 0) {
+            CircuitBreaker.forUrl(url).holdFor(retryAfterMs);
+        }
+    }
+
+    private void onFailure(Outbox outbox, OutboxEntry entry, String result, long retryAfterMs) {
+        GatewayMetrics.increment(GatewayMetrics.Counter.FAILED_ATTEMPTS);
+
+        int attempts = entry.attempts + 1;
+        if (Request.RESULT_ERROR.equals(result) || attempts > entry.maxRetries) {
+            Log.e(TAG, "Dropping outbox entry " + entry.id + " for rule " + entry.ruleKey
+                    + " after " + attempts + " attempt(s): " + result);
+            outbox.remove(entry.id);
+            GatewayMetrics.increment(GatewayMetrics.Counter.DROPPED);
+            EventHistory.getInstance(context).recordOutcome(entry, EventHistory.Status.FAILED, attempts);
+            return;
+        }
+
+        long delay = RetryPolicy.nextDelay(attempts,
+                entry.retryBaseDelayMs > 0 ? entry.retryBaseDelayMs : ForwardingConfig.getDefaultRetryBaseDelayMs(),
+                entry.retryMaxDelayMs > 0 ? entry.retryMaxDelayMs : ForwardingConfig.getDefaultRetryMaxDelayMs(),
+                retryAfterMs);
+        outbox.scheduleRetry(entry.id, attempts, System.currentTimeMillis() + delay);
+    }
+
+    private static void recordAttempt(OutboxEntry entry) {
+        if (entry.attempts == 0) {
+            GatewayMetrics.recordSince(GatewayMetrics.Stage.FIRST_ATTEMPT, entry.ruleKey, entry.url, entry.createdAt);
+        }
+    }
+
+    private void recordDelivered(OutboxEntry entry) {
+        GatewayMetrics.recordSince(GatewayMetrics.Stage.DELIVERED, entry.ruleKey, entry.url, entry.createdAt);
+        GatewayMetrics.increment(GatewayMetrics.Counter.DELIVERED);
+        EventHistory.getInstance(context).recordOutcome(entry, EventHistory.Status.DELIVERED, entry.attempts + 1);
+    }
+
+    private void registerNetworkCallback() {
+        ConnectivityManager connectivityManager = (ConnectivityManager) context
+                .getSystemService(Context.CONNECTIVITY_SERVICE);
+        if (connectivityManager == null) {
+            return;
+        }
+
+        try {
+            Network active = connectivityManager.getActiveNetwork();
+            NetworkCapabilities capabilities = active != null
+                    ? connectivityManager.getNetworkCapabilities(active)
+                    : null;
+            networkAvailable = capabilities != null
+                    && capabilities.hasCapability(NetworkCapabilities.NET_CAPABILITY_INTERNET);
+
+            connectivityManager.registerDefaultNetworkCallback(new ConnectivityManager.NetworkCallback() {
+                @Override
+                public void onAvailable(Network network) {
+                    networkAvailable = true;
+                    wake();
+                }
+
+                @Override
+                public void onLost(Network network) {
+                    networkAvailable = false;
+                }
+            });
+        } catch (Exception e) {
+            Log.w(TAG, "Could not watch connectivity, assuming network is available", e);
+            networkAvailable = true;
+        }
+    }
+}
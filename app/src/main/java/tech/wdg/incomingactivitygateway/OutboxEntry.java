@@ -0,0 +1,89 @@
+package tech.wdg.incomingactivitygateway;
+
+import java.nio.charset.StandardCharsets;
+
+/**
+ * A rendered webhook waiting in the outbox for delivery
+ */
+public class OutboxEntry {
+    public long id;
+    public String ruleKey;
+    // What the event was and where it came from, for the event history; not stored in the outbox
+    public ForwardingConfig.ActivityType activityType;
+    public String sender;
+    // Stable across attempts, sent as the Idempotency-Key header
+    public String eventId;
+    public String url;
+    public String headers;
+    // Rendered payload as UTF-8, sent as is on every attempt
+    public byte[] payload;
+    public boolean ignoreSsl;
+    public boolean chunkedMode = false;
+    public String transportMode;
+    // Content-Encoding for bodies of at least compressionMinBytes, null for none
+    public String compression;
+    public int compressionMinBytes;
+    // Zero means the default
+    public int connectTimeoutMs;
+    public int readTimeoutMs;
+    public int writeTimeoutMs;
+    public int deadlineMs;
+    public long retryBaseDelayMs;
+    public long retryMaxDelayMs;
+    public int maxRetries;
+    public int attempts;
+    public long nextAttemptAt;
+    public long createdAt;
+
+    // Zero when the rule delivers events one by one
+    public int batchMaxSize;
+    public int batchMaxBytes;
+    public String batchFormat;
+
+    public boolean isBatched() {
+        return batchMaxSize > 0;
+    }
+
+    /**
+     * Create an entry carrying the delivery settings of a forwarding rule
+     */
+    public static OutboxEntry forRule(ForwardingConfig config, String sender, String payload, String eventId) {
+        OutboxEntry entry = new OutboxEntry();
+        entry.ruleKey = config.getKey();
+        entry.activityType = config.getActivityType();
+        entry.sender = sender;
+        entry.eventId = eventId;
+        entry.url = config.getUrl();
+        entry.headers = config.getHeaders();
+        entry.ignoreSsl = config.getIgnoreSsl();
+        entry.chunkedMode = config.getChunkedMode();
+        entry.transportMode = config.getTransportMode().getValue();
+        if (config.getCompression() != ForwardingConfig.Compression.NONE) {
+            entry.compression = config.getCompression().getValue();
+            entry.compressionMinBytes = config.getCompressionMinBytes();
+        }
+        entry.connectTimeoutMs = config.getConnectTimeoutMs();
+        entry.readTimeoutMs = config.getReadTimeoutMs();
+        entry.writeTimeoutMs = config.getWriteTimeoutMs();
+        entry.deadlineMs = config.getDeadlineMs();
+        entry.retryBaseDelayMs = config.getRetryBaseDelayMs();
+        entry.retryMaxDelayMs = config.getRetryMaxDelayMs();
+        entry.maxRetries = config.getRetriesNumber();
+        entry.createdAt = System.currentTimeMillis();
+        entry.nextAttemptAt = entry.createdAt;
+
+        if (config.isBatchEnabled() && config.getBatchMaxSize() > 0) {
+            entry.batchMaxSize = config.getBatchMaxSize();
+            entry.batchMaxBytes = config.getBatchMaxBytes();
+            entry.batchFormat = config.getBatchFormat().getValue();
+            if (config.getBatchFormat() == ForwardingConfig.BatchFormat.NDJSON) {
+                // Flattened once here so the batch body is a plain concatenation
+                payload = WebhookBatch.singleLine(payload);
+            }
+            // Linger so that events arriving shortly after join the same POST
+            entry.nextAttemptAt = entry.createdAt + Math.max(0, config.getBatchLingerMs());
+        }
+        entry.payload = payload.getBytes(StandardCharsets.UTF_8);
+        return entry;
+    }
+}
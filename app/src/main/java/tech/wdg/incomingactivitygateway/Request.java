@@ -1,18 +1,12 @@
 package tech.wdg.incomingactivitygateway;
 
-import android.annotation.SuppressLint;
 import android.util.Log;
 
-import org.apache.http.conn.ssl.AllowAllHostnameVerifier;
 import org.json.JSONException;
 import org.json.JSONObject;
 
-import java.io.BufferedInputStream;
-import java.io.BufferedOutputStream;
-import java.io.BufferedWriter;
 import java.io.IOException;
 import java.io.OutputStream;
-import java.io.OutputStreamWriter;
 import java.net.HttpURLConnection;
 import java.net.MalformedURLException;
 import java.net.URL;
@@ -20,45 +14,59 @@ import java.nio.charset.StandardCharsets;
 import java.security.KeyManagementException;
 import java.security.NoSuchAlgorithmException;
 import java.util.Iterator;
-
-import javax.net.ssl.HttpsURLConnection;
-
-import tech.wdg.incomingactivitygateway.SSLSocketFactory.TLSSocketFactory;
+import java.util.LinkedHashMap;
+import java.util.Map;
 
 public class Request {
 
-    private final String payload;
+    // UTF-8, encoded once and sent as is on every attempt
+    private final byte[] body;
+    private final Map<String, String> headers = new LinkedHashMap<>();
     private boolean ignoreSsl = false;
-    private boolean useChunkedMode = true;
+    private boolean useChunkedMode = false;
+    private boolean captureResponse = false;
+    private ForwardingConfig.TransportMode transportMode = ForwardingConfig.TransportMode.HTTP1;
+    private BodyCodec codec = null;
+    private int compressionMinBytes = 0;
+    private int connectTimeoutMs = ForwardingConfig.getDefaultConnectTimeoutMs();
+    private int readTimeoutMs = ForwardingConfig.getDefaultReadTimeoutMs();
+    private int writeTimeoutMs = ForwardingConfig.getDefaultWriteTimeoutMs();
+    private int deadlineMs = ForwardingConfig.getDefaultDeadlineMs();
     private String error = null;
+    private int responseCode = -1;
+    private String responseBody = null;
+    private String protocol = null;
+    private long retryAfterMs = -1;
 
-    private HttpURLConnection connection;
+    private URL url;
 
     public static final String RESULT_SUCCESS = "success";
     public static final String RESULT_ERROR = "error";
     public static final String RESULT_RETRY = "error_retry";
 
+    private static final int MAX_RESPONSE_CHARS = 64 * 1024;
+    // How much of an error response is kept for the log
+    static final int ERROR_BODY_CHARS = 512;
+
     public Request(String urlString, String payload) {
-        this.payload = payload;
+        this(urlString, payload.getBytes(StandardCharsets.UTF_8));
+    }
+
+    /**
+     * Request with a body that is already UTF-8, such as an outbox entry
+     */
+    public Request(String urlString, byte[] body) {
+        this.body = body;
 
-        URL url;
         try {
-            url = new URL(urlString);
+            this.url = new URL(urlString);
         } catch (MalformedURLException e) {
             Log.e("SmsGateway", "malformed url error: " + urlString);
             this.error = RESULT_ERROR;
             return;
         }
 
-        try {
-            this.connection = (HttpURLConnection) url.openConnection();
-        } catch (IOException e) {
-            Log.e("SmsGateway", "open connection error: " + e);
-            this.error = RESULT_ERROR;
-            return;
-        }
-
-        this.connection.setRequestProperty("Content-Type", "application/json; charset=utf-8");
+        this.headers.put("Content-Type", "application/json; charset=utf-8");
     }
 
     public void setJsonHeaders(String headers) {
@@ -73,7 +81,7 @@ public class Request {
                     continue;
                 }
 
-                this.connection.setRequestProperty(key, (String) headersObj.get(key));
+                this.headers.put(key, headersObj.getString(key));
             }
         } catch (JSONException e) {
             Log.e("SmsGateway", "headers error: " + e);
@@ -89,52 +97,157 @@ public class Request {
         this.useChunkedMode = useChunkedMode;
     }
 
-    @SuppressLint({"AllowAllHostnameVerifier"})
+    public void setTransportMode(ForwardingConfig.TransportMode transportMode) {
+        this.transportMode = transportMode != null ? transportMode : ForwardingConfig.TransportMode.HTTP1;
+    }
+
+    /**
+     * Compress bodies of at least minBytes with the named Content-Encoding;
+     * null, "none" or an unknown coding sends them as they are
+     */
+    public void setCompression(String encoding, int minBytes) {
+        this.codec = BodyCodec.forEncoding(encoding);
+        this.compressionMinBytes = Math.max(0, minBytes);
+    }
+
+    /**
+     * Socket timeouts and the bound on the whole attempt, in milliseconds;
+     * zero or less keeps the default. HttpURLConnection has no write
+     * timeout, so there a stalled upload is only cut off by the deadline.
+     */
+    public void setTimeouts(int connectTimeoutMs, int readTimeoutMs, int writeTimeoutMs, int deadlineMs) {
+        if (connectTimeoutMs > 0) {
+            this.connectTimeoutMs = connectTimeoutMs;
+        }
+        if (readTimeoutMs > 0) {
+            this.readTimeoutMs = readTimeoutMs;
+        }
+        if (writeTimeoutMs > 0) {
+            this.writeTimeoutMs = writeTimeoutMs;
+        }
+        if (deadlineMs > 0) {
+            this.deadlineMs = deadlineMs;
+        }
+    }
+
+    /**
+     * Override the default JSON content type; headers from the rule still win
+     */
+    public void setContentType(String contentType) {
+        this.headers.put("Content-Type", contentType);
+    }
+
+    /**
+     * Send the event ID as the Idempotency-Key header, unless the rule's
+     * headers already set one; call after setJsonHeaders()
+     */
+    public void setIdempotencyKey(String eventId) {
+        if (eventId != null && !this.headers.containsKey(EventId.HEADER)) {
+            this.headers.put(EventId.HEADER, eventId);
+        }
+    }
+
+    /**
+     * Keep the response body so callers can inspect it after execute()
+     */
+    public void setCaptureResponse(boolean captureResponse) {
+        this.captureResponse = captureResponse;
+    }
+
+    public int getResponseCode() {
+        return this.responseCode;
+    }
+
+    public String getResponseBody() {
+        return this.responseBody;
+    }
+
+    /**
+     * Delay the server asked for with Retry-After, or -1
+     */
+    public long getRetryAfterMs() {
+        return this.retryAfterMs;
+    }
+
+    /**
+     * Protocol of the last exchange, e.g. "http/1.1" or "h2"
+     */
+    public String getProtocol() {
+        return this.protocol;
+    }
+
     public String execute() {
         if (this.error != null) {
             return this.error;
         }
 
+        byte[] body = this.body;
+        int length = body.length;
+
+        // Small bodies and ones that do not shrink are not worth the Content-Encoding
+        boolean compressed = false;
+        if (this.codec != null && length >= this.compressionMinBytes) {
+            BodyCodec.Encoded encoded = this.codec.encode(body, length);
+            if (encoded.length < length) {
+                body = encoded.data;
+                length = encoded.length;
+                compressed = true;
+            }
+        }
+
+        if (this.transportMode == ForwardingConfig.TransportMode.HTTP2) {
+            return executeHttp2(body, length, compressed);
+        }
+
         String result = RESULT_SUCCESS;
+        HttpURLConnection connection = null;
+        HttpTransport.Deadline deadline = null;
+        boolean reusable = false;
 
         try {
-            if (this.connection instanceof HttpsURLConnection) {
-                ((HttpsURLConnection) this.connection).setSSLSocketFactory(
-                        new TLSSocketFactory(this.ignoreSsl)
-                );
-
-                if (this.ignoreSsl) {
-                    ((HttpsURLConnection) this.connection).setHostnameVerifier(new AllowAllHostnameVerifier());
-                }
+            connection = HttpTransport.open(this.url, this.ignoreSsl);
+            connection.setConnectTimeout(Math.min(this.connectTimeoutMs, this.deadlineMs));
+            connection.setReadTimeout(Math.min(this.readTimeoutMs, this.deadlineMs));
+            deadline = HttpTransport.startDeadline(connection, this.deadlineMs);
+            for (Map.Entry<String, String> header : this.headers.entrySet()) {
+                connection.setRequestProperty(header.getKey(), header.getValue());
             }
-
-            this.connection.setDoOutput(true);
-            if (this.useChunkedMode) {
-                this.connection.setChunkedStreamingMode(0);
-            } else {
-                this.connection.setFixedLengthStreamingMode(this.payload.length());
+            // Per attempt, so a later small body on the same Request does not claim an encoding
+            if (compressed) {
+                connection.setRequestProperty("Content-Encoding", this.codec.getEncoding());
             }
 
-            OutputStream out = new BufferedOutputStream(this.connection.getOutputStream());
-
-            BufferedWriter writer;
-            if (android.os.Build.VERSION.SDK_INT >= android.os.Build.VERSION_CODES.KITKAT) {
-                writer = new BufferedWriter(new OutputStreamWriter(out, StandardCharsets.UTF_8));
+            connection.setDoOutput(true);
+            // The compressed size is known up front, so it always goes out with a Content-Length
+            if (this.useChunkedMode && !compressed) {
+                connection.setChunkedStreamingMode(0);
             } else {
-                writer = new BufferedWriter(new OutputStreamWriter(out));
+                connection.setFixedLengthStreamingMode(length);
             }
 
-            writer.write(this.payload);
-            writer.flush();
-            writer.close();
+            OutputStream out = connection.getOutputStream();
+            out.write(body, 0, length);
             out.close();
 
-            new BufferedInputStream(this.connection.getInputStream());
-
-            char code = Integer.toString(this.connection.getResponseCode()).charAt(0);
-            if (!Character.toString(code).equals("2")) {
-                result = RESULT_RETRY;
+            this.responseCode = connection.getResponseCode();
+            this.protocol = "http/1.1";
+            result = RetryPolicy.classify(this.responseCode);
+            this.retryAfterMs = RetryPolicy.parseRetryAfter(connection.getHeaderField("Retry-After"),
+                    System.currentTimeMillis());
+            // The status already decided the outcome, a broken body does not make it a retry;
+            // a 2xx whose body is lost counts as accepted as a whole, so a batch is not sent again
+            boolean success = RESULT_SUCCESS.equals(result);
+            try {
+                if (!success || this.captureResponse) {
+                    this.responseBody = HttpTransport.readBody(connection,
+                            this.captureResponse ? MAX_RESPONSE_CHARS : ERROR_BODY_CHARS);
+                }
+                reusable = true;
+            } catch (IOException e) {
+                this.responseBody = null;
+                Log.e("SmsGateway", "could not read " + (success ? "response" : "error") + " body: " + e);
             }
+            logFailure(result);
         } catch (NoSuchAlgorithmException e) {
             Log.e("SmsGateway", "ssl algorithm error: " + e);
             result = RESULT_ERROR;
@@ -142,14 +255,77 @@ public class Request {
             Log.e("SmsGateway", "ssl factory error: " + e);
             result = RESULT_ERROR;
         } catch (IOException e) {
-            Log.e("SmsGateway", "io error " + e);
+            if (deadline != null && deadline.hasExpired()) {
+                Log.e("SmsGateway", "deadline of " + this.deadlineMs + " ms exceeded: " + e);
+            } else {
+                Log.e("SmsGateway", "io error " + e);
+            }
             result = RESULT_RETRY;
         } finally {
-            if (this.connection != null) {
-                this.connection.disconnect();
+            // Stop the watchdog before the socket goes back to the pool, where a
+            // late timer would disconnect whichever request picked it up next
+            boolean inTime = deadline == null || deadline.finish();
+            if (reusable && inTime) {
+                HttpTransport.release(connection);
+            } else {
+                HttpTransport.discard(connection);
             }
         }
 
         return result;
     }
+
+    /**
+     * Deliver over the shared HTTP/2 transport; chunked mode does not apply
+     */
+    private String executeHttp2(byte[] body, int length, boolean compressed) {
+        Map<String, String> headers = this.headers;
+        if (compressed) {
+            headers = new LinkedHashMap<>(this.headers);
+            headers.put("Content-Encoding", this.codec.getEncoding());
+        }
+
+        try {
+            Http2Transport.Response response = Http2Transport.post(this.url, headers, body, length,
+                    this.ignoreSsl, this.captureResponse ? MAX_RESPONSE_CHARS : -1,
+                    new Http2Transport.Timeouts(this.connectTimeoutMs, this.readTimeoutMs,
+                            this.writeTimeoutMs, this.deadlineMs));
+            this.responseCode = response.code;
+            this.responseBody = response.body;
+            this.protocol = response.protocol;
+            this.retryAfterMs = RetryPolicy.parseRetryAfter(response.retryAfter, System.currentTimeMillis());
+        } catch (NoSuchAlgorithmException e) {
+            Log.e("SmsGateway", "ssl algorithm error: " + e);
+            return RESULT_ERROR;
+        } catch (KeyManagementException e) {
+            Log.e("SmsGateway", "ssl factory error: " + e);
+            return RESULT_ERROR;
+        } catch (IllegalArgumentException e) {
+            // Header names or values HTTP/2 cannot carry
+            Log.e("SmsGateway", "request error: " + e);
+            return RESULT_ERROR;
+        } catch (IOException e) {
+            Log.e("SmsGateway", "io error " + e);
+            return RESULT_RETRY;
+        }
+
+        String result = RetryPolicy.classify(this.responseCode);
+        logFailure(result);
+        return result;
+    }
+
+    private void logFailure(String result) {
+        if (RESULT_SUCCESS.equals(result)) {
+            return;
+        }
+
+        String body = this.responseBody;
+        if (body != null && body.length() > ERROR_BODY_CHARS) {
+            body = body.substring(0, ERROR_BODY_CHARS);
+        }
+        Log.w("SmsGateway", "HTTP " + this.responseCode + " from " + this.url.getHost()
+                + (RESULT_ERROR.equals(result) ? " (not retried)" : "")
+                + (this.retryAfterMs >= 0 ? ", retry after " + this.retryAfterMs + " ms" : "")
+                + (body != null && !body.isEmpty() ? ": " + body : ""));
+    }
 }
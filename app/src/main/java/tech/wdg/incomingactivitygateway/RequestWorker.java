@@ -6,6 +6,14 @@ import androidx.annotation.NonNull;
 import androidx.work.Worker;
 import androidx.work.WorkerParameters;
 
+import java.net.MalformedURLException;
+import java.net.URL;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Rule webhooks now go through the outbox; this worker only moves jobs
+ * that were queued in WorkManager by earlier versions of the app into it.
+ */
 public class RequestWorker extends Worker {
 
     public final static String DATA_URL = "URL";
@@ -30,27 +38,31 @@ public class RequestWorker extends Worker {
             return Result.failure();
         }
 
-        String url = getInputData().getString(DATA_URL);
+        OutboxEntry entry = new OutboxEntry();
+        entry.url = getInputData().getString(DATA_URL);
+        entry.headers = getInputData().getString(DATA_HEADERS);
         String text = getInputData().getString(DATA_TEXT);
-        String headers = getInputData().getString(DATA_HEADERS);
-        boolean ignoreSsl = getInputData().getBoolean(DATA_IGNORE_SSL, false);
-        boolean useChunkedMode = getInputData().getBoolean(DATA_CHUNKED_MODE, true);
-
-        Request request = new Request(url, text);
-        request.setJsonHeaders(headers);
-        request.setIgnoreSsl(ignoreSsl);
-        request.setUseChunkedMode(useChunkedMode);
-
-        String result = request.execute();
-
-        if (result.equals(Request.RESULT_RETRY)) {
-            return Result.retry();
-        }
+        entry.payload = (text != null ? text : "").getBytes(StandardCharsets.UTF_8);
+        entry.ignoreSsl = getInputData().getBoolean(DATA_IGNORE_SSL, false);
+        entry.chunkedMode = getInputData().getBoolean(DATA_CHUNKED_MODE, false);
+        // The payload was rendered by an earlier version; the work ID is the same on every run
+        entry.eventId = getId().toString();
+        entry.maxRetries = maxRetries;
+        // Runs that already failed still count against the retry limit
+        entry.attempts = getRunAttemptCount();
+        entry.createdAt = System.currentTimeMillis();
+        entry.nextAttemptAt = entry.createdAt;
 
-        if (result.equals(Request.RESULT_ERROR)) {
+        try {
+            new URL(entry.url);
+        } catch (MalformedURLException e) {
+            // Could never be delivered, as before
             return Result.failure();
         }
 
+        if (Outbox.getInstance(getApplicationContext()).enqueue(entry) == -1) {
+            return Result.retry();
+        }
         return Result.success();
     }
 }
@@ -0,0 +1,105 @@
+package tech.wdg.incomingactivitygateway;
+
+import java.text.ParseException;
+import java.text.SimpleDateFormat;
+import java.util.Locale;
+import java.util.TimeZone;
+import java.util.concurrent.ThreadLocalRandom;
+
+/**
+ * Decides what a delivery outcome means for the next attempt.
+ *
+ * Status codes are split into permanent failures, which retrying cannot
+ * fix (a bad URL, payload or credentials), and transient ones. Transient
+ * failures are retried after a jittered exponential backoff, or after the
+ * delay the server asked for with Retry-After if that is longer.
+ */
+public final class RetryPolicy {
+
+    // Retry-After values beyond this are treated as this long
+    static final long MAX_RETRY_AFTER_MS = 6 * 60 * 60 * 1000L;
+
+    private static final ThreadLocal<SimpleDateFormat> HTTP_DATE = ThreadLocal.withInitial(() -> {
+        SimpleDateFormat format = new SimpleDateFormat("EEE, dd MMM yyyy HH:mm:ss zzz", Locale.US);
+        format.setTimeZone(TimeZone.getTimeZone("GMT"));
+        return format;
+    });
+
+    private RetryPolicy() {
+    }
+
+    /**
+     * Request.RESULT_* for an HTTP status code
+     */
+    public static String classify(int code) {
+        if (code >= 200 && code < 300) {
+            return Request.RESULT_SUCCESS;
+        }
+
+        switch (code) {
+            case 408: // Request Timeout
+            case 425: // Too Early
+            case 429: // Too Many Requests
+                return Request.RESULT_RETRY;
+            case 501: // Not Implemented
+            case 505: // HTTP Version Not Supported
+                return Request.RESULT_ERROR;
+            default:
+                // Other client errors need a change on our side; server errors may pass
+                return code >= 400 && code < 500 ? Request.RESULT_ERROR : Request.RESULT_RETRY;
+        }
+    }
+
+    /**
+     * Delay requested by a Retry-After header, given as seconds or as an
+     * HTTP date; -1 when absent or unreadable
+     */
+    public static long parseRetryAfter(String value, long now) {
+        if (value == null) {
+            return -1;
+        }
+
+        value = value.trim();
+        if (value.isEmpty()) {
+            return -1;
+        }
+
+        long delay;
+        if (Character.isDigit(value.charAt(0))) {
+            try {
+                delay = Long.parseLong(value) * 1000;
+            } catch (NumberFormatException e) {
+                return -1;
+            }
+        } else {
+            try {
+                delay = HTTP_DATE.get().parse(value).getTime() - now;
+            } catch (ParseException e) {
+                return -1;
+            }
+        }
+        return Math.max(0, Math.min(delay, MAX_RETRY_AFTER_MS));
+    }
+
+    /**
+     * Delay before retry number attempts (1 for the first retry): base
+     * doubled per attempt up to max, of which the upper half is random so
+     * that entries failing together do not come back together
+     */
+    public static long backoff(int attempts, long baseMs, long maxMs) {
+        long ceiling = Math.min(maxMs, baseMs << Math.min(Math.max(attempts - 1, 0), 30));
+        if (ceiling <= 1) {
+            return Math.max(0, ceiling);
+        }
+        long half = ceiling / 2;
+        return half + ThreadLocalRandom.current().nextLong(ceiling - half + 1);
+    }
+
+    /**
+     * Delay before the next attempt, honoring the server's Retry-After
+     */
+    public static long nextDelay(int attempts, long baseMs, long maxMs, long retryAfterMs) {
+        long delay = backoff(attempts, baseMs, maxMs);
+        return retryAfterMs > delay ? retryAfterMs : delay;
+    }
+}
@@ -0,0 +1,315 @@
+package tech.wdg.incomingactivitygateway;
+
+import java.util.ArrayList;
+import java.util.EnumMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * Forwarding rules compiled into per-activity-type lookup structures, so
+ * an incoming event is matched without scanning every rule.
+ *
+ * Phone rules (SMS and CALL) go into a trie over the reversed digits of
+ * each configured number. Walking the incoming number from its last digit
+ * finds every configured number that is a suffix of it, and the subtree
+ * below the last digit holds every configured number it is a suffix of,
+ * which is the same "equal or one ends with the other" rule the receivers
+ * used. Sender entries without digits (alphanumeric sender IDs such as
+ * "BANK") match the sender name exactly, ignoring case.
+ *
+ * Package rules (PUSH) go into an Aho-Corasick automaton, which finds
+ * every rule whose sender is contained in the package name (exact matches
+ * included) in a single pass. Wildcard rules are kept in a list.
+ *
+ * Matching does not allocate; results are appended to a caller-owned list.
+ * Disabled rules are not indexed.
+ */
+public final class RuleIndex {
+
+    private final Map<ForwardingConfig.ActivityType, List<ForwardingConfig>> wildcards =
+            new EnumMap<>(ForwardingConfig.ActivityType.class);
+    private final Map<ForwardingConfig.ActivityType, PhoneNode> phoneTries =
+            new EnumMap<>(ForwardingConfig.ActivityType.class);
+    private final Map<ForwardingConfig.ActivityType, List<NamedSender>> namedSenders =
+            new EnumMap<>(ForwardingConfig.ActivityType.class);
+    private final PackageNode packageRoot = new PackageNode();
+
+    private RuleIndex() {
+        for (ForwardingConfig.ActivityType type : ForwardingConfig.ActivityType.values()) {
+            wildcards.put(type, new ArrayList<>());
+            phoneTries.put(type, new PhoneNode());
+            namedSenders.put(type, new ArrayList<>());
+        }
+    }
+
+    /**
+     * Compile the enabled rules; asterisk is the wildcard sender value
+     */
+    public static RuleIndex build(List<ForwardingConfig> configs, String asterisk) {
+        RuleIndex index = new RuleIndex();
+        List<PackageNode> packageNodes = new ArrayList<>();
+
+        for (ForwardingConfig config : configs) {
+            String sender = config.getSender();
+            if (!config.isOn || sender == null) {
+                continue;
+            }
+
+            ForwardingConfig.ActivityType type = config.getActivityType();
+            if (sender.equals(asterisk)) {
+                index.wildcards.get(type).add(config);
+            } else if (type == ForwardingConfig.ActivityType.PUSH) {
+                if (sender.isEmpty()) {
+                    // Every package name contains the empty string
+                    index.wildcards.get(type).add(config);
+                } else {
+                    index.addPackage(sender, config, packageNodes);
+                }
+            } else if (!sender.isEmpty()) {
+                addPhoneNumbers(index.phoneTries.get(type), index.namedSenders.get(type), sender, config);
+            }
+        }
+
+        for (PhoneNode root : index.phoneTries.values()) {
+            root.freeze();
+        }
+        index.linkPackages(packageNodes);
+        return index;
+    }
+
+    /**
+     * Append the rules matching an incoming event to out
+     */
+    public void match(ForwardingConfig.ActivityType type, String source, List<ForwardingConfig> out) {
+        addAll(wildcards.get(type), out);
+
+        if (source == null || source.isEmpty()) {
+            return;
+        }
+
+        if (type == ForwardingConfig.ActivityType.PUSH) {
+            matchPackage(source, out);
+        } else {
+            matchNamedSender(namedSenders.get(type), source, out);
+            matchPhoneNumber(phoneTries.get(type), source, out);
+        }
+    }
+
+    private static void addPhoneNumbers(PhoneNode root, List<NamedSender> names, String senders,
+            ForwardingConfig config) {
+        for (String entry : senders.split(",")) {
+            String number = entry.trim();
+            if (number.isEmpty()) {
+                continue;
+            }
+
+            if (!hasDigit(number)) {
+                names.add(new NamedSender(number, config));
+                continue;
+            }
+
+            PhoneNode node = root;
+            for (int i = number.length() - 1; i >= 0; i--) {
+                int digit = number.charAt(i) - '0';
+                if (digit < 0 || digit > 9) {
+                    continue;
+                }
+                if (node.children[digit] == null) {
+                    node.children[digit] = new PhoneNode();
+                }
+                node = node.children[digit];
+            }
+            if (!node.terminal.contains(config)) {
+                node.terminal.add(config);
+            }
+        }
+    }
+
+    private static void matchNamedSender(List<NamedSender> names, String sender, List<ForwardingConfig> out) {
+        for (int i = 0; i < names.size(); i++) {
+            NamedSender named = names.get(i);
+            if (named.name.equalsIgnoreCase(sender) && !out.contains(named.config)) {
+                out.add(named.config);
+            }
+        }
+    }
+
+    private static void matchPhoneNumber(PhoneNode root, String number, List<ForwardingConfig> out) {
+        if (!hasDigit(number)) {
+            // A sender name is not a suffix of any number
+            return;
+        }
+
+        PhoneNode node = root;
+        addAll(node.terminal, out);
+
+        for (int i = number.length() - 1; i >= 0; i--) {
+            int digit = number.charAt(i) - '0';
+            if (digit < 0 || digit > 9) {
+                continue;
+            }
+
+            node = node.children[digit];
+            if (node == null) {
+                return;
+            }
+            addAll(node.terminal, out);
+        }
+
+        // The whole incoming number is a suffix of everything below this node
+        addAll(node.subtree, out);
+    }
+
+    private void addPackage(String needle, ForwardingConfig config, List<PackageNode> nodes) {
+        PackageNode node = packageRoot;
+        for (int i = 0; i < needle.length(); i++) {
+            char c = needle.charAt(i);
+            PackageNode next = node.building.get(c);
+            if (next == null) {
+                next = new PackageNode();
+                node.building.put(c, next);
+                nodes.add(next);
+            }
+            node = next;
+        }
+        if (!node.outputs.contains(config)) {
+            node.outputs.add(config);
+        }
+    }
+
+    /**
+     * Freeze child maps into arrays and compute failure and output links
+     */
+    private void linkPackages(List<PackageNode> nodes) {
+        packageRoot.freeze();
+        for (PackageNode node : nodes) {
+            node.freeze();
+        }
+
+        List<PackageNode> queue = new ArrayList<>();
+        for (PackageNode child : packageRoot.next) {
+            child.fail = packageRoot;
+            queue.add(child);
+        }
+
+        for (int head = 0; head < queue.size(); head++) {
+            PackageNode node = queue.get(head);
+            for (int i = 0; i < node.keys.length; i++) {
+                char c = node.keys[i];
+                PackageNode child = node.next[i];
+
+                PackageNode fail = node.fail;
+                while (fail != packageRoot && fail.child(c) == null) {
+                    fail = fail.fail;
+                }
+                PackageNode target = fail.child(c);
+                child.fail = target != null ? target : packageRoot;
+                child.output = !child.fail.outputs.isEmpty() ? child.fail : child.fail.output;
+
+                queue.add(child);
+            }
+        }
+    }
+
+    private void matchPackage(String packageName, List<ForwardingConfig> out) {
+        PackageNode node = packageRoot;
+        for (int i = 0; i < packageName.length(); i++) {
+            char c = packageName.charAt(i);
+            while (node != packageRoot && node.child(c) == null) {
+                node = node.fail;
+            }
+            PackageNode next = node.child(c);
+            node = next != null ? next : packageRoot;
+
+            for (PackageNode hit = node.outputs.isEmpty() ? node.output : node; hit != null; hit = hit.output) {
+                addAll(hit.outputs, out);
+            }
+        }
+    }
+
+    private static boolean hasDigit(String value) {
+        for (int i = 0; i < value.length(); i++) {
+            char c = value.charAt(i);
+            if (c >= '0' && c <= '9') {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private static void addAll(List<ForwardingConfig> configs, List<ForwardingConfig> out) {
+        for (int i = 0; i < configs.size(); i++) {
+            ForwardingConfig config = configs.get(i);
+            if (!out.contains(config)) {
+                out.add(config);
+            }
+        }
+    }
+
+    private static final class NamedSender {
+        final String name;
+        final ForwardingConfig config;
+
+        NamedSender(String name, ForwardingConfig config) {
+            this.name = name;
+            this.config = config;
+        }
+    }
+
+    private static final class PhoneNode {
+        final PhoneNode[] children = new PhoneNode[10];
+        final List<ForwardingConfig> terminal = new ArrayList<>();
+        // Rules with a number ending in this node's path, this node included
+        final List<ForwardingConfig> subtree = new ArrayList<>();
+
+        List<ForwardingConfig> freeze() {
+            addAll(terminal, subtree);
+            for (PhoneNode child : children) {
+                if (child != null) {
+                    addAll(child.freeze(), subtree);
+                }
+            }
+            return subtree;
+        }
+    }
+
+    private static final class PackageNode {
+        TreeMap<Character, PackageNode> building = new TreeMap<>();
+        char[] keys;
+        PackageNode[] next;
+        PackageNode fail;
+        // Nearest node on the failure chain that ends a needle
+        PackageNode output;
+        final List<ForwardingConfig> outputs = new ArrayList<>();
+
+        void freeze() {
+            keys = new char[building.size()];
+            next = new PackageNode[building.size()];
+            int i = 0;
+            for (Map.Entry<Character, PackageNode> entry : building.entrySet()) {
+                keys[i] = entry.getKey();
+                next[i] = entry.getValue();
+                i++;
+            }
+            building = null;
+        }
+
+        PackageNode child(char c) {
+            int low = 0;
+            int high = keys.length - 1;
+            while (low <= high) {
+                int mid = (low + high) >>> 1;
+                char key = keys[mid];
+                if (key < c) {
+                    low = mid + 1;
+                } else if (key > c) {
+                    high = mid - 1;
+                } else {
+                    return next[mid];
+                }
+            }
+            return null;
+        }
+    }
+}
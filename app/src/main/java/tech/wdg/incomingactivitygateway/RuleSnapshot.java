@@ -0,0 +1,51 @@
+package tech.wdg.incomingactivitygateway;
+
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Immutable view of the stored forwarding rules, parsed once and shared by
+ * the receivers, workers and device info collector until the rules change.
+ *
+ * The rule objects are shared between threads and must be treated as read
+ * only; screens that edit rules load their own copies with getAll().
+ */
+public final class RuleSnapshot {
+
+    private final List<ForwardingConfig> configs;
+    private final Map<String, ForwardingConfig> byKey;
+    private final RuleIndex index;
+
+    RuleSnapshot(List<ForwardingConfig> configs, String asterisk) {
+        Map<String, ForwardingConfig> keys = new HashMap<>();
+        for (ForwardingConfig config : configs) {
+            if (config.getKey() != null) {
+                keys.put(config.getKey(), config);
+            }
+            // Parse templates up front rather than on the first event
+            config.getCompiledTemplate();
+        }
+
+        this.configs = Collections.unmodifiableList(configs);
+        this.byKey = Collections.unmodifiableMap(keys);
+        this.index = RuleIndex.build(configs, asterisk);
+    }
+
+    public List<ForwardingConfig> getConfigs() {
+        return configs;
+    }
+
+    public ForwardingConfig get(String key) {
+        return key != null ? byKey.get(key) : null;
+    }
+
+    public int size() {
+        return configs.size();
+    }
+
+    public RuleIndex getIndex() {
+        return index;
+    }
+}
@@ -6,6 +6,8 @@ import java.io.IOException;
 import java.net.InetAddress;
 import java.net.Socket;
 import java.security.KeyManagementException;
+import java.security.KeyStore;
+import java.security.KeyStoreException;
 import java.security.NoSuchAlgorithmException;
 import java.security.cert.X509Certificate;
 
@@ -13,11 +15,13 @@ import javax.net.ssl.SSLContext;
 import javax.net.ssl.SSLSocket;
 import javax.net.ssl.SSLSocketFactory;
 import javax.net.ssl.TrustManager;
+import javax.net.ssl.TrustManagerFactory;
 import javax.net.ssl.X509TrustManager;
 
 public class TLSSocketFactory extends SSLSocketFactory {
 
     private final SSLSocketFactory factory;
+    private final X509TrustManager trustManager;
 
     @SuppressLint("TrustAllX509TrustManager")
     public TLSSocketFactory(boolean ignoreSsl) throws KeyManagementException, NoSuchAlgorithmException {
@@ -25,33 +29,55 @@ public class TLSSocketFactory extends SSLSocketFactory {
 
         if (ignoreSsl) {
             // Create a trust manager that accepts all certificates (insecure)
-            TrustManager[] trustAllCerts = new TrustManager[] {
-                    new X509TrustManager() {
-                        @Override
-                        public void checkClientTrusted(X509Certificate[] chain, String authType) {
-                            // Accept all certificates
-                        }
-
-                        @Override
-                        public void checkServerTrusted(X509Certificate[] chain, String authType) {
-                            // Accept all certificates
-                        }
-
-                        @Override
-                        public X509Certificate[] getAcceptedIssuers() {
-                            return new X509Certificate[0];
-                        }
-                    }
+            trustManager = new X509TrustManager() {
+                @Override
+                public void checkClientTrusted(X509Certificate[] chain, String authType) {
+                    // Accept all certificates
+                }
+
+                @Override
+                public void checkServerTrusted(X509Certificate[] chain, String authType) {
+                    // Accept all certificates
+                }
+
+                @Override
+                public X509Certificate[] getAcceptedIssuers() {
+                    return new X509Certificate[0];
+                }
             };
-            context.init(null, trustAllCerts, new java.security.SecureRandom());
+            context.init(null, new TrustManager[] { trustManager }, new java.security.SecureRandom());
         } else {
             // Use default trust managers for secure connections
+            trustManager = defaultTrustManager();
             context.init(null, null, null);
         }
 
         factory = context.getSocketFactory();
     }
 
+    /**
+     * Trust manager matching this factory, for clients that need both
+     */
+    public X509TrustManager getTrustManager() {
+        return trustManager;
+    }
+
+    private static X509TrustManager defaultTrustManager() throws NoSuchAlgorithmException {
+        try {
+            TrustManagerFactory trustManagerFactory = TrustManagerFactory.getInstance(
+                    TrustManagerFactory.getDefaultAlgorithm());
+            trustManagerFactory.init((KeyStore) null);
+            for (TrustManager manager : trustManagerFactory.getTrustManagers()) {
+                if (manager instanceof X509TrustManager) {
+                    return (X509TrustManager) manager;
+                }
+            }
+        } catch (KeyStoreException e) {
+            throw new NoSuchAlgorithmException("Default trust store unavailable", e);
+        }
+        throw new NoSuchAlgorithmException("No X509TrustManager available");
+    }
+
     @Override
     public String[] getDefaultCipherSuites() {
         return factory.getDefaultCipherSuites();
@@ -36,6 +36,8 @@ import com.google.android.material.chip.Chip;
 import java.io.BufferedReader;
 import java.io.IOException;
 import java.io.InputStreamReader;
+import java.util.List;
+import java.util.Locale;
 
 public class SettingsActivity extends AppCompatActivity {
 
@@ -43,6 +45,8 @@ public class SettingsActivity extends AppCompatActivity {
     private TextView syslogsText;
     private TextView appVersion;
     private TextView serviceStatusText;
+    private TextView deliveryMetricsText;
+    private TextView endpointStatusText;
     private TextView aboutText;
     private Chip chipServiceStatus;
 
@@ -96,6 +100,8 @@ public class SettingsActivity extends AppCompatActivity {
         syslogsText = findViewById(R.id.syslogs_text);
         appVersion = findViewById(R.id.app_version);
         serviceStatusText = findViewById(R.id.service_status_text);
+        deliveryMetricsText = findViewById(R.id.delivery_metrics_text);
+        endpointStatusText = findViewById(R.id.endpoint_status_text);
         aboutText = findViewById(R.id.about_text);
         chipServiceStatus = findViewById(R.id.chip_service_status);
 
@@ -272,10 +278,65 @@ public class SettingsActivity extends AppCompatActivity {
             serviceStatusText.setText("Service is not running");
         }
 
+        updateDeliveryMetrics();
+        updateEndpointStatus();
+
         // Check battery optimization status
         checkBatteryOptimization();
     }
 
+    private void updateDeliveryMetrics() {
+        GatewayMetrics.Snapshot metrics = GatewayMetrics.snapshot();
+        GatewayMetrics.StageSummary delivered = metrics.getOverall(GatewayMetrics.Stage.DELIVERED);
+
+        if (delivered == null) {
+            deliveryMetricsText.setText("No deliveries yet");
+            return;
+        }
+
+        String text = String.format(Locale.US,
+                "%d delivered • p50 %s • p99 %s • %d failed attempts",
+                metrics.getCount(GatewayMetrics.Counter.DELIVERED),
+                formatLatency(delivered.p50Ms), formatLatency(delivered.p99Ms),
+                metrics.getCount(GatewayMetrics.Counter.FAILED_ATTEMPTS));
+        long duplicates = metrics.getCount(GatewayMetrics.Counter.DUPLICATES_DROPPED);
+        if (duplicates > 0) {
+            text += String.format(Locale.US, " • %d duplicates dropped", duplicates);
+        }
+        deliveryMetricsText.setText(text);
+    }
+
+    private void updateEndpointStatus() {
+        List<CircuitBreaker.Status> tripped = CircuitBreaker.tripped();
+        if (tripped.isEmpty()) {
+            endpointStatusText.setText("All endpoints reachable");
+            return;
+        }
+
+        StringBuilder text = new StringBuilder();
+        long now = System.currentTimeMillis();
+        for (CircuitBreaker.Status status : tripped) {
+            if (text.length() > 0) {
+                text.append(" • ");
+            }
+            text.append(status.host).append(": ");
+            if (status.state == CircuitBreaker.State.OPEN) {
+                text.append(String.format(Locale.US, "paused after %d failures, retry in %d s",
+                        status.failures, Math.max(0, (status.retryAt - now) / 1000)));
+            } else {
+                text.append("probing");
+            }
+        }
+        endpointStatusText.setText(text);
+    }
+
+    private static String formatLatency(double millis) {
+        if (millis >= 1000) {
+            return String.format(Locale.US, "%.1f s", millis / 1000);
+        }
+        return String.format(Locale.US, "%.0f ms", millis);
+    }
+
     private void checkBatteryOptimization() {
         if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.M) {
             PowerManager pm = (PowerManager) getSystemService(POWER_SERVICE);
@@ -402,6 +463,8 @@ public class SettingsActivity extends AppCompatActivity {
         syslogsText = null;
         appVersion = null;
         serviceStatusText = null;
+        deliveryMetricsText = null;
+        endpointStatusText = null;
         aboutText = null;
         chipServiceStatus = null;
         chipSmsPermission = null;
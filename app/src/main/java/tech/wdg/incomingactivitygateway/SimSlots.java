@@ -0,0 +1,200 @@
+package tech.wdg.incomingactivitygateway;
+
+import android.Manifest;
+import android.content.Context;
+import android.content.SharedPreferences;
+import android.content.pm.PackageManager;
+import android.os.Build;
+import android.os.Handler;
+import android.os.HandlerThread;
+import android.telephony.SubscriptionInfo;
+import android.telephony.SubscriptionManager;
+import android.util.Log;
+
+import androidx.core.content.ContextCompat;
+
+import java.util.List;
+
+/**
+ * Process-wide table of SIM names and numbers by slot, as reported in
+ * webhook payloads.
+ *
+ * The table combines the custom names from the operator settings with the
+ * carrier names and numbers of the active subscriptions. It is rebuilt in
+ * the background when the subscriptions or the operator settings change,
+ * so reading a name while forwarding an event is an array lookup.
+ */
+public class SimSlots {
+    private static final String TAG = "SimSlots";
+
+    private static final int MIN_SLOTS = 2;
+
+    private static SimSlots instance;
+
+    private final Context context;
+    private final Handler handler;
+
+    // Preferences only keep a weak reference to their listeners
+    private final SharedPreferences.OnSharedPreferenceChangeListener preferenceListener =
+            (preferences, key) -> refresh();
+
+    private volatile Table table;
+
+    /**
+     * One immutable snapshot; readers never see a half-built table
+     */
+    private static final class Table {
+        final String[] names;
+        final String[] numbers;
+
+        Table(String[] names, String[] numbers) {
+            this.names = names;
+            this.numbers = numbers;
+        }
+    }
+
+    private SimSlots(Context context) {
+        this.context = context.getApplicationContext();
+
+        HandlerThread thread = new HandlerThread(TAG);
+        thread.start();
+        handler = new Handler(thread.getLooper());
+
+        table = load();
+
+        this.context.getSharedPreferences(OperatorSettingsActivity.PREFS_NAME, Context.MODE_PRIVATE)
+                .registerOnSharedPreferenceChangeListener(preferenceListener);
+        // The listener picks up the looper of the thread it is created on
+        handler.post(this::watchSubscriptions);
+    }
+
+    public static synchronized SimSlots getInstance(Context context) {
+        if (instance == null) {
+            instance = new SimSlots(context);
+        }
+        return instance;
+    }
+
+    /**
+     * Custom name, else carrier name, else "simN" for a zero-based slot
+     */
+    public String getName(int slotIndex) {
+        String[] names = table.names;
+        return slotIndex >= 0 && slotIndex < names.length ? names[slotIndex] : fallback(slotIndex);
+    }
+
+    /**
+     * Custom number, else subscription number, else "simN" for a zero-based slot
+     */
+    public String getNumber(int slotIndex) {
+        String[] numbers = table.numbers;
+        return slotIndex >= 0 && slotIndex < numbers.length ? numbers[slotIndex] : fallback(slotIndex);
+    }
+
+    /**
+     * Rebuild the table in the background, e.g. after READ_PHONE_STATE was
+     * granted, which is not reported as a subscription change
+     */
+    public void refresh() {
+        handler.post(() -> table = load());
+    }
+
+    private void watchSubscriptions() {
+        SubscriptionManager subscriptionManager = (SubscriptionManager) context
+                .getSystemService(Context.TELEPHONY_SUBSCRIPTION_SERVICE);
+        if (subscriptionManager == null) {
+            return;
+        }
+
+        try {
+            subscriptionManager.addOnSubscriptionsChangedListener(
+                    new SubscriptionManager.OnSubscriptionsChangedListener() {
+                        @Override
+                        public void onSubscriptionsChanged() {
+                            table = load();
+                        }
+                    });
+        } catch (Exception e) {
+            Log.w(TAG, "Could not watch subscriptions, SIM names follow operator settings only", e);
+        }
+    }
+
+    private Table load() {
+        SharedPreferences prefs = context.getSharedPreferences(OperatorSettingsActivity.PREFS_NAME,
+                Context.MODE_PRIVATE);
+        boolean enabled = prefs.getBoolean(OperatorSettingsActivity.KEY_ENABLE_SIM_INFO, false);
+        List<SubscriptionInfo> subscriptions = enabled ? activeSubscriptions() : null;
+
+        int slots = MIN_SLOTS;
+        if (subscriptions != null) {
+            for (SubscriptionInfo subscription : subscriptions) {
+                slots = Math.max(slots, subscription.getSimSlotIndex() + 1);
+            }
+        }
+
+        String[] names = new String[slots];
+        String[] numbers = new String[slots];
+        for (int slot = 0; slot < slots; slot++) {
+            names[slot] = fallback(slot);
+            numbers[slot] = fallback(slot);
+        }
+        if (!enabled) {
+            return new Table(names, numbers);
+        }
+
+        if (subscriptions != null) {
+            for (SubscriptionInfo subscription : subscriptions) {
+                int slot = subscription.getSimSlotIndex();
+                if (slot < 0) {
+                    continue;
+                }
+                if (subscription.getCarrierName() != null) {
+                    names[slot] = subscription.getCarrierName().toString();
+                }
+                // For Android 13+, phone numbers are restricted
+                if (Build.VERSION.SDK_INT < Build.VERSION_CODES.TIRAMISU) {
+                    try {
+                        String number = subscription.getNumber();
+                        if (number != null && !number.isEmpty()) {
+                            numbers[slot] = number;
+                        }
+                    } catch (Exception e) {
+                        Log.w(TAG, "Could not get phone number", e);
+                    }
+                }
+            }
+        }
+
+        for (int slot = 0; slot < slots; slot++) {
+            String customName = prefs.getString(OperatorSettingsActivity.simNameKey(slot), "");
+            if (!customName.isEmpty()) {
+                names[slot] = customName;
+            }
+            String customNumber = prefs.getString(OperatorSettingsActivity.simNumberKey(slot), "");
+            if (!customNumber.isEmpty()) {
+                numbers[slot] = customNumber;
+            }
+        }
+        return new Table(names, numbers);
+    }
+
+    private List<SubscriptionInfo> activeSubscriptions() {
+        if (ContextCompat.checkSelfPermission(context,
+                Manifest.permission.READ_PHONE_STATE) != PackageManager.PERMISSION_GRANTED) {
+            return null;
+        }
+
+        try {
+            SubscriptionManager subscriptionManager = (SubscriptionManager) context
+                    .getSystemService(Context.TELEPHONY_SUBSCRIPTION_SERVICE);
+            return subscriptionManager != null ? subscriptionManager.getActiveSubscriptionInfoList() : null;
+        } catch (Exception e) {
+            Log.e(TAG, "Error reading subscriptions", e);
+            return null;
+        }
+    }
+
+    private static String fallback(int slotIndex) {
+        return "sim" + (slotIndex + 1);
+    }
+}
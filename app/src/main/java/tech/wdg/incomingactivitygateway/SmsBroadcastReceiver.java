@@ -6,17 +6,8 @@ import android.content.Intent;
 import android.os.Bundle;
 import android.telephony.SmsMessage;
 
-import androidx.work.BackoffPolicy;
-import androidx.work.Constraints;
-import androidx.work.Data;
-import androidx.work.NetworkType;
-import androidx.work.OneTimeWorkRequest;
-import androidx.work.WorkManager;
-import androidx.work.WorkRequest;
-
 import java.util.ArrayList;
 import java.util.Set;
-import java.util.concurrent.TimeUnit;
 
 public class SmsBroadcastReceiver extends BroadcastReceiver {
 
@@ -24,6 +15,7 @@ public class SmsBroadcastReceiver extends BroadcastReceiver {
 
     @Override
     public void onReceive(Context context, Intent intent) {
+        long receivedAt = System.nanoTime();
         this.context = context;
 
         Bundle bundle = intent.getExtras();
@@ -37,94 +29,114 @@ public class SmsBroadcastReceiver extends BroadcastReceiver {
             return;
         }
 
+        int slotId = this.detectSim(bundle) + 1;
+        if (slotId < 0) {
+            slotId = 0;
+        }
+        final int simSlot = slotId;
+
+        // Only the extras are read on the main thread
+        EventIngestion.dispatch(this, () -> processMessages(context, pdus, format, simSlot, receivedAt));
+    }
+
+    private void processMessages(Context context, Object[] pdus, String format, int slotId, long receivedAt) {
+        GatewayMetrics.record(GatewayMetrics.Stage.RECEIVE, ForwardingConfig.ActivityType.SMS,
+                System.nanoTime() - receivedAt);
+        GatewayMetrics.increment(GatewayMetrics.Counter.EVENTS_RECEIVED);
+
         StringBuilder content = new StringBuilder();
         final SmsMessage[] messages = new SmsMessage[pdus.length];
+        final SmsReassembly.Part[] parts = new SmsReassembly.Part[pdus.length];
         for (int i = 0; i < pdus.length; i++) {
             if (format != null) {
                 messages[i] = SmsMessage.createFromPdu((byte[]) pdus[i], format);
             } else {
                 messages[i] = SmsMessage.createFromPdu((byte[]) pdus[i]);
             }
+            parts[i] = SmsReassembly.parse((byte[]) pdus[i], format);
             content.append(messages[i].getDisplayMessageBody());
         }
 
-        ArrayList<ForwardingConfig> configs = ForwardingConfig.getAll(context);
-        String asterisk = context.getString(R.string.asterisk);
-
         String sender = messages[0].getOriginatingAddress();
         if (sender == null) {
             return;
         }
 
-        for (ForwardingConfig config : configs) {
-            if (!config.isOn) {
-                continue;
+        if (SmsReassembly.isIncomplete(parts)) {
+            // Part of a long SMS split across broadcasts; forwarded once it is whole
+            SmsReassembly.Listener whole = (from, body, timeStamp, slot) ->
+                    forward(context, from, body, timeStamp, slot);
+            for (int i = 0; i < messages.length; i++) {
+                String body = messages[i].getDisplayMessageBody();
+                long timeStamp = messages[i].getTimestampMillis();
+                if (parts[i] == null) {
+                    forward(context, sender, body, timeStamp, slotId);
+                } else if (!EventDedup.isDuplicate(ForwardingConfig.ActivityType.SMS, sender, body,
+                        Long.toString(timeStamp), Integer.toString(parts[i].reference),
+                        Integer.toString(parts[i].sequence))) {
+                    SmsReassembly.offer(context, sender, slotId, parts[i], body, timeStamp, whole);
+                }
             }
+            return;
+        }
 
-            // Skip if this is not an SMS rule
-            if (config.getActivityType() != ForwardingConfig.ActivityType.SMS) {
-                continue;
-            }
+        forward(context, sender, content.toString(), messages[0].getTimestampMillis(), slotId);
+    }
 
-            // Check if sender matches (now supports comma-separated numbers)
-            String configSender = config.getSender();
-            boolean senderMatches = configSender.equals(asterisk) || isPhoneNumberMatch(sender, configSender);
+    /**
+     * Forward the parts of long SMS that were still incomplete when the
+     * process was restarted
+     */
+    static void restorePendingParts(Context context) {
+        SmsBroadcastReceiver receiver = new SmsBroadcastReceiver();
+        receiver.context = context;
+        SmsReassembly.restore(context, (sender, body, timeStamp, slotId) ->
+                receiver.forward(context, sender, body, timeStamp, slotId));
+    }
 
-            if (!senderMatches) {
-                continue;
-            }
+    private void forward(Context context, String sender, String content, long timeStamp, int slotId) {
+        // Some devices deliver the same SMS through more than one broadcast
+        if (EventDedup.isDuplicate(ForwardingConfig.ActivityType.SMS, sender, content, Long.toString(timeStamp))) {
+            return;
+        }
 
-            int slotId = this.detectSim(bundle) + 1;
-            String slotName = "undetected";
-            if (slotId < 0) {
-                slotId = 0;
-            }
+        // Enabled SMS rules whose sender list matches (comma-separated numbers)
+        long matchStart = System.nanoTime();
+        ArrayList<ForwardingConfig> configs = new ArrayList<>();
+        ForwardingConfig.getRuleIndex(context).match(ForwardingConfig.ActivityType.SMS, sender, configs);
+        GatewayMetrics.record(GatewayMetrics.Stage.MATCH, ForwardingConfig.ActivityType.SMS,
+                System.nanoTime() - matchStart);
 
+        String slotName = null;
+        for (ForwardingConfig config : configs) {
             if (config.getSimSlot() > 0 && config.getSimSlot() != slotId) {
                 continue;
             }
 
-            if (slotId > 0) {
+            if (slotName == null) {
                 // Use the new operator settings to get SIM name
-                slotName = OperatorSettingsActivity.getSimName(context, slotId - 1);
+                slotName = slotId > 0
+                        ? OperatorSettingsActivity.getSimName(context, slotId - 1)
+                        : "undetected";
             }
 
-            this.callWebHook(config, sender, slotName, content.toString(), messages[0].getTimestampMillis());
+            this.callWebHook(config, sender, slotName, content, timeStamp);
         }
     }
 
     protected void callWebHook(ForwardingConfig config, String sender, String slotName,
             String content, long timeStamp) {
 
+        GatewayMetrics.increment(GatewayMetrics.Counter.RULES_MATCHED);
+
         // Use enhanced message preparation if enabled, otherwise use regular template
-        String message = config.prepareEnhancedMessage(sender, content, slotName, timeStamp);
-
-        Constraints constraints = new Constraints.Builder()
-                .setRequiredNetworkType(NetworkType.CONNECTED)
-                .build();
-
-        Data data = new Data.Builder()
-                .putString(RequestWorker.DATA_URL, config.getUrl())
-                .putString(RequestWorker.DATA_TEXT, message)
-                .putString(RequestWorker.DATA_HEADERS, config.getHeaders())
-                .putBoolean(RequestWorker.DATA_IGNORE_SSL, config.getIgnoreSsl())
-                .putBoolean(RequestWorker.DATA_CHUNKED_MODE, config.getChunkedMode())
-                .putInt(RequestWorker.DATA_MAX_RETRIES, config.getRetriesNumber())
-                .build();
-
-        WorkRequest workRequest = new OneTimeWorkRequest.Builder(RequestWorker.class)
-                .setConstraints(constraints)
-                .setBackoffCriteria(
-                        BackoffPolicy.EXPONENTIAL,
-                        OneTimeWorkRequest.MIN_BACKOFF_MILLIS,
-                        TimeUnit.MILLISECONDS)
-                .setInputData(data)
-                .build();
-
-        WorkManager
-                .getInstance(this.context)
-                .enqueue(workRequest);
+        long renderStart = System.nanoTime();
+        String eventId = config.eventId(sender, content, timeStamp);
+        String message = config.prepareEnhancedMessage(sender, content, slotName, timeStamp, eventId);
+        GatewayMetrics.record(GatewayMetrics.Stage.RENDER, config.getKey(), config.getUrl(),
+                System.nanoTime() - renderStart);
 
+        Outbox.getInstance(this.context).enqueue(OutboxEntry.forRule(config, sender, message, eventId));
     }
 
     private int detectSim(Bundle bundle) {
@@ -175,28 +187,4 @@ public class SmsBroadcastReceiver extends BroadcastReceiver {
 
         return slotId;
     }
-
-    private boolean isPhoneNumberMatch(String incomingNumber, String configNumbers) {
-        if (android.text.TextUtils.isEmpty(configNumbers) || android.text.TextUtils.isEmpty(incomingNumber)) {
-            return false;
-        }
-
-        // Clean incoming number (remove non-digits)
-        String cleanIncoming = incomingNumber.replaceAll("[^0-9]", "");
-
-        // Split config numbers by comma and check each one
-        String[] phoneNumbers = configNumbers.split(",");
-        for (String phoneNumber : phoneNumbers) {
-            String cleanConfig = phoneNumber.trim().replaceAll("[^0-9]", "");
-
-            // Match if the numbers are the same or if one ends with the other (for
-            // international vs local)
-            if (cleanIncoming.equals(cleanConfig) ||
-                    cleanIncoming.endsWith(cleanConfig) ||
-                    cleanConfig.endsWith(cleanIncoming)) {
-                return true;
-            }
-        }
-        return false;
-    }
 }
@@ -0,0 +1,367 @@
+package tech.wdg.incomingactivitygateway;
+
+import android.content.Context;
+import android.util.Log;
+
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Joins the parts of a concatenated SMS that arrive in separate broadcasts.
+ *
+ * Usually all parts of a long SMS come in one SMS_RECEIVED intent, but
+ * some modems deliver them one broadcast at a time. Parts are matched on
+ * the originating address and the concatenation reference from the user
+ * data header, and the message is forwarded once when the last part
+ * arrives. If parts are still missing after TIMEOUT_MS, whatever arrived
+ * is forwarded in sequence order rather than held back indefinitely.
+ *
+ * Each part is also stored in the outbox database until its message has
+ * been forwarded, so restore() picks up messages that were incomplete
+ * when the process died.
+ */
+public final class SmsReassembly {
+    private static final String TAG = "SmsReassembly";
+
+    static final long TIMEOUT_MS = 10_000L;
+    // Beyond this many incomplete messages the oldest is flushed early
+    static final int MAX_PENDING = 64;
+
+    // User data header information elements for concatenated SMS
+    private static final int IEI_CONCAT_8BIT_REF = 0x00;
+    private static final int IEI_CONCAT_16BIT_REF = 0x08;
+
+    private static final Map<String, Pending> pending = new LinkedHashMap<>();
+
+    private static final ScheduledThreadPoolExecutor timer = new ScheduledThreadPoolExecutor(1, runnable -> {
+        Thread thread = new Thread(runnable, TAG + "-timer");
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    static {
+        timer.setRemoveOnCancelPolicy(true);
+    }
+
+    /**
+     * Receives a message once all of its parts are in, or once it timed out
+     */
+    public interface Listener {
+        void onMessage(String sender, String body, long timestamp, int slotId);
+    }
+
+    /**
+     * Position of one PDU within a concatenated SMS
+     */
+    public static final class Part {
+        public final int reference;
+        public final int count;
+        public final int sequence;
+
+        Part(int reference, int count, int sequence) {
+            this.reference = reference;
+            this.count = count;
+            this.sequence = sequence;
+        }
+    }
+
+    /**
+     * One part as kept in the outbox database
+     */
+    public static final class StoredPart {
+        final String key;
+        final String sender;
+        final Part part;
+        final String body;
+        final long timestamp;
+        final int slotId;
+        final long receivedAt;
+
+        StoredPart(String key, String sender, Part part, String body, long timestamp, int slotId, long receivedAt) {
+            this.key = key;
+            this.sender = sender;
+            this.part = part;
+            this.body = body;
+            this.timestamp = timestamp;
+            this.slotId = slotId;
+            this.receivedAt = receivedAt;
+        }
+    }
+
+    private static final class Pending {
+        final String key;
+        final String sender;
+        final String[] bodies;
+        final int slotId;
+        final Outbox outbox;
+        final Listener listener;
+        int received;
+        long timestamp = Long.MAX_VALUE;
+        ScheduledFuture<?> timeout;
+
+        Pending(String key, String sender, int count, int slotId, Outbox outbox, Listener listener) {
+            this.key = key;
+            this.sender = sender;
+            this.bodies = new String[count];
+            this.slotId = slotId;
+            this.outbox = outbox;
+            this.listener = listener;
+        }
+    }
+
+    private SmsReassembly() {
+    }
+
+    /**
+     * Concatenation info from the user data header of a 3GPP SMS-DELIVER
+     * PDU; null if the PDU is a message on its own or cannot be read
+     */
+    public static Part parse(byte[] pdu, String format) {
+        if (pdu == null || "3gpp2".equals(format)) {
+            return null;
+        }
+
+        try {
+            int i = (pdu[0] & 0xff) + 1; // SMSC address
+            int firstOctet = pdu[i++] & 0xff;
+            boolean deliver = (firstOctet & 0x03) == 0;
+            boolean hasHeader = (firstOctet & 0x40) != 0;
+            if (!deliver || !hasHeader) {
+                return null;
+            }
+
+            int addressDigits = pdu[i++] & 0xff;
+            i += 1 + (addressDigits + 1) / 2; // type of address, semi-octets
+            i += 1 + 1 + 7 + 1; // PID, DCS, SCTS, UDL
+
+            int headerEnd = i + 1 + (pdu[i] & 0xff);
+            i++;
+            while (i + 1 < headerEnd) {
+                int element = pdu[i] & 0xff;
+                int length = pdu[i + 1] & 0xff;
+                i += 2;
+
+                Part part = null;
+                if (element == IEI_CONCAT_8BIT_REF && length == 3) {
+                    part = new Part(pdu[i] & 0xff, pdu[i + 1] & 0xff, pdu[i + 2] & 0xff);
+                } else if (element == IEI_CONCAT_16BIT_REF && length == 4) {
+                    part = new Part(((pdu[i] & 0xff) << 8) | (pdu[i + 1] & 0xff),
+                            pdu[i + 2] & 0xff, pdu[i + 3] & 0xff);
+                }
+                if (part != null) {
+                    return part.count > 1 && part.sequence >= 1 && part.sequence <= part.count ? part : null;
+                }
+                i += length;
+            }
+        } catch (ArrayIndexOutOfBoundsException e) {
+            Log.w(TAG, "Truncated PDU, treating it as a single message");
+        }
+        return null;
+    }
+
+    /**
+     * Whether the PDUs of one broadcast are only some of the parts of a
+     * concatenated SMS
+     */
+    public static boolean isIncomplete(Part[] parts) {
+        Part first = null;
+        for (Part part : parts) {
+            if (part != null) {
+                first = part;
+                break;
+            }
+        }
+        if (first == null) {
+            return false;
+        }
+
+        boolean[] present = new boolean[first.count + 1];
+        int distinct = 0;
+        for (Part part : parts) {
+            if (part == null || part.reference != first.reference || part.count != first.count) {
+                return true;
+            }
+            if (!present[part.sequence]) {
+                present[part.sequence] = true;
+                distinct++;
+            }
+        }
+        return distinct < first.count;
+    }
+
+    /**
+     * Add one part; the listener is called on this thread when it completes
+     * the message, or in the background when the message times out
+     */
+    public static void offer(Context context, String sender, int slotId, Part part, String body, long timestamp,
+            Listener listener) {
+        Outbox outbox = Outbox.getInstance(context);
+        String key = key(sender, part);
+        String text = body != null ? body : "";
+
+        Pending complete = null;
+        Pending evicted = null;
+        synchronized (pending) {
+            Pending message = pending.get(key);
+            if (message == null) {
+                message = new Pending(key, sender, part.count, slotId, outbox, listener);
+                evicted = track(message, TIMEOUT_MS);
+            }
+
+            // A part delivered twice is only counted once
+            if (add(message, part.sequence, text, timestamp)) {
+                outbox.saveSmsPart(new StoredPart(key, sender, part, text, timestamp, slotId,
+                        System.currentTimeMillis()));
+            }
+
+            if (message.received == message.bodies.length) {
+                untrack(message);
+                complete = message;
+            }
+        }
+
+        if (evicted != null) {
+            deliver(evicted);
+        }
+        if (complete != null) {
+            deliver(complete);
+        }
+    }
+
+    /**
+     * Take back the parts stored before the process was restarted; each
+     * message is forwarded once complete, or TIMEOUT_MS after its first
+     * part arrived
+     */
+    public static void restore(Context context, Listener listener) {
+        Outbox outbox = Outbox.getInstance(context);
+        long now = System.currentTimeMillis();
+
+        List<StoredPart> parts;
+        List<Pending> ready = new ArrayList<>();
+        synchronized (pending) {
+            parts = outbox.smsParts();
+            for (StoredPart stored : parts) {
+                Pending message = pending.get(stored.key);
+                if (message == null) {
+                    message = new Pending(stored.key, stored.sender, stored.part.count, stored.slotId, outbox,
+                            listener);
+                    Pending evicted = track(message, Math.max(0, stored.receivedAt + TIMEOUT_MS - now));
+                    if (evicted != null) {
+                        ready.add(evicted);
+                    }
+                }
+
+                add(message, stored.part.sequence, stored.body, stored.timestamp);
+                if (message.received == message.bodies.length) {
+                    untrack(message);
+                    ready.add(message);
+                }
+            }
+        }
+
+        if (!parts.isEmpty()) {
+            Log.i(TAG, "Restored " + parts.size() + " SMS parts stored before the restart");
+        }
+        for (Pending message : ready) {
+            deliver(message);
+        }
+    }
+
+    /**
+     * Forget all incomplete messages without forwarding them
+     */
+    public static void clear(Context context) {
+        forget();
+        Outbox.getInstance(context).removeSmsParts(null);
+    }
+
+    /**
+     * Drop the incomplete messages held in memory but keep their stored
+     * parts, as a process restart does
+     */
+    static void forget() {
+        synchronized (pending) {
+            for (Pending message : pending.values()) {
+                message.timeout.cancel(false);
+            }
+            pending.clear();
+        }
+    }
+
+    /**
+     * Identifies the message a part belongs to
+     */
+    static String key(String sender, Part part) {
+        return sender + '\u001f' + part.reference + '\u001f' + part.count;
+    }
+
+    /**
+     * Start the timeout of a new message; returns the oldest message if
+     * there are now too many, to be forwarded early. Called with the lock held.
+     */
+    private static Pending track(Pending message, long timeoutMs) {
+        pending.put(message.key, message);
+        message.timeout = timer.schedule(() -> expire(message), timeoutMs, TimeUnit.MILLISECONDS);
+
+        if (pending.size() <= MAX_PENDING) {
+            return null;
+        }
+        Iterator<Pending> oldest = pending.values().iterator();
+        Pending evicted = oldest.next();
+        oldest.remove();
+        evicted.timeout.cancel(false);
+        Log.w(TAG, "Too many incomplete messages, forwarding the oldest from " + evicted.sender);
+        return evicted;
+    }
+
+    private static void untrack(Pending message) {
+        pending.remove(message.key);
+        message.timeout.cancel(false);
+    }
+
+    /**
+     * Fill in one part; false if it was already there
+     */
+    private static boolean add(Pending message, int sequence, String body, long timestamp) {
+        if (message.bodies[sequence - 1] != null) {
+            return false;
+        }
+        message.bodies[sequence - 1] = body;
+        message.received++;
+        message.timestamp = Math.min(message.timestamp, timestamp);
+        return true;
+    }
+
+    private static void expire(Pending message) {
+        synchronized (pending) {
+            if (pending.get(message.key) != message) {
+                return;
+            }
+            pending.remove(message.key);
+        }
+
+        Log.w(TAG, "Only " + message.received + " of " + message.bodies.length + " parts from "
+                + message.sender + " arrived, forwarding them");
+        // Matching and rendering do not belong on the timer thread
+        EventIngestion.execute(() -> deliver(message));
+    }
+
+    private static void deliver(Pending message) {
+        StringBuilder body = new StringBuilder();
+        for (String part : message.bodies) {
+            if (part != null) {
+                body.append(part);
+            }
+        }
+        message.listener.onMessage(message.sender, body.toString(), message.timestamp, message.slotId);
+        // Only once forwarded, so a message is sent again rather than lost if the process dies first
+        message.outbox.removeSmsParts(message.key);
+    }
+}
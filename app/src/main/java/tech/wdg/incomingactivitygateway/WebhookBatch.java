@@ -0,0 +1,172 @@
+package tech.wdg.incomingactivitygateway;
+
+import org.json.JSONArray;
+import org.json.JSONException;
+import org.json.JSONObject;
+import org.json.JSONTokener;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Builds the body of a batched POST and maps the endpoint's answer back to
+ * the individual outbox entries.
+ *
+ * Endpoints may answer a batch with a JSON array (or {"results": [...]}) of
+ * the same length as the batch. Each item can be a boolean, an HTTP-style
+ * status code or an object with a "status", "success" or "ok" field. Any
+ * other 2xx answer acknowledges the whole batch.
+ */
+public class WebhookBatch {
+
+    public static final String CONTENT_TYPE_JSON = "application/json; charset=utf-8";
+    public static final String CONTENT_TYPE_NDJSON = "application/x-ndjson; charset=utf-8";
+
+    private WebhookBatch() {
+    }
+
+    /**
+     * Trim candidates to the batch limits, always keeping the first entry
+     */
+    public static List<OutboxEntry> take(List<OutboxEntry> candidates, int maxSize, int maxBytes) {
+        List<OutboxEntry> batch = new ArrayList<>();
+        long bytes = 0;
+
+        for (OutboxEntry entry : candidates) {
+            if (maxSize > 0 && batch.size() >= maxSize) {
+                break;
+            }
+
+            long size = entry.payload.length + 1;
+            if (!batch.isEmpty() && maxBytes > 0 && bytes + size > maxBytes) {
+                break;
+            }
+
+            batch.add(entry);
+            bytes += size;
+        }
+
+        return batch;
+    }
+
+    public static String contentType(ForwardingConfig.BatchFormat format) {
+        return format == ForwardingConfig.BatchFormat.NDJSON ? CONTENT_TYPE_NDJSON : CONTENT_TYPE_JSON;
+    }
+
+    /**
+     * Join the stored payloads into a JSON array or NDJSON body, copying
+     * their bytes without decoding them
+     */
+    public static byte[] body(List<OutboxEntry> batch, ForwardingConfig.BatchFormat format) {
+        boolean ndjson = format == ForwardingConfig.BatchFormat.NDJSON;
+
+        // A newline after each item, or brackets and a comma between items
+        byte[][] items = new byte[batch.size()][];
+        int size = ndjson ? items.length : Math.max(2, items.length + 1);
+        for (int i = 0; i < items.length; i++) {
+            items[i] = batch.get(i).payload;
+            size += items[i].length;
+        }
+
+        byte[] body = new byte[size];
+        int position = 0;
+        if (!ndjson) {
+            body[position++] = '[';
+        }
+        for (int i = 0; i < items.length; i++) {
+            if (i > 0 && !ndjson) {
+                body[position++] = ',';
+            }
+            System.arraycopy(items[i], 0, body, position, items[i].length);
+            position += items[i].length;
+            if (ndjson) {
+                body[position++] = '\n';
+            }
+        }
+        if (!ndjson) {
+            body[position++] = ']';
+        }
+        return body;
+    }
+
+    /**
+     * Per-item delivery outcomes, or null if the response acknowledges the
+     * batch as a whole
+     */
+    public static boolean[] itemOutcomes(String responseBody, int count) {
+        if (responseBody == null || responseBody.trim().isEmpty()) {
+            return null;
+        }
+
+        try {
+            Object parsed = new JSONTokener(responseBody).nextValue();
+            JSONArray results = null;
+
+            if (parsed instanceof JSONArray) {
+                results = (JSONArray) parsed;
+            } else if (parsed instanceof JSONObject) {
+                results = ((JSONObject) parsed).optJSONArray("results");
+            }
+
+            if (results == null || results.length() != count) {
+                return null;
+            }
+
+            boolean[] outcomes = new boolean[count];
+            for (int i = 0; i < count; i++) {
+                outcomes[i] = isItemDelivered(results.opt(i));
+            }
+            return outcomes;
+        } catch (JSONException e) {
+            return null;
+        }
+    }
+
+    private static boolean isItemDelivered(Object item) {
+        if (item instanceof Boolean) {
+            return (Boolean) item;
+        }
+
+        if (item instanceof Number) {
+            int status = ((Number) item).intValue();
+            return status >= 200 && status < 300;
+        }
+
+        if (item instanceof JSONObject) {
+            JSONObject result = (JSONObject) item;
+            Object status = result.opt("status");
+            if (status instanceof Number) {
+                return isItemDelivered(status);
+            }
+            if (status instanceof String) {
+                String value = (String) status;
+                return value.equalsIgnoreCase("ok")
+                        || value.equalsIgnoreCase("success")
+                        || value.equalsIgnoreCase("delivered");
+            }
+            if (result.has("success")) {
+                return result.optBoolean("success", true);
+            }
+            if (result.has("ok")) {
+                return result.optBoolean("ok", true);
+            }
+        }
+
+        // Unknown shape, the 2xx response covers it
+        return true;
+    }
+
+    /**
+     * NDJSON needs one document per line; templates are usually multi-line
+     */
+    static String singleLine(String payload) {
+        try {
+            Object parsed = new JSONTokener(payload).nextValue();
+            if (parsed instanceof JSONObject || parsed instanceof JSONArray) {
+                return parsed.toString();
+            }
+        } catch (JSONException ignored) {
+        }
+        return payload.replace('\r', ' ').replace('\n', ' ');
+    }
+}
@@ -3,45 +3,72 @@ package tech.wdg.incomingactivitygateway;
 import org.json.JSONException;
 import org.json.JSONObject;
 
+import java.util.LinkedHashMap;
+import java.util.Map;
+
 /**
  * Data class representing a webhook payload
  */
 public class WebhookPayload {
     public String event;
+    // Stable across retries, see EventId; omitted when null
+    public String eventId;
     public long timestamp;
     public String deviceId;
     public String message;
-    public JSONObject additionalData;
+
+    // Kept as plain values and serialized by JsonWriter, not as a JSONObject tree
+    private final Map<String, Object> additionalData = new LinkedHashMap<>();
 
     public WebhookPayload() {
-        this.additionalData = new JSONObject();
     }
 
     /**
      * Convert the payload to JSON format
      */
     public JSONObject toJson() throws JSONException {
-        JSONObject json = new JSONObject();
-        json.put("event", event);
-        json.put("timestamp", timestamp);
-        json.put("device_id", deviceId);
-        json.put("message", message);
+        return new JSONObject(toJsonString());
+    }
+
+    /**
+     * Serialize the payload without building a JSON tree
+     */
+    public String toJsonString() {
+        JsonWriter writer = JsonWriter.obtain();
+        writeTo(writer);
+        return writer.finish();
+    }
+
+    public void writeTo(JsonWriter writer) {
+        writer.beginObject()
+                .field("event", event);
+        if (eventId != null) {
+            writer.field("event_id", eventId);
+        }
+        writer.field("timestamp", timestamp)
+                .field("device_id", deviceId)
+                .field("message", message);
 
         // Add any additional data
-        if (additionalData != null && additionalData.length() > 0) {
-            json.put("data", additionalData);
+        if (!additionalData.isEmpty()) {
+            writer.name("data").value(additionalData);
         }
 
-        return json;
+        writer.endObject();
     }
 
     /**
-     * Add custom data to the payload
+     * Add custom data to the payload; a null value removes the key
      */
     public void addData(String key, Object value) throws JSONException {
-        if (additionalData == null) {
-            additionalData = new JSONObject();
+        if (key == null) {
+            throw new JSONException("Null key.");
+        }
+
+        if (value == null) {
+            additionalData.remove(key);
+        } else {
+            additionalData.put(key, value);
         }
-        additionalData.put(key, value);
     }
-}
\ No newline at end of file
+}
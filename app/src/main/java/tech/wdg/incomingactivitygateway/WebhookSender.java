@@ -6,17 +6,16 @@ import android.util.Log;
 import org.json.JSONException;
 import org.json.JSONObject;
 
-import java.io.BufferedReader;
 import java.io.IOException;
-import java.io.InputStreamReader;
 import java.io.OutputStream;
 import java.net.HttpURLConnection;
 import java.net.URL;
 import java.nio.charset.StandardCharsets;
-import java.util.concurrent.ExecutorService;
+import java.security.GeneralSecurityException;
+import java.util.UUID;
 import java.util.concurrent.Executors;
-
-import javax.net.ssl.HttpsURLConnection;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
 
 /**
  * Utility class for sending webhooks
@@ -24,7 +23,23 @@ import javax.net.ssl.HttpsURLConnection;
 public class WebhookSender {
     private static final String TAG = "WebhookSender";
     private static final int TIMEOUT_MS = 30000; // 30 seconds
-    private static final ExecutorService executor = Executors.newCachedThreadPool();
+    // Responses are only logged and handed to the callback
+    private static final int MAX_RESPONSE_CHARS = 64 * 1024;
+    // App webhooks are rare; a slow endpoint queues them here instead of adding threads
+    private static final int MAX_SENDERS = 4;
+    private static final ScheduledExecutorService executor = Executors.newScheduledThreadPool(MAX_SENDERS);
+    // Wait before trying an endpoint again that was at its concurrency limit
+    private static final long REQUEUE_DELAY_MS = 500;
+
+    private static final class Response {
+        final int code;
+        final String body;
+
+        Response(int code, String body) {
+            this.code = code;
+            this.body = body;
+        }
+    }
 
     public interface WebhookCallback {
         void onSuccess(String response);
@@ -36,19 +51,56 @@ public class WebhookSender {
      * Send a webhook asynchronously
      */
     public static void sendWebhook(Context context, String url, WebhookPayload payload, WebhookCallback callback) {
-        executor.execute(() -> {
-            try {
-                String response = sendWebhookSync(context, url, payload);
+        executor.execute(() -> send(context, url, payload, callback));
+    }
+
+    private static void send(Context context, String url, WebhookPayload payload, WebhookCallback callback) {
+        // Share the endpoint's limit with the outbox deliveries; a full
+        // endpoint sends the webhook back to the queue rather than holding a sender
+        ConcurrencyLimiter limiter = ConcurrencyLimiter.forUrl(url);
+        if (!limiter.tryAcquire()) {
+            executor.schedule(() -> send(context, url, payload, callback), REQUEUE_DELAY_MS, TimeUnit.MILLISECONDS);
+            return;
+        }
+
+        CircuitBreaker breaker = CircuitBreaker.forUrl(url);
+        if (!breaker.allowRequest()) {
+            limiter.cancel();
+            Log.w(TAG, "Circuit open for " + url + ", not sending webhook");
+            if (callback != null) {
+                callback.onError("Endpoint unavailable, circuit open");
+            }
+            return;
+        }
+
+        String result = Request.RESULT_ERROR;
+        long start = System.nanoTime();
+        try {
+            Response response = post(url, payload);
+            // Classified like outbox deliveries, so a 4xx neither trips the breaker nor shrinks the limit
+            result = RetryPolicy.classify(response.code);
+            if (Request.RESULT_SUCCESS.equals(result)) {
                 if (callback != null) {
-                    callback.onSuccess(response);
+                    callback.onSuccess(response.body);
                 }
-            } catch (Exception e) {
-                Log.e(TAG, "Failed to send webhook to " + url, e);
+            } else {
+                Log.e(TAG, "Webhook to " + url + " failed with HTTP " + response.code);
                 if (callback != null) {
-                    callback.onError(e.getMessage());
+                    callback.onError("HTTP error code: " + response.code + " - " + response.body);
                 }
             }
-        });
+        } catch (Exception e) {
+            if (e instanceof IOException) {
+                result = Request.RESULT_RETRY;
+            }
+            Log.e(TAG, "Failed to send webhook to " + url, e);
+            if (callback != null) {
+                callback.onError(e.getMessage());
+            }
+        } finally {
+            limiter.release(result, System.nanoTime() - start);
+            breaker.onResult(result);
+        }
     }
 
     /**
@@ -56,29 +108,40 @@ public class WebhookSender {
      */
     public static String sendWebhookSync(Context context, String urlString, WebhookPayload payload)
             throws IOException, JSONException {
+        Response response = post(urlString, payload);
+        if (response.code >= 200 && response.code < 300) {
+            return response.body;
+        }
+        throw new IOException("HTTP error code: " + response.code + " - " + response.body);
+    }
+
+    /**
+     * Status code and body of a POST; only transport failures throw
+     */
+    private static Response post(String urlString, WebhookPayload payload) throws IOException, JSONException {
         URL url = new URL(urlString);
-        HttpURLConnection connection = (HttpURLConnection) url.openConnection();
+        HttpURLConnection connection;
+        try {
+            connection = HttpTransport.open(url, false);
+        } catch (GeneralSecurityException e) {
+            throw new IOException("SSL setup failed: " + e.getMessage(), e);
+        }
 
+        boolean reusable = false;
         try {
             // Configure connection
             connection.setRequestMethod("POST");
             connection.setRequestProperty("Content-Type", "application/json");
             connection.setRequestProperty("User-Agent", "AndroidNomadGateway/1.0");
+            if (payload.eventId != null) {
+                connection.setRequestProperty(EventId.HEADER, payload.eventId);
+            }
             connection.setConnectTimeout(TIMEOUT_MS);
             connection.setReadTimeout(TIMEOUT_MS);
             connection.setDoOutput(true);
 
-            // Set up SSL if needed
-            if (connection instanceof HttpsURLConnection) {
-                HttpsURLConnection httpsConnection = (HttpsURLConnection) connection;
-                // Use custom SSL factory if available
-                if (CustomSSLSocketFactory.getInstance(context) != null) {
-                    httpsConnection.setSSLSocketFactory(CustomSSLSocketFactory.getInstance(context));
-                }
-            }
-
             // Send the payload
-            String jsonPayload = payload.toJson().toString();
+            String jsonPayload = payload.toJsonString();
             Log.d(TAG, "Sending webhook to " + urlString + ": " + jsonPayload);
 
             try (OutputStream os = connection.getOutputStream()) {
@@ -90,27 +153,22 @@ public class WebhookSender {
             int responseCode = connection.getResponseCode();
             Log.d(TAG, "Webhook response code: " + responseCode);
 
-            StringBuilder response = new StringBuilder();
-            try (BufferedReader br = new BufferedReader(
-                    new InputStreamReader(
-                            responseCode >= 200 && responseCode < 300
-                                    ? connection.getInputStream()
-                                    : connection.getErrorStream(),
-                            StandardCharsets.UTF_8))) {
-                String responseLine;
-                while ((responseLine = br.readLine()) != null) {
-                    response.append(responseLine.trim());
-                }
+            // The status decides the outcome; a missing or broken body does not change it
+            String body = "";
+            try {
+                body = HttpTransport.readBody(connection, MAX_RESPONSE_CHARS);
+                reusable = true;
+            } catch (IOException e) {
+                Log.w(TAG, "Could not read webhook response from " + urlString + ": " + e);
             }
+            return new Response(responseCode, body);
 
-            if (responseCode >= 200 && responseCode < 300) {
-                return response.toString();
+        } finally {
+            if (reusable) {
+                HttpTransport.release(connection);
             } else {
-                throw new IOException("HTTP error code: " + responseCode + " - " + response.toString());
+                HttpTransport.discard(connection);
             }
-
-        } finally {
-            connection.disconnect();
         }
     }
 
@@ -127,6 +185,7 @@ public class WebhookSender {
     public static WebhookPayload createAppStartPayload(Context context, boolean isManualStart) {
         WebhookPayload payload = new WebhookPayload();
         payload.event = isManualStart ? "app_manual_start" : "app_auto_start";
+        payload.eventId = UUID.randomUUID().toString();
         payload.timestamp = System.currentTimeMillis();
         payload.deviceId = android.os.Build.MODEL;
         payload.message = isManualStart
@@ -157,6 +216,7 @@ public class WebhookSender {
     public static WebhookPayload createSimStatusPayload(Context context, String simStatus, String operator) {
         WebhookPayload payload = new WebhookPayload();
         payload.event = "sim_status_changed";
+        payload.eventId = UUID.randomUUID().toString();
         payload.timestamp = System.currentTimeMillis();
         payload.deviceId = android.os.Build.MODEL;
         payload.message = "SIM status changed to: " + simStatus;
@@ -184,6 +244,7 @@ public class WebhookSender {
     public static WebhookPayload createEnhancedPayload(Context context, String event, String message) {
         WebhookPayload payload = new WebhookPayload();
         payload.event = event;
+        payload.eventId = UUID.randomUUID().toString();
         payload.timestamp = System.currentTimeMillis();
         payload.deviceId = android.os.Build.MODEL;
         payload.message = message;
@@ -203,44 +264,21 @@ public class WebhookSender {
      * Add enhanced device information based on user preferences
      */
     private static void addEnhancedDeviceInfo(Context context, WebhookPayload payload) throws JSONException {
-        JSONObject deviceInfo = DeviceInfoCollector.collectDeviceInfo(context);
-
-        // Filter device info based on user preferences
-        JSONObject filteredDeviceInfo = new JSONObject();
-
-        if (AppWebhooksActivity.isDeviceInfoEnabled(context)) {
-            // Add basic device information
-            if (deviceInfo.has("device_model"))
-                filteredDeviceInfo.put("device_model", deviceInfo.get("device_model"));
-            if (deviceInfo.has("device_manufacturer"))
-                filteredDeviceInfo.put("device_manufacturer", deviceInfo.get("device_manufacturer"));
-            if (deviceInfo.has("device_brand"))
-                filteredDeviceInfo.put("device_brand", deviceInfo.get("device_brand"));
-            if (deviceInfo.has("device_product"))
-                filteredDeviceInfo.put("device_product", deviceInfo.get("device_product"));
-            if (deviceInfo.has("android_version"))
-                filteredDeviceInfo.put("android_version", deviceInfo.get("android_version"));
-            if (deviceInfo.has("android_sdk"))
-                filteredDeviceInfo.put("android_sdk", deviceInfo.get("android_sdk"));
-            if (deviceInfo.has("device_name"))
-                filteredDeviceInfo.put("device_name", deviceInfo.get("device_name"));
-        }
-
-        if (AppWebhooksActivity.isSimInfoEnabled(context) && deviceInfo.has("sim_info")) {
-            filteredDeviceInfo.put("sim_info", deviceInfo.get("sim_info"));
-        }
-
-        if (AppWebhooksActivity.isNetworkInfoEnabled(context) && deviceInfo.has("network_info")) {
-            filteredDeviceInfo.put("network_info", deviceInfo.get("network_info"));
-        }
-
-        if (AppWebhooksActivity.isAppConfigEnabled(context) && deviceInfo.has("app_config")) {
-            filteredDeviceInfo.put("app_config", deviceInfo.get("app_config"));
-        }
+        // Only the sections enabled in preferences, from the device info cache
+        JSONObject filteredDeviceInfo = DeviceInfoCollector.collectDeviceInfo(context,
+                AppWebhooksActivity.isDeviceInfoEnabled(context),
+                AppWebhooksActivity.isSimInfoEnabled(context),
+                AppWebhooksActivity.isNetworkInfoEnabled(context),
+                AppWebhooksActivity.isAppConfigEnabled(context));
 
         // Only add device_info if there's something to include
         if (filteredDeviceInfo.length() > 0) {
             payload.addData("device_info", filteredDeviceInfo);
         }
+
+        // Pipeline latencies travel with the app configuration section
+        if (AppWebhooksActivity.isAppConfigEnabled(context)) {
+            payload.addData("metrics", GatewayMetrics.snapshot().toJson());
+        }
     }
 }
\ No newline at end of file
@@ -0,0 +1,180 @@
+package tech.wdg.incomingactivitygateway.benchmark;
+
+import android.content.Context;
+import android.content.SharedPreferences;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+import tech.wdg.incomingactivitygateway.R;
+
+/**
+ * In-memory Context with SharedPreferences semantics close enough for the
+ * hot path: getAll() returns a copy and listeners fire on commit.
+ */
+public class BenchmarkContext extends Context {
+
+    private final Map<String, MemoryPreferences> preferences = new ConcurrentHashMap<>();
+
+    @Override
+    public Context getApplicationContext() {
+        return this;
+    }
+
+    @Override
+    public String getPackageName() {
+        return "tech.wdg.incomingactivitygateway";
+    }
+
+    @Override
+    public String getString(int resId) {
+        if (resId == R.string.asterisk) {
+            return "*";
+        }
+        if (resId == R.string.key_phones_preference) {
+            return "phones";
+        }
+        throw new IllegalArgumentException("Unknown string resource " + resId);
+    }
+
+    @Override
+    public SharedPreferences getSharedPreferences(String name, int mode) {
+        return preferences.computeIfAbsent(name, key -> new MemoryPreferences());
+    }
+
+    private static class MemoryPreferences implements SharedPreferences {
+        private final Map<String, Object> values = new ConcurrentHashMap<>();
+        private final CopyOnWriteArrayList<OnSharedPreferenceChangeListener> listeners =
+                new CopyOnWriteArrayList<>();
+
+        @Override
+        public Map<String, ?> getAll() {
+            return new HashMap<>(values);
+        }
+
+        @Override
+        public String getString(String key, String defValue) {
+            Object value = values.get(key);
+            return value instanceof String ? (String) value : defValue;
+        }
+
+        @Override
+        public int getInt(String key, int defValue) {
+            Object value = values.get(key);
+            return value instanceof Integer ? (Integer) value : defValue;
+        }
+
+        @Override
+        public long getLong(String key, long defValue) {
+            Object value = values.get(key);
+            return value instanceof Long ? (Long) value : defValue;
+        }
+
+        @Override
+        public boolean getBoolean(String key, boolean defValue) {
+            Object value = values.get(key);
+            return value instanceof Boolean ? (Boolean) value : defValue;
+        }
+
+        @Override
+        public boolean contains(String key) {
+            return values.containsKey(key);
+        }
+
+        @Override
+        public Editor edit() {
+            return new MemoryEditor(this);
+        }
+
+        @Override
+        public void registerOnSharedPreferenceChangeListener(OnSharedPreferenceChangeListener listener) {
+            listeners.addIfAbsent(listener);
+        }
+
+        @Override
+        public void unregisterOnSharedPreferenceChangeListener(OnSharedPreferenceChangeListener listener) {
+            listeners.remove(listener);
+        }
+    }
+
+    private static class MemoryEditor implements SharedPreferences.Editor {
+        private final MemoryPreferences target;
+        private final Map<String, Object> changes = new HashMap<>();
+        private boolean clear;
+
+        MemoryEditor(MemoryPreferences target) {
+            this.target = target;
+        }
+
+        @Override
+        public SharedPreferences.Editor putString(String key, String value) {
+            changes.put(key, value);
+            return this;
+        }
+
+        @Override
+        public SharedPreferences.Editor putStringSet(String key, Set<String> values) {
+            changes.put(key, values);
+            return this;
+        }
+
+        @Override
+        public SharedPreferences.Editor putInt(String key, int value) {
+            changes.put(key, value);
+            return this;
+        }
+
+        @Override
+        public SharedPreferences.Editor putLong(String key, long value) {
+            changes.put(key, value);
+            return this;
+        }
+
+        @Override
+        public SharedPreferences.Editor putBoolean(String key, boolean value) {
+            changes.put(key, value);
+            return this;
+        }
+
+        @Override
+        public SharedPreferences.Editor remove(String key) {
+            changes.put(key, this);
+            return this;
+        }
+
+        @Override
+        public SharedPreferences.Editor clear() {
+            clear = true;
+            return this;
+        }
+
+        @Override
+        public boolean commit() {
+            if (clear) {
+                target.values.clear();
+            }
+            for (Map.Entry<String, Object> change : changes.entrySet()) {
+                // The editor itself marks a removal
+                if (change.getValue() == this || change.getValue() == null) {
+                    target.values.remove(change.getKey());
+                } else {
+                    target.values.put(change.getKey(), change.getValue());
+                }
+            }
+            for (SharedPreferences.OnSharedPreferenceChangeListener listener : target.listeners) {
+                for (String key : changes.keySet()) {
+                    listener.onSharedPreferenceChanged(target, key);
+                }
+            }
+            return true;
+        }
+
+        @Override
+        public void apply() {
+            commit();
+        }
+    }
+}
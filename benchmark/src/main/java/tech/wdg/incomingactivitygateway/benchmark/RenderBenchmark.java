@@ -0,0 +1,83 @@
+package tech.wdg.incomingactivitygateway.benchmark;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import tech.wdg.incomingactivitygateway.ForwardingConfig;
+import tech.wdg.incomingactivitygateway.WebhookPayload;
+
+/**
+ * Rendering one SMS payload: chained String.replace as before, the
+ * compiled template, the enhanced payload and WebhookPayload serialization.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class RenderBenchmark {
+
+    private static final long SENT_STAMP = 1_700_000_000_000L;
+
+    private ForwardingConfig rule;
+    private ForwardingConfig enhancedRule;
+    private WebhookPayload payload;
+
+    @Setup
+    public void setUp() {
+        BenchmarkContext context = RuleFixture.install(10);
+        rule = RuleFixture.firstSmsRule(ForwardingConfig.getSnapshot(context).getConfigs());
+
+        enhancedRule = RuleFixture.firstSmsRule(ForwardingConfig.getAll(context));
+        enhancedRule.enhancedDataEnabled = true;
+        enhancedRule.includeDeviceInfo = true;
+        enhancedRule.includeSimInfo = true;
+        enhancedRule.includeNetworkInfo = true;
+
+        payload = new WebhookPayload();
+        payload.event = "sms_received";
+        payload.timestamp = SENT_STAMP;
+        payload.deviceId = "Pixel 8";
+        payload.message = "SMS received from " + RuleFixture.MATCHING_SENDER;
+        payload.addData("from", RuleFixture.MATCHING_SENDER);
+        payload.addData("text", RuleFixture.MESSAGE);
+        payload.addData("sim", "SIM 1");
+        payload.addData("sentStamp", SENT_STAMP);
+        payload.addData("receivedStamp", SENT_STAMP + 250);
+    }
+
+    @Benchmark
+    public String chainedReplace() {
+        String template = RuleFixture.TEMPLATE;
+        template = template.replace("%from%", RuleFixture.MATCHING_SENDER);
+        template = template.replace("%text%", RuleFixture.MESSAGE);
+        template = template.replace("%sim%", "SIM 1");
+        template = template.replace("%sentStamp%", String.valueOf(SENT_STAMP));
+        template = template.replace("%receivedStamp%", String.valueOf(System.currentTimeMillis()));
+        return template;
+    }
+
+    @Benchmark
+    public String prepareMessage() {
+        return rule.prepareMessage(RuleFixture.MATCHING_SENDER, RuleFixture.MESSAGE, "SIM 1", SENT_STAMP,
+                RuleFixture.EVENT_ID);
+    }
+
+    @Benchmark
+    public String prepareEnhancedMessage() {
+        return enhancedRule.prepareEnhancedMessage(RuleFixture.MATCHING_SENDER, RuleFixture.MESSAGE, "SIM 1",
+                SENT_STAMP, RuleFixture.EVENT_ID);
+    }
+
+    @Benchmark
+    public String payloadToJson() {
+        return payload.toJsonString();
+    }
+}
@@ -0,0 +1,114 @@
+package tech.wdg.incomingactivitygateway.benchmark;
+
+import com.sun.net.httpserver.HttpServer;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.util.Collections;
+import java.util.concurrent.Executors;
+
+import okhttp3.Protocol;
+import okhttp3.mockwebserver.Dispatcher;
+import okhttp3.mockwebserver.MockResponse;
+import okhttp3.mockwebserver.MockWebServer;
+import okhttp3.mockwebserver.RecordedRequest;
+
+import tech.wdg.incomingactivitygateway.ForwardingConfig;
+import tech.wdg.incomingactivitygateway.Request;
+
+/**
+ * One webhook delivery through Request and the shared transport against a
+ * loopback HTTP server, so connection reuse and body handling show up
+ * without network noise. The HTTP/2 transport is measured against an h2c
+ * (prior knowledge) stand-in server.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class RequestBenchmark {
+
+    private static final byte[] RESPONSE = "{\"ok\":true}".getBytes();
+
+    private HttpServer server;
+    private MockWebServer h2cServer;
+    private String url;
+    private String h2cUrl;
+    private String payload;
+    private String headers;
+
+    @Setup
+    public void setUp() throws IOException {
+        server = HttpServer.create(new InetSocketAddress(InetAddress.getLoopbackAddress(), 0), 0);
+        server.createContext("/hook", exchange -> {
+            try (InputStream body = exchange.getRequestBody()) {
+                body.readAllBytes();
+            }
+            exchange.getResponseHeaders().add("Content-Type", "application/json");
+            exchange.sendResponseHeaders(200, RESPONSE.length);
+            try (OutputStream out = exchange.getResponseBody()) {
+                out.write(RESPONSE);
+            }
+        });
+        server.setExecutor(Executors.newFixedThreadPool(2));
+        server.start();
+
+        url = "http://127.0.0.1:" + server.getAddress().getPort() + "/hook";
+
+        h2cServer = new MockWebServer();
+        h2cServer.setProtocols(Collections.singletonList(Protocol.H2_PRIOR_KNOWLEDGE));
+        h2cServer.setDispatcher(new Dispatcher() {
+            @Override
+            public MockResponse dispatch(RecordedRequest request) {
+                return new MockResponse()
+                        .setHeader("Content-Type", "application/json")
+                        .setBody(new String(RESPONSE));
+            }
+        });
+        h2cServer.start(InetAddress.getLoopbackAddress(), 0);
+        h2cUrl = h2cServer.url("/hook").toString();
+        headers = ForwardingConfig.getDefaultJsonHeaders();
+
+        BenchmarkContext context = RuleFixture.install(10);
+        payload = RuleFixture.firstSmsRule(ForwardingConfig.getSnapshot(context).getConfigs())
+                .prepareMessage(RuleFixture.MATCHING_SENDER, RuleFixture.MESSAGE, "SIM 1", 0,
+                        RuleFixture.EVENT_ID);
+    }
+
+    @TearDown
+    public void tearDown() throws IOException {
+        server.stop(0);
+        h2cServer.shutdown();
+    }
+
+    @Benchmark
+    public String execute() {
+        Request request = new Request(url, payload);
+        request.setJsonHeaders(headers);
+        request.setUseChunkedMode(false);
+        return request.execute();
+    }
+
+    @Benchmark
+    public String executeHttp2() {
+        Request request = new Request(h2cUrl, payload);
+        request.setJsonHeaders(headers);
+        request.setTransportMode(ForwardingConfig.TransportMode.HTTP2);
+        return request.execute();
+    }
+}
@@ -0,0 +1,62 @@
+package tech.wdg.incomingactivitygateway.benchmark;
+
+import java.util.List;
+
+import tech.wdg.incomingactivitygateway.ForwardingConfig;
+
+/**
+ * Stored forwarding rules shaped like a real install: numbered SMS rules,
+ * a few call and notification rules and one wildcard.
+ */
+final class RuleFixture {
+
+    static final String TEMPLATE = ForwardingConfig.getDefaultJsonTemplate();
+    static final String MATCHING_SENDER = "+1 (555) 000-0007";
+    static final String MESSAGE = "Your verification code is 482913. It expires in 10 minutes. "
+            + "Do not share it with anyone, \"support\" will never ask for it.";
+    static final String EVENT_ID = "6f1c2a9e-3b4d-3e5f-8a7b-0c1d2e3f4a5b";
+
+    private RuleFixture() {
+    }
+
+    /**
+     * Save ruleCount rules into the context's rules preferences
+     */
+    static BenchmarkContext install(int ruleCount) {
+        BenchmarkContext context = new BenchmarkContext();
+        ForwardingConfig.invalidateCache();
+
+        for (int i = 0; i < ruleCount; i++) {
+            ForwardingConfig config = new ForwardingConfig(context);
+            if (i == 0) {
+                config.setSender("*");
+                config.activityType = ForwardingConfig.ActivityType.PUSH;
+            } else if (i % 10 == 9) {
+                config.setSender("com.example.app" + i);
+                config.activityType = ForwardingConfig.ActivityType.PUSH;
+            } else if (i % 10 == 8) {
+                config.setSender(String.format("+1555100%04d", i));
+                config.activityType = ForwardingConfig.ActivityType.CALL;
+            } else {
+                config.setSender(String.format("+1555000%04d, 555200%04d", i, i));
+                config.activityType = ForwardingConfig.ActivityType.SMS;
+            }
+            config.setUrl("https://example.com/hooks/" + i);
+            config.setTemplate(TEMPLATE);
+            config.setHeaders(ForwardingConfig.getDefaultJsonHeaders());
+            config.setRetriesNumber(ForwardingConfig.getDefaultRetriesNumber());
+            config.save();
+        }
+
+        return context;
+    }
+
+    static ForwardingConfig firstSmsRule(List<ForwardingConfig> configs) {
+        for (ForwardingConfig config : configs) {
+            if (config.getActivityType() == ForwardingConfig.ActivityType.SMS) {
+                return config;
+            }
+        }
+        throw new IllegalStateException("Fixture has no SMS rule");
+    }
+}
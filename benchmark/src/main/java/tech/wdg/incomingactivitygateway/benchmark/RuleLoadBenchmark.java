@@ -0,0 +1,50 @@
+package tech.wdg.incomingactivitygateway.benchmark;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.List;
+
+import tech.wdg.incomingactivitygateway.ForwardingConfig;
+import tech.wdg.incomingactivitygateway.RuleSnapshot;
+
+/**
+ * Cost of getting at the rules for one event: parsing every stored rule
+ * versus reading the cached snapshot.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class RuleLoadBenchmark {
+
+    @Param({"10", "100"})
+    public int ruleCount;
+
+    private BenchmarkContext context;
+
+    @Setup
+    public void setUp() {
+        context = RuleFixture.install(ruleCount);
+        ForwardingConfig.getSnapshot(context);
+    }
+
+    @Benchmark
+    public List<ForwardingConfig> getAll() {
+        return ForwardingConfig.getAll(context);
+    }
+
+    @Benchmark
+    public RuleSnapshot snapshot() {
+        return ForwardingConfig.getSnapshot(context);
+    }
+}
@@ -0,0 +1,87 @@
+package tech.wdg.incomingactivitygateway.benchmark;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import tech.wdg.incomingactivitygateway.ForwardingConfig;
+import tech.wdg.incomingactivitygateway.RuleIndex;
+
+/**
+ * Finding the rules for an incoming SMS: the linear scan with regex number
+ * cleaning the receivers used to do, versus the compiled rule index.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class RuleMatchBenchmark {
+
+    @Param({"10", "100"})
+    public int ruleCount;
+
+    private List<ForwardingConfig> configs;
+    private RuleIndex index;
+    private final List<ForwardingConfig> matches = new ArrayList<>();
+
+    @Setup
+    public void setUp() {
+        BenchmarkContext context = RuleFixture.install(ruleCount);
+        configs = ForwardingConfig.getAll(context);
+        index = ForwardingConfig.getRuleIndex(context);
+    }
+
+    @Benchmark
+    public int linearScan() {
+        int matched = 0;
+        for (ForwardingConfig config : configs) {
+            if (!config.isOn || config.getActivityType() != ForwardingConfig.ActivityType.SMS) {
+                continue;
+            }
+            String configSender = config.getSender();
+            if (configSender.equals("*") || isPhoneNumberMatch(RuleFixture.MATCHING_SENDER, configSender)) {
+                matched++;
+            }
+        }
+        return matched;
+    }
+
+    @Benchmark
+    public int ruleIndex() {
+        matches.clear();
+        index.match(ForwardingConfig.ActivityType.SMS, RuleFixture.MATCHING_SENDER, matches);
+        return matches.size();
+    }
+
+    /**
+     * The matcher the receivers used before the rule index
+     */
+    private static boolean isPhoneNumberMatch(String incomingNumber, String configNumbers) {
+        if (configNumbers == null || configNumbers.isEmpty() || incomingNumber == null || incomingNumber.isEmpty()) {
+            return false;
+        }
+
+        String cleanIncoming = incomingNumber.replaceAll("[^0-9]", "");
+
+        for (String phoneNumber : configNumbers.split(",")) {
+            String cleanConfig = phoneNumber.trim().replaceAll("[^0-9]", "");
+            if (cleanIncoming.equals(cleanConfig)
+                    || cleanIncoming.endsWith(cleanConfig)
+                    || cleanConfig.endsWith(cleanIncoming)) {
+                return true;
+            }
+        }
+        return false;
+    }
+}
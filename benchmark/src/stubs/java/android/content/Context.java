@@ -0,0 +1,16 @@
+package android.content;
+
+/**
+ * Benchmark stub of the subset of the Android API the app uses
+ */
+public abstract class Context {
+    public static final int MODE_PRIVATE = 0;
+
+    public abstract Context getApplicationContext();
+
+    public abstract String getPackageName();
+
+    public abstract String getString(int resId);
+
+    public abstract SharedPreferences getSharedPreferences(String name, int mode);
+}
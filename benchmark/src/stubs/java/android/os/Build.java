@@ -0,0 +1,16 @@
+package android.os;
+
+/**
+ * Benchmark stub with fixed device values
+ */
+public class Build {
+    public static final String MODEL = "Pixel 8";
+    public static final String MANUFACTURER = "Google";
+    public static final String BRAND = "google";
+    public static final String PRODUCT = "shiba";
+
+    public static class VERSION {
+        public static final String RELEASE = "15";
+        public static final int SDK_INT = 35;
+    }
+}
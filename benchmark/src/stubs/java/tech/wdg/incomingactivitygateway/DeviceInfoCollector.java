@@ -0,0 +1,80 @@
+package tech.wdg.incomingactivitygateway;
+
+import android.content.Context;
+
+import org.json.JSONArray;
+import org.json.JSONObject;
+
+/**
+ * Benchmark stub that serves the same shape as the app's collector with a
+ * warm DeviceInfoCache: prebuilt sections are shared, only the top-level
+ * object is assembled per call.
+ */
+public class DeviceInfoCollector {
+
+    private static final String[] DEVICE_FIELDS = {
+            "device_model", "device_manufacturer", "device_brand", "device_product",
+            "android_version", "android_sdk", "device_name"
+    };
+
+    private static final JSONObject DEVICE = new JSONObject()
+            .put("device_model", "Pixel 8")
+            .put("device_manufacturer", "Google")
+            .put("device_brand", "google")
+            .put("device_product", "shiba")
+            .put("android_version", "15")
+            .put("android_sdk", 35)
+            .put("device_name", "Gateway");
+
+    private static final JSONObject SIM_INFO = new JSONObject()
+            .put("sim_state", "READY")
+            .put("network_operator", "Operator")
+            .put("sim_operator", "Operator")
+            .put("network_country", "US")
+            .put("phone_type", "GSM")
+            .put("network_type", "LTE")
+            .put("sim_slots", new JSONArray().put(new JSONObject()
+                    .put("slot_index", 0)
+                    .put("subscription_id", 1)
+                    .put("display_name", "SIM 1")
+                    .put("carrier_name", "Operator")
+                    .put("country_iso", "us")));
+
+    private static final JSONObject NETWORK_INFO = new JSONObject()
+            .put("is_connected", true)
+            .put("connection_type", "WIFI")
+            .put("is_roaming", false)
+            .put("ip_addresses", new JSONObject().put("primary_ip", "192.168.1.20"));
+
+    private static final JSONObject APP_CONFIG = new JSONObject()
+            .put("version_name", "1.3.0")
+            .put("version_code", 12)
+            .put("package_name", "tech.wdg.incomingactivitygateway")
+            .put("forwarding_rules_count", 10);
+
+    public static JSONObject collectDeviceInfo(Context context) {
+        return collectDeviceInfo(context, true, true, true, true);
+    }
+
+    public static JSONObject collectDeviceInfo(Context context, boolean includeDeviceInfo,
+            boolean includeSimInfo, boolean includeNetworkInfo, boolean includeAppConfig) {
+        JSONObject deviceInfo = new JSONObject();
+
+        if (includeDeviceInfo) {
+            for (String field : DEVICE_FIELDS) {
+                deviceInfo.put(field, DEVICE.get(field));
+            }
+        }
+        if (includeSimInfo) {
+            deviceInfo.put("sim_info", SIM_INFO);
+        }
+        if (includeNetworkInfo) {
+            deviceInfo.put("network_info", NETWORK_INFO);
+        }
+        if (includeAppConfig) {
+            deviceInfo.put("app_config", APP_CONFIG);
+        }
+
+        return deviceInfo;
+    }
+}
@@ -0,0 +1,18 @@
+package tech.wdg.incomingactivitygateway;
+
+/**
+ * Benchmark stub of the resources referenced on the hot path
+ */
+public final class R {
+
+    private R() {
+    }
+
+    public static final class string {
+        public static final int asterisk = 1;
+        public static final int key_phones_preference = 2;
+
+        private string() {
+        }
+    }
+}